@@ -0,0 +1,190 @@
+package com.github.auties00.cobalt.benchmark;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic fixtures shared by the benchmarks.
+ * <p>
+ * Fixtures are generated from a fixed seed, so every run, on every machine, benchmarks the same data
+ * without needing a connection to WhatsApp.
+ */
+public final class BenchmarkFixtures {
+    private static final long SEED = 0x5EED_C0BA17L;
+    private static final String[] WORDS = ("hey hi ok yes no thanks see you tomorrow tonight later meeting call me when are we going to the office home "
+            + "did you get my message sorry I was busy lol haha sure sounds good let me check will send the file photo link address "
+            + "what time is it dinner lunch coffee train late traffic love you miss happy birthday congrats great work project deadline").split(" ");
+
+    private BenchmarkFixtures() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Returns a random generator initialized with a fixed seed
+     *
+     * @return a new random generator
+     */
+    public static SplittableRandom random() {
+        return new SplittableRandom(SEED);
+    }
+
+    /**
+     * Returns deterministic random bytes
+     *
+     * @param length the number of bytes
+     * @return a new array
+     */
+    public static byte[] randomBytes(int length) {
+        var result = new byte[length];
+        random().nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Returns a chat message made of 3 to 17 words drawn from a small vocabulary
+     *
+     * @param random the generator to draw the words from
+     * @return a non-null text
+     */
+    public static String text(SplittableRandom random) {
+        var words = random.nextInt(3, 18);
+        var result = new StringBuilder();
+        for (var i = 0; i < words; i++) {
+            if (i > 0) {
+                result.append(' ');
+            }
+            result.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns a message id in the format used by WhatsApp Web
+     *
+     * @param random the generator to draw the id from
+     * @return a non-null id
+     */
+    public static String messageId(SplittableRandom random) {
+        return "3EB0" + "%016X".formatted(random.nextLong());
+    }
+
+    /**
+     * Returns the jid of a user
+     *
+     * @param index the index of the user
+     * @return a non-null jid
+     */
+    public static Jid user(int index) {
+        return Jid.of(String.valueOf(393_000_000_000L + index), JidServer.user());
+    }
+
+    /**
+     * Returns the jid of a device of a user
+     *
+     * @param index the index of the user
+     * @param device the id of the device
+     * @return a non-null jid
+     */
+    public static Jid device(int index, int device) {
+        return Jid.of(String.valueOf(393_000_000_000L + index), JidServer.user(), device, 0);
+    }
+
+    /**
+     * Returns a message stanza fanned out to the given number of devices, like the ones sent to individual chats
+     *
+     * @param participants the number of devices
+     * @param ciphertextLength the length of the ciphertext of each device
+     * @return a non-null node
+     */
+    public static Node messageStanza(int participants, int ciphertextLength) {
+        var random = random();
+        var to = new ArrayList<Node>(participants);
+        for (var i = 0; i < participants; i++) {
+            var ciphertext = new byte[ciphertextLength];
+            random.nextBytes(ciphertext);
+            var enc = new NodeBuilder()
+                    .description("enc")
+                    .attribute("v", "2")
+                    .attribute("type", i == 0 ? "pkmsg" : "msg")
+                    .content(ciphertext)
+                    .build();
+            to.add(new NodeBuilder()
+                    .description("to")
+                    .attribute("jid", device(i / 4, i % 4))
+                    .content(enc)
+                    .build());
+        }
+        var participantsNode = new NodeBuilder()
+                .description("participants")
+                .content(to)
+                .build();
+        return new NodeBuilder()
+                .description("message")
+                .attribute("id", "3EB0" + Long.toHexString(random.nextLong()).toUpperCase())
+                .attribute("to", user(0))
+                .attribute("type", "text")
+                .content(participantsNode)
+                .build();
+    }
+
+    /**
+     * Returns a usync response listing the devices of the given number of users
+     *
+     * @param users the number of users
+     * @return a non-null node
+     */
+    public static Node usyncResponse(int users) {
+        var list = new ArrayList<Node>(users);
+        for (var i = 0; i < users; i++) {
+            var devices = new ArrayList<Node>(4);
+            for (var device = 0; device < 4; device++) {
+                devices.add(new NodeBuilder()
+                        .description("device")
+                        .attribute("id", device)
+                        .attribute("key-index", device == 0 ? 0 : device + 1, device != 0)
+                        .build());
+            }
+            var deviceList = new NodeBuilder()
+                    .description("device-list")
+                    .content(devices)
+                    .build();
+            var devicesNode = new NodeBuilder()
+                    .description("devices")
+                    .content(deviceList)
+                    .build();
+            var contact = new NodeBuilder()
+                    .description("contact")
+                    .attribute("type", "in")
+                    .content(user(i).toPhoneNumber().orElse("+" + i))
+                    .build();
+            list.add(new NodeBuilder()
+                    .description("user")
+                    .attribute("jid", user(i))
+                    .content(contact, devicesNode)
+                    .build());
+        }
+        var listNode = new NodeBuilder()
+                .description("list")
+                .content(list)
+                .build();
+        var usync = new NodeBuilder()
+                .description("usync")
+                .attribute("sid", "benchmark")
+                .attribute("index", 0)
+                .attribute("last", true)
+                .content(listNode)
+                .build();
+        return new NodeBuilder()
+                .description("iq")
+                .attribute("from", JidServer.user())
+                .attribute("id", "benchmark")
+                .attribute("type", "result")
+                .content(usync)
+                .build();
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.auties00.cobalt.benchmark;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compares the results of a benchmark run with a baseline.
+ * <p>
+ * Both files are in the JSON format written by JMH. A benchmark regressed if its score got worse by more than the threshold,
+ * and by more than the sum of the errors of the two scores, so that noisy benchmarks don't report false regressions.
+ */
+public final class BenchmarkReport {
+    private final SequencedCollection<Entry> entries;
+    private final double threshold;
+
+    private BenchmarkReport(SequencedCollection<Entry> entries, double threshold) {
+        this.entries = entries;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compares two result files
+     *
+     * @param baseline the results of the baseline
+     * @param current the results of the current run
+     * @param threshold the percentage above which a change is reported
+     * @return a non-null report
+     * @throws IOException if a file cannot be read
+     */
+    public static BenchmarkReport compare(Path baseline, Path current, double threshold) throws IOException {
+        var baselineResults = parse(baseline);
+        var currentResults = parse(current);
+        var entries = new ArrayList<Entry>();
+        for (var result : currentResults.values()) {
+            entries.add(new Entry(result.id(), result.mode(), result.unit(), baselineResults.get(result.id()), result, threshold));
+        }
+        return new BenchmarkReport(Collections.unmodifiableList(entries), threshold);
+    }
+
+    private static Map<String, Result> parse(Path path) throws IOException {
+        var results = new LinkedHashMap<String, Result>();
+        var array = JSON.parseArray(Files.readString(path));
+        for (var i = 0; i < array.size(); i++) {
+            var object = array.getJSONObject(i);
+            var id = object.getString("benchmark") + formatParams(object.getJSONObject("params"));
+            var metric = object.getJSONObject("primaryMetric");
+            var score = metric.getDoubleValue("score");
+            // JMH writes NaN as a string when the error can't be computed, for example with a single fork
+            var error = metric.get("scoreError") instanceof Number number ? number.doubleValue() : 0;
+            results.put(id, new Result(id, object.getString("mode"), metric.getString("scoreUnit"), score, Double.isNaN(error) ? 0 : error));
+        }
+        return results;
+    }
+
+    private static String formatParams(JSONObject params) {
+        if (params == null || params.isEmpty()) {
+            return "";
+        }
+
+        var joiner = new StringJoiner(",", "[", "]");
+        for (var entry : new TreeMap<>(params).entrySet()) {
+            joiner.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Returns whether any benchmark regressed
+     *
+     * @return a boolean
+     */
+    public boolean hasRegressions() {
+        return entries.stream()
+                .anyMatch(entry -> entry.status() == Status.REGRESSED);
+    }
+
+    /**
+     * Formats this report as a Markdown table
+     *
+     * @return a non-null string
+     */
+    public String toMarkdown() {
+        var builder = new StringBuilder();
+        builder.append("| Benchmark | Mode | Baseline | Current | Change | Status |\n");
+        builder.append("|---|---|---|---|---|---|\n");
+        for (var entry : entries) {
+            builder.append("| ")
+                    .append(entry.id())
+                    .append(" | ")
+                    .append(entry.mode())
+                    .append(" | ")
+                    .append(entry.baseline() == null ? "-" : formatScore(entry.baseline(), entry.unit()))
+                    .append(" | ")
+                    .append(formatScore(entry.current(), entry.unit()))
+                    .append(" | ")
+                    .append(entry.baseline() == null ? "-" : "%+.2f%%".formatted(entry.change()))
+                    .append(" | ")
+                    .append(entry.status())
+                    .append(" |\n");
+        }
+        builder.append("\nChanges within ±%.1f%%, or within the error of the scores, are reported as UNCHANGED.\n".formatted(threshold));
+        return builder.toString();
+    }
+
+    private static String formatScore(Result result, String unit) {
+        return "%.3f ± %.3f %s".formatted(result.score(), result.error(), unit);
+    }
+
+    private record Result(String id, String mode, String unit, double score, double error) {
+
+    }
+
+    private record Entry(String id, String mode, String unit, Result baseline, Result current, double threshold) {
+        // Throughput is better when higher, every other mode measures time and is better when lower
+        private double change() {
+            var change = (current.score() - baseline.score()) / baseline.score() * 100;
+            return mode.equals("thrpt") ? change : -change;
+        }
+
+        private Status status() {
+            if (baseline == null || baseline.score() == 0) {
+                return Status.NEW;
+            }
+
+            var change = change();
+            var difference = Math.abs(current.score() - baseline.score());
+            if (Math.abs(change) <= threshold || difference <= current.error() + baseline.error()) {
+                return Status.UNCHANGED;
+            }
+
+            return change < 0 ? Status.REGRESSED : Status.IMPROVED;
+        }
+    }
+
+    private enum Status {
+        NEW,
+        UNCHANGED,
+        IMPROVED,
+        REGRESSED
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.auties00.cobalt.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Runs the benchmarks and compares them with the baseline.
+ * <p>
+ * The runner is configured through system properties, which are set by the {@code benchmark} Maven profile:
+ * <ul>
+ *     <li>{@code benchmark.include}: a regex that selects the benchmarks to run</li>
+ *     <li>{@code benchmark.output}: the directory where the results and the report are written</li>
+ *     <li>{@code benchmark.baseline}: the results to compare with, if the file exists, by default {@code ~/.cobalt/benchmark/baseline.json}</li>
+ *     <li>{@code benchmark.threshold}: the percentage above which a change is reported</li>
+ *     <li>{@code benchmark.record}: whether the results should replace the baseline</li>
+ *     <li>{@code benchmark.failOnRegression}: whether the runner should exit with an error if a benchmark regressed</li>
+ * </ul>
+ * Baselines depend on the hardware, so record one on the machine that will run the comparison:
+ * <pre>{@code
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark.record=true
+ * mvn -P benchmark test-compile exec:exec
+ * }</pre>
+ */
+public final class BenchmarkRunner {
+    private static final Path DEFAULT_BASELINE = Path.of(System.getProperty("user.home"), ".cobalt", "benchmark", "baseline.json");
+
+    private BenchmarkRunner() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        var include = System.getProperty("benchmark.include", ".*");
+        var output = Path.of(System.getProperty("benchmark.output", "target/jmh"));
+        var baseline = Path.of(System.getProperty("benchmark.baseline", DEFAULT_BASELINE.toString()));
+        var threshold = Double.parseDouble(System.getProperty("benchmark.threshold", "5"));
+        var record = Boolean.getBoolean("benchmark.record");
+        var failOnRegression = Boolean.getBoolean("benchmark.failOnRegression");
+
+        Files.createDirectories(output);
+        var results = output.resolve("results.json");
+        var options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.toString())
+                .build();
+        new Runner(options).run();
+
+        if (record) {
+            Files.createDirectories(baseline.toAbsolutePath().getParent());
+            Files.copy(results, baseline, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Recorded baseline at " + baseline);
+            return;
+        }
+
+        if (Files.notExists(baseline)) {
+            System.out.println("No baseline at " + baseline + ", run with -Dbenchmark.record=true to record one");
+            return;
+        }
+
+        var report = BenchmarkReport.compare(baseline, results, threshold);
+        var markdown = report.toMarkdown();
+        Files.writeString(output.resolve("report.md"), markdown);
+        System.out.println(markdown);
+        if (failOnRegression && report.hasRegressions()) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.auties00.cobalt.benchmark;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+
+import java.util.UUID;
+
+/**
+ * Creates the stores used by the benchmarks.
+ * Stores are never serialized unless a benchmark does so explicitly.
+ */
+public final class BenchmarkStores {
+    private BenchmarkStores() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Creates an empty web store
+     *
+     * @param index the index of the store, used to derive a stable id
+     * @return a non-null store
+     */
+    public static WhatsAppStore newStore(int index) {
+        var store = new WhatsAppStoreBuilder()
+                .uuid(new UUID(0, index))
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .registered(true)
+                .build();
+        store.setSerializer(WhatsappStoreSerializer.discarding());
+        store.setSerializable(false);
+        return store;
+    }
+
+    /**
+     * Creates a web store with the given number of chats
+     *
+     * @param index the index of the store, used to derive a stable id
+     * @param chats the number of chats
+     * @return a non-null store
+     */
+    public static WhatsAppStore newStore(int index, int chats) {
+        var store = newStore(index);
+        store.setJid(BenchmarkFixtures.user(0));
+        for (var i = 0; i < chats; i++) {
+            store.addNewChat(BenchmarkFixtures.user(i + 1));
+        }
+        return store;
+    }
+
+    /**
+     * Creates a web store with the given number of chats, and text messages spread evenly across them
+     *
+     * @param index the index of the store, used to derive a stable id
+     * @param chats the number of chats
+     * @param messages the number of messages of the store
+     * @return a non-null store
+     */
+    public static WhatsAppStore newStore(int index, int chats, int messages) {
+        var store = newStore(index);
+        store.setJid(BenchmarkFixtures.user(0));
+        var random = BenchmarkFixtures.random();
+        var messagesPerChat = chats == 0 ? 0 : messages / chats;
+        for (var c = 0; c < chats; c++) {
+            var chat = store.addNewChat(BenchmarkFixtures.user(c + 1));
+            for (var i = 0; i < messagesPerChat; i++) {
+                chat.addMessage(new ChatMessageInfoBuilder()
+                        .key(new ChatMessageKeyBuilder()
+                                .chatJid(chat.jid())
+                                .id(BenchmarkFixtures.messageId(random))
+                                .fromMe(random.nextBoolean())
+                                .build())
+                        .senderJid(chat.jid())
+                        .message(LazyMessageContainer.of(MessageContainer.of(BenchmarkFixtures.text(random))))
+                        .timestampSeconds(1_700_000_000L + i * 60L)
+                        .build());
+            }
+        }
+        return store;
+    }
+}
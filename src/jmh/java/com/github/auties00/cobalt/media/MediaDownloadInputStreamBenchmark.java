@@ -0,0 +1,52 @@
+package com.github.auties00.cobalt.media;
+
+import com.github.auties00.cobalt.benchmark.BenchmarkFixtures;
+import com.github.auties00.cobalt.model.media.MediaProvider;
+import com.github.auties00.cobalt.model.message.standard.ImageMessageBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the decryption and validation of downloaded media.
+ * <p>
+ * The encrypted media is produced by {@link MediaUploadInputStream} from deterministic random bytes,
+ * and is then streamed from memory, so the benchmark only measures decryption, MAC and hash validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class MediaDownloadInputStreamBenchmark {
+    @Param({"65536", "4194304"})
+    private int mediaLength;
+
+    private MediaProvider provider;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setup() throws Exception {
+        this.provider = new ImageMessageBuilder()
+                .build();
+        var plaintext = BenchmarkFixtures.randomBytes(mediaLength);
+        try (var uploadStream = MediaUploadInputStream.of(provider, new ByteArrayInputStream(plaintext))) {
+            this.ciphertext = uploadStream.readAllBytes();
+            provider.setMediaKey(uploadStream.fileKey().orElseThrow());
+            provider.setMediaSha256(uploadStream.fileSha256());
+            provider.setMediaEncryptedSha256(uploadStream.fileEncSha256().orElse(null));
+            provider.setMediaSize(uploadStream.fileLength());
+        }
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        try (var downloadStream = new MediaDownloadInputStream(new ByteArrayInputStream(ciphertext), ciphertext.length, provider)) {
+            return downloadStream.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+}
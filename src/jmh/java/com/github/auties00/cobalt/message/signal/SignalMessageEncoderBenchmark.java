@@ -0,0 +1,76 @@
+package com.github.auties00.cobalt.message.signal;
+
+import com.github.auties00.cobalt.benchmark.BenchmarkFixtures;
+import com.github.auties00.cobalt.benchmark.BenchmarkStores;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.libsignal.SignalSessionCipher;
+import com.github.auties00.libsignal.groups.SignalGroupCipher;
+import com.github.auties00.libsignal.state.SignalPreKeyBundleBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the Signal encryption of outgoing messages.
+ * <p>
+ * The session with the remote device is established from a pre key bundle of a local store,
+ * so no connection to WhatsApp is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class SignalMessageEncoderBenchmark {
+    @Param({"64", "4096"})
+    private int messageLength;
+
+    private SignalMessageEncoder encoder;
+    private Jid remoteDevice;
+    private Jid groupJid;
+    private Jid localDevice;
+    private MessageContainer message;
+
+    @Setup
+    public void setup() {
+        var localStore = BenchmarkStores.newStore(0);
+        var remoteStore = BenchmarkStores.newStore(1);
+        var sessionCipher = new SignalSessionCipher(localStore);
+        var groupCipher = new SignalGroupCipher(localStore);
+        this.encoder = new SignalMessageEncoder(sessionCipher, groupCipher);
+        this.localDevice = BenchmarkFixtures.device(0, 1);
+        this.remoteDevice = BenchmarkFixtures.device(1, 0);
+        this.groupJid = Jid.of("120363000000000000", JidServer.groupOrCommunity());
+
+        var signedKeyPair = remoteStore.signedKeyPair();
+        var bundle = new SignalPreKeyBundleBuilder()
+                .registrationId(remoteStore.registrationId())
+                .deviceId(remoteDevice.device())
+                .signedPreKeyId(signedKeyPair.id())
+                .signedPreKeyPublic(signedKeyPair.publicKey())
+                .signedPreKeySignature(signedKeyPair.signature())
+                .identityKey(remoteStore.identityKeyPair().publicKey())
+                .build();
+        sessionCipher.process(remoteDevice.toSignalAddress(), bundle);
+
+        var text = new StringBuilder(messageLength);
+        var random = BenchmarkFixtures.random();
+        while (text.length() < messageLength) {
+            text.append((char) ('a' + random.nextInt(26)));
+        }
+        this.message = MessageContainer.of(text.toString());
+    }
+
+    @Benchmark
+    public SignalMessageEncoder.Result encode() {
+        return encoder.encode(remoteDevice, message);
+    }
+
+    @Benchmark
+    public SignalMessageEncoder.Result encodeForGroup() {
+        return encoder.encodeForGroup(groupJid, localDevice, message);
+    }
+}
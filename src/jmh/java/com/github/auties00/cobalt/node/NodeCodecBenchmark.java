@@ -0,0 +1,81 @@
+package com.github.auties00.cobalt.node;
+
+import com.github.auties00.cobalt.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the encoding and decoding of the nodes exchanged with WhatsApp.
+ * <p>
+ * The fixtures are a message stanza fanned out to a number of devices, which is the largest node sent on a hot path,
+ * and a usync response listing the devices of a number of users, which is the largest node received on a hot path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class NodeCodecBenchmark {
+    @Param({"1", "16", "256"})
+    private int size;
+
+    private Node messageStanza;
+    private Node usyncResponse;
+    private byte[] encodedMessageStanza;
+    private byte[] encodedUsyncResponse;
+
+    @Setup
+    public void setup() {
+        this.messageStanza = BenchmarkFixtures.messageStanza(size, 256);
+        this.usyncResponse = BenchmarkFixtures.usyncResponse(size);
+        this.encodedMessageStanza = encode(messageStanza);
+        this.encodedUsyncResponse = encode(usyncResponse);
+    }
+
+    private static byte[] encode(Node node) {
+        var length = NodeEncoder.sizeOf(node);
+        var output = new byte[length];
+        NodeEncoder.encode(node, output, 0, length);
+        return output;
+    }
+
+    private static Node decode(byte[] input) throws IOException {
+        try (var decoder = new NodeDecoder(ByteBuffer.wrap(input))) {
+            return decoder.decode();
+        }
+    }
+
+    @Benchmark
+    public int sizeOfMessageStanza() {
+        return NodeEncoder.sizeOf(messageStanza);
+    }
+
+    @Benchmark
+    public byte[] encodeMessageStanza() {
+        return encode(messageStanza);
+    }
+
+    @Benchmark
+    public byte[] encodeUsyncResponse() {
+        return encode(usyncResponse);
+    }
+
+    @Benchmark
+    public Node decodeMessageStanza() throws IOException {
+        return decode(encodedMessageStanza);
+    }
+
+    @Benchmark
+    public void decodeUsyncResponse(Blackhole blackhole) throws IOException {
+        // Touch the children, as the decoder might defer work until they are accessed
+        var node = decode(encodedUsyncResponse);
+        node.streamChildren()
+                .forEach(blackhole::consume);
+        blackhole.consume(node);
+    }
+}
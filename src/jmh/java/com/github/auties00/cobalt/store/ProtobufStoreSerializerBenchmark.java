@@ -0,0 +1,87 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.benchmark.BenchmarkStores;
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the serialization and deserialization of stores with many chats.
+ * <p>
+ * Each serialization uses a new serializer, as serializers skip the chats that didn't change since the last run.
+ * Files are written to a temporary directory that is deleted when the benchmark ends.
+ * The size of the session files is printed when a trial starts, so the space saved by compression
+ * can be weighed against the time it costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class ProtobufStoreSerializerBenchmark {
+    @Param({"100", "10000"})
+    private int chats;
+
+    // Spread evenly across the chats
+    @Param({"0", "100000"})
+    private int messages;
+
+    @Param({"false", "true"})
+    private boolean compressed;
+
+    private Path directory;
+    private WhatsAppStore store;
+    private ProtobufStoreSerializer serializer;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        this.directory = Files.createTempDirectory("cobalt-benchmark");
+        this.store = BenchmarkStores.newStore(0, chats, messages);
+        new ProtobufStoreSerializer(directory, compressed).serialize(store);
+        var files = 0L;
+        var dictionary = 0L;
+        try (var walker = Files.walk(directory)) {
+            for (var path : walker.filter(Files::isRegularFile).toList()) {
+                if (path.getFileName().toString().equals("dictionary")) {
+                    dictionary += Files.size(path);
+                } else {
+                    files += Files.size(path);
+                }
+            }
+        }
+        System.out.printf("Session files: %,d bytes, dictionary: %,d bytes%n", files, dictionary);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupInvocation() {
+        this.serializer = new ProtobufStoreSerializer(directory, compressed);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (var walker = Files.walk(directory)) {
+            for (var path : walker.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void serialize() {
+        serializer.serialize(store);
+    }
+
+    @Benchmark
+    public WhatsAppStore deserialize() {
+        var result = serializer.startDeserialize(WhatsAppClientType.WEB, store.uuid())
+                .orElseThrow();
+        serializer.finishDeserialize(result);
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.github.auties00.cobalt.sync.crypto;
+
+import com.github.auties00.cobalt.benchmark.BenchmarkFixtures;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the LT hash that verifies the integrity of app state collections.
+ * <p>
+ * The fixture models an app state patch: a batch of value MACs added to, and removed from, the hash of a snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--enable-preview")
+public class MutationLTHashBenchmark {
+    private static final int VALUE_MAC_LENGTH = 32;
+
+    @Param({"1", "100", "1000"})
+    private int mutations;
+
+    private byte[] snapshotHash;
+    private List<byte[]> added;
+    private List<byte[]> removed;
+
+    @Setup
+    public void setup() {
+        var random = BenchmarkFixtures.random();
+        this.added = new ArrayList<>(mutations);
+        this.removed = new ArrayList<>(mutations);
+        for (var i = 0; i < mutations; i++) {
+            var addedMac = new byte[VALUE_MAC_LENGTH];
+            random.nextBytes(addedMac);
+            added.add(addedMac);
+            var removedMac = new byte[VALUE_MAC_LENGTH];
+            random.nextBytes(removedMac);
+            removed.add(removedMac);
+        }
+        this.snapshotHash = MutationLTHash.subtractThenAdd(MutationLTHash.EMPTY_HASH, removed, List.of());
+    }
+
+    @Benchmark
+    public byte[] add() {
+        return MutationLTHash.add(snapshotHash, added.getFirst());
+    }
+
+    @Benchmark
+    public byte[] subtractThenAdd() {
+        return MutationLTHash.subtractThenAdd(snapshotHash, added, removed);
+    }
+}
@@ -1,8 +1,20 @@
 package com.github.auties00.cobalt.client;
 
 import com.alibaba.fastjson2.JSON;
+import com.github.auties00.cobalt.contact.ContactDiscoveryResult;
+import com.github.auties00.cobalt.contact.ContactDiscoveryService;
+import com.github.auties00.cobalt.contact.ContactProfile;
+import com.github.auties00.cobalt.contact.ContactProfileService;
+import com.github.auties00.cobalt.contact.ContactQueryScheduler;
 import com.github.auties00.cobalt.device.DeviceService;
+import com.github.auties00.cobalt.group.GroupSyncService;
+import com.github.auties00.cobalt.media.MediaConnection;
+import com.github.auties00.cobalt.media.MediaConnectionService;
+import com.github.auties00.cobalt.media.MediaTransport;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
+import com.github.auties00.cobalt.message.MessageReceiptAggregator;
 import com.github.auties00.cobalt.message.MessageReceiverService;
+import com.github.auties00.cobalt.message.MessageRetentionService;
 import com.github.auties00.cobalt.message.MessageSenderService;
 import com.github.auties00.cobalt.migration.LidMigrationService;
 import com.github.auties00.cobalt.model.action.*;
@@ -46,6 +58,7 @@ import com.github.auties00.cobalt.sync.WebAppStateService;
 import com.github.auties00.cobalt.util.Clock;
 import com.github.auties00.cobalt.util.MetaBots;
 import com.github.auties00.cobalt.util.SecureBytes;
+import com.github.auties00.cobalt.util.TimerWheel;
 import com.github.auties00.curve25519.Curve25519;
 import com.github.auties00.libsignal.SignalSessionCipher;
 import com.github.auties00.libsignal.groups.SignalGroupCipher;
@@ -105,34 +118,62 @@ public final class WhatsAppClient {
     private final WhatsAppStore store;
     private final WhatsAppClientErrorHandler errorHandler;
     private final WhatsAppClientMessagePreviewHandler messagePreviewHandler;
+    private final WhatsAppClientDispatcher dispatcher;
+    private final WhatsAppClientPool pool;
+    private final TimerWheel.Scope timers;
 
     private final WebAppStateService webAppStateService;
     private final DeviceService deviceService;
     private final LidMigrationService lidMigrationService;
+    private final ContactDiscoveryService contactDiscoveryService;
+    private final ContactProfileService contactProfileService;
+    private final GroupSyncService groupSyncService;
+    private final MediaConnectionService mediaConnectionService;
     private final MessageSenderService messageSenderService;
     private final MessageReceiverService messageReceiverService;
+    private final MessageReceiptAggregator messageReceiptAggregator;
+    private final MessageRetentionService messageRetentionService;
 
     private SocketSession socketSession;
     private final SocketStream socketStream;
     private final ConcurrentMap<String, SocketRequest> pendingSocketRequests;
     private Thread shutdownHook;
 
-    WhatsAppClient(WhatsAppStore store, WhatsAppClientVerificationHandler.Web webVerificationHandler, WhatsAppClientMessagePreviewHandler messagePreviewHandler, WhatsAppClientErrorHandler errorHandler) {
+    WhatsAppClient(WhatsAppStore store, WhatsAppClientVerificationHandler.Web webVerificationHandler, WhatsAppClientMessagePreviewHandler messagePreviewHandler, WhatsAppClientErrorHandler errorHandler, WhatsAppClientDispatchPolicy dispatchPolicy, WhatsAppClientRetentionPolicy retentionPolicy, WhatsAppClientPool pool) {
         this.store = Objects.requireNonNull(store, "store cannot be null");
         this.errorHandler = Objects.requireNonNull(errorHandler, "errorHandler cannot be null");
+        this.pool = pool;
+        this.timers = TimerWheel.shared().newScope();
+        this.dispatcher = new WhatsAppClientDispatcher(dispatchPolicy, throwable -> handleFailure(UNKNOWN, throwable));
         if ((store.clientType() == WhatsAppClientType.WEB) == (webVerificationHandler == null)) {
             throw new IllegalArgumentException("webVerificationHandler cannot be null when client type is WEB");
         }
         var sessionCipher = new SignalSessionCipher(store);
         var groupCipher = new SignalGroupCipher(store);
-        this.webAppStateService = new WebAppStateService(this);
-        this.deviceService = new DeviceService(this, sessionCipher, groupCipher);
+        this.webAppStateService = new WebAppStateService(this, timers);
+        var contactQueryScheduler = new ContactQueryScheduler(this);
+        this.contactDiscoveryService = new ContactDiscoveryService(this, contactQueryScheduler);
+        this.contactProfileService = new ContactProfileService(this, contactQueryScheduler);
+        this.groupSyncService = new GroupSyncService(this);
+        this.deviceService = new DeviceService(this, contactDiscoveryService, sessionCipher, groupCipher);
         this.lidMigrationService = new LidMigrationService(this);
+        var mediaTransport = pool != null ? pool.mediaTransport() : MediaTransport.shared();
+        this.mediaConnectionService = new MediaConnectionService(this, mediaTransport, timers);
         this.messageSenderService = new MessageSenderService(this, deviceService, sessionCipher, groupCipher);
         this.messageReceiverService = new MessageReceiverService(this, deviceService, sessionCipher, groupCipher);
+        this.messageReceiptAggregator = new MessageReceiptAggregator(this, timers);
+        this.messageRetentionService = new MessageRetentionService(this, retentionPolicy, timers);
         this.pendingSocketRequests = new ConcurrentHashMap<>();
-        this.socketStream = new SocketStream(this, deviceService, messageReceiverService, lidMigrationService, webVerificationHandler);
+        var registry = store.metrics().registry();
+        registry.gauge(WhatsAppClientMetrics.PENDING_REQUESTS, pendingSocketRequests::size);
+        registry.gauge(WhatsAppClientMetrics.DISPATCHER_QUEUED_EVENTS, dispatcher::queuedEvents);
+        registry.gauge(WhatsAppClientMetrics.DISPATCHER_ACTIVE_KEYS, dispatcher::activeKeys);
+        this.socketStream = new SocketStream(this, deviceService, messageReceiverService, lidMigrationService, mediaConnectionService, webVerificationHandler, timers);
         this.messagePreviewHandler = messagePreviewHandler;
+        if (pool != null) {
+            store.setMessageBodyStorage(pool.messageBodyStorage());
+            pool.register(this);
+        }
     }
 
     /**
@@ -159,6 +200,33 @@ public final class WhatsAppClient {
         return messagePreviewHandler;
     }
 
+    /**
+     * Returns the dispatcher used to deliver events to handlers and listeners
+     *
+     * @return a non-null dispatcher
+     */
+    public WhatsAppClientDispatcher dispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the pool this session belongs to
+     *
+     * @return an optional
+     */
+    public Optional<WhatsAppClientPool> pool() {
+        return Optional.ofNullable(pool);
+    }
+
+    /**
+     * Returns the metrics recorded by this session
+     *
+     * @return non-null metrics
+     */
+    public WhatsAppClientMetrics metrics() {
+        return store.metrics();
+    }
+
     //</editor-fold>
 
     //<editor-fold desc="Connection">
@@ -177,6 +245,10 @@ public final class WhatsAppClient {
         }
 
         try {
+            if (pool != null) {
+                pool.awaitConnectSlot(reason == WhatsAppClientDisconnectReason.RECONNECTING);
+            }
+
             var noiseKeyPair = store.noiseKeyPair();
             var handshakePrologue = switch (store.clientType()) {
                 case WEB -> WEB_PROLOGUE;
@@ -184,8 +256,9 @@ public final class WhatsAppClient {
             };
             var handshakePayload = createUserClientPayload();
             var proxy = store.proxy().orElse(null);
-            this.socketSession = SocketSession.of(noiseKeyPair, handshakePrologue, handshakePayload, proxy);
+            this.socketSession = SocketSession.of(noiseKeyPair, handshakePrologue, handshakePayload, proxy, store.metrics());
             socketSession.connect(this::onMessage);
+            messageRetentionService.start();
         } catch (Throwable throwable) {
             if (reason == WhatsAppClientDisconnectReason.RECONNECTING) {
                 handleFailure(RECONNECT, throwable);
@@ -195,7 +268,8 @@ public final class WhatsAppClient {
             return;
         }
 
-        if (shutdownHook == null) {
+        // Pooled clients are disconnected by the pool's shutdown hook
+        if (shutdownHook == null && pool == null) {
             this.shutdownHook = Thread.ofPlatform()
                     .name("CobaltShutdownHandler")
                     .unstarted(() -> disconnect(WhatsAppClientDisconnectReason.DISCONNECTED, false));
@@ -328,6 +402,11 @@ public final class WhatsAppClient {
         }
 
         if (socketSession != null) {
+            try {
+                messageReceiptAggregator.flush();
+            } catch (Throwable throwable) {
+                handleFailure(MESSAGE, throwable);
+            }
             socketSession.disconnect();
         }
 
@@ -338,13 +417,21 @@ public final class WhatsAppClient {
             store.setSerializable(false);
             var serializer = store.serializer();
             serializer.deleteSession(store.clientType(), store.uuid());
-        } else {
+            if (pool != null) {
+                pool.unregister(this);
+            }
+        } else if (reason != WhatsAppClientDisconnectReason.RECONNECTING) {
+            // The store stays in memory across a reconnect, and Signal keys are persisted as they change
             store.serialize();
         }
 
         lidMigrationService.reset();
-        socketStream.reset();
+        socketStream.reset(reason == WhatsAppClientDisconnectReason.RECONNECTING);
         webAppStateService.reset();
+        mediaConnectionService.reset();
+        messageReceiptAggregator.reset();
+        messageRetentionService.reset();
+        timers.cancelAll();
 
         if (reason != WhatsAppClientDisconnectReason.RECONNECTING && shutdownHook != null && canRemoveShutdownHook) {
             Runtime.getRuntime().removeShutdownHook(shutdownHook);
@@ -365,7 +452,7 @@ public final class WhatsAppClient {
             while (decoder.hasData()) {
                 var node = decoder.decode();
                 for (var listener : store.listeners()) {
-                    Thread.startVirtualThread(() -> listener.onNodeReceived(this, node));
+                    dispatcher.execute(listener, null, () -> listener.onNodeReceived(this, node));
                 }
                 resolvePendingRequest(node);
                 socketStream.digest(node);
@@ -392,10 +479,26 @@ public final class WhatsAppClient {
     public void sendNodeWithNoResponse(Node node) {
         socketSession.sendNode(node);
         for (var listener : store.listeners()) {
-            Thread.startVirtualThread(() -> listener.onNodeSent(this, node));
+            dispatcher.execute(listener, null, () -> listener.onNodeSent(this, node));
+        }
+    }
+
+    public void sendNodesWithNoResponse(SequencedCollection<Node> nodes) {
+        socketSession.sendNodes(nodes);
+        for (var listener : store.listeners()) {
+            for (var node : nodes) {
+                dispatcher.execute(listener, null, () -> listener.onNodeSent(this, node));
+            }
         }
     }
 
+    /**
+     * Sends immediately the receipts and acks that are waiting to be batched
+     */
+    public void flushReceipts() {
+        messageReceiptAggregator.flush();
+    }
+
     public Node sendNode(NodeBuilder node) {
         return sendNode(node, null);
     }
@@ -411,12 +514,24 @@ public final class WhatsAppClient {
         socketSession.sendNode(outgoing);
 
         for (var listener : store.listeners()) {
-            Thread.startVirtualThread(() -> listener.onNodeSent(this, outgoing));
+            dispatcher.execute(listener, null, () -> listener.onNodeSent(this, outgoing));
         }
 
         var request = new SocketRequest(outgoing, filter);
         pendingSocketRequests.put(outgoingId, request);
-        return request.waitForResponse();
+        var sample = store.metrics()
+                .startRequest();
+        var success = false;
+        try {
+            var response = request.waitForResponse();
+            success = response != null;
+            return response;
+        } finally {
+            var xmlns = outgoing.getAttributeAsString("xmlns", null);
+            var type = outgoing.getAttributeAsString("type", null);
+            store.metrics()
+                    .recordRequest(sample, xmlns, type, success);
+        }
     }
 
     /**
@@ -553,86 +668,23 @@ public final class WhatsAppClient {
             return Set.of();
         }
 
-        var contactNodes = Arrays.stream(contacts)
-                .map(this::createUserNode)
-                .flatMap(Optional::stream)
-                .toList();
-        if (contactNodes.isEmpty()) {
-            return Set.of();
-        }
-
-        var queryContact = new NodeBuilder()
-                .description("contact")
-                .build();
-
-        var queryNode = new NodeBuilder()
-                .description("query")
-                .content(queryContact)
-                .build();
-        var listNode = new NodeBuilder()
-                .description("list")
-                .content(contactNodes)
-                .build();
-        var sideListNode = new NodeBuilder()
-                .description("side_list")
-                .build();
-        var syncNode = new NodeBuilder()
-                .description("usync")
-                .attribute("sid", SecureBytes.randomSid())
-                .attribute("mode", "query")
-                .attribute("last", "true")
-                .attribute("index", "0")
-                .attribute("context", "interactive")
-                .content(queryNode, listNode, sideListNode)
-                .build();
-        var iqNode = new NodeBuilder()
-                .description("iq")
-                .attribute("xmlns", "usync")
-                .attribute("to", JidServer.user())
-                .attribute("type", "get")
-                .content(syncNode);
-        var result = sendNode(iqNode);
-
-        return result.streamChildren("usync")
-                .flatMap(node -> node.streamChild("list"))
-                .flatMap(node -> node.streamChildren("user"))
-                .filter(this::hasWhatsapp)
-                .map(node -> node.getRequiredAttributeAsJid("jid"))
+        return contactDiscoveryService.discover(Arrays.asList(contacts))
+                .filter(ContactDiscoveryResult::registered)
+                .map(ContactDiscoveryResult::jid)
                 .collect(Collectors.toUnmodifiableSet());
     }
 
-    private Optional<Node> createUserNode(JidProvider provider) {
-        if (provider == null) {
-            return Optional.empty();
-        }
-
-        var user = provider.toJid();
-        if (!user.hasServer(JidServer.user())) {
-            return Optional.empty();
-        }
-
-        var phoneNumber = user.toPhoneNumber();
-        if (phoneNumber.isEmpty()) {
-            return Optional.empty();
-        }
-
-        var contactNode = new NodeBuilder()
-                .description("contact")
-                .content(phoneNumber.get())
-                .build();
-        var userNode = new NodeBuilder()
-                .description("user")
-                .content(contactNode)
-                .build();
-        return Optional.of(userNode);
-    }
-
-    private boolean hasWhatsapp(Node node) {
-        return node.getChild("contact")
-                .orElseThrow(() -> new NoSuchElementException("Missing contact"))
-                .getRequiredAttribute("type")
-                .toString()
-                .equals("in");
+    /**
+     * Executes a query to determine whether any value of users have an account on Whatsapp, including their lid and devices.
+     * <p>
+     * Contacts are queried in chunks, concurrently and within a rate budget, so large lists can be checked.
+     * Results are cached in the store: contacts that were checked recently are not queried again.
+     *
+     * @param contacts the contacts to check
+     * @return a lazy stream that returns the results as they are received
+     */
+    public Stream<ContactDiscoveryResult> discoverContacts(Collection<? extends JidProvider> contacts) {
+        return contactDiscoveryService.discover(contacts);
     }
 
     /**
@@ -741,24 +793,20 @@ public final class WhatsAppClient {
      * @return a CompletableFuture that wraps nullable jpg url hosted on Whatsapp's servers
      */
     public Optional<URI> queryPicture(JidProvider chat) {
-        var pictureNode = new NodeBuilder()
-                .description("picture")
-                .attribute("query", "url")
-                .attribute("type", "image")
-                .build();
-        var community = chat.toJid().hasServer(JidServer.groupOrCommunity())
-                        && queryGroupOrCommunityMetadata(chat.toJid()).isCommunity();
-        var iqNode = new NodeBuilder()
-                .description("iq")
-                .attribute("xmlns", "w:profile:picture")
-                .attribute(community ? "parent_group_jid" : "target", chat)
-                .attribute("to", JidServer.user())
-                .attribute("type", "get")
-                .content(pictureNode);
-        return sendNode(iqNode)
-                .getChild("picture")
-                .flatMap(picture -> picture.getAttribute("url"))
-                .map(attribute -> URI.create(attribute.toString()));
+        return contactProfileService.queryPicture(chat.toJid());
+    }
+
+    /**
+     * Queries the about and the profile picture of many users and groups.
+     * <p>
+     * The about and the picture id of users are queried in batches, while picture urls are queried only if the picture changed
+     * since the last time it was queried.
+     *
+     * @param chats the users and groups to query
+     * @return a lazy stream that returns the profiles as they are received
+     */
+    public Stream<ContactProfile> queryProfiles(Collection<? extends JidProvider> chats) {
+        return contactProfileService.queryProfiles(chats);
     }
 
     /**
@@ -814,7 +862,7 @@ public final class WhatsAppClient {
                 .orElse(null);
         store.addPrivacySetting(newEntry);
         for (var listener : store.listeners()) {
-            Thread.startVirtualThread(() -> listener.onPrivacySettingChanged(this, newEntry));
+            dispatcher.execute(listener, null, () -> listener.onPrivacySettingChanged(this, newEntry));
         }
     }
 
@@ -855,7 +903,7 @@ public final class WhatsAppClient {
                     updateBusinessCertificate(newName);
                     store.setName(newName);
                     for (var listener : store.listeners()) {
-                        Thread.startVirtualThread(() -> listener.onNameChanged(this, oldName, newName));
+                        dispatcher.execute(listener, null, () -> listener.onNameChanged(this, oldName, newName));
                     }
                 }
             }
@@ -869,7 +917,7 @@ public final class WhatsAppClient {
             sendNodeWithNoResponse(presenceNode);
             store.setName(newName);
             for (var listener : store.listeners()) {
-                Thread.startVirtualThread(() -> listener.onNameChanged(this, oldName, newName));
+                dispatcher.execute(listener, null, () -> listener.onNameChanged(this, oldName, newName));
             }
         }
     }
@@ -1368,9 +1416,7 @@ public final class WhatsAppClient {
      * @param jids the contacts whose status the api should receive updates on
      */
     public void subscribeToPresence(JidProvider... jids) {
-        for (var jid : jids) {
-            subscribeToPresence(jid);
-        }
+        subscribeToPresence(Arrays.asList(jids));
     }
 
     /**
@@ -1380,9 +1426,16 @@ public final class WhatsAppClient {
      * @param jids the contacts whose status the api should receive updates on
      */
     public void subscribeToPresence(Collection<? extends JidProvider> jids) {
+        var nodes = new ArrayList<Node>(jids.size());
         for (var jid : jids) {
-            subscribeToPresence(jid);
+            var node = new NodeBuilder()
+                    .description("presence")
+                    .attribute("to", jid)
+                    .attribute("type", "subscribe")
+                    .build();
+            nodes.add(node);
         }
+        sendNodesWithNoResponse(nodes);
     }
 
     /**
@@ -1634,7 +1687,7 @@ public final class WhatsAppClient {
                 .status(MessageStatus.PENDING)
                 .senderJid(localJid)
                 .key(key)
-                .message(message.withDeviceInfo(deviceInfo))
+                .message(LazyMessageContainer.of(message.withDeviceInfo(deviceInfo)))
                 .timestampSeconds(timestamp)
                 .broadcast(recipient.toJid().hasServer(JidServer.broadcast()))
                 .build();
@@ -1869,6 +1922,9 @@ public final class WhatsAppClient {
                     .orElseThrow(() -> new RuntimeException("Media reupload failed"));
             mediaProvider.setMediaUrl(null);
             mediaProvider.setMediaDirectPath(directPath);
+            if (info instanceof ChatMessageInfo chatMessageInfo) {
+                store.markMessageChanged(chatMessageInfo);
+            }
         } catch (GeneralSecurityException exception) {
             throw new RuntimeException("Cannot reupload media", exception);
         }
@@ -1976,7 +2032,7 @@ public final class WhatsAppClient {
                         .status(MessageStatus.PENDING)
                         .senderJid(localJid)
                         .key(key)
-                        .message(MessageContainer.ofEditedMessage(newMessage))
+                        .message(LazyMessageContainer.of(MessageContainer.ofEditedMessage(newMessage)))
                         .timestampSeconds(Clock.nowSeconds())
                         .broadcast(oldChatInfo.chatJid().hasServer(JidServer.broadcast()))
                         .build();
@@ -2032,7 +2088,7 @@ public final class WhatsAppClient {
                     .status(MessageStatus.PENDING)
                     .senderJid(sender)
                     .key(key)
-                    .message(MessageContainer.of(message))
+                    .message(LazyMessageContainer.of(MessageContainer.of(message)))
                     .timestampSeconds(Clock.nowSeconds())
                     .build();
             messageSenderService.sendMessage(info, Map.of("edit", getDeleteBit(localJid, info)));
@@ -2089,6 +2145,7 @@ public final class WhatsAppClient {
                 .map(Chat::unreadMessages)
                 .flatMap(Collection::stream)
                 .forEach(this::markMessageRead);
+        messageReceiptAggregator.flush();
     }
 
     /**
@@ -2133,7 +2190,10 @@ public final class WhatsAppClient {
     public void muteChat(JidProvider chat, ChatMute mute) {
         if (store.clientType() == WhatsAppClientType.MOBILE) {
             store.findChatByJid(chat)
-                    .ifPresent(entry -> entry.setMute(mute));
+                    .ifPresent(entry -> {
+                        entry.setMute(mute);
+                        store.markChatChanged(entry);
+                    });
             return;
         }
 
@@ -2156,7 +2216,10 @@ public final class WhatsAppClient {
     public void unmuteChat(JidProvider chat) {
         if (store.clientType() == WhatsAppClientType.MOBILE) {
             store.findChatByJid(chat)
-                    .ifPresent(entry -> entry.setMute(ChatMute.notMuted()));
+                    .ifPresent(entry -> {
+                        entry.setMute(ChatMute.notMuted());
+                        store.markChatChanged(entry);
+                    });
             return;
         }
 
@@ -2260,6 +2323,7 @@ public final class WhatsAppClient {
         if (policy.isPresent() && policy.get().value() == PrivacySettingValue.EVERYONE) {
             sendMessageReceipt(info, "played");
             info.setStatus(MessageStatus.PLAYED);
+            store().markMessageChanged(info);
         }
     }
 
@@ -2285,7 +2349,10 @@ public final class WhatsAppClient {
     private void pinChat(JidProvider chat, boolean pin) {
         if (store.clientType() == WhatsAppClientType.MOBILE) {
             store.findChatByJid(chat)
-                    .ifPresent(entry -> entry.setPinnedTimestampSeconds(pin ? (int) Clock.nowSeconds() : 0));
+                    .ifPresent(entry -> {
+                        entry.setPinnedTimestampSeconds(pin ? (int) Clock.nowSeconds() : 0);
+                        store.markChatChanged(entry);
+                    });
             return;
         }
         var pinAction = new PinActionBuilder()
@@ -2310,6 +2377,7 @@ public final class WhatsAppClient {
     private ChatMessageInfo starMessage(ChatMessageInfo info, boolean star) {
         if (store.clientType() == WhatsAppClientType.MOBILE) {
             info.setStarred(star);
+            store.markMessageChanged(info);
             return info;
         }
 
@@ -2398,26 +2466,19 @@ public final class WhatsAppClient {
                 : "read";
         sendMessageReceipt(info, type);
         info.setStatus(MessageStatus.READ);
+        if (info instanceof ChatMessageInfo chatMessageInfo) {
+            store().markMessageChanged(chatMessageInfo);
+        }
     }
 
     private void sendMessageReceipt(MessageInfo info, String type) {
         var id = info.id();
         var parentJid = info.parentJid();
-        var timestamp = Clock.nowSeconds();
         var senderJid = info.senderJid();
-
-        var builder = new NodeBuilder()
-                .description("receipt")
-                .attribute("id", id)
-                .attribute("type", type)
-                .attribute("to", parentJid)
-                .attribute("t", timestamp);
-
-        if (!Objects.equals(parentJid.user(), senderJid.user()) && !senderJid.hasServer(JidServer.lid())) {
-            builder.attribute("participant", senderJid.withoutData());
-        }
-
-        sendNodeWithNoResponse(builder.build());
+        var participant = !Objects.equals(parentJid.user(), senderJid.user()) && !senderJid.hasServer(JidServer.lid())
+                ? senderJid.withoutData()
+                : null;
+        messageReceiptAggregator.addReceipt(id, parentJid, participant, null, type);
     }
     //</editor-fold>  
 
@@ -2448,6 +2509,17 @@ public final class WhatsAppClient {
         return handleGroupMetadata(response);
     }
 
+    /**
+     * Synchronizes the groups and communities this account participates in.
+     * <p>
+     * The metadata of a group is queried only if it changed since the last sync, or if the group is new.
+     *
+     * @return the chats of the groups and communities this account participates in
+     */
+    public SequencedCollection<Chat> queryGroups() {
+        return groupSyncService.sync();
+    }
+
     private GroupOrCommunityMetadata handleGroupMetadata(Node response) {
         var metadataNode = Optional.of(response)
                 .filter(entry -> entry.hasDescription("group"))
@@ -2457,6 +2529,7 @@ public final class WhatsAppClient {
         var chat = store.findChatByJid(metadata.jid())
                 .orElseGet(() -> store().addNewChat(metadata.jid()));
         chat.setName(metadata.subject());
+        store.addChat(chat);
         return metadata;
     }
 
@@ -4039,7 +4112,7 @@ public final class WhatsAppClient {
                 .build();
         store.addCall(call);
         for (var listener : store.listeners()) {
-            Thread.startVirtualThread(() -> listener.onCall(this, call));
+            dispatcher.execute(listener, null, () -> listener.onCall(this, call));
         }
         return call;
     }
@@ -4546,6 +4619,16 @@ public final class WhatsAppClient {
         webAppStateService.pullPatches(patches);
     }
 
+    /**
+     * Queries a new media connection, for example after a download failed because the current one was rejected.
+     * Concurrent calls share the same query, and the current media connection keeps serving requests until the new one is ready.
+     *
+     * @return the new media connection
+     */
+    public MediaConnection refreshMediaConnection() {
+        return mediaConnectionService.refresh();
+    }
+
     private void updateBusinessCertificate(String newName) {
         var details = new BusinessVerifiedNameDetailsBuilder()
                 .name(Objects.requireNonNullElse(newName, store.name()))
@@ -4601,7 +4684,7 @@ public final class WhatsAppClient {
                     .ifPresent(type -> ackBuilder.attribute("type", type));
         }
 
-        sendNodeWithNoResponse(ackBuilder.build());
+        messageReceiptAggregator.addAck(ackBuilder.build());
     }
 
     public void sendPreKeys(long keysCount) {
@@ -4675,29 +4758,24 @@ public final class WhatsAppClient {
                 .orElseThrow(() -> new IllegalStateException("No jid"));
         var fromMe = Objects.equals(me, senderJid);
 
-        var receiptBuilder = new NodeBuilder()
-                .description("receipt")
-                .attribute("id", id);
-
+        String type;
         if(peer) {
-            receiptBuilder.attribute("type", "peer_msg");
+            type = "peer_msg";
         } else if (fromMe) {
-            receiptBuilder.attribute("type", "sender");
+            type = "sender";
         } else if (!store.automaticMessageReceipts()) {
-            receiptBuilder.attribute("type", "inactive");
+            type = "inactive";
+        } else {
+            type = null;
         }
 
         if (parentJid.hasServer(JidServer.groupOrCommunity())) {
-            receiptBuilder.attribute("to", parentJid);
-            receiptBuilder.attribute("participant", senderJid);
+            messageReceiptAggregator.addReceipt(id, parentJid, senderJid, null, type);
         } else if (fromMe) {
-            receiptBuilder.attribute("to", parentJid);
-            receiptBuilder.attribute("recipient", senderJid);
+            messageReceiptAggregator.addReceipt(id, parentJid, null, senderJid, type);
         } else {
-            receiptBuilder.attribute("to", senderJid);
+            messageReceiptAggregator.addReceipt(id, senderJid, null, null, type);
         }
-
-        sendNodeWithNoResponse(receiptBuilder.build());
     }
 
     public void sendReceipt(String id, Jid from, String type) {
@@ -4707,13 +4785,7 @@ public final class WhatsAppClient {
             return;
         }
 
-        var receipt = new NodeBuilder()
-                .description("receipt")
-                .attribute("id", id)
-                .attribute("type", type)
-                .attribute("to", from)
-                .build();
-        sendNodeWithNoResponse(receipt);
+        messageReceiptAggregator.addReceipt(id, from, null, null, type);
     }
 
     // TODO: Stuff to fix
@@ -4725,8 +4797,4 @@ public final class WhatsAppClient {
     public SequencedCollection<Newsletter> queryNewsletters() {
         return List.of();
     }
-
-    public SequencedCollection<Chat> queryGroups() {
-        return List.of();
-    }
 }
@@ -32,6 +32,8 @@ public sealed class WhatsAppClientBuilder {
     private static final WhatsAppClientMessagePreviewHandler DEFAULT_MESSAGE_PREVIEW_HANDLER = WhatsAppClientMessagePreviewHandler.enabled(true);
     private static final WhatsAppClientErrorHandler DEFAULT_ERROR_HANDLER = WhatsAppClientErrorHandler.toTerminal();
     private static final WhatsAppClientVerificationHandler.Web DEFAULT_WEB_VERIFICATION_HANDLER = WhatsAppClientVerificationHandler.Web.QrCode.toTerminal();
+    private static final WhatsAppClientDispatchPolicy DEFAULT_DISPATCH_POLICY = WhatsAppClientDispatchPolicy.standard();
+    private static final WhatsAppClientRetentionPolicy DEFAULT_RETENTION_POLICY = WhatsAppClientRetentionPolicy.unlimited();
     
     static final WhatsAppClientBuilder INSTANCE = new WhatsAppClientBuilder();
 
@@ -416,6 +418,9 @@ public sealed class WhatsAppClientBuilder {
         final WhatsAppStore store;
         WhatsAppClientMessagePreviewHandler messagePreviewHandler;
         WhatsAppClientErrorHandler errorHandler;
+        WhatsAppClientDispatchPolicy dispatchPolicy;
+        WhatsAppClientRetentionPolicy retentionPolicy;
+        WhatsAppClientPool pool;
 
         private Options(WhatsAppStore store) {
             this.store = Objects.requireNonNull(store, "store must not be null");
@@ -469,6 +474,45 @@ public sealed class WhatsAppClientBuilder {
             return this;
         }
 
+        /**
+         * Controls whether the messages of the session are indexed for full-text search
+         * By default disabled
+         * If enabled, messages can be searched via {@link WhatsAppStore#searchMessages}
+         *
+         * @param messageSearch true to enable message search, false otherwise
+         * @return the same instance for chaining
+         */
+        public Options messageSearch(boolean messageSearch) {
+            store.setMessageSearch(messageSearch);
+            return this;
+        }
+
+        /**
+         * Controls whether the changes to the session are recorded in an ordered log
+         * By default disabled
+         * If enabled, changes can be read via {@link WhatsAppStore#changeLog}
+         *
+         * @param changeCapture true to enable change capture, false otherwise
+         * @return the same instance for chaining
+         */
+        public Options changeCapture(boolean changeCapture) {
+            store.setChangeCapture(changeCapture);
+            return this;
+        }
+
+        /**
+         * Controls whether the messages of the session that weren't read are kept off the heap
+         * By default disabled
+         * If enabled, only the messages that were read most recently are kept decoded on the heap, see {@link WhatsAppStore#setOffHeapMessages}
+         *
+         * @param offHeapMessages true to keep messages off the heap, false otherwise
+         * @return the same instance for chaining
+         */
+        public Options offHeapMessages(boolean offHeapMessages) {
+            store.setOffHeapMessages(offHeapMessages);
+            return this;
+        }
+
         /**
          * Sets the client version for the connection
          * This allows customization of the WhatsApp client version identifier
@@ -503,6 +547,42 @@ public sealed class WhatsAppClientBuilder {
             return this;
         }
 
+        /**
+         * Sets the policy used to dispatch events to handlers and listeners
+         * By default, events are queued per chat and spilled to a dedicated thread when more than 1024 are waiting
+         *
+         * @param dispatchPolicy the policy to use, can be null to use the default
+         * @return the same instance for chaining
+         */
+        public Options dispatchPolicy(WhatsAppClientDispatchPolicy dispatchPolicy) {
+            this.dispatchPolicy = dispatchPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the policy used to evict old messages from memory
+         * By default, messages are kept until they are deleted
+         *
+         * @param retentionPolicy the policy to use, can be null to use the default
+         * @return the same instance for chaining
+         */
+        public Options retentionPolicy(WhatsAppClientRetentionPolicy retentionPolicy) {
+            this.retentionPolicy = retentionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the pool that hosts the client
+         * By default, the client doesn't belong to a pool and owns all of its resources
+         *
+         * @param pool the pool to use, can be null
+         * @return the same instance for chaining
+         */
+        public Options pool(WhatsAppClientPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
         public static final class Web extends Options {
             private Web(WhatsAppStore store) {
                 super(store);
@@ -563,6 +643,42 @@ public sealed class WhatsAppClientBuilder {
                 return (Web) super.errorHandler(errorHandler);
             }
 
+            /**
+             * Sets the policy used to dispatch events to handlers and listeners
+             * By default, events are queued per chat and spilled to a dedicated thread when more than 1024 are waiting
+             *
+             * @param dispatchPolicy the policy to use, can be null to use the default
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web dispatchPolicy(WhatsAppClientDispatchPolicy dispatchPolicy) {
+                return (Web) super.dispatchPolicy(dispatchPolicy);
+            }
+
+            /**
+             * Sets the policy used to evict old messages from memory
+             * By default, messages are kept until they are deleted
+             *
+             * @param retentionPolicy the policy to use, can be null to use the default
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web retentionPolicy(WhatsAppClientRetentionPolicy retentionPolicy) {
+                return (Web) super.retentionPolicy(retentionPolicy);
+            }
+
+            /**
+             * Sets the pool that hosts the client
+             * By default, the client doesn't belong to a pool and owns all of its resources
+             *
+             * @param pool the pool to use, can be null
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web pool(WhatsAppClientPool pool) {
+                return (Web) super.pool(pool);
+            }
+
             /**
              * Controls whether the library should send receipts automatically for messages
              * By default disabled
@@ -576,6 +692,45 @@ public sealed class WhatsAppClientBuilder {
                 return (Web) super.automaticMessageReceipts(automaticMessageReceipts);
             }
 
+            /**
+             * Controls whether the messages of the session are indexed for full-text search
+             * By default disabled
+             * If enabled, messages can be searched via {@link WhatsAppStore#searchMessages}
+             *
+             * @param messageSearch true to enable message search, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web messageSearch(boolean messageSearch) {
+                return (Web) super.messageSearch(messageSearch);
+            }
+
+            /**
+             * Controls whether the changes to the session are recorded in an ordered log
+             * By default disabled
+             * If enabled, changes can be read via {@link WhatsAppStore#changeLog}
+             *
+             * @param changeCapture true to enable change capture, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web changeCapture(boolean changeCapture) {
+                return (Web) super.changeCapture(changeCapture);
+            }
+
+            /**
+             * Controls whether the messages of the session that weren't read are kept off the heap
+             * By default disabled
+             * If enabled, only the messages that were read most recently are kept decoded on the heap, see {@link WhatsAppStore#setOffHeapMessages}
+             *
+             * @param offHeapMessages true to keep messages off the heap, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Web offHeapMessages(boolean offHeapMessages) {
+                return (Web) super.offHeapMessages(offHeapMessages);
+            }
+
             /**
              * Sets the client version for the connection
              * This allows customization of the WhatsApp client version identifier
@@ -624,7 +779,9 @@ public sealed class WhatsAppClientBuilder {
                 Objects.requireNonNull(qrHandler, "qrHandler must not be null");
                 var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
                 var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-                return new WhatsAppClient(store, qrHandler, messagePreviewHandler, errorHandler);
+                var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+                var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+                return new WhatsAppClient(store, qrHandler, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
             }
 
             /**
@@ -640,7 +797,9 @@ public sealed class WhatsAppClientBuilder {
                 store.setPhoneNumber(phoneNumber);
                 var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
                 var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-                return new WhatsAppClient(store, pairingCodeHandler, messagePreviewHandler, errorHandler);
+                var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+                var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+                return new WhatsAppClient(store, pairingCodeHandler, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
             }
 
             /**
@@ -657,7 +816,9 @@ public sealed class WhatsAppClientBuilder {
 
                 var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
                 var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-                var result = new WhatsAppClient(store, null, messagePreviewHandler, errorHandler);
+                var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+                var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+                var result = new WhatsAppClient(store, null, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
                 return Optional.of(result);
             }
         }
@@ -703,6 +864,45 @@ public sealed class WhatsAppClientBuilder {
                 return this;
             }
 
+            /**
+             * Sets the policy used to dispatch events to handlers and listeners
+             * By default, events are queued per chat and spilled to a dedicated thread when more than 1024 are waiting
+             *
+             * @param dispatchPolicy the policy to use, can be null to use the default
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile dispatchPolicy(WhatsAppClientDispatchPolicy dispatchPolicy) {
+                super.dispatchPolicy(dispatchPolicy);
+                return this;
+            }
+
+            /**
+             * Sets the policy used to evict old messages from memory
+             * By default, messages are kept until they are deleted
+             *
+             * @param retentionPolicy the policy to use, can be null to use the default
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile retentionPolicy(WhatsAppClientRetentionPolicy retentionPolicy) {
+                super.retentionPolicy(retentionPolicy);
+                return this;
+            }
+
+            /**
+             * Sets the pool that hosts the client
+             * By default, the client doesn't belong to a pool and owns all of its resources
+             *
+             * @param pool the pool to use, can be null
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile pool(WhatsAppClientPool pool) {
+                super.pool(pool);
+                return this;
+            }
+
             /**
              * Controls whether the library should send receipts automatically for messages
              * By default disabled
@@ -717,6 +917,48 @@ public sealed class WhatsAppClientBuilder {
                 return this;
             }
 
+            /**
+             * Controls whether the messages of the session are indexed for full-text search
+             * By default disabled
+             * If enabled, messages can be searched via {@link WhatsAppStore#searchMessages}
+             *
+             * @param messageSearch true to enable message search, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile messageSearch(boolean messageSearch) {
+                super.messageSearch(messageSearch);
+                return this;
+            }
+
+            /**
+             * Controls whether the changes to the session are recorded in an ordered log
+             * By default disabled
+             * If enabled, changes can be read via {@link WhatsAppStore#changeLog}
+             *
+             * @param changeCapture true to enable change capture, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile changeCapture(boolean changeCapture) {
+                super.changeCapture(changeCapture);
+                return this;
+            }
+
+            /**
+             * Controls whether the messages of the session that weren't read are kept off the heap
+             * By default disabled
+             * If enabled, only the messages that were read most recently are kept decoded on the heap, see {@link WhatsAppStore#setOffHeapMessages}
+             *
+             * @param offHeapMessages true to keep messages off the heap, false otherwise
+             * @return the same instance for chaining
+             */
+            @Override
+            public Mobile offHeapMessages(boolean offHeapMessages) {
+                super.offHeapMessages(offHeapMessages);
+                return this;
+            }
+
             /**
              * Sets the client version for the connection
              * This allows customization of the WhatsApp client version identifier
@@ -842,7 +1084,9 @@ public sealed class WhatsAppClientBuilder {
 
                 var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
                 var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-                var result = new WhatsAppClient(store, null, messagePreviewHandler, errorHandler);
+                var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+                var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+                var result = new WhatsAppClient(store, null, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
                 return Optional.of(result);
             }
 
@@ -874,7 +1118,9 @@ public sealed class WhatsAppClientBuilder {
 
                 var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
                 var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-                return new WhatsAppClient(store, null, messagePreviewHandler, errorHandler);
+                var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+                var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+                return new WhatsAppClient(store, null, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
             }
         }
     }
@@ -884,6 +1130,9 @@ public sealed class WhatsAppClientBuilder {
         private WhatsAppClientMessagePreviewHandler messagePreviewHandler;
         private WhatsAppClientErrorHandler errorHandler;
         private WhatsAppClientVerificationHandler.Web webVerificationHandler;
+        private WhatsAppClientDispatchPolicy dispatchPolicy;
+        private WhatsAppClientRetentionPolicy retentionPolicy;
+        private WhatsAppClientPool pool;
 
         private Custom() {
 
@@ -933,6 +1182,39 @@ public sealed class WhatsAppClientBuilder {
             return this;
         }
 
+        /**
+         * Sets the policy used to dispatch events to handlers and listeners
+         *
+         * @param dispatchPolicy the policy to use, can be null to use the default
+         * @return the same instance for chaining
+         */
+        public Custom dispatchPolicy(WhatsAppClientDispatchPolicy dispatchPolicy) {
+            this.dispatchPolicy = dispatchPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the policy used to evict old messages from memory
+         *
+         * @param retentionPolicy the policy to use, can be null to use the default
+         * @return the same instance for chaining
+         */
+        public Custom retentionPolicy(WhatsAppClientRetentionPolicy retentionPolicy) {
+            this.retentionPolicy = retentionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the pool that hosts the client
+         *
+         * @param pool the pool to use, can be null
+         * @return the same instance for chaining
+         */
+        public Custom pool(WhatsAppClientPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
         /**
          * Builds a WhatsApp instance with the configured parameters
          *
@@ -948,7 +1230,9 @@ public sealed class WhatsAppClientBuilder {
             };
             var messagePreviewHandler = Objects.requireNonNullElse(this.messagePreviewHandler, DEFAULT_MESSAGE_PREVIEW_HANDLER);
             var errorHandler = Objects.requireNonNullElse(this.errorHandler, DEFAULT_ERROR_HANDLER);
-            return new WhatsAppClient(store, webVerificationHandler, messagePreviewHandler, errorHandler);
+            var dispatchPolicy = Objects.requireNonNullElse(this.dispatchPolicy, DEFAULT_DISPATCH_POLICY);
+            var retentionPolicy = Objects.requireNonNullElse(this.retentionPolicy, DEFAULT_RETENTION_POLICY);
+            return new WhatsAppClient(store, webVerificationHandler, messagePreviewHandler, errorHandler, dispatchPolicy, retentionPolicy, pool);
         }
     }
 }
@@ -0,0 +1,129 @@
+package com.github.auties00.cobalt.client;
+
+import java.util.Objects;
+
+/**
+ * Represents the policy used by a {@link WhatsAppClient} to dispatch events to handlers and listeners.
+ * <p>
+ * Events that share a key, for example the messages, receipts and edits of a chat, are delivered in order,
+ * while events with different keys are processed in parallel.
+ * Each key has a bounded queue: this policy defines its capacity and what happens when it's full.
+ *
+ * @see WhatsAppClientBuilder.Options#dispatchPolicy(WhatsAppClientDispatchPolicy)
+ */
+public final class WhatsAppClientDispatchPolicy {
+    private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    private static final WhatsAppClientDispatchPolicy DEFAULT = new WhatsAppClientDispatchPolicy(Backpressure.SPILL, DEFAULT_QUEUE_CAPACITY);
+
+    private final Backpressure backpressure;
+    private final int queueCapacity;
+
+    private WhatsAppClientDispatchPolicy(Backpressure backpressure, int queueCapacity) {
+        this.backpressure = Objects.requireNonNull(backpressure, "backpressure cannot be null");
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Returns the default policy, which spills events once 1024 events are queued for the same key
+     *
+     * @return a non-null policy
+     */
+    public static WhatsAppClientDispatchPolicy standard() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a policy that blocks the producer when a queue is full.
+     * <p>
+     * As the producer is usually the thread that reads from the socket, this policy slows down the connection
+     * until listeners catch up. Listeners that wait for a response from the server while their queue is full
+     * will time out, so use it only with listeners that don't query WhatsApp.
+     *
+     * @param queueCapacity the maximum number of events queued for a key
+     * @return a non-null policy
+     */
+    public static WhatsAppClientDispatchPolicy block(int queueCapacity) {
+        return new WhatsAppClientDispatchPolicy(Backpressure.BLOCK, queueCapacity);
+    }
+
+    /**
+     * Creates a policy that discards the oldest queued event when a queue is full
+     *
+     * @param queueCapacity the maximum number of events queued for a key
+     * @return a non-null policy
+     */
+    public static WhatsAppClientDispatchPolicy dropOldest(int queueCapacity) {
+        return new WhatsAppClientDispatchPolicy(Backpressure.DROP_OLDEST, queueCapacity);
+    }
+
+    /**
+     * Creates a policy that runs events on a dedicated virtual thread when a queue is full.
+     * Spilled events are never lost, but are not ordered with respect to the other events of the same key.
+     *
+     * @param queueCapacity the maximum number of events queued for a key
+     * @return a non-null policy
+     */
+    public static WhatsAppClientDispatchPolicy spill(int queueCapacity) {
+        return new WhatsAppClientDispatchPolicy(Backpressure.SPILL, queueCapacity);
+    }
+
+    /**
+     * Returns what happens when a queue is full
+     *
+     * @return a non-null backpressure strategy
+     */
+    public Backpressure backpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Returns the maximum number of events queued for a key
+     *
+     * @return a positive number
+     */
+    public int queueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WhatsAppClientDispatchPolicy that
+               && queueCapacity == that.queueCapacity
+               && backpressure == that.backpressure;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(backpressure, queueCapacity);
+    }
+
+    @Override
+    public String toString() {
+        return "WhatsAppClientDispatchPolicy[" +
+               "backpressure=" + backpressure + ", " +
+               "queueCapacity=" + queueCapacity + ']';
+    }
+
+    /**
+     * The strategies that can be applied when a queue is full
+     */
+    public enum Backpressure {
+        /**
+         * The producer waits until the queue has room for the event
+         */
+        BLOCK,
+
+        /**
+         * The oldest queued event is discarded
+         */
+        DROP_OLDEST,
+
+        /**
+         * The event is run immediately on a dedicated virtual thread
+         */
+        SPILL
+    }
+}
@@ -0,0 +1,221 @@
+package com.github.auties00.cobalt.client;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches events to handlers and listeners.
+ * <p>
+ * Events submitted with the same owner and key run sequentially, in submission order, while different keys run in parallel.
+ * A virtual thread is started only when a key goes from idle to busy, and it drains the whole queue of that key before exiting,
+ * instead of starting a thread for each event.
+ * The capacity of each queue, and what happens when it's full, is defined by the {@link WhatsAppClientDispatchPolicy}.
+ */
+public final class WhatsAppClientDispatcher {
+    private final WhatsAppClientDispatchPolicy policy;
+    private final Consumer<Throwable> errorHandler;
+    private final ConcurrentMap<Key, KeyQueue> queues;
+    private final LongAdder queuedEvents;
+    private final AtomicLong maxQueueDepth;
+    private final LongAdder droppedEvents;
+    private final LongAdder spilledEvents;
+
+    WhatsAppClientDispatcher(WhatsAppClientDispatchPolicy policy, Consumer<Throwable> errorHandler) {
+        this.policy = Objects.requireNonNull(policy, "policy cannot be null");
+        this.errorHandler = Objects.requireNonNull(errorHandler, "errorHandler cannot be null");
+        this.queues = new ConcurrentHashMap<>();
+        this.queuedEvents = new LongAdder();
+        this.maxQueueDepth = new AtomicLong();
+        this.droppedEvents = new LongAdder();
+        this.spilledEvents = new LongAdder();
+    }
+
+    /**
+     * Submits an event.
+     * Events are ordered per owner and key: use the handler or listener that will process the event as the owner,
+     * and the chat the event refers to as the key, or null for events that refer to the connection itself.
+     *
+     * @param owner the handler or listener that processes the event, must not be null
+     * @param key the chat the event refers to, can be null
+     * @param task the event to run, must not be null
+     */
+    public void execute(Object owner, Object key, Runnable task) {
+        Objects.requireNonNull(owner, "owner cannot be null");
+        Objects.requireNonNull(task, "task cannot be null");
+        var queueKey = new Key(owner, key);
+        while (true) {
+            var queue = queues.computeIfAbsent(queueKey, KeyQueue::new);
+            switch (queue.offer(task)) {
+                case ACCEPTED -> {
+                    return;
+                }
+                case SPILLED -> {
+                    Thread.startVirtualThread(() -> run(task));
+                    return;
+                }
+                case RETIRED -> {
+                    // The queue was drained and removed concurrently, try again with a new one
+                }
+            }
+        }
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Throwable throwable) {
+            errorHandler.accept(throwable);
+        }
+    }
+
+    /**
+     * Returns the policy used by this dispatcher
+     *
+     * @return a non-null policy
+     */
+    public WhatsAppClientDispatchPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of events that are waiting to be processed, across all keys
+     *
+     * @return a non-negative number
+     */
+    public long queuedEvents() {
+        return queuedEvents.sum();
+    }
+
+    /**
+     * Returns the number of keys that have events waiting or in progress
+     *
+     * @return a non-negative number
+     */
+    public int activeKeys() {
+        return queues.size();
+    }
+
+    /**
+     * Returns the maximum number of events that were queued for a single key
+     *
+     * @return a non-negative number
+     */
+    public long maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * Returns the number of events that were discarded because their queue was full
+     *
+     * @return a non-negative number
+     */
+    public long droppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * Returns the number of events that were run outside their queue because it was full
+     *
+     * @return a non-negative number
+     */
+    public long spilledEvents() {
+        return spilledEvents.sum();
+    }
+
+    private record Key(Object owner, Object key) {
+
+    }
+
+    private enum OfferResult {
+        ACCEPTED,
+        SPILLED,
+        RETIRED
+    }
+
+    private final class KeyQueue implements Runnable {
+        private final Key key;
+        private final ArrayDeque<Runnable> tasks;
+        private final ReentrantLock lock;
+        private final Condition notFull;
+        private Thread worker;
+        private boolean retired;
+
+        private KeyQueue(Key key) {
+            this.key = key;
+            this.tasks = new ArrayDeque<>();
+            this.lock = new ReentrantLock();
+            this.notFull = lock.newCondition();
+        }
+
+        private OfferResult offer(Runnable task) {
+            lock.lock();
+            try {
+                if (retired) {
+                    return OfferResult.RETIRED;
+                }
+
+                // The worker never waits for itself, or it would deadlock
+                if (tasks.size() >= policy.queueCapacity() && worker != Thread.currentThread()) {
+                    switch (policy.backpressure()) {
+                        case BLOCK -> {
+                            while (tasks.size() >= policy.queueCapacity()) {
+                                notFull.awaitUninterruptibly();
+                            }
+                        }
+                        case DROP_OLDEST -> {
+                            tasks.pollFirst();
+                            queuedEvents.decrement();
+                            droppedEvents.increment();
+                        }
+                        case SPILL -> {
+                            spilledEvents.increment();
+                            return OfferResult.SPILLED;
+                        }
+                    }
+                }
+
+                tasks.addLast(task);
+                queuedEvents.increment();
+                maxQueueDepth.accumulateAndGet(tasks.size(), Math::max);
+                if (worker == null) {
+                    this.worker = Thread.ofVirtual()
+                            .unstarted(this);
+                    worker.start();
+                }
+                return OfferResult.ACCEPTED;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task;
+                lock.lock();
+                try {
+                    task = tasks.pollFirst();
+                    if (task == null) {
+                        this.worker = null;
+                        this.retired = true;
+                        queues.remove(key, this);
+                        return;
+                    }
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+
+                queuedEvents.decrement();
+                WhatsAppClientDispatcher.this.run(task);
+            }
+        }
+    }
+}
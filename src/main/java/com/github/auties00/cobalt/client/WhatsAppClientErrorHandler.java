@@ -178,7 +178,12 @@ public interface WhatsAppClientErrorHandler {
         /**
          * Indicates an error that occurred when migrating to the new lid addressing mode
          */
-        LID_MIGRATION
+        LID_MIGRATION,
+
+        /**
+         * Indicates an error that occurred while archiving a message evicted by the retention policy
+         */
+        RETENTION
     }
 
     /**
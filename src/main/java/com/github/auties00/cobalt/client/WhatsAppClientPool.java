@@ -0,0 +1,182 @@
+package com.github.auties00.cobalt.client;
+
+import com.github.auties00.cobalt.media.MediaTransport;
+import com.github.auties00.cobalt.model.message.model.MessageBodyStorage;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts many {@link WhatsAppClient}s, usually one per account, on shared infrastructure.
+ * <p>
+ * Clients that belong to the same pool share:
+ * <ul>
+ *     <li>the serializer, and so its file budget, that persists their sessions</li>
+ *     <li>the http transport used to upload and download media, and the budget of concurrent transfers</li>
+ *     <li>the budget of messages kept decoded on the heap, if they keep their messages off the heap:
+ *     see {@link com.github.auties00.cobalt.store.WhatsAppStore#setOffHeapMessages(boolean)}</li>
+ *     <li>a single shutdown hook, instead of one per client</li>
+ *     <li>a connection budget: connects and reconnects are spaced out, so that many clients
+ *     don't hit WhatsApp at the same time after a start or a network outage</li>
+ * </ul>
+ * Socket I/O and timers are already shared by all the clients in the JVM.
+ * <p>
+ * A client joins a pool when it's built using {@link WhatsAppClientBuilder.Options#pool(WhatsAppClientPool)}.
+ * The pool's serializer should also be used to load the client's session:
+ * <pre>{@code
+ * var pool = WhatsAppClientPool.newPool();
+ * var client = WhatsAppClient.builder()
+ *         .webClient(pool.serializer())
+ *         .loadConnection(uuid)
+ *         .orElseThrow()
+ *         .pool(pool)
+ *         .registered()
+ *         .orElseThrow();
+ * pool.connectAll();
+ * }</pre>
+ */
+public final class WhatsAppClientPool {
+    private static final Duration DEFAULT_CONNECT_INTERVAL = Duration.ofMillis(100);
+    private static final int DEFAULT_MAX_CONCURRENT_MEDIA_TRANSFERS = 64;
+    private static final int DEFAULT_MAX_DECODED_MESSAGES = 65536;
+
+    private final WhatsappStoreSerializer serializer;
+    private final MediaTransport mediaTransport;
+    private final MessageBodyStorage messageBodyStorage;
+    private final long connectIntervalNanos;
+    private final AtomicLong nextConnectNanos;
+    private final Set<WhatsAppClient> clients;
+    private volatile Thread shutdownHook;
+
+    private WhatsAppClientPool(WhatsappStoreSerializer serializer, Duration connectInterval, int maxConcurrentMediaTransfers, int maxDecodedMessages) {
+        this.serializer = Objects.requireNonNull(serializer, "serializer cannot be null");
+        Objects.requireNonNull(connectInterval, "connectInterval cannot be null");
+        if (connectInterval.isNegative()) {
+            throw new IllegalArgumentException("connectInterval cannot be negative");
+        }
+        this.connectIntervalNanos = connectInterval.toNanos();
+        this.mediaTransport = MediaTransport.bounded(maxConcurrentMediaTransfers);
+        this.messageBodyStorage = new MessageBodyStorage(maxDecodedMessages);
+        this.nextConnectNanos = new AtomicLong(System.nanoTime());
+        this.clients = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Creates a pool that persists sessions using the default protobuf serializer,
+     * connects at most ten clients per second, runs at most 64 media transfers concurrently
+     * and keeps at most 65536 messages decoded across the clients that keep their messages off the heap
+     *
+     * @return a non-null pool
+     */
+    public static WhatsAppClientPool newPool() {
+        return new WhatsAppClientPool(WhatsappStoreSerializer.toProtobuf(), DEFAULT_CONNECT_INTERVAL, DEFAULT_MAX_CONCURRENT_MEDIA_TRANSFERS, DEFAULT_MAX_DECODED_MESSAGES);
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param serializer                  the serializer shared by the clients, must not be null
+     * @param connectInterval             the minimum time between two connects of clients in the pool, must not be negative
+     * @param maxConcurrentMediaTransfers the maximum number of media uploads and downloads running concurrently, must be positive
+     * @return a non-null pool
+     */
+    public static WhatsAppClientPool newPool(WhatsappStoreSerializer serializer, Duration connectInterval, int maxConcurrentMediaTransfers) {
+        return new WhatsAppClientPool(serializer, connectInterval, maxConcurrentMediaTransfers, DEFAULT_MAX_DECODED_MESSAGES);
+    }
+
+    /**
+     * Creates a pool
+     *
+     * @param serializer                  the serializer shared by the clients, must not be null
+     * @param connectInterval             the minimum time between two connects of clients in the pool, must not be negative
+     * @param maxConcurrentMediaTransfers the maximum number of media uploads and downloads running concurrently, must be positive
+     * @param maxDecodedMessages          the maximum number of messages kept decoded on the heap by the clients that keep their messages off the heap, must be positive
+     * @return a non-null pool
+     */
+    public static WhatsAppClientPool newPool(WhatsappStoreSerializer serializer, Duration connectInterval, int maxConcurrentMediaTransfers, int maxDecodedMessages) {
+        return new WhatsAppClientPool(serializer, connectInterval, maxConcurrentMediaTransfers, maxDecodedMessages);
+    }
+
+    /**
+     * Returns the serializer shared by the clients in this pool
+     *
+     * @return a non-null serializer
+     */
+    public WhatsappStoreSerializer serializer() {
+        return serializer;
+    }
+
+    MediaTransport mediaTransport() {
+        return mediaTransport;
+    }
+
+    MessageBodyStorage messageBodyStorage() {
+        return messageBodyStorage;
+    }
+
+    /**
+     * Returns the clients in this pool
+     *
+     * @return an unmodifiable view of the clients
+     */
+    public Collection<WhatsAppClient> clients() {
+        return Collections.unmodifiableSet(clients);
+    }
+
+    /**
+     * Connects all the clients in this pool.
+     * Clients are connected in parallel, but their connects are spaced out by the pool's connect interval.
+     */
+    public void connectAll() {
+        for (var client : clients) {
+            Thread.startVirtualThread(client::connect);
+        }
+    }
+
+    /**
+     * Disconnects all the clients in this pool
+     */
+    public void disconnectAll() {
+        for (var client : clients) {
+            client.disconnect(WhatsAppClientDisconnectReason.DISCONNECTED);
+        }
+    }
+
+    void register(WhatsAppClient client) {
+        clients.add(client);
+        if (shutdownHook == null) {
+            synchronized (this) {
+                if (shutdownHook == null) {
+                    this.shutdownHook = Thread.ofPlatform()
+                            .name("CobaltPoolShutdownHandler")
+                            .unstarted(this::disconnectAll);
+                    Runtime.getRuntime().addShutdownHook(shutdownHook);
+                }
+            }
+        }
+    }
+
+    void unregister(WhatsAppClient client) {
+        clients.remove(client);
+    }
+
+    // Reserves the next free connect slot and waits for it
+    // Reconnects are jittered, so that clients that lost their connection at the same time don't retry in lockstep
+    void awaitConnectSlot(boolean reconnect) throws InterruptedException {
+        var jitter = reconnect && connectIntervalNanos > 0 ? ThreadLocalRandom.current().nextLong(connectIntervalNanos) : 0;
+        var now = System.nanoTime();
+        var slot = nextConnectNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + connectIntervalNanos);
+        var delay = Math.max(slot, now) - now + jitter;
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.auties00.cobalt.client;
+
+import com.github.auties00.cobalt.model.info.MessageInfo;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+
+/**
+ * Represents the policy used by a {@link WhatsAppClient} to evict messages from memory.
+ * <p>
+ * Chats and newsletters keep every message they receive, so the memory used by a long-running client grows with its history.
+ * This policy bounds it: messages that exceed a limit are evicted incrementally in the background, oldest first,
+ * and are no longer persisted by the store. Eviction only affects this client: messages are not deleted from WhatsApp.
+ * <p>
+ * This class is immutable and thread-safe: every method that configures a limit returns a new policy.
+ *
+ * @see WhatsAppClientBuilder.Options#retentionPolicy(WhatsAppClientRetentionPolicy)
+ */
+public final class WhatsAppClientRetentionPolicy {
+    private static final WhatsAppClientRetentionPolicy UNLIMITED = new WhatsAppClientRetentionPolicy(null, null, null, null, null);
+
+    private final Integer maxMessagesPerChat;
+    private final Duration maxAge;
+    private final Long maxMessages;
+    private final Duration thumbnailRetention;
+    private final Archiver archiver;
+
+    private WhatsAppClientRetentionPolicy(Integer maxMessagesPerChat, Duration maxAge, Long maxMessages, Duration thumbnailRetention, Archiver archiver) {
+        this.maxMessagesPerChat = maxMessagesPerChat;
+        this.maxAge = maxAge;
+        this.maxMessages = maxMessages;
+        this.thumbnailRetention = thumbnailRetention;
+        this.archiver = archiver;
+    }
+
+    /**
+     * Returns the default policy, which keeps all messages in memory
+     *
+     * @return a non-null policy
+     */
+    public static WhatsAppClientRetentionPolicy unlimited() {
+        return UNLIMITED;
+    }
+
+    /**
+     * Returns a copy of this policy that keeps at most the given number of messages in each chat or newsletter
+     *
+     * @param maxMessagesPerChat the maximum number of messages of a chat or newsletter
+     * @return a non-null policy
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public WhatsAppClientRetentionPolicy maxMessagesPerChat(int maxMessagesPerChat) {
+        if (maxMessagesPerChat < 0) {
+            throw new IllegalArgumentException("maxMessagesPerChat cannot be negative");
+        }
+        return new WhatsAppClientRetentionPolicy(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    /**
+     * Returns a copy of this policy that evicts the messages older than the given age
+     *
+     * @param maxAge the maximum age of a message
+     * @return a non-null policy
+     * @throws IllegalArgumentException if the age is negative
+     */
+    public WhatsAppClientRetentionPolicy maxAge(Duration maxAge) {
+        Objects.requireNonNull(maxAge, "maxAge cannot be null");
+        if (maxAge.isNegative()) {
+            throw new IllegalArgumentException("maxAge cannot be negative");
+        }
+        return new WhatsAppClientRetentionPolicy(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    /**
+     * Returns a copy of this policy that keeps at most the given number of messages across all chats and newsletters.
+     * When the budget is exceeded, the oldest messages are evicted first, regardless of the chat they belong to.
+     *
+     * @param maxMessages the maximum number of messages
+     * @return a non-null policy
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public WhatsAppClientRetentionPolicy maxMessages(long maxMessages) {
+        if (maxMessages < 0) {
+            throw new IllegalArgumentException("maxMessages cannot be negative");
+        }
+        return new WhatsAppClientRetentionPolicy(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    /**
+     * Returns a copy of this policy that removes the inline thumbnails of image, video, document and sticker messages older than the given age.
+     * The media itself can still be downloaded.
+     *
+     * @param thumbnailRetention the age after which thumbnails are removed
+     * @return a non-null policy
+     * @throws IllegalArgumentException if the age is negative
+     */
+    public WhatsAppClientRetentionPolicy thumbnailRetention(Duration thumbnailRetention) {
+        Objects.requireNonNull(thumbnailRetention, "thumbnailRetention cannot be null");
+        if (thumbnailRetention.isNegative()) {
+            throw new IllegalArgumentException("thumbnailRetention cannot be negative");
+        }
+        return new WhatsAppClientRetentionPolicy(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    /**
+     * Returns a copy of this policy that passes every message to the given archiver before it's evicted
+     *
+     * @param archiver the archiver, can be null to drop evicted messages
+     * @return a non-null policy
+     */
+    public WhatsAppClientRetentionPolicy archiver(Archiver archiver) {
+        return new WhatsAppClientRetentionPolicy(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    /**
+     * Returns the maximum number of messages of a chat or newsletter
+     *
+     * @return an optional number
+     */
+    public OptionalInt maxMessagesPerChat() {
+        return maxMessagesPerChat == null ? OptionalInt.empty() : OptionalInt.of(maxMessagesPerChat);
+    }
+
+    /**
+     * Returns the maximum age of a message
+     *
+     * @return an optional duration
+     */
+    public Optional<Duration> maxAge() {
+        return Optional.ofNullable(maxAge);
+    }
+
+    /**
+     * Returns the maximum number of messages across all chats and newsletters
+     *
+     * @return an optional number
+     */
+    public OptionalLong maxMessages() {
+        return maxMessages == null ? OptionalLong.empty() : OptionalLong.of(maxMessages);
+    }
+
+    /**
+     * Returns the age after which the thumbnails of media messages are removed
+     *
+     * @return an optional duration
+     */
+    public Optional<Duration> thumbnailRetention() {
+        return Optional.ofNullable(thumbnailRetention);
+    }
+
+    /**
+     * Returns the archiver that receives evicted messages
+     *
+     * @return an optional archiver
+     */
+    public Optional<Archiver> archiver() {
+        return Optional.ofNullable(archiver);
+    }
+
+    /**
+     * Returns whether this policy never evicts or modifies a message
+     *
+     * @return a boolean
+     */
+    public boolean isUnlimited() {
+        return maxMessagesPerChat == null
+               && maxAge == null
+               && maxMessages == null
+               && thumbnailRetention == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WhatsAppClientRetentionPolicy that
+               && Objects.equals(maxMessagesPerChat, that.maxMessagesPerChat)
+               && Objects.equals(maxAge, that.maxAge)
+               && Objects.equals(maxMessages, that.maxMessages)
+               && Objects.equals(thumbnailRetention, that.thumbnailRetention)
+               && Objects.equals(archiver, that.archiver);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxMessagesPerChat, maxAge, maxMessages, thumbnailRetention, archiver);
+    }
+
+    @Override
+    public String toString() {
+        return "WhatsAppClientRetentionPolicy[" +
+               "maxMessagesPerChat=" + maxMessagesPerChat + ", " +
+               "maxAge=" + maxAge + ", " +
+               "maxMessages=" + maxMessages + ", " +
+               "thumbnailRetention=" + thumbnailRetention + ", " +
+               "archiver=" + archiver + ']';
+    }
+
+    /**
+     * A cold store for the messages evicted by a retention policy
+     */
+    @FunctionalInterface
+    public interface Archiver {
+        /**
+         * Archives a message before it's evicted from memory.
+         * Messages are archived one at a time, from the thread that evicts them.
+         * If this method throws, the message is not evicted, and the failure is reported to the error handler of the client.
+         *
+         * @param messageInfo the message that is about to be evicted
+         * @throws Exception if the message cannot be archived
+         */
+        void archive(MessageInfo messageInfo) throws Exception;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.auties00.cobalt.contact;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static it.auties.protobuf.model.ProtobufType.*;
+
+/**
+ * The result of a contact discovery query
+ *
+ * @param jid         the phone number jid of the contact
+ * @param registered  whether the contact has a WhatsApp account
+ * @param lid         the lid of the contact, null if the contact isn't registered or the server didn't return one
+ * @param devices     the devices of the contact, empty if the contact isn't registered
+ * @param timestamp   the time, in milliseconds since the epoch, when the result was returned by the server
+ */
+@ProtobufMessage
+public record ContactDiscoveryResult(@ProtobufProperty(index = 1, type = STRING) Jid jid,
+                                     @ProtobufProperty(index = 2, type = BOOL) boolean registered,
+                                     @ProtobufProperty(index = 3, type = STRING) Jid lid,
+                                     @ProtobufProperty(index = 4, type = STRING) List<Jid> devices,
+                                     @ProtobufProperty(index = 5, type = UINT64) long timestamp) {
+    /**
+     * How long the result of a contact that has an account is cached
+     */
+    public static final Duration REGISTERED_TTL = Duration.ofHours(24);
+
+    /**
+     * How long the result of a contact that doesn't have an account is cached
+     */
+    public static final Duration NOT_REGISTERED_TTL = Duration.ofHours(6);
+
+    public ContactDiscoveryResult {
+        Objects.requireNonNull(jid, "jid cannot be null");
+        devices = devices == null ? List.of() : List.copyOf(devices);
+    }
+
+    /**
+     * Returns the lid of the contact
+     *
+     * @return an optional
+     */
+    public Optional<Jid> lidJid() {
+        return Optional.ofNullable(lid);
+    }
+
+    /**
+     * Returns whether this result is older than the time it's cached for
+     *
+     * @param now the current time, in milliseconds since the epoch
+     * @return a boolean
+     */
+    public boolean isExpired(long now) {
+        return isExpired(registered ? REGISTERED_TTL : NOT_REGISTERED_TTL, now);
+    }
+
+    /**
+     * Returns whether this result is older than the given time to live
+     *
+     * @param ttl the time to live
+     * @param now the current time, in milliseconds since the epoch
+     * @return a boolean
+     */
+    public boolean isExpired(Duration ttl, long now) {
+        return now - timestamp >= ttl.toMillis();
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.auties00.cobalt.contact;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidProvider;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.util.Clock;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Service for discovering which phone numbers have a WhatsApp account.
+ * <p>
+ * Contacts are queried in chunks by a {@link ContactQueryScheduler}.
+ * Results, including the lid and the devices returned by the server, are cached in the store, so that repeated checks
+ * and the device lookups done when sending a message can skip their own queries.
+ */
+public final class ContactDiscoveryService {
+    /**
+     * How long the devices returned by a query can be used when sending a message
+     */
+    private static final Duration DEVICES_TTL = Duration.ofMinutes(10);
+
+    private final WhatsAppClient whatsapp;
+    private final ContactQueryScheduler scheduler;
+
+    /**
+     * Creates a new ContactDiscoveryService.
+     *
+     * @param whatsapp  the WhatsAppClient instance
+     * @param scheduler the scheduler used to run usync queries
+     */
+    public ContactDiscoveryService(WhatsAppClient whatsapp, ContactQueryScheduler scheduler) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler cannot be null");
+    }
+
+    /**
+     * Queries whether the given contacts have a WhatsApp account.
+     * <p>
+     * Cached results are returned immediately, while the others are returned as soon as the chunk they belong to is answered by the server.
+     * Contacts that are not phone number jids are ignored.
+     * If a chunk fails, the exception is thrown after the results of the other chunks.
+     *
+     * @param contacts the contacts to check
+     * @return a lazy stream of results
+     */
+    public Stream<ContactDiscoveryResult> discover(Collection<? extends JidProvider> contacts) {
+        Objects.requireNonNull(contacts, "contacts cannot be null");
+        var now = Clock.nowMilliseconds();
+        var cached = new ArrayList<ContactDiscoveryResult>();
+        var missing = new LinkedHashSet<Jid>();
+        for (var contact : contacts) {
+            if (contact == null) {
+                continue;
+            }
+
+            var jid = contact.toJid().withoutData();
+            if (!jid.hasServer(JidServer.user()) || jid.toPhoneNumber().isEmpty()) {
+                continue;
+            }
+
+            var result = findCachedResult(jid, now);
+            if (result.isPresent()) {
+                cached.add(result.get());
+            } else {
+                missing.add(jid);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return cached.stream();
+        }
+
+        // Results that expired are evicted before new ones are added, so that the cache doesn't grow with every contact that was ever checked
+        whatsapp.store()
+                .removeContactDiscoveryResults(result -> result.isExpired(now));
+        var queried = scheduler.query(missing, this::createQuery, this::parseResults);
+        return Stream.concat(cached.stream(), queried);
+    }
+
+    /**
+     * Returns the devices of a contact if they were discovered recently enough to be used when sending a message
+     *
+     * @param jid the phone number jid of the contact
+     * @return an optional
+     */
+    public Optional<List<Jid>> findCachedDevices(Jid jid) {
+        Objects.requireNonNull(jid, "jid cannot be null");
+        return whatsapp.store()
+                .findContactDiscoveryResult(jid.withoutData())
+                .filter(ContactDiscoveryResult::registered)
+                .filter(result -> !result.devices().isEmpty())
+                .filter(result -> !result.isExpired(DEVICES_TTL, Clock.nowMilliseconds()))
+                .map(ContactDiscoveryResult::devices);
+    }
+
+    private Optional<ContactDiscoveryResult> findCachedResult(Jid jid, long now) {
+        return whatsapp.store()
+                .findContactDiscoveryResult(jid)
+                .filter(result -> !result.isExpired(now));
+    }
+
+    private NodeBuilder createQuery(List<Jid> chunk) {
+        var userNodes = new ArrayList<Node>(chunk.size());
+        for (var jid : chunk) {
+            var contactNode = new NodeBuilder()
+                    .description("contact")
+                    .content(jid.toPhoneNumber().orElseThrow())
+                    .build();
+            var userNode = new NodeBuilder()
+                    .description("user")
+                    .content(contactNode)
+                    .build();
+            userNodes.add(userNode);
+        }
+
+        var queryContact = new NodeBuilder()
+                .description("contact")
+                .build();
+        var queryLid = new NodeBuilder()
+                .description("lid")
+                .build();
+        var queryDevices = new NodeBuilder()
+                .description("devices")
+                .attribute("version", "2")
+                .build();
+        return ContactQueryScheduler.createUsyncQuery("interactive", List.of(queryContact, queryLid, queryDevices), userNodes);
+    }
+
+    private List<ContactDiscoveryResult> parseResults(Node response) {
+        var now = Clock.nowMilliseconds();
+        var store = whatsapp.store();
+        var results = new ArrayList<ContactDiscoveryResult>();
+        for (var user : ContactQueryScheduler.streamUsyncUsers(response).toList()) {
+            var result = parseResult(user, now);
+            if (result.isEmpty()) {
+                continue;
+            }
+
+            store.addContactDiscoveryResult(result.get());
+            if (result.get().lid() != null) {
+                store.registerLidMapping(result.get().jid(), result.get().lid());
+            }
+            if (!result.get().devices().isEmpty()) {
+                store.addDeviceList(result.get().jid(), result.get().devices());
+            }
+            results.add(result.get());
+        }
+        return results;
+    }
+
+    private Optional<ContactDiscoveryResult> parseResult(Node user, long now) {
+        var jid = user.getAttributeAsJid("jid");
+        var contact = user.getChild("contact");
+        if (jid.isEmpty() || contact.isEmpty()) {
+            return Optional.empty();
+        }
+
+        var userJid = jid.get().withoutData();
+        var registered = contact.get()
+                .getAttributeAsString("type")
+                .filter("in"::equals)
+                .isPresent();
+        if (!registered) {
+            return Optional.of(new ContactDiscoveryResult(userJid, false, null, List.of(), now));
+        }
+
+        var lid = user.getChild("lid")
+                .flatMap(node -> node.getAttributeAsJid("val"))
+                .orElse(null);
+        var devices = user.streamChild("devices")
+                .flatMap(node -> node.streamChild("device-list"))
+                .flatMap(node -> node.streamChildren("device"))
+                .map(device -> userJid.withDevice((int) device.getAttributeAsLong("id", 0L)))
+                .toList();
+        return Optional.of(new ContactDiscoveryResult(userJid, true, lid, devices, now));
+    }
+}
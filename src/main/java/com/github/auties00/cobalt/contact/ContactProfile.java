@@ -0,0 +1,61 @@
+package com.github.auties00.cobalt.contact;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+
+import java.net.URI;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+import static it.auties.protobuf.model.ProtobufType.*;
+
+/**
+ * The about and the profile picture of a user or group
+ *
+ * @param jid            the jid of the user or group
+ * @param about          the about of the user, null if it's not set or not visible
+ * @param aboutTimestamp the time, in seconds since the epoch, when the about was set, or 0 if unknown
+ * @param pictureId      the id assigned by the server to the current profile picture, null if there is none
+ * @param picture        the url of the current profile picture, null if there is none
+ * @param timestamp      the time, in milliseconds since the epoch, when the profile was returned by the server
+ */
+@ProtobufMessage
+public record ContactProfile(@ProtobufProperty(index = 1, type = STRING) Jid jid,
+                             @ProtobufProperty(index = 2, type = STRING) String about,
+                             @ProtobufProperty(index = 3, type = UINT64) long aboutTimestamp,
+                             @ProtobufProperty(index = 4, type = STRING) String pictureId,
+                             @ProtobufProperty(index = 5, type = STRING) URI picture,
+                             @ProtobufProperty(index = 6, type = UINT64) long timestamp) {
+    public ContactProfile {
+        Objects.requireNonNull(jid, "jid cannot be null");
+    }
+
+    /**
+     * Returns the about of the user
+     *
+     * @return an optional
+     */
+    public Optional<String> aboutText() {
+        return Optional.ofNullable(about);
+    }
+
+    /**
+     * Returns the time when the about was set
+     *
+     * @return an optional
+     */
+    public OptionalLong aboutTimestampSeconds() {
+        return aboutTimestamp == 0 ? OptionalLong.empty() : OptionalLong.of(aboutTimestamp);
+    }
+
+    /**
+     * Returns the url of the current profile picture
+     *
+     * @return an optional
+     */
+    public Optional<URI> pictureUri() {
+        return Optional.ofNullable(picture);
+    }
+}
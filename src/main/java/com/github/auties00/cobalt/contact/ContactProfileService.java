@@ -0,0 +1,264 @@
+package com.github.auties00.cobalt.contact;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidProvider;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.util.Clock;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Service for querying the about and the profile picture of many users and groups.
+ * <p>
+ * The about and the id of the profile picture of users are queried in chunks by a {@link ContactQueryScheduler},
+ * using the status and picture usync protocols.
+ * The url of a profile picture is queried only if its id doesn't match the one cached in the store,
+ * so that unchanged pictures can be revalidated without additional queries.
+ */
+public final class ContactProfileService {
+    /**
+     * The maximum number of profile picture urls queried concurrently
+     */
+    private static final int MAX_IN_FLIGHT_PICTURES = 16;
+
+    private final WhatsAppClient whatsapp;
+    private final ContactQueryScheduler scheduler;
+    private final Semaphore inFlightPictures;
+
+    /**
+     * Creates a new ContactProfileService.
+     *
+     * @param whatsapp  the WhatsAppClient instance
+     * @param scheduler the scheduler used to run usync queries
+     */
+    public ContactProfileService(WhatsAppClient whatsapp, ContactQueryScheduler scheduler) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.scheduler = Objects.requireNonNull(scheduler, "scheduler cannot be null");
+        this.inFlightPictures = new Semaphore(MAX_IN_FLIGHT_PICTURES, true);
+    }
+
+    /**
+     * Queries the profiles of the given users and groups.
+     * <p>
+     * Results are returned as soon as they are answered by the server.
+     * Groups don't have an about, so only their picture is queried.
+     *
+     * @param jids the users and groups to query
+     * @return a lazy stream of results
+     */
+    public Stream<ContactProfile> queryProfiles(Collection<? extends JidProvider> jids) {
+        Objects.requireNonNull(jids, "jids cannot be null");
+        var users = new LinkedHashSet<Jid>();
+        var groups = new LinkedHashSet<Jid>();
+        for (var entry : jids) {
+            if (entry == null) {
+                continue;
+            }
+
+            var jid = entry.toJid().withoutData();
+            if (jid.hasServer(JidServer.groupOrCommunity())) {
+                groups.add(jid);
+            } else if (jid.hasServer(JidServer.user()) || jid.hasServer(JidServer.lid())) {
+                users.add(jid);
+            }
+        }
+
+        var groupProfiles = groups.stream()
+                .map(group -> supplyAsync(() -> queryGroupProfile(group)))
+                .toList();
+        var userProfiles = scheduler.query(users, this::createQuery, this::parseResults);
+        return Stream.concat(userProfiles, groupProfiles.stream().map(this::join));
+    }
+
+    /**
+     * Queries the url of the profile picture of a user or group and caches it
+     *
+     * @param jid the user or group
+     * @return an optional
+     */
+    public Optional<URI> queryPicture(Jid jid) {
+        Objects.requireNonNull(jid, "jid cannot be null");
+        var userJid = jid.withoutData();
+        var result = queryPictureNode(userJid);
+        var pictureId = result.flatMap(picture -> picture.getAttributeAsString("id"))
+                .orElse(null);
+        var picture = result.flatMap(this::parsePictureUrl)
+                .orElse(null);
+        var cached = whatsapp.store()
+                .findContactProfile(userJid);
+        var profile = new ContactProfile(
+                userJid,
+                cached.map(ContactProfile::about).orElse(null),
+                cached.map(ContactProfile::aboutTimestamp).orElse(0L),
+                pictureId,
+                picture,
+                Clock.nowMilliseconds()
+        );
+        whatsapp.store()
+                .addContactProfile(profile);
+        return profile.pictureUri();
+    }
+
+    private ContactProfile queryGroupProfile(Jid group) {
+        var result = queryPictureNode(group);
+        var pictureId = result.flatMap(picture -> picture.getAttributeAsString("id"))
+                .orElse(null);
+        var picture = result.flatMap(this::parsePictureUrl)
+                .orElse(null);
+        var profile = new ContactProfile(group, null, 0, pictureId, picture, Clock.nowMilliseconds());
+        whatsapp.store()
+                .addContactProfile(profile);
+        return profile;
+    }
+
+    private NodeBuilder createQuery(List<Jid> chunk) {
+        var userNodes = new ArrayList<Node>(chunk.size());
+        for (var jid : chunk) {
+            var userNode = new NodeBuilder()
+                    .description("user")
+                    .attribute("jid", jid)
+                    .build();
+            userNodes.add(userNode);
+        }
+
+        var queryStatus = new NodeBuilder()
+                .description("status")
+                .build();
+        var queryPicture = new NodeBuilder()
+                .description("picture")
+                .build();
+        return ContactQueryScheduler.createUsyncQuery("interactive", List.of(queryStatus, queryPicture), userNodes);
+    }
+
+    // Pictures whose id changed are queried concurrently, the others are taken from the cache
+    private List<ContactProfile> parseResults(Node response) {
+        var now = Clock.nowMilliseconds();
+        var profiles = ContactQueryScheduler.streamUsyncUsers(response)
+                .flatMap(user -> parseResult(user, now).stream())
+                .toList();
+        var resolved = profiles.stream()
+                .map(this::resolvePicture)
+                .toList();
+        return resolved.stream()
+                .map(this::join)
+                .peek(whatsapp.store()::addContactProfile)
+                .toList();
+    }
+
+    private Optional<ContactProfile> parseResult(Node user, long now) {
+        var jid = user.getAttributeAsJid("jid");
+        if (jid.isEmpty()) {
+            return Optional.empty();
+        }
+
+        var status = user.getChild("status")
+                .filter(node -> !node.hasChild("error"));
+        var about = status.flatMap(Node::toContentString)
+                .filter(text -> !text.isEmpty())
+                .orElse(null);
+        var aboutTimestamp = status.map(node -> node.getAttributeAsLong("t", 0L))
+                .orElse(0L);
+        var pictureId = user.getChild("picture")
+                .filter(node -> !node.hasChild("error"))
+                .flatMap(node -> node.getAttributeAsString("id"))
+                .orElse(null);
+        return Optional.of(new ContactProfile(jid.get().withoutData(), about, aboutTimestamp, pictureId, null, now));
+    }
+
+    private CompletableFuture<ContactProfile> resolvePicture(ContactProfile profile) {
+        if (profile.pictureId() == null) {
+            return CompletableFuture.completedFuture(profile);
+        }
+
+        var cached = whatsapp.store()
+                .findContactProfile(profile.jid())
+                .filter(entry -> Objects.equals(entry.pictureId(), profile.pictureId()))
+                .flatMap(ContactProfile::pictureUri);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(withPicture(profile, cached.get()));
+        }
+
+        return supplyAsync(() -> queryPictureNode(profile.jid())
+                .flatMap(this::parsePictureUrl)
+                .map(picture -> withPicture(profile, picture))
+                .orElse(profile));
+    }
+
+    private ContactProfile withPicture(ContactProfile profile, URI picture) {
+        return new ContactProfile(profile.jid(), profile.about(), profile.aboutTimestamp(), profile.pictureId(), picture, profile.timestamp());
+    }
+
+    private Optional<Node> queryPictureNode(Jid jid) {
+        try {
+            inFlightPictures.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to query a profile picture", exception);
+        }
+
+        try {
+            var pictureNode = new NodeBuilder()
+                    .description("picture")
+                    .attribute("query", "url")
+                    .attribute("type", "image")
+                    .build();
+            var community = jid.hasServer(JidServer.groupOrCommunity()) && isCommunity(jid);
+            var iqNode = new NodeBuilder()
+                    .description("iq")
+                    .attribute("xmlns", "w:profile:picture")
+                    .attribute(community ? "parent_group_jid" : "target", jid)
+                    .attribute("to", JidServer.user())
+                    .attribute("type", "get")
+                    .content(pictureNode);
+            return whatsapp.sendNode(iqNode)
+                    .getChild("picture");
+        } finally {
+            inFlightPictures.release();
+        }
+    }
+
+    // Use the cached metadata, if available, to avoid a round trip
+    private boolean isCommunity(Jid jid) {
+        return whatsapp.store()
+                .findGroupOrCommunityMetadata(jid)
+                .orElseGet(() -> whatsapp.queryGroupOrCommunityMetadata(jid))
+                .isCommunity();
+    }
+
+    private Optional<URI> parsePictureUrl(Node picture) {
+        return picture.getAttributeAsString("url")
+                .map(URI::create);
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        var future = new CompletableFuture<T>();
+        Thread.startVirtualThread(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        });
+        return future;
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw exception;
+        }
+    }
+}
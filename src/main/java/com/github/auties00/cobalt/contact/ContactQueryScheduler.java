@@ -0,0 +1,288 @@
+package com.github.auties00.cobalt.contact;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.util.SecureBytes;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Schedules usync queries about a large number of users.
+ * <p>
+ * Users are split into chunks that are queried concurrently, within a rate budget shared by all the queries of a session:
+ * at most {@value #MAX_IN_FLIGHT_CHUNKS} chunks are in flight at any time, and consecutive chunks are spaced
+ * by an interval that grows when the server rate limits the client and shrinks back as queries succeed.
+ * Chunks are only sent while the stream of results is consumed, so a stream that is abandoned stops querying the server.
+ */
+public final class ContactQueryScheduler {
+    /**
+     * The maximum number of users in a single usync query
+     */
+    private static final int MAX_CHUNK_SIZE = 500;
+
+    /**
+     * The maximum number of usync queries in flight
+     */
+    private static final int MAX_IN_FLIGHT_CHUNKS = 4;
+
+    /**
+     * The minimum and maximum spacing between two usync queries
+     */
+    private static final Duration MIN_CHUNK_INTERVAL = Duration.ofMillis(250);
+    private static final Duration MAX_CHUNK_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * The number of times a rate limited chunk is retried
+     */
+    private static final int MAX_CHUNK_ATTEMPTS = 5;
+
+    private static final String RATE_LIMIT_CODE = "429";
+
+    private final WhatsAppClient whatsapp;
+    private final Semaphore inFlightChunks;
+    private final AtomicLong nextChunkNanos;
+    private final AtomicLong chunkIntervalNanos;
+
+    /**
+     * Creates a new ContactQueryScheduler.
+     *
+     * @param whatsapp the WhatsAppClient instance
+     */
+    public ContactQueryScheduler(WhatsAppClient whatsapp) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.inFlightChunks = new Semaphore(MAX_IN_FLIGHT_CHUNKS, true);
+        this.nextChunkNanos = new AtomicLong(System.nanoTime());
+        this.chunkIntervalNanos = new AtomicLong(MIN_CHUNK_INTERVAL.toNanos());
+    }
+
+    /**
+     * Queries the given users in chunks.
+     * <p>
+     * No query is sent until the stream is consumed: then, up to {@value #MAX_IN_FLIGHT_CHUNKS} chunks are queried ahead of the consumer,
+     * and the results of a chunk are returned as soon as it is answered by the server.
+     * If a chunk fails, the results of the other chunks are returned first, then the exception is thrown.
+     *
+     * @param users   the users to query
+     * @param request a function that creates the usync query for a chunk
+     * @param parser  a function that parses the response to a chunk
+     * @param <T>     the type of the results
+     * @return a lazy stream of results
+     */
+    public <T> Stream<T> query(SequencedCollection<Jid> users, Function<List<Jid>, NodeBuilder> request, Function<Node, List<T>> parser) {
+        Objects.requireNonNull(users, "users cannot be null");
+        Objects.requireNonNull(request, "request cannot be null");
+        Objects.requireNonNull(parser, "parser cannot be null");
+        if (users.isEmpty()) {
+            return Stream.empty();
+        }
+
+        var chunks = partition(users);
+        var spliterator = new ChunkSpliterator<T>(chunks, chunk -> queryChunk(chunk, request, parser));
+        return StreamSupport.stream(spliterator, false)
+                .flatMap(Collection::stream);
+    }
+
+    /**
+     * Creates a usync query
+     *
+     * @param context   the context of the query
+     * @param protocols the protocols to query
+     * @param users     the users to query
+     * @return a non-null iq
+     */
+    public static NodeBuilder createUsyncQuery(String context, SequencedCollection<Node> protocols, SequencedCollection<Node> users) {
+        var queryNode = new NodeBuilder()
+                .description("query")
+                .content(protocols)
+                .build();
+        var listNode = new NodeBuilder()
+                .description("list")
+                .content(users)
+                .build();
+        var sideListNode = new NodeBuilder()
+                .description("side_list")
+                .build();
+        var syncNode = new NodeBuilder()
+                .description("usync")
+                .attribute("sid", SecureBytes.randomSid())
+                .attribute("mode", "query")
+                .attribute("last", "true")
+                .attribute("index", "0")
+                .attribute("context", context)
+                .content(queryNode, listNode, sideListNode)
+                .build();
+        return new NodeBuilder()
+                .description("iq")
+                .attribute("xmlns", "usync")
+                .attribute("to", JidServer.user())
+                .attribute("type", "get")
+                .content(syncNode);
+    }
+
+    /**
+     * Returns the users in a usync response
+     *
+     * @param response the response
+     * @return a stream of user nodes
+     */
+    public static Stream<Node> streamUsyncUsers(Node response) {
+        return response.streamChildren("usync")
+                .flatMap(node -> node.streamChild("list"))
+                .flatMap(node -> node.streamChildren("user"));
+    }
+
+    private List<List<Jid>> partition(SequencedCollection<Jid> jids) {
+        var chunks = new ArrayList<List<Jid>>((jids.size() + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        var chunk = new ArrayList<Jid>(Math.min(jids.size(), MAX_CHUNK_SIZE));
+        for (var jid : jids) {
+            chunk.add(jid);
+            if (chunk.size() == MAX_CHUNK_SIZE) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>(MAX_CHUNK_SIZE);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    private <T> ChunkResult<T> queryChunk(List<Jid> chunk, Function<List<Jid>, NodeBuilder> request, Function<Node, List<T>> parser) {
+        try {
+            inFlightChunks.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return new ChunkResult<>(List.of(), exception);
+        }
+
+        Node response;
+        try {
+            response = sendChunk(chunk, request);
+        } catch (Throwable throwable) {
+            return new ChunkResult<>(List.of(), throwable);
+        } finally {
+            inFlightChunks.release();
+        }
+
+        // The parser may send queries of its own, like the ones for the url of profile pictures, so the usync slot is released first
+        try {
+            return new ChunkResult<>(parser.apply(response), null);
+        } catch (Throwable throwable) {
+            return new ChunkResult<>(List.of(), throwable);
+        }
+    }
+
+    private Node sendChunk(List<Jid> chunk, Function<List<Jid>, NodeBuilder> request) throws InterruptedException {
+        for (var attempt = 1; ; attempt++) {
+            awaitChunkSlot();
+            var response = whatsapp.sendNode(request.apply(chunk));
+            if (!isRateLimited(response)) {
+                adjustChunkInterval(false);
+                return response;
+            }
+
+            adjustChunkInterval(true);
+            if (attempt == MAX_CHUNK_ATTEMPTS) {
+                throw new IllegalStateException("Usync query was rate limited by the server");
+            }
+        }
+    }
+
+    // Reserves the next free slot in the rate budget and waits for it
+    private void awaitChunkSlot() throws InterruptedException {
+        var interval = chunkIntervalNanos.get();
+        var now = System.nanoTime();
+        var slot = nextChunkNanos.getAndAccumulate(now, (next, current) -> Math.max(next, current) + interval);
+        var delay = Math.max(slot, now) - now;
+        if (delay > 0) {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+    }
+
+    private void adjustChunkInterval(boolean rateLimited) {
+        var min = MIN_CHUNK_INTERVAL.toNanos();
+        var max = MAX_CHUNK_INTERVAL.toNanos();
+        chunkIntervalNanos.updateAndGet(interval -> rateLimited ? Math.min(interval * 2, max) : Math.max(interval - interval / 4, min));
+    }
+
+    private boolean isRateLimited(Node response) {
+        return response.getChild("error")
+                .flatMap(error -> error.getAttributeAsString("code"))
+                .filter(RATE_LIMIT_CODE::equals)
+                .isPresent();
+    }
+
+    private record ChunkResult<T>(List<T> results, Throwable error) {
+
+    }
+
+    // Starts a chunk only when fewer than MAX_IN_FLIGHT_CHUNKS chunks are waiting to be consumed,
+    // and returns the results in the order the chunks are answered
+    private static final class ChunkSpliterator<T> extends Spliterators.AbstractSpliterator<List<T>> {
+        private final List<List<Jid>> chunks;
+        private final Function<List<Jid>, ChunkResult<T>> executor;
+        private final BlockingQueue<ChunkResult<T>> queue;
+        private int started;
+        private int consumed;
+        private Throwable error;
+
+        private ChunkSpliterator(List<List<Jid>> chunks, Function<List<Jid>, ChunkResult<T>> executor) {
+            super(chunks.size(), NONNULL);
+            this.chunks = chunks;
+            this.executor = executor;
+            this.queue = new LinkedBlockingQueue<>();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super List<T>> action) {
+            while (consumed < chunks.size()) {
+                while (started < chunks.size() && started - consumed < MAX_IN_FLIGHT_CHUNKS) {
+                    var chunk = chunks.get(started++);
+                    Thread.startVirtualThread(() -> queue.add(executor.apply(chunk)));
+                }
+
+                ChunkResult<T> result;
+                try {
+                    result = queue.take();
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for usync query", exception);
+                }
+
+                consumed++;
+                if (result.error() == null) {
+                    action.accept(result.results());
+                    return true;
+                }
+
+                if (error == null) {
+                    this.error = result.error();
+                } else {
+                    error.addSuppressed(result.error());
+                }
+            }
+
+            switch (error) {
+                case null -> {
+                    return false;
+                }
+                case RuntimeException exception -> throw exception;
+                case Error exception -> throw exception;
+                case Throwable throwable -> throw new RuntimeException("Cannot execute usync query", throwable);
+            }
+        }
+    }
+}
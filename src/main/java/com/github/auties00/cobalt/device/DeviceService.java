@@ -1,6 +1,7 @@
 package com.github.auties00.cobalt.device;
 
 import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.contact.ContactDiscoveryService;
 import com.github.auties00.cobalt.device.adv.DeviceADVValidator;
 import com.github.auties00.cobalt.model.jid.Jid;
 import com.github.auties00.cobalt.model.jid.JidServer;
@@ -14,18 +15,19 @@ import com.github.auties00.libsignal.key.SignalIdentityPublicKey;
 import com.github.auties00.libsignal.protocol.SignalSenderKeyDistributionMessage;
 import com.github.auties00.libsignal.state.SignalPreKeyBundleBuilder;
 
-import java.util.Collection;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class DeviceService {
     private final WhatsAppClient client;
+    private final ContactDiscoveryService contactDiscoveryService;
     private final SignalSessionCipher sessionCipher;
     private final SignalGroupCipher groupCipher;
 
-    public DeviceService(WhatsAppClient client, SignalSessionCipher sessionCipher, SignalGroupCipher groupCipher) {
+    public DeviceService(WhatsAppClient client, ContactDiscoveryService contactDiscoveryService, SignalSessionCipher sessionCipher, SignalGroupCipher groupCipher) {
         this.client = client;
+        this.contactDiscoveryService = contactDiscoveryService;
         this.sessionCipher = sessionCipher;
         this.groupCipher = groupCipher;
     }
@@ -62,11 +64,22 @@ public final class DeviceService {
         return devices;
     }
 
+    // Users whose devices were returned by a recent contact discovery query are not queried again
     private Set<? extends Jid> queryDevicesForJids(Collection<? extends Jid> jids) {
-        var userNodes = jids.stream()
-                .distinct()
-                .map(this::buildUserNode)
-                .toList();
+        var result = new HashSet<Jid>();
+        var userNodes = new ArrayList<Node>();
+        for (var jid : new LinkedHashSet<Jid>(jids)) {
+            var devices = contactDiscoveryService.findCachedDevices(jid);
+            if (devices.isPresent()) {
+                result.addAll(devices.get());
+            } else {
+                userNodes.add(buildUserNode(jid));
+            }
+        }
+
+        if (userNodes.isEmpty()) {
+            return Collections.unmodifiableSet(result);
+        }
 
         var devicesNode = new NodeBuilder()
                 .description("devices")
@@ -101,11 +114,12 @@ public final class DeviceService {
 
         var response = client.sendNode(iqNode);
 
-        return response.streamChildren("usync")
+        response.streamChildren("usync")
                 .flatMap(node -> node.streamChild("list"))
                 .flatMap(node -> node.streamChildren("user"))
                 .flatMap(this::parseDevice)
-                .collect(Collectors.toUnmodifiableSet());
+                .forEach(result::add);
+        return Collections.unmodifiableSet(result);
     }
 
     private Stream<Jid> parseDevice(Node user) {
@@ -0,0 +1,181 @@
+package com.github.auties00.cobalt.group;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Semaphore;
+
+import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.UNKNOWN;
+
+/**
+ * Service for synchronizing the groups and communities this account participates in.
+ * <p>
+ * The sync is incremental: the summary of every group is queried first, without its participants,
+ * and the full metadata is queried only for the groups whose summary changed since the last sync, or that are new.
+ * The version of a group, that is a fingerprint of its summary, is persisted in the store after its metadata is fetched.
+ * Changes to the participants of a group don't affect its summary, but they are delivered as notifications,
+ * including the ones received while the client was offline.
+ */
+public final class GroupSyncService {
+    /**
+     * The maximum number of group metadata queries sent concurrently
+     */
+    private static final int MAX_IN_FLIGHT_QUERIES = 8;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final WhatsAppClient whatsapp;
+    private final Semaphore inFlightQueries;
+
+    /**
+     * Creates a new GroupSyncService.
+     *
+     * @param whatsapp the WhatsAppClient instance
+     */
+    public GroupSyncService(WhatsAppClient whatsapp) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.inFlightQueries = new Semaphore(MAX_IN_FLIGHT_QUERIES, true);
+    }
+
+    /**
+     * Synchronizes the groups and communities this account participates in.
+     * <p>
+     * Groups that the account left are removed from the synced groups.
+     *
+     * @return the chats of the groups and communities this account participates in
+     */
+    public SequencedCollection<Chat> sync() {
+        var store = whatsapp.store();
+        var versions = queryVersions();
+        var changed = new ArrayList<Jid>();
+        for (var entry : versions.entrySet()) {
+            var group = entry.getKey();
+            var known = store.findGroupOrCommunityVersion(group);
+            if (known.isEmpty() || known.getAsLong() != entry.getValue() || store.findChatByJid(group).isEmpty()) {
+                changed.add(group);
+            }
+        }
+
+        queryMetadata(changed, versions);
+
+        for (var group : store.groupOrCommunityVersionJids()) {
+            if (!versions.containsKey(group)) {
+                store.removeGroupOrCommunityVersion(group);
+                store.removeGroupOrCommunityMetadata(group);
+            }
+        }
+
+        var chats = new ArrayList<Chat>(versions.size());
+        for (var group : versions.keySet()) {
+            store.findChatByJid(group)
+                    .ifPresent(chats::add);
+        }
+        return Collections.unmodifiableList(chats);
+    }
+
+    private SequencedMap<Jid, Long> queryVersions() {
+        var descriptionNode = new NodeBuilder()
+                .description("description")
+                .build();
+        var participatingNode = new NodeBuilder()
+                .description("participating")
+                .content(descriptionNode)
+                .build();
+        var iqNode = new NodeBuilder()
+                .description("iq")
+                .attribute("xmlns", "w:g2")
+                .attribute("to", JidServer.groupOrCommunity())
+                .attribute("type", "get")
+                .content(participatingNode);
+        var versions = new LinkedHashMap<Jid, Long>();
+        whatsapp.sendNode(iqNode)
+                .streamChild("groups")
+                .flatMap(groups -> groups.streamChildren("group"))
+                .forEach(group -> parseJid(group)
+                        .ifPresent(jid -> versions.put(jid, fingerprint(FNV_OFFSET_BASIS, group))));
+        return versions;
+    }
+
+    // Only the groups that changed are queried, each on its own virtual thread, at most MAX_IN_FLIGHT_QUERIES at a time
+    private void queryMetadata(List<Jid> groups, Map<Jid, Long> versions) {
+        var threads = new ArrayList<Thread>(groups.size());
+        try {
+            for (var group : groups) {
+                inFlightQueries.acquire();
+                var thread = Thread.startVirtualThread(() -> {
+                    try {
+                        queryMetadata(group, versions.get(group));
+                    } finally {
+                        inFlightQueries.release();
+                    }
+                });
+                threads.add(thread);
+            }
+
+            for (var thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while synchronizing groups", exception);
+        }
+    }
+
+    // The version of a group is recorded only once its metadata is saved, so a group that can't be queried or parsed is queried again on the next sync
+    // The versions were computed before the metadata was queried, so a group that changed in between is queried again as well
+    private void queryMetadata(Jid group, long version) {
+        try {
+            var metadata = whatsapp.queryGroupOrCommunityMetadata(group);
+            var store = whatsapp.store();
+            store.addGroupOrCommunityMetadata(metadata);
+            store.addGroupOrCommunityVersion(group, version);
+        } catch (RuntimeException exception) {
+            whatsapp.handleFailure(UNKNOWN, exception);
+        }
+    }
+
+    private static Optional<Jid> parseJid(Node group) {
+        return group.getAttributeAsString("id")
+                .map(id -> Jid.of(id, JidServer.groupOrCommunity()));
+    }
+
+    // FNV-1a over the description, attributes and content of a node and of its children
+    // Attributes are sorted so that the fingerprint doesn't depend on the order used by the server
+    private static long fingerprint(long hash, Node node) {
+        hash = fingerprint(hash, node.description());
+        for (var attribute : new TreeMap<>(node.attributes()).entrySet()) {
+            hash = fingerprint(hash, attribute.getKey());
+            hash = fingerprint(hash, attribute.getValue().toString());
+        }
+        var content = node.toContentBytes();
+        if (content.isPresent()) {
+            hash = fingerprint(hash, content.get());
+        }
+        for (var child : node.children()) {
+            hash = fingerprint(hash, child);
+        }
+        return hash;
+    }
+
+    private static long fingerprint(long hash, String value) {
+        return fingerprint(hash, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long fingerprint(long hash, byte[] value) {
+        for (var entry : value) {
+            hash ^= entry & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        // Separates consecutive values, so that "ab" + "c" and "a" + "bc" don't collide
+        hash ^= 0xFF;
+        hash *= FNV_PRIME;
+        return hash;
+    }
+}
@@ -5,6 +5,7 @@ import com.alibaba.fastjson2.JSONObject;
 import com.github.auties00.cobalt.exception.MediaDownloadException;
 import com.github.auties00.cobalt.exception.MediaException;
 import com.github.auties00.cobalt.exception.MediaUploadException;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
 import com.github.auties00.cobalt.model.media.MediaProvider;
 import com.github.auties00.cobalt.util.Clock;
 
@@ -15,27 +16,36 @@ import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Base64;
-import java.util.Objects;
-import java.util.Optional;
-import java.util.SequencedCollection;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Flow;
 
 public final class MediaConnection {
+    private static final long FAILED_HOST_LATENCY = Duration.ofSeconds(30).toNanos();
+
     private final String auth;
     private final int ttl;
     private final int maxBuckets;
     private final long timestamp;
     private final SequencedCollection<? extends MediaHost> hosts;
+    private final ConcurrentMap<String, Long> hostLatencies;
+    private final WhatsAppClientMetrics metrics;
+    private final MediaTransport transport;
 
-    public MediaConnection(String auth, int ttl, int maxBuckets, long timestamp, SequencedCollection<? extends MediaHost> hosts) {
+    public MediaConnection(String auth, int ttl, int maxBuckets, long timestamp, SequencedCollection<? extends MediaHost> hosts, ConcurrentMap<String, Long> hostLatencies, WhatsAppClientMetrics metrics, MediaTransport transport) {
         this.auth = auth;
         this.ttl = ttl;
         this.maxBuckets = maxBuckets;
         this.timestamp = timestamp;
         this.hosts = hosts;
+        this.hostLatencies = hostLatencies;
+        this.metrics = metrics;
+        this.transport = Objects.requireNonNull(transport, "transport cannot be null");
     }
 
     public boolean upload(MediaProvider provider, InputStream inputStream) throws MediaException {
@@ -48,9 +58,15 @@ public final class MediaConnection {
             return false;
         }
 
-        try(var client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.ALWAYS)
-                .build()) {
+        try {
+            transport.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MediaUploadException("Interrupted while waiting to upload media", exception);
+        }
+
+        try {
+            var client = transport.client();
             var uploadStream = MediaUploadInputStream.of(provider, inputStream);
             var tempFile = Files.createTempFile("upload", ".tmp");
             try (uploadStream; var outputStream = Files.newOutputStream(tempFile)) {
@@ -64,17 +80,22 @@ public final class MediaConnection {
                     .orElse(null);
             var fileLength = uploadStream.fileLength();
 
-            for (var host : hosts) {
+            for (var host : rankedHosts()) {
                 if(!host.canUpload(provider)) {
                     continue;
                 }
 
+                var sample = metrics.startMediaTransfer();
                 var uploadResult = tryUpload(client, host.hostname(), path.get(), fileEncSha256, fileSha256, tempFile)
                         .or(() -> host.fallbackHostname().flatMap(fallbackHostname -> tryUpload(client, fallbackHostname, path.get(), fileEncSha256, fileSha256, tempFile)));
+                metrics.recordMediaUpload(sample, host.hostname(), uploadResult.isPresent() ? fileLength : 0, uploadResult.isPresent());
+                recordLatency(host.hostname(), uploadResult.map(UploadResponse::timeToFirstByte).orElse(FAILED_HOST_LATENCY));
                 if(uploadResult.isPresent()) {
                     var directPath = uploadResult.get()
+                            .body()
                             .getString("direct_path");
                     var url = uploadResult.get()
+                            .body()
                             .getString("url");
                     // var handle = jsonObject.getString("handle");
 
@@ -93,19 +114,22 @@ public final class MediaConnection {
             throw new MediaUploadException("Cannot upload media: no hosts available");
         }catch (IOException exception) {
             throw new MediaUploadException("Cannot upload media", exception);
+        }finally {
+            transport.release();
         }
     }
 
-    private Optional<JSONObject> tryUpload(HttpClient client, String hostname, String path, byte[] fileEncSha256, byte[] fileSha256, Path body) {
+    private Optional<UploadResponse> tryUpload(HttpClient client, String hostname, String path, byte[] fileEncSha256, byte[] fileSha256, Path body) {
         try {
             var auth = URLEncoder.encode(this.auth, StandardCharsets.UTF_8);
             var token = Base64.getUrlEncoder()
                     .withoutPadding()
                     .encodeToString(Objects.requireNonNullElse(fileEncSha256, fileSha256));
             var uri = URI.create("https://%s/%s/%s?auth=%s&token=%s".formatted(hostname, path, token, auth, token));
+            var bodyPublisher = new TimedBodyPublisher(HttpRequest.BodyPublishers.ofFile(body));
             var requestBuilder = HttpRequest.newBuilder()
                     .uri(uri)
-                    .POST(HttpRequest.BodyPublishers.ofFile(body));
+                    .POST(bodyPublisher);
             var request = requestBuilder.header("Content-Type", "application/octet-stream")
                     .header("Accept", "application/json")
                     .headers("Origin", "https://web.whatsapp.com")
@@ -115,8 +139,9 @@ public final class MediaConnection {
                 throw new MediaUploadException("Cannot upload media: status code " + response.statusCode());
             }
 
+            var timeToFirstByte = System.nanoTime() - bodyPublisher.completedNanos();
             var jsonObject = JSON.parseObject(response.body());
-            return Optional.ofNullable(jsonObject);
+            return jsonObject == null ? Optional.empty() : Optional.of(new UploadResponse(jsonObject, timeToFirstByte));
         }catch (Throwable _) {
             return Optional.empty();
         }
@@ -127,7 +152,9 @@ public final class MediaConnection {
 
         var defaultUploadUrl = provider.mediaUrl();
         if(defaultUploadUrl.isPresent()) {
+            var sample = metrics.startMediaTransfer();
             var result = tryDownload(provider, defaultUploadUrl.get());
+            recordDownload(sample, provider, URI.create(defaultUploadUrl.get()).getHost(), result.isPresent());
             if(result.isPresent()) {
                 return result.get();
             }
@@ -135,13 +162,17 @@ public final class MediaConnection {
 
         var defaultDirectPath = provider.mediaDirectPath()
                 .orElseThrow(() -> new MediaDownloadException("Missing direct path from media"));
-        for(var host : hosts) {
+        for(var host : rankedHosts()) {
             if(!host.canDownload(provider)) {
                 continue;
             }
 
             var uploadUrl = "https://" + host.hostname() + defaultDirectPath;
+            var sample = metrics.startMediaTransfer();
+            var start = System.nanoTime();
             var result = tryDownload(provider, uploadUrl);
+            recordLatency(host.hostname(), result.isPresent() ? System.nanoTime() - start : FAILED_HOST_LATENCY);
+            recordDownload(sample, provider, host.hostname(), result.isPresent());
             if(result.isPresent()) {
                 return result.get();
             }
@@ -151,14 +182,27 @@ public final class MediaConnection {
     }
 
     public Optional<InputStream> tryDownload(MediaProvider provider, String uploadUrl) throws MediaException {
-        var client = HttpClient.newBuilder()
-                .followRedirects(HttpClient.Redirect.ALWAYS)
-                .build();
         var request = HttpRequest.newBuilder()
                 .uri(URI.create(uploadUrl))
                 .build();
         try {
-            var response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            transport.acquire();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new MediaDownloadException("Interrupted while waiting to download media", exception);
+        }
+
+        HttpResponse<InputStream> response;
+        try {
+            response = transport.client().send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (Throwable throwable) {
+            transport.release();
+            return Optional.empty();
+        }
+
+        // From now on, the transfer is released when the body is closed, so the body must be closed on every failure
+        var rawInputStream = transport.releaseOnClose(response.body());
+        try {
             if (response.statusCode() != 200) {
                 throw new MediaDownloadException("Cannot download media: status code " + response.statusCode());
             }
@@ -166,15 +210,66 @@ public final class MediaConnection {
             var payloadLength = response.headers()
                     .firstValueAsLong("Content-Length")
                     .orElseThrow(() -> new MediaDownloadException("Unknown content length"));
-
-            var rawInputStream = response.body();
-            return Optional.of(new MediaDownloadInputStream(client, rawInputStream, payloadLength, provider));
+            return Optional.of(new MediaDownloadInputStream(rawInputStream, payloadLength, provider));
         } catch (Throwable throwable) {
-            client.close();
+            closeQuietly(rawInputStream);
             return Optional.empty();
         }
     }
 
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException _) {
+            // The connection is discarded anyway
+        }
+    }
+
+    // Downloads are streamed, so the duration is the time to first byte and the size is the declared size of the media
+    private void recordDownload(WhatsAppClientMetrics.Sample sample, MediaProvider provider, String host, boolean success) {
+        var size = success ? provider.mediaSize().orElse(0) : 0;
+        metrics.recordMediaDownload(sample, host, size, success);
+    }
+
+    /**
+     * Returns the hosts of this connection, sorted by their latency.
+     * <p>
+     * The latency of a host is the time to the first byte of its responses, so that the size of a transfer doesn't affect it.
+     * Hosts that were never used are ranked with the median latency of the others,
+     * so that they are tried before the hosts that failed and after the ones that are faster than most.
+     *
+     * @return a non-null collection
+     */
+    public SequencedCollection<? extends MediaHost> rankedHosts() {
+        if(hostLatencies.isEmpty()) {
+            return hosts;
+        }
+
+        // Stable sort: hosts with the same latency keep the order suggested by the server
+        var unmeasuredLatency = unmeasuredLatency();
+        return hosts.stream()
+                .sorted(Comparator.comparingLong(host -> hostLatencies.getOrDefault(host.hostname(), unmeasuredLatency)))
+                .toList();
+    }
+
+    private long unmeasuredLatency() {
+        var latencies = hosts.stream()
+                .map(host -> hostLatencies.get(host.hostname()))
+                .filter(Objects::nonNull)
+                .sorted()
+                .toList();
+        if(latencies.isEmpty()) {
+            return 0;
+        }
+
+        return Math.min(latencies.get(latencies.size() / 2), FAILED_HOST_LATENCY - 1);
+    }
+
+    private void recordLatency(String hostname, long latency) {
+        // Exponentially weighted moving average, so that a single slow response doesn't demote a host
+        hostLatencies.merge(hostname, latency, (previous, sample) -> (previous * 3 + sample) / 4);
+    }
+
     public String auth() {
         return auth;
     }
@@ -204,4 +299,54 @@ public final class MediaConnection {
                "timestamp=" + timestamp + ", " +
                "hosts=" + hosts + ']';
     }
+
+    private record UploadResponse(JSONObject body, long timeToFirstByte) {
+
+    }
+
+    // Records when the body of an upload was handed to the client, so that the time it took to send it isn't counted as latency
+    private static final class TimedBodyPublisher implements HttpRequest.BodyPublisher {
+        private final HttpRequest.BodyPublisher delegate;
+        private volatile long completedNanos;
+
+        private TimedBodyPublisher(HttpRequest.BodyPublisher delegate) {
+            this.delegate = delegate;
+            this.completedNanos = System.nanoTime();
+        }
+
+        private long completedNanos() {
+            return completedNanos;
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            delegate.subscribe(new Flow.Subscriber<>() {
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    subscriber.onSubscribe(subscription);
+                }
+
+                @Override
+                public void onNext(ByteBuffer item) {
+                    subscriber.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    completedNanos = System.nanoTime();
+                    subscriber.onComplete();
+                }
+            });
+        }
+    }
 }
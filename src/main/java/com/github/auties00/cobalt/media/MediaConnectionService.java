@@ -0,0 +1,223 @@
+package com.github.auties00.cobalt.media;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.model.media.MediaPath;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.util.Clock;
+import com.github.auties00.cobalt.util.TimerWheel;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.MEDIA_CONNECTION;
+
+/**
+ * Service that keeps the media connection used for uploads and downloads fresh.
+ * <p>
+ * The connection is refreshed ahead of its expiry, so that media operations never have to wait for a new one.
+ * Refreshes are single-flight: concurrent callers of {@link #refresh()} share the same {@code media_conn} query.
+ * If a refresh fails, the last good connection keeps serving requests and the query is retried with a short, jittered backoff.
+ * Host latencies measured by a connection are carried over to the next one, so that hosts stay ranked across refreshes.
+ */
+public final class MediaConnectionService {
+    private static final int DEFAULT_MEDIA_CONNECTION_TTL = 300;
+    private static final double REFRESH_TTL_RATIO = 0.8;
+    private static final long RETRY_BASE_DELAY_MS = 500;
+    private static final long RETRY_MAX_DELAY_MS = 30_000;
+
+    private final WhatsAppClient whatsapp;
+    private final MediaTransport transport;
+    private final TimerWheel.Scope timers;
+    private final ConcurrentMap<String, Long> hostLatencies;
+    private final AtomicReference<CompletableFuture<MediaConnection>> pendingRefresh;
+    private final AtomicInteger failedAttempts;
+    private volatile TimerWheel.Timeout scheduledRefresh;
+
+    public MediaConnectionService(WhatsAppClient whatsapp, MediaTransport transport, TimerWheel.Scope timers) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.transport = Objects.requireNonNull(transport, "transport cannot be null");
+        this.timers = Objects.requireNonNull(timers, "timers cannot be null");
+        this.hostLatencies = new ConcurrentHashMap<>();
+        this.pendingRefresh = new AtomicReference<>();
+        this.failedAttempts = new AtomicInteger();
+    }
+
+    /**
+     * Refreshes the media connection and schedules the following refreshes.
+     * Failures are reported to the error handler instead of being thrown.
+     */
+    public void start() {
+        if (!whatsapp.isConnected()) {
+            return;
+        }
+
+        try {
+            refresh();
+        } catch (Throwable throwable) {
+            whatsapp.handleFailure(MEDIA_CONNECTION, throwable);
+        }
+    }
+
+    /**
+     * Resumes the refreshes of the media connection after a reconnect.
+     * <p>
+     * If the media connection in the store didn't reach its refresh time yet, it keeps serving requests
+     * and the next refresh is scheduled when it would have been before the connection was lost.
+     * Otherwise, the media connection is refreshed immediately.
+     */
+    public void resume() {
+        if (!whatsapp.isConnected()) {
+            return;
+        }
+
+        var remaining = whatsapp.store()
+                .mediaConnection()
+                .map(this::timeToRefresh)
+                .filter(Duration::isPositive)
+                .orElse(null);
+        if (remaining == null) {
+            start();
+        } else {
+            scheduleRefresh(remaining);
+        }
+    }
+
+    private Duration timeToRefresh(MediaConnection mediaConnection) {
+        var refreshDelay = Math.max(1, (long) (mediaConnection.ttl() * REFRESH_TTL_RATIO));
+        var refreshAt = mediaConnection.timestamp() + TimeUnit.SECONDS.toMillis(refreshDelay);
+        return Duration.ofMillis(refreshAt - Clock.nowMilliseconds());
+    }
+
+    /**
+     * Queries a new media connection, or joins the query that is already in flight.
+     * <p>
+     * If the query fails, the last good media connection is kept in the store and a retry is scheduled.
+     *
+     * @return the new media connection
+     * @throws IllegalStateException if the media connection cannot be refreshed
+     */
+    public MediaConnection refresh() {
+        var future = new CompletableFuture<MediaConnection>();
+        var pending = pendingRefresh.compareAndExchange(null, future);
+        if (pending != null) {
+            try {
+                return pending.join();
+            } catch (CompletionException exception) {
+                throw new IllegalStateException("Cannot refresh media connection", exception.getCause());
+            }
+        }
+
+        try {
+            var mediaConnection = queryMediaConnection();
+            whatsapp.store()
+                    .setMediaConnection(mediaConnection);
+            failedAttempts.set(0);
+            var refreshDelay = Math.max(1, (long) (mediaConnection.ttl() * REFRESH_TTL_RATIO));
+            scheduleRefresh(Duration.ofSeconds(refreshDelay));
+            future.complete(mediaConnection);
+            return mediaConnection;
+        } catch (Throwable throwable) {
+            scheduleRefresh(calculateBackoff(failedAttempts.getAndIncrement()));
+            future.completeExceptionally(throwable);
+            throw new IllegalStateException("Cannot refresh media connection", throwable);
+        } finally {
+            pendingRefresh.set(null);
+        }
+    }
+
+    private MediaConnection queryMediaConnection() {
+        var queryRequestBody = new NodeBuilder()
+                .description("media_conn")
+                .build();
+        var queryRequest = new NodeBuilder()
+                .description("iq")
+                .attribute("to", JidServer.user())
+                .attribute("type", "set")
+                .attribute("xmlns", "w:m")
+                .content(queryRequestBody);
+        var queryResponse = whatsapp.sendNode(queryRequest);
+        var mediaConn = queryResponse.getChild("media_conn")
+                .orElse(queryResponse);
+        var auth = mediaConn.getRequiredAttributeAsString("auth");
+        var ttl = Math.toIntExact(mediaConn.getAttributeAsLong("ttl", DEFAULT_MEDIA_CONNECTION_TTL));
+        var maxBuckets = Math.toIntExact(mediaConn.getRequiredAttributeAsLong("max_buckets"));
+        var timestamp = System.currentTimeMillis();
+        var hosts = mediaConn.streamChildren("host")
+                .map(this::parseHost)
+                .toList();
+        return new MediaConnection(auth, ttl, maxBuckets, timestamp, hosts, hostLatencies, whatsapp.metrics(), transport);
+    }
+
+    private MediaHost parseHost(Node host) {
+        var type = host.getRequiredAttributeAsString("type");
+        return switch (type) {
+            case "primary" -> parsePrimaryHost(host);
+            case "fallback" -> parseFallbackHost(host);
+            default -> throw new IllegalStateException("Unexpected value: " + type);
+        };
+    }
+
+    private MediaHost.Primary parsePrimaryHost(Node host) {
+        var hostname = host.getRequiredAttributeAsString("hostname");
+        var fallbackHostname = host.getAttributeAsString("fallback_hostname");
+        var ip4 = host.getRequiredAttributeAsString("ip4");
+        var fallbackIp4 = host.getRequiredAttributeAsString("fallback_ip4");
+        var ip6 = host.getRequiredAttributeAsString("ip6");
+        var fallbackIp6 = host.getRequiredAttributeAsString("fallback_ip6");
+        var downloads = host.streamChild("download")
+                .flatMap(Node::streamChildren)
+                .flatMap(download -> MediaPath.ofId(download.description()).stream())
+                .collect(Collectors.toUnmodifiableSet());
+        var uploads = host.hasChild("upload") ? MediaPath.known() : Set.<MediaPath>of();
+        return new MediaHost.Primary(hostname, fallbackHostname, ip4, fallbackIp4, ip6, fallbackIp6, downloads, uploads);
+    }
+
+    private MediaHost.Fallback parseFallbackHost(Node host) {
+        var hostname = host.getRequiredAttributeAsString("hostname");
+        return new MediaHost.Fallback(hostname);
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        var previous = scheduledRefresh;
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        this.scheduledRefresh = timers
+                .schedule(delay, this::start);
+    }
+
+    private Duration calculateBackoff(int attemptNumber) {
+        // Exponential delay, capped
+        var delay = Math.min(RETRY_BASE_DELAY_MS << Math.min(attemptNumber, 16), RETRY_MAX_DELAY_MS);
+
+        // Equal jitter to prevent thundering herd
+        var half = delay / 2;
+        return Duration.ofMillis(half + ThreadLocalRandom.current().nextLong(half + 1));
+    }
+
+    /**
+     * Cancels the scheduled refresh.
+     * The last media connection is kept in the store, as it might still be valid after a reconnection.
+     */
+    public void reset() {
+        var scheduled = scheduledRefresh;
+        if (scheduled != null) {
+            scheduled.cancel();
+            this.scheduledRefresh = null;
+        }
+        failedAttempts.set(0);
+    }
+}
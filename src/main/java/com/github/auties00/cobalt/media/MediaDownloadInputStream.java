@@ -10,7 +10,6 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.http.HttpClient;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.util.Arrays;
@@ -19,7 +18,6 @@ import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 final class MediaDownloadInputStream extends MediaInputStream {
-    private final HttpClient client;
     private final Inflater inflater;
 
     private final byte[] buffer;
@@ -47,13 +45,11 @@ final class MediaDownloadInputStream extends MediaInputStream {
 
     private State state;
 
-    MediaDownloadInputStream(HttpClient client, InputStream rawInputStream, long payloadLength, MediaProvider provider) throws MediaException {
+    MediaDownloadInputStream(InputStream rawInputStream, long payloadLength, MediaProvider provider) throws MediaException {
         super(rawInputStream);
-        Objects.requireNonNull(client, "client cannot be null");
         Objects.requireNonNull(rawInputStream, "rawInputStream must not be null");
         Objects.requireNonNull(provider, "provider must not be null");
 
-        this.client = client;
         this.inflater = provider.mediaPath().inflatable() ? new Inflater() : null;
 
         this.buffer = new byte[BUFFER_LENGTH];
@@ -265,7 +261,6 @@ final class MediaDownloadInputStream extends MediaInputStream {
     @Override
     public void close() throws IOException {
         super.close();
-        client.close();
         if (inflater != null) {
             inflater.end();
         }
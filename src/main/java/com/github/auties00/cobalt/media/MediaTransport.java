@@ -0,0 +1,95 @@
+package com.github.auties00.cobalt.media;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpClient;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The http transport used to upload and download media.
+ * <p>
+ * A transport owns a single {@link HttpClient}, so that connections to the media hosts are pooled across transfers,
+ * and an optional budget that bounds how many transfers can run concurrently.
+ * A transport can be shared by many sessions, in which case the budget is global to all of them.
+ * Transports are never closed, so they should be shared instead of being created per session, see {@link #shared()}.
+ */
+public final class MediaTransport {
+    private final HttpClient client;
+    private final Semaphore transfers;
+
+    private MediaTransport(Semaphore transfers) {
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.ALWAYS)
+                .build();
+        this.transfers = transfers;
+    }
+
+    /**
+     * Returns the transport shared by all the sessions that don't belong to a pool.
+     * It has no limit on concurrent transfers.
+     *
+     * @return a non-null transport
+     */
+    public static MediaTransport shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Creates a transport that runs at most the given number of transfers concurrently.
+     * Other transfers wait for a running one to complete.
+     * A download is considered running until its stream is closed.
+     *
+     * @param maxConcurrentTransfers the maximum number of concurrent transfers
+     * @return a non-null transport
+     */
+    public static MediaTransport bounded(int maxConcurrentTransfers) {
+        if (maxConcurrentTransfers <= 0) {
+            throw new IllegalArgumentException("maxConcurrentTransfers must be positive");
+        }
+        return new MediaTransport(new Semaphore(maxConcurrentTransfers, true));
+    }
+
+    HttpClient client() {
+        return client;
+    }
+
+    void acquire() throws InterruptedException {
+        if (transfers != null) {
+            transfers.acquire();
+        }
+    }
+
+    void release() {
+        if (transfers != null) {
+            transfers.release();
+        }
+    }
+
+    private static final class SharedHolder {
+        private static final MediaTransport INSTANCE = new MediaTransport(null);
+    }
+
+    // The transfer is released when the stream is closed, even if it wasn't read until the end
+    InputStream releaseOnClose(InputStream inputStream) {
+        if (transfers == null) {
+            return inputStream;
+        }
+
+        return new FilterInputStream(inputStream) {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (released.compareAndSet(false, true)) {
+                        release();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,256 @@
+package com.github.auties00.cobalt.message;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.exception.SessionClosedException;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.util.Clock;
+import com.github.auties00.cobalt.util.TimerWheel;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.MESSAGE;
+
+/**
+ * Coalesces outgoing receipts and acks.
+ * <p>
+ * Delivery, read and played receipts that share the same chat, participant, recipient and type are merged into a single {@code receipt} stanza:
+ * the first id is sent as the {@code id} attribute and the others as {@code <list><item id=.../></list>}.
+ * A batch is sent when it reaches {@value #MAX_BATCH_SIZE} ids, when {@link #flush()} is called,
+ * or when its oldest receipt reaches the latency bound of its type, whichever comes first.
+ * Receipts of other types, like {@code inactive}, {@code hist_sync}, {@code peer_msg} and {@code sender}, are sent immediately.
+ * <p>
+ * Acks can't be merged, as each one refers to a stanza, but they are buffered for a short time and written
+ * to the socket together with the pending receipts.
+ */
+public final class MessageReceiptAggregator {
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final Duration ACK_LATENCY = Duration.ofMillis(20);
+    private static final Duration DELIVERY_LATENCY = Duration.ofMillis(50);
+    private static final Duration READ_LATENCY = Duration.ofMillis(500);
+
+    private final WhatsAppClient whatsapp;
+    private final TimerWheel.Scope timers;
+    private final ReentrantLock lock;
+    private final SequencedMap<ReceiptKey, ReceiptBatch> receipts;
+    private final List<Node> acks;
+
+    public MessageReceiptAggregator(WhatsAppClient whatsapp, TimerWheel.Scope timers) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.timers = Objects.requireNonNull(timers, "timers cannot be null");
+        this.lock = new ReentrantLock();
+        this.receipts = new LinkedHashMap<>();
+        this.acks = new ArrayList<>();
+    }
+
+    /**
+     * Queues a receipt
+     *
+     * @param id the id of the message
+     * @param to the chat, or the user, the receipt is sent to
+     * @param participant the sender of the message in a group, can be null
+     * @param recipient the recipient of a message sent by a companion device, can be null
+     * @param type the type of the receipt, null for delivery receipts
+     * @throws SessionClosedException if the client is not connected
+     */
+    public void addReceipt(String id, Jid to, Jid participant, Jid recipient, String type) {
+        Objects.requireNonNull(id, "id cannot be null");
+        Objects.requireNonNull(to, "to cannot be null");
+        if (!whatsapp.isConnected()) {
+            throw new SessionClosedException();
+        }
+
+        var key = new ReceiptKey(to, participant, recipient, type);
+        if (!isBatchable(type)) {
+            whatsapp.sendNodeWithNoResponse(buildReceipt(key, List.of(id), Clock.nowSeconds()));
+            return;
+        }
+
+        SequencedCollection<Node> full = null;
+        var schedule = false;
+        lock.lock();
+        try {
+            var batch = receipts.get(key);
+            if (batch == null) {
+                batch = new ReceiptBatch(System.nanoTime() + latencyOf(type).toNanos(), Clock.nowSeconds());
+                receipts.put(key, batch);
+                schedule = true;
+            }
+
+            batch.ids.add(id);
+            if (batch.ids.size() >= MAX_BATCH_SIZE) {
+                receipts.remove(key);
+                full = List.of(buildReceipt(key, batch.ids, batch.timestamp));
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (full != null) {
+            whatsapp.sendNodesWithNoResponse(full);
+        } else if (schedule) {
+            timers
+                    .schedule(latencyOf(type), this::flushExpired);
+        }
+    }
+
+    /**
+     * Queues an ack
+     *
+     * @param ack the ack to send
+     * @throws SessionClosedException if the client is not connected
+     */
+    public void addAck(Node ack) {
+        Objects.requireNonNull(ack, "ack cannot be null");
+        if (!whatsapp.isConnected()) {
+            throw new SessionClosedException();
+        }
+
+        boolean schedule;
+        lock.lock();
+        try {
+            schedule = acks.isEmpty();
+            acks.add(ack);
+        } finally {
+            lock.unlock();
+        }
+
+        if (schedule) {
+            timers
+                    .schedule(ACK_LATENCY, this::flushAcks);
+        }
+    }
+
+    /**
+     * Sends all the queued acks and receipts immediately
+     *
+     * @throws SessionClosedException if the client is no longer connected, in which case the queued acks and receipts are discarded
+     */
+    public void flush() {
+        var nodes = drain(true, true);
+        if (!nodes.isEmpty()) {
+            whatsapp.sendNodesWithNoResponse(nodes);
+        }
+    }
+
+    private void flushExpired() {
+        sendQueued(drain(false, true));
+    }
+
+    private void flushAcks() {
+        sendQueued(drain(true, false));
+    }
+
+    // Acks are sent with every flush, as they are never delayed for longer than receipts
+    private SequencedCollection<Node> drain(boolean all, boolean includeReceipts) {
+        var now = System.nanoTime();
+        var nodes = new ArrayList<Node>();
+        lock.lock();
+        try {
+            nodes.addAll(acks);
+            acks.clear();
+            if (includeReceipts) {
+                var iterator = receipts.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    var entry = iterator.next();
+                    if (all || entry.getValue().deadline - now <= 0) {
+                        nodes.add(buildReceipt(entry.getKey(), entry.getValue().ids, entry.getValue().timestamp));
+                        iterator.remove();
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return nodes;
+    }
+
+    // Nobody waits for the batches that are sent when their latency bound expires, so failures are reported to the error handler:
+    // the server delivers again the stanzas that weren't acknowledged, but read and played receipts are lost
+    private void sendQueued(SequencedCollection<Node> nodes) {
+        if (nodes.isEmpty()) {
+            return;
+        }
+
+        try {
+            whatsapp.sendNodesWithNoResponse(nodes);
+        } catch (Throwable throwable) {
+            whatsapp.handleFailure(MESSAGE, throwable);
+        }
+    }
+
+    private Node buildReceipt(ReceiptKey key, List<String> ids, long timestamp) {
+        var builder = new NodeBuilder()
+                .description("receipt")
+                .attribute("id", ids.getFirst())
+                .attribute("to", key.to())
+                .attribute("type", key.type(), key.type() != null)
+                .attribute("participant", key.participant(), key.participant() != null)
+                .attribute("recipient", key.recipient(), key.recipient() != null)
+                .attribute("t", timestamp, isRead(key.type()));
+        if (ids.size() > 1) {
+            var items = new ArrayList<Node>(ids.size() - 1);
+            for (var i = 1; i < ids.size(); i++) {
+                items.add(new NodeBuilder()
+                        .description("item")
+                        .attribute("id", ids.get(i))
+                        .build());
+            }
+            var list = new NodeBuilder()
+                    .description("list")
+                    .content(items)
+                    .build();
+            builder.content(list);
+        }
+        return builder.build();
+    }
+
+    private static Duration latencyOf(String type) {
+        return isRead(type) ? READ_LATENCY : DELIVERY_LATENCY;
+    }
+
+    // Only delivery, read and played receipts accept a list of ids
+    private static boolean isBatchable(String type) {
+        return type == null || isRead(type);
+    }
+
+    private static boolean isRead(String type) {
+        return type != null && switch (type) {
+            case "read", "read-self", "played" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Discards the queued acks and receipts.
+     * The server delivers again the stanzas that weren't acknowledged.
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            acks.clear();
+            receipts.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record ReceiptKey(Jid to, Jid participant, Jid recipient, String type) {
+
+    }
+
+    private static final class ReceiptBatch {
+        private final long deadline;
+        private final long timestamp;
+        private final List<String> ids;
+
+        private ReceiptBatch(long deadline, long timestamp) {
+            this.deadline = deadline;
+            this.timestamp = timestamp;
+            this.ids = new ArrayList<>();
+        }
+    }
+}
@@ -272,7 +272,7 @@ public final class MessageReceiverService {
                     .status(MessageStatus.DELIVERED)
                     .businessVerifiedName(businessName)
                     .timestampSeconds(timestamp)
-                    .message(container)
+                    .message(LazyMessageContainer.of(container))
                     .build();
             info.message()
                     .senderKeyDistributionMessage()
@@ -306,9 +306,14 @@ public final class MessageReceiverService {
             return MessageContainer.empty();
         }
 
+        var metrics = whatsapp.metrics();
+        var sample = metrics.startSignalCipher();
         try {
-            return signalMessageDecoder.decode(messageKey, type, encodedMessage.get());
+            var result = signalMessageDecoder.decode(messageKey, type, encodedMessage.get());
+            metrics.recordDecrypt(sample, messageKey.chatJid(), true);
+            return result;
         }catch (Throwable throwable) {
+            metrics.recordDecrypt(sample, messageKey.chatJid(), false);
             whatsapp.handleFailure(MESSAGE, throwable);
             return MessageContainer.empty();
         }
@@ -332,8 +337,23 @@ public final class MessageReceiverService {
         }
 
         attributeSender(info, info.senderJid());
-        info.message()
-                .contentWithContext()
+        var lazyMessage = info.lazyMessage();
+        if (lazyMessage.isDecoded() || hasSecret(lazyMessage)) {
+            attributeContent(info, info.message());
+        } else {
+            // Messages from a history sync are decoded only when they are read
+            lazyMessage.whenDecoded(container -> attributeContent(info, container));
+        }
+    }
+
+    private boolean hasSecret(LazyMessageContainer lazyMessage) {
+        return lazyMessage.mayHaveType(Message.Type.POLL_CREATION)
+               || lazyMessage.mayHaveType(Message.Type.POLL_UPDATE)
+               || lazyMessage.mayHaveType(Message.Type.REACTION);
+    }
+
+    private void attributeContent(ChatMessageInfo info, MessageContainer container) {
+        container.contentWithContext()
                 .ifPresent(message -> {
                     message.contextInfo()
                             .ifPresent(this::attributeContext);
@@ -410,6 +430,7 @@ public final class MessageReceiverService {
                     .flatMap(Optional::stream)
                     .toList();
             originalPollMessage.addSelectedOptions(modificationSenderJid, selectedOptions);
+            whatsapp.store().markMessageChanged(originalPollInfo.get());
             pollUpdateMessage.setVotes(selectedOptions);
             var update = new PollUpdateBuilder()
                     .pollUpdateMessageKey(info.key())
@@ -427,7 +448,10 @@ public final class MessageReceiverService {
         info.setIgnore(true);
         whatsapp.store()
                 .findChatMessageByKey(reactionMessage.key())
-                .ifPresent(message -> message.reactions().add(reactionMessage));
+                .ifPresent(message -> {
+                    message.reactions().add(reactionMessage);
+                    whatsapp.store().markMessageChanged(message);
+                });
     }
 
     private void attributeSender(ChatMessageInfo info, Jid senderJid) {
@@ -0,0 +1,322 @@
+package com.github.auties00.cobalt.message;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientRetentionPolicy;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.MessageInfo;
+import com.github.auties00.cobalt.model.info.MessageInfoParent;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.Message;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainerSpec;
+import com.github.auties00.cobalt.model.message.standard.DocumentMessage;
+import com.github.auties00.cobalt.model.message.standard.ImageMessage;
+import com.github.auties00.cobalt.model.message.standard.StickerMessage;
+import com.github.auties00.cobalt.model.message.standard.VideoOrGifMessage;
+import com.github.auties00.cobalt.model.newsletter.Newsletter;
+import com.github.auties00.cobalt.util.Clock;
+import com.github.auties00.cobalt.util.TimerWheel;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.RETENTION;
+
+/**
+ * Applies the retention policy of a client to its chats and newsletters.
+ * <p>
+ * Sweeps run in the background while the client is connected: each tick visits at most {@value #PARENTS_PER_TICK} chats or newsletters,
+ * so that a large store never stalls the timer thread, and a new sweep starts {@link #SWEEP_INTERVAL} after the previous one ended.
+ * Messages are removed through the concurrent maps of their chat, without locking it, so incoming messages are never delayed by a sweep.
+ * <p>
+ * Messages are visited in the order they were added to their chat, which is the order of their timestamps
+ * except for history syncs that arrive after newer messages: as a sweep stops at the first message that is too recent,
+ * such messages are evicted later than they could be.
+ */
+public final class MessageRetentionService {
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration TICK_INTERVAL = Duration.ofMillis(100);
+    private static final int PARENTS_PER_TICK = 64;
+    private static final int EVICTIONS_PER_TICK = 1024;
+
+    private final WhatsAppClient whatsapp;
+    private final WhatsAppClientRetentionPolicy policy;
+    private final TimerWheel.Scope timers;
+    private final AtomicBoolean sweeping;
+
+    // The timestamp up to which the thumbnails of a chat were stripped, so that encoded messages aren't decoded again by the next sweep
+    private final Map<Jid, Long> strippedUntil;
+
+    // Only accessed by the sweeping tick
+    private Iterator<? extends MessageInfoParent> pass;
+
+    private volatile TimerWheel.Timeout scheduledTick;
+
+    public MessageRetentionService(WhatsAppClient whatsapp, WhatsAppClientRetentionPolicy policy, TimerWheel.Scope timers) {
+        this.whatsapp = Objects.requireNonNull(whatsapp, "whatsapp cannot be null");
+        this.policy = Objects.requireNonNull(policy, "policy cannot be null");
+        this.timers = Objects.requireNonNull(timers, "timers cannot be null");
+        this.sweeping = new AtomicBoolean();
+        this.strippedUntil = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts sweeping the store, unless the policy is unlimited
+     */
+    public void start() {
+        if (policy.isUnlimited()) {
+            return;
+        }
+
+        schedule(TICK_INTERVAL);
+    }
+
+    /**
+     * Stops sweeping the store.
+     * The sweep that was in progress starts over when the client connects again.
+     */
+    public void reset() {
+        var scheduled = scheduledTick;
+        if (scheduled != null) {
+            scheduled.cancel();
+            this.scheduledTick = null;
+        }
+    }
+
+    private void schedule(Duration delay) {
+        var previous = scheduledTick;
+        if (previous != null) {
+            previous.cancel();
+        }
+
+        this.scheduledTick = timers
+                .schedule(delay, this::tick);
+    }
+
+    private void tick() {
+        if (!whatsapp.isConnected() || !sweeping.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            var finished = sweep();
+            if (whatsapp.isConnected()) {
+                schedule(finished ? SWEEP_INTERVAL : TICK_INTERVAL);
+            }
+        } catch (Throwable throwable) {
+            this.pass = null;
+            whatsapp.handleFailure(RETENTION, throwable);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    // Returns whether the sweep is complete
+    private boolean sweep() {
+        var now = Clock.nowSeconds();
+        if (pass == null) {
+            var store = whatsapp.store();
+            var parents = new ArrayList<MessageInfoParent>();
+            parents.addAll(store.chats());
+            parents.addAll(store.newsletters());
+            // Chats and newsletters that were removed since the previous sweep are forgotten
+            var jids = new HashSet<Jid>();
+            for (var parent : parents) {
+                jids.add(parent.toJid());
+            }
+            strippedUntil.keySet().retainAll(jids);
+            this.pass = parents.iterator();
+        }
+
+        for (var visited = 0; visited < PARENTS_PER_TICK && pass.hasNext(); visited++) {
+            sweepParent(pass.next(), now);
+        }
+
+        if (pass.hasNext()) {
+            return false;
+        }
+
+        if (!enforceBudget()) {
+            return false;
+        }
+
+        this.pass = null;
+        return true;
+    }
+
+    private void sweepParent(MessageInfoParent parent, long now) {
+        var messages = parent.messages();
+        var maxMessagesPerChat = policy.maxMessagesPerChat();
+        var excess = maxMessagesPerChat.isPresent() ? messages.size() - maxMessagesPerChat.getAsInt() : 0;
+        var expiredBefore = policy.maxAge()
+                .map(maxAge -> now - maxAge.toSeconds())
+                .orElse(Long.MIN_VALUE);
+        var thumbnailsExpiredBefore = policy.thumbnailRetention()
+                .map(thumbnailRetention -> now - thumbnailRetention.toSeconds())
+                .orElse(Long.MIN_VALUE);
+        var thumbnailsStrippedUntil = strippedUntil.getOrDefault(parent.toJid(), Long.MIN_VALUE);
+        var evicted = new ArrayList<MessageInfo>();
+        for (var messageInfo : messages) {
+            if (evicted.size() < excess) {
+                evicted.add(messageInfo);
+                continue;
+            }
+
+            var timestamp = messageInfo.timestampSeconds();
+            if (timestamp.isEmpty()) {
+                continue;
+            }
+
+            var timestampSeconds = timestamp.getAsLong();
+            if (timestampSeconds < expiredBefore) {
+                evicted.add(messageInfo);
+            } else if (timestampSeconds < thumbnailsExpiredBefore) {
+                if (timestampSeconds >= thumbnailsStrippedUntil) {
+                    stripThumbnail(messageInfo);
+                }
+            } else {
+                break;
+            }
+        }
+
+        if (thumbnailsExpiredBefore != Long.MIN_VALUE) {
+            strippedUntil.put(parent.toJid(), thumbnailsExpiredBefore);
+        }
+
+        for (var messageInfo : evicted) {
+            if (!evict(parent, messageInfo)) {
+                return;
+            }
+        }
+    }
+
+    // Returns whether the store is within its budget
+    private boolean enforceBudget() {
+        var maxMessages = policy.maxMessages();
+        if (maxMessages.isEmpty()) {
+            return true;
+        }
+
+        var store = whatsapp.store();
+        var parents = new ArrayList<MessageInfoParent>();
+        parents.addAll(store.chats());
+        parents.addAll(store.newsletters());
+        var total = 0L;
+        for (var parent : parents) {
+            total += parent.messages().size();
+        }
+
+        var excess = total - maxMessages.getAsLong();
+        if (excess <= 0) {
+            return true;
+        }
+
+        // The oldest message of each chat is compared, so that the oldest messages of the store are evicted first
+        var oldest = new PriorityQueue<OldestMessage>(Comparator.comparingLong(OldestMessage::timestampSeconds));
+        for (var parent : parents) {
+            OldestMessage.of(parent)
+                    .ifPresent(oldest::add);
+        }
+
+        var evictions = 0;
+        while (evictions < excess && evictions < EVICTIONS_PER_TICK && !oldest.isEmpty()) {
+            var entry = oldest.poll();
+            if (!evict(entry.parent(), entry.messageInfo())) {
+                return false;
+            }
+
+            evictions++;
+            OldestMessage.of(entry.parent())
+                    .ifPresent(oldest::add);
+        }
+
+        return evictions >= excess;
+    }
+
+    private boolean evict(MessageInfoParent parent, MessageInfo messageInfo) {
+        var archiver = policy.archiver();
+        if (archiver.isPresent()) {
+            try {
+                archiver.get().archive(messageInfo);
+            } catch (Throwable throwable) {
+                whatsapp.handleFailure(RETENTION, throwable);
+                return false;
+            }
+        }
+
+        switch (parent) {
+            case Chat chat -> chat.evictMessage(messageInfo.id());
+            case Newsletter newsletter -> newsletter.removeMessage(messageInfo.id());
+        }
+        return true;
+    }
+
+    // The container of a message is never modified in place, but replaced by a copy without the thumbnail:
+    // changes made to a decoded container are lost if it's evicted from the off heap storage, and aren't seen by the serializers.
+    // Messages this old can't be edited anymore, so the container can't be replaced concurrently.
+    private void stripThumbnail(MessageInfo messageInfo) {
+        if (!(messageInfo instanceof ChatMessageInfo chatMessageInfo)) {
+            var container = messageInfo.message();
+            if (container != null) {
+                var copy = MessageContainerSpec.decode(MessageContainerSpec.encode(container));
+                if (stripThumbnail(copy)) {
+                    messageInfo.setMessage(copy);
+                }
+            }
+            return;
+        }
+
+        var lazyMessage = chatMessageInfo.lazyMessage();
+        var decoded = lazyMessage.isDecoded();
+        if (!decoded
+            && !lazyMessage.mayHaveType(Message.Type.IMAGE)
+            && !lazyMessage.mayHaveType(Message.Type.VIDEO)
+            && !lazyMessage.mayHaveType(Message.Type.DOCUMENT)
+            && !lazyMessage.mayHaveType(Message.Type.STICKER)) {
+            return;
+        }
+
+        // A message that wasn't decoded is decoded on the side and encoded again, so that it doesn't stay decoded in memory
+        var container = MessageContainerSpec.decode(lazyMessage.toBytes());
+        if (!stripThumbnail(container)) {
+            return;
+        }
+
+        LazyMessageContainer stripped;
+        if (decoded) {
+            stripped = LazyMessageContainer.of(container);
+        } else {
+            stripped = LazyMessageContainer.of(MessageContainerSpec.encode(container));
+            whatsapp.store()
+                    .messageBodyStorage()
+                    .ifPresent(stripped::moveTo);
+        }
+        chatMessageInfo.setLazyMessage(stripped);
+        whatsapp.store()
+                .markMessageChanged(chatMessageInfo);
+    }
+
+    private static boolean stripThumbnail(MessageContainer container) {
+        switch (container.content()) {
+            case ImageMessage imageMessage when imageMessage.thumbnail().isPresent() -> imageMessage.setThumbnail(null);
+            case VideoOrGifMessage videoMessage when videoMessage.thumbnail().isPresent() -> videoMessage.setThumbnail(null);
+            case DocumentMessage documentMessage when documentMessage.thumbnail().isPresent() -> documentMessage.setThumbnail(null);
+            case StickerMessage stickerMessage when stickerMessage.thumbnail().isPresent() -> stickerMessage.setThumbnail(null);
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private record OldestMessage(MessageInfoParent parent, MessageInfo messageInfo, long timestampSeconds) {
+        static Optional<OldestMessage> of(MessageInfoParent parent) {
+            return parent.oldestMessage()
+                    .map(messageInfo -> new OldestMessage(parent, messageInfo, messageInfo.timestampSeconds().orElse(0L)));
+        }
+    }
+}
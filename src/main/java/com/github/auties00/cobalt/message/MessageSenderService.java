@@ -173,7 +173,7 @@ public final class MessageSenderService {
             }
 
             // Encrypt the message
-            var result = signalMessageEncoder.encode(device, messageToEncrypt);
+            var result = encrypt(device, messageToEncrypt);
             hasPreKeyMessage |= result.isPreKeyMessage();
 
             // Build the participant node
@@ -223,7 +223,7 @@ public final class MessageSenderService {
         }
 
         // Send the message
-        return whatsapp.sendNode(messageBuilder);
+        return sendEncrypted(messageBuilder);
     }
 
     /**
@@ -271,7 +271,7 @@ public final class MessageSenderService {
         var phash = DevicePhashEncoder.calculateGroupPhash(groupJid, senderDevice, devices);
 
         // Encrypt the main message with sender key
-        var groupEncResult = signalMessageEncoder.encodeForGroup(groupJid, senderDevice, info.message());
+        var groupEncResult = encryptForGroup(groupJid, senderDevice, info.message());
 
         // Build participant nodes for devices needing sender key distribution
         var participantNodes = new ArrayList<Node>();
@@ -332,7 +332,7 @@ public final class MessageSenderService {
         }
 
         // Send the message
-        var response = whatsapp.sendNode(messageBuilder);
+        var response = sendEncrypted(messageBuilder);
 
         // Handle phash mismatch and 421 errors
         handleGroupMessageResponse(response, info, attributes, phash, devices, Clock.nowSeconds());
@@ -391,7 +391,7 @@ public final class MessageSenderService {
                     .build();
             var messageToEncrypt = MessageContainer.of(deviceSentMessage);
 
-            var result = signalMessageEncoder.encode(device, messageToEncrypt);
+            var result = encrypt(device, messageToEncrypt);
             hasPreKeyMessage |= result.isPreKeyMessage();
 
             var encNode = buildEncNode(result, getMediaType(info.message()));
@@ -405,7 +405,7 @@ public final class MessageSenderService {
 
         // Then, encrypt for recipient devices (normal message)
         for (var device : recipientDevices) {
-            var result = signalMessageEncoder.encode(device, info.message());
+            var result = encrypt(device, info.message());
             hasPreKeyMessage |= result.isPreKeyMessage();
 
             var encNode = buildEncNode(result, getMediaType(info.message()));
@@ -458,7 +458,7 @@ public final class MessageSenderService {
         }
 
         // Send the message
-        var response = whatsapp.sendNode(messageBuilder);
+        var response = sendEncrypted(messageBuilder);
 
         // Handle phash mismatch (broadcast uses direct fanout, similar to individual)
         handleIndividualPhashMismatch(response, info, attributes, allDevices, Clock.nowSeconds());
@@ -474,6 +474,46 @@ public final class MessageSenderService {
                 .build();
     }
 
+    /**
+     * Sends an encrypted message node, after the Signal keys used to encrypt it are durable.
+     */
+    private Node sendEncrypted(NodeBuilder messageBuilder) {
+        store.serializeSignalKeys();
+        return whatsapp.sendNode(messageBuilder);
+    }
+
+    /**
+     * Encrypts a message for a device, recording the time spent in the Signal cipher.
+     */
+    private SignalMessageEncoder.Result encrypt(Jid device, MessageContainer message) {
+        var metrics = whatsapp.metrics();
+        var sample = metrics.startSignalCipher();
+        var success = false;
+        try {
+            var result = signalMessageEncoder.encode(device, message);
+            success = true;
+            return result;
+        } finally {
+            metrics.recordEncrypt(sample, device, 1, success);
+        }
+    }
+
+    /**
+     * Encrypts a message with the sender key of a group, recording the time spent in the Signal cipher.
+     */
+    private SignalMessageEncoder.Result encryptForGroup(Jid groupJid, Jid senderDevice, MessageContainer message) {
+        var metrics = whatsapp.metrics();
+        var sample = metrics.startSignalCipher();
+        var success = false;
+        try {
+            var result = signalMessageEncoder.encodeForGroup(groupJid, senderDevice, message);
+            success = true;
+            return result;
+        } finally {
+            metrics.recordEncrypt(sample, groupJid, 1, success);
+        }
+    }
+
     /**
      * Builds an encryption node for the message.
      */
@@ -658,7 +698,7 @@ public final class MessageSenderService {
 
         var hasPreKeyMessage = false;
         for (var device : devices) {
-            var result = signalMessageEncoder.encode(device, info.message());
+            var result = encrypt(device, info.message());
             hasPreKeyMessage |= result.isPreKeyMessage();
             var encNode = buildEncNode(result, getMediaType(info.message()));
             var toNode = new NodeBuilder()
@@ -703,7 +743,7 @@ public final class MessageSenderService {
         }
 
         // Send the message
-        whatsapp.sendNode(messageBuilder);
+        sendEncrypted(messageBuilder);
     }
 
     /**
@@ -743,7 +783,7 @@ public final class MessageSenderService {
         Objects.requireNonNull(deviceJid, "deviceJid cannot be null");
 
         // Encrypt the message for the specific device
-        var encResult = signalMessageEncoder.encode(deviceJid, message.message());
+        var encResult = encrypt(deviceJid, message.message());
         var encNode = buildEncNode(encResult, getMediaType(message.message()));
 
         var participantNode = new NodeBuilder()
@@ -774,6 +814,6 @@ public final class MessageSenderService {
         }
 
         // Send the retry
-        whatsapp.sendNode(messageBuilder);
+        sendEncrypted(messageBuilder);
     }
 }
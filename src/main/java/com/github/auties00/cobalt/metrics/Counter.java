@@ -0,0 +1,65 @@
+package com.github.auties00.cobalt.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter.
+ * Updates are contention free, so counters can be incremented from hot paths.
+ */
+public final class Counter {
+    private final String name;
+    private final LongAdder value;
+
+    Counter(String name) {
+        this.name = name;
+        this.value = new LongAdder();
+    }
+
+    /**
+     * Returns the name of this counter
+     *
+     * @return a non-null name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Increments this counter by one
+     */
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * Increments this counter by the given amount
+     *
+     * @param amount a non-negative amount
+     */
+    public void add(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("amount cannot be negative");
+        }
+        value.add(amount);
+    }
+
+    /**
+     * Returns the current value of this counter
+     *
+     * @return a non-negative number
+     */
+    public long value() {
+        return value.sum();
+    }
+
+    void reset() {
+        value.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "Counter[" +
+               "name=" + name + ", " +
+               "value=" + value() + ']';
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.auties00.cobalt.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that is sampled when it's read, like the size of a queue.
+ */
+public final class Gauge {
+    private final String name;
+    private final LongSupplier supplier;
+
+    Gauge(String name, LongSupplier supplier) {
+        this.name = name;
+        this.supplier = supplier;
+    }
+
+    /**
+     * Returns the name of this gauge
+     *
+     * @return a non-null name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Samples the current value of this gauge
+     *
+     * @return a number
+     */
+    public long value() {
+        return supplier.getAsLong();
+    }
+
+    @Override
+    public String toString() {
+        return "Gauge[" +
+               "name=" + name + ", " +
+               "value=" + value() + ']';
+    }
+}
@@ -0,0 +1,19 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.IqRequest")
+@Label("IQ Request")
+@Description("A request sent to WhatsApp, until its response is received")
+@Category({"Cobalt", "Socket"})
+final class IqRequestEvent extends Event {
+    @Label("Namespace")
+    String xmlns;
+
+    @Label("Type")
+    String type;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,184 @@
+package com.github.auties00.cobalt.metrics;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, recorded in nanoseconds.
+ * <p>
+ * Like an HDR histogram, values are grouped into buckets whose width grows with the magnitude of the value:
+ * every power of two is split into {@value #SUB_BUCKET_COUNT} linear sub-buckets, so any percentile is reported
+ * with a relative error below 3.2% over the whole range of a {@code long}, using a fixed amount of memory.
+ * Recording a value doesn't allocate and doesn't lock.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS_COUNT = SUB_BUCKET_COUNT * (Long.SIZE - SUB_BUCKET_BITS);
+
+    private final String name;
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final AtomicLong min;
+    private final AtomicLong max;
+
+    LatencyHistogram(String name) {
+        this.name = name;
+        this.buckets = new AtomicLongArray(BUCKETS_COUNT);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.min = new AtomicLong(Long.MAX_VALUE);
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Returns the name of this histogram
+     *
+     * @return a non-null name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as zero
+     */
+    public void record(long nanos) {
+        var value = Math.max(nanos, 0);
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+        if (value < min.get()) {
+            min.accumulateAndGet(value, Math::min);
+        }
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param duration the latency, must not be null
+     */
+    public void record(Duration duration) {
+        record(duration.toNanos());
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        var shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        var subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT * (shift + 1) + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        var shift = index / SUB_BUCKET_COUNT - 1;
+        var subBucket = index % SUB_BUCKET_COUNT;
+        var lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * Returns the number of recorded latencies
+     *
+     * @return a non-negative number
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the smallest recorded latency, or zero if no latency was recorded
+     *
+     * @return a non-negative number of nanoseconds
+     */
+    public long min() {
+        var value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+
+    /**
+     * Returns the largest recorded latency, or zero if no latency was recorded
+     *
+     * @return a non-negative number of nanoseconds
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies, or zero if no latency was recorded
+     *
+     * @return a non-negative number of nanoseconds
+     */
+    public double mean() {
+        var count = count();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the recorded latencies fall.
+     * The result is the upper bound of the bucket that holds the percentile, capped to {@link #max()}.
+     *
+     * @param percentile a percentage between 0 and 100
+     * @return a non-negative number of nanoseconds
+     */
+    public long percentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be between 0 and 100");
+        }
+
+        var counts = new long[BUCKETS_COUNT];
+        var total = 0L;
+        for (var i = 0; i < BUCKETS_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        var rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        var seen = 0L;
+        for (var i = 0; i < BUCKETS_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max());
+            }
+        }
+        return max();
+    }
+
+    void reset() {
+        for (var i = 0; i < BUCKETS_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        min.set(Long.MAX_VALUE);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram[" +
+               "name=" + name + ", " +
+               "count=" + count() + ", " +
+               "p50=" + percentile(50) + ", " +
+               "p99=" + percentile(99) + ", " +
+               "max=" + max() + ']';
+    }
+}
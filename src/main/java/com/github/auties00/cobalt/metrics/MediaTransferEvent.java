@@ -0,0 +1,23 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.MediaTransfer")
+@Label("Media Transfer")
+@Description("The upload or download of a media file")
+@Category({"Cobalt", "Media"})
+final class MediaTransferEvent extends Event {
+    @Label("Direction")
+    String direction;
+
+    @Label("Host")
+    String host;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    @Label("Success")
+    boolean success;
+}
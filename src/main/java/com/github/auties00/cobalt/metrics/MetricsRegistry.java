@@ -0,0 +1,115 @@
+package com.github.auties00.cobalt.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of named counters, gauges and latency histograms.
+ * <p>
+ * Metrics are created lazily the first time they are requested and live as long as the registry.
+ * The registry doesn't depend on any metrics library: use {@link #counters()}, {@link #gauges()} and {@link #histograms()}
+ * to export the values to the monitoring system of your choice.
+ */
+public final class MetricsRegistry {
+    private final ConcurrentMap<String, Counter> counters;
+    private final ConcurrentMap<String, Gauge> gauges;
+    private final ConcurrentMap<String, LatencyHistogram> histograms;
+
+    /**
+     * Creates an empty registry
+     */
+    public MetricsRegistry() {
+        this.counters = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the counter with the given name, creating it if necessary
+     *
+     * @param name the name of the counter, must not be null
+     * @return a non-null counter
+     */
+    public Counter counter(String name) {
+        Objects.requireNonNull(name, "name cannot be null");
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge with the same name
+     *
+     * @param name the name of the gauge, must not be null
+     * @param supplier the supplier sampled when the gauge is read, must not be null
+     * @return a non-null gauge
+     */
+    public Gauge gauge(String name, LongSupplier supplier) {
+        Objects.requireNonNull(name, "name cannot be null");
+        Objects.requireNonNull(supplier, "supplier cannot be null");
+        var gauge = new Gauge(name, supplier);
+        gauges.put(name, gauge);
+        return gauge;
+    }
+
+    /**
+     * Returns the gauge with the given name
+     *
+     * @param name the name of the gauge, must not be null
+     * @return an optional gauge
+     */
+    public Optional<Gauge> findGauge(String name) {
+        Objects.requireNonNull(name, "name cannot be null");
+        return Optional.ofNullable(gauges.get(name));
+    }
+
+    /**
+     * Returns the latency histogram with the given name, creating it if necessary
+     *
+     * @param name the name of the histogram, must not be null
+     * @return a non-null histogram
+     */
+    public LatencyHistogram histogram(String name) {
+        Objects.requireNonNull(name, "name cannot be null");
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Returns the counters in this registry
+     *
+     * @return an unmodifiable view of the counters
+     */
+    public Collection<Counter> counters() {
+        return Collections.unmodifiableCollection(counters.values());
+    }
+
+    /**
+     * Returns the gauges in this registry
+     *
+     * @return an unmodifiable view of the gauges
+     */
+    public Collection<Gauge> gauges() {
+        return Collections.unmodifiableCollection(gauges.values());
+    }
+
+    /**
+     * Returns the latency histograms in this registry
+     *
+     * @return an unmodifiable view of the histograms
+     */
+    public Collection<LatencyHistogram> histograms() {
+        return Collections.unmodifiableCollection(histograms.values());
+    }
+
+    /**
+     * Resets all counters and histograms to zero.
+     * Gauges are not affected, as they are sampled when read.
+     */
+    public void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.SignalCipher")
+@Label("Signal Cipher")
+@Description("The Signal encryption or decryption of a message")
+@Category({"Cobalt", "Signal"})
+final class SignalCipherEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Chat")
+    String chat;
+
+    @Label("Devices")
+    int devices;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,19 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+// Emitted for every frame, so it's disabled unless it's enabled explicitly in the recording settings
+@Enabled(false)
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.SocketFrame")
+@Label("Socket Frame")
+@Description("An encrypted frame sent to or received from WhatsApp")
+@Category({"Cobalt", "Socket"})
+final class SocketFrameEvent extends Event {
+    @Label("Direction")
+    String direction;
+
+    @Label("Size")
+    @DataAmount
+    int size;
+}
@@ -0,0 +1,22 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.StoreSerialize")
+@Label("Store Serialize")
+@Description("The serialization of the store of a session")
+@Category({"Cobalt", "Store"})
+final class StoreSerializeEvent extends Event {
+    @Label("Session")
+    String session;
+
+    @Label("Chats")
+    int chats;
+
+    @Label("Newsletters")
+    int newsletters;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,16 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.*;
+
+@StackTrace(false)
+@Name("com.github.auties00.cobalt.WebAppStateSync")
+@Label("App State Sync")
+@Description("A sync cycle of one or more app state collections")
+@Category({"Cobalt", "Sync"})
+final class WebAppStateSyncEvent extends Event {
+    @Label("Collections")
+    String collections;
+
+    @Label("Success")
+    boolean success;
+}
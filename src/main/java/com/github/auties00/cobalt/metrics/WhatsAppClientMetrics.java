@@ -0,0 +1,476 @@
+package com.github.auties00.cobalt.metrics;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+import java.util.Collection;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * The metrics recorded by a WhatsApp session on its hot paths.
+ * <p>
+ * Every measurement updates the counters and histograms of a {@link MetricsRegistry}, and emits a matching JFR event
+ * in the {@code Cobalt} category when a flight recording is running.
+ * JFR events are only allocated if they are enabled in a running recording, so they can be left on in production:
+ * <pre>{@code
+ * java -XX:StartFlightRecording=filename=cobalt.jfr ...
+ * jfr print --categories Cobalt cobalt.jfr
+ * }</pre>
+ * Per-frame events are disabled by default, as they are emitted for every frame: enable
+ * {@code com.github.auties00.cobalt.SocketFrame} in the recording settings to collect them.
+ */
+public final class WhatsAppClientMetrics {
+    /**
+     * The number of frames received from WhatsApp
+     */
+    public static final String FRAMES_RECEIVED = "socket.frames.received";
+
+    /**
+     * The number of frames sent to WhatsApp
+     */
+    public static final String FRAMES_SENT = "socket.frames.sent";
+
+    /**
+     * The number of encrypted bytes received from WhatsApp
+     */
+    public static final String BYTES_RECEIVED = "socket.bytes.received";
+
+    /**
+     * The number of encrypted bytes sent to WhatsApp
+     */
+    public static final String BYTES_SENT = "socket.bytes.sent";
+
+    /**
+     * The number of nodes received from WhatsApp
+     */
+    public static final String NODES_RECEIVED = "stream.nodes.received";
+
+    /**
+     * The number of nodes sent to WhatsApp
+     */
+    public static final String NODES_SENT = "stream.nodes.sent";
+
+    /**
+     * The number of requests that are waiting for a response
+     */
+    public static final String PENDING_REQUESTS = "stream.requests.pending";
+
+    /**
+     * The latency of requests, from when they are sent until their response is received
+     */
+    public static final String REQUEST_LATENCY = "stream.requests.latency";
+
+    /**
+     * The number of requests that timed out or failed
+     */
+    public static final String REQUEST_FAILURES = "stream.requests.failures";
+
+    /**
+     * The number of events waiting to be delivered to handlers and listeners
+     */
+    public static final String DISPATCHER_QUEUED_EVENTS = "dispatcher.events.queued";
+
+    /**
+     * The number of chats and handlers with events waiting or in progress
+     */
+    public static final String DISPATCHER_ACTIVE_KEYS = "dispatcher.keys.active";
+
+    /**
+     * The time spent encrypting a message for a device, or for a group
+     */
+    public static final String SIGNAL_ENCRYPT_LATENCY = "signal.encrypt.latency";
+
+    /**
+     * The time spent decrypting a message
+     */
+    public static final String SIGNAL_DECRYPT_LATENCY = "signal.decrypt.latency";
+
+    /**
+     * The number of messages that couldn't be encrypted or decrypted
+     */
+    public static final String SIGNAL_FAILURES = "signal.failures";
+
+    /**
+     * The duration of app state sync cycles
+     */
+    public static final String APP_STATE_SYNC_LATENCY = "app_state.sync.latency";
+
+    /**
+     * The number of app state sync cycles that failed
+     */
+    public static final String APP_STATE_SYNC_FAILURES = "app_state.sync.failures";
+
+    /**
+     * The time spent serializing the store
+     */
+    public static final String STORE_SERIALIZE_LATENCY = "store.serialize.latency";
+
+    /**
+     * The number of store serializations that failed
+     */
+    public static final String STORE_SERIALIZE_FAILURES = "store.serialize.failures";
+
+    /**
+     * The number of media bytes downloaded
+     */
+    public static final String MEDIA_BYTES_DOWNLOADED = "media.bytes.downloaded";
+
+    /**
+     * The number of media bytes uploaded
+     */
+    public static final String MEDIA_BYTES_UPLOADED = "media.bytes.uploaded";
+
+    /**
+     * The duration of media downloads
+     */
+    public static final String MEDIA_DOWNLOAD_LATENCY = "media.download.latency";
+
+    /**
+     * The duration of media uploads
+     */
+    public static final String MEDIA_UPLOAD_LATENCY = "media.upload.latency";
+
+    /**
+     * The number of media transfers that failed on a host
+     */
+    public static final String MEDIA_FAILURES = "media.failures";
+
+    private static final EventType SOCKET_FRAME_EVENT = EventType.getEventType(SocketFrameEvent.class);
+    private static final EventType IQ_REQUEST_EVENT = EventType.getEventType(IqRequestEvent.class);
+    private static final EventType SIGNAL_CIPHER_EVENT = EventType.getEventType(SignalCipherEvent.class);
+    private static final EventType WEB_APP_STATE_SYNC_EVENT = EventType.getEventType(WebAppStateSyncEvent.class);
+    private static final EventType STORE_SERIALIZE_EVENT = EventType.getEventType(StoreSerializeEvent.class);
+    private static final EventType MEDIA_TRANSFER_EVENT = EventType.getEventType(MediaTransferEvent.class);
+
+    private final MetricsRegistry registry;
+    private final Counter framesReceived;
+    private final Counter framesSent;
+    private final Counter bytesReceived;
+    private final Counter bytesSent;
+    private final Counter nodesReceived;
+    private final Counter nodesSent;
+    private final LatencyHistogram requestLatency;
+    private final Counter requestFailures;
+    private final LatencyHistogram signalEncryptLatency;
+    private final LatencyHistogram signalDecryptLatency;
+    private final Counter signalFailures;
+    private final LatencyHistogram appStateSyncLatency;
+    private final Counter appStateSyncFailures;
+    private final LatencyHistogram storeSerializeLatency;
+    private final Counter storeSerializeFailures;
+    private final Counter mediaBytesDownloaded;
+    private final Counter mediaBytesUploaded;
+    private final LatencyHistogram mediaDownloadLatency;
+    private final LatencyHistogram mediaUploadLatency;
+    private final Counter mediaFailures;
+
+    /**
+     * Creates metrics backed by a new registry
+     */
+    public WhatsAppClientMetrics() {
+        this(new MetricsRegistry());
+    }
+
+    /**
+     * Creates metrics backed by the given registry.
+     * Sessions that share a registry also share their metrics.
+     *
+     * @param registry the registry, must not be null
+     */
+    public WhatsAppClientMetrics(MetricsRegistry registry) {
+        this.registry = Objects.requireNonNull(registry, "registry cannot be null");
+        this.framesReceived = registry.counter(FRAMES_RECEIVED);
+        this.framesSent = registry.counter(FRAMES_SENT);
+        this.bytesReceived = registry.counter(BYTES_RECEIVED);
+        this.bytesSent = registry.counter(BYTES_SENT);
+        this.nodesReceived = registry.counter(NODES_RECEIVED);
+        this.nodesSent = registry.counter(NODES_SENT);
+        this.requestLatency = registry.histogram(REQUEST_LATENCY);
+        this.requestFailures = registry.counter(REQUEST_FAILURES);
+        this.signalEncryptLatency = registry.histogram(SIGNAL_ENCRYPT_LATENCY);
+        this.signalDecryptLatency = registry.histogram(SIGNAL_DECRYPT_LATENCY);
+        this.signalFailures = registry.counter(SIGNAL_FAILURES);
+        this.appStateSyncLatency = registry.histogram(APP_STATE_SYNC_LATENCY);
+        this.appStateSyncFailures = registry.counter(APP_STATE_SYNC_FAILURES);
+        this.storeSerializeLatency = registry.histogram(STORE_SERIALIZE_LATENCY);
+        this.storeSerializeFailures = registry.counter(STORE_SERIALIZE_FAILURES);
+        this.mediaBytesDownloaded = registry.counter(MEDIA_BYTES_DOWNLOADED);
+        this.mediaBytesUploaded = registry.counter(MEDIA_BYTES_UPLOADED);
+        this.mediaDownloadLatency = registry.histogram(MEDIA_DOWNLOAD_LATENCY);
+        this.mediaUploadLatency = registry.histogram(MEDIA_UPLOAD_LATENCY);
+        this.mediaFailures = registry.counter(MEDIA_FAILURES);
+    }
+
+    /**
+     * Returns the registry that holds these metrics
+     *
+     * @return a non-null registry
+     */
+    public MetricsRegistry registry() {
+        return registry;
+    }
+
+    /**
+     * Records a frame received from WhatsApp
+     *
+     * @param size the size of the encrypted frame
+     */
+    public void recordFrameReceived(int size) {
+        framesReceived.increment();
+        bytesReceived.add(size);
+        commitFrame("received", size);
+    }
+
+    /**
+     * Records a frame sent to WhatsApp
+     *
+     * @param size the size of the encrypted frame
+     */
+    public void recordFrameSent(int size) {
+        framesSent.increment();
+        bytesSent.add(size);
+        commitFrame("sent", size);
+    }
+
+    private void commitFrame(String direction, int size) {
+        if (!SOCKET_FRAME_EVENT.isEnabled()) {
+            return;
+        }
+
+        var event = new SocketFrameEvent();
+        if (event.shouldCommit()) {
+            event.direction = direction;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a node received from WhatsApp
+     */
+    public void recordNodeReceived() {
+        nodesReceived.increment();
+    }
+
+    /**
+     * Records a node sent to WhatsApp
+     */
+    public void recordNodeSent() {
+        nodesSent.increment();
+    }
+
+    /**
+     * Starts timing a request
+     *
+     * @return a non-null sample to pass to {@link #recordRequest(Sample, String, String, boolean)}
+     */
+    public Sample startRequest() {
+        return new Sample(IQ_REQUEST_EVENT.isEnabled() ? new IqRequestEvent() : null);
+    }
+
+    /**
+     * Records a request after its response was received, or after it failed
+     *
+     * @param sample the sample returned by {@link #startRequest()}
+     * @param xmlns the namespace of the request, can be null
+     * @param type the type of the request, can be null
+     * @param success whether a response was received
+     */
+    public void recordRequest(Sample sample, String xmlns, String type, boolean success) {
+        requestLatency.record(sample.end());
+        if (!success) {
+            requestFailures.increment();
+        }
+        if (sample.event instanceof IqRequestEvent event && event.shouldCommit()) {
+            event.xmlns = xmlns;
+            event.type = type;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a Signal encryption or decryption
+     *
+     * @return a non-null sample to pass to {@link #recordEncrypt(Sample, Object, int, boolean)} or {@link #recordDecrypt(Sample, Object, boolean)}
+     */
+    public Sample startSignalCipher() {
+        return new Sample(SIGNAL_CIPHER_EVENT.isEnabled() ? new SignalCipherEvent() : null);
+    }
+
+    /**
+     * Records a Signal encryption
+     *
+     * @param sample the sample returned by {@link #startSignalCipher()}
+     * @param chat the chat or device the message was encrypted for, can be null
+     * @param devices the number of devices the message was encrypted for
+     * @param success whether the message was encrypted
+     */
+    public void recordEncrypt(Sample sample, Object chat, int devices, boolean success) {
+        signalEncryptLatency.record(sample.end());
+        commitSignalCipher(sample, "encrypt", chat, devices, success);
+    }
+
+    /**
+     * Records a Signal decryption
+     *
+     * @param sample the sample returned by {@link #startSignalCipher()}
+     * @param chat the chat the message was received in, can be null
+     * @param success whether the message was decrypted
+     */
+    public void recordDecrypt(Sample sample, Object chat, boolean success) {
+        signalDecryptLatency.record(sample.end());
+        commitSignalCipher(sample, "decrypt", chat, 1, success);
+    }
+
+    private void commitSignalCipher(Sample sample, String operation, Object chat, int devices, boolean success) {
+        if (!success) {
+            signalFailures.increment();
+        }
+        if (sample.event instanceof SignalCipherEvent event && event.shouldCommit()) {
+            event.operation = operation;
+            event.chat = Objects.toString(chat, null);
+            event.devices = devices;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing an app state sync cycle
+     *
+     * @return a non-null sample to pass to {@link #recordWebAppStateSync(Sample, Collection, boolean)}
+     */
+    public Sample startWebAppStateSync() {
+        return new Sample(WEB_APP_STATE_SYNC_EVENT.isEnabled() ? new WebAppStateSyncEvent() : null);
+    }
+
+    /**
+     * Records an app state sync cycle
+     *
+     * @param sample the sample returned by {@link #startWebAppStateSync()}
+     * @param collections the collections that were synced
+     * @param success whether the cycle completed
+     */
+    public void recordWebAppStateSync(Sample sample, Collection<?> collections, boolean success) {
+        appStateSyncLatency.record(sample.end());
+        if (!success) {
+            appStateSyncFailures.increment();
+        }
+        if (sample.event instanceof WebAppStateSyncEvent event && event.shouldCommit()) {
+            event.collections = collections.stream()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(","));
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing the serialization of a store
+     *
+     * @return a non-null sample to pass to {@link #recordStoreSerialize(Sample, UUID, int, int, boolean)}
+     */
+    public Sample startStoreSerialize() {
+        return new Sample(STORE_SERIALIZE_EVENT.isEnabled() ? new StoreSerializeEvent() : null);
+    }
+
+    /**
+     * Records the serialization of a store
+     *
+     * @param sample the sample returned by {@link #startStoreSerialize()}
+     * @param session the id of the session
+     * @param chats the number of chats in the store
+     * @param newsletters the number of newsletters in the store
+     * @param success whether the store was serialized
+     */
+    public void recordStoreSerialize(Sample sample, UUID session, int chats, int newsletters, boolean success) {
+        storeSerializeLatency.record(sample.end());
+        if (!success) {
+            storeSerializeFailures.increment();
+        }
+        if (sample.event instanceof StoreSerializeEvent event && event.shouldCommit()) {
+            event.session = Objects.toString(session, null);
+            event.chats = chats;
+            event.newsletters = newsletters;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Starts timing a media transfer
+     *
+     * @return a non-null sample to pass to {@link #recordMediaDownload(Sample, String, long, boolean)} or {@link #recordMediaUpload(Sample, String, long, boolean)}
+     */
+    public Sample startMediaTransfer() {
+        return new Sample(MEDIA_TRANSFER_EVENT.isEnabled() ? new MediaTransferEvent() : null);
+    }
+
+    /**
+     * Records a media download
+     *
+     * @param sample the sample returned by {@link #startMediaTransfer()}
+     * @param host the host the media was downloaded from
+     * @param size the number of bytes downloaded
+     * @param success whether the media was downloaded
+     */
+    public void recordMediaDownload(Sample sample, String host, long size, boolean success) {
+        mediaDownloadLatency.record(sample.end());
+        mediaBytesDownloaded.add(size);
+        commitMediaTransfer(sample, "download", host, size, success);
+    }
+
+    /**
+     * Records a media upload
+     *
+     * @param sample the sample returned by {@link #startMediaTransfer()}
+     * @param host the host the media was uploaded to
+     * @param size the number of bytes uploaded
+     * @param success whether the media was uploaded
+     */
+    public void recordMediaUpload(Sample sample, String host, long size, boolean success) {
+        mediaUploadLatency.record(sample.end());
+        mediaBytesUploaded.add(size);
+        commitMediaTransfer(sample, "upload", host, size, success);
+    }
+
+    private void commitMediaTransfer(Sample sample, String direction, String host, long size, boolean success) {
+        if (!success) {
+            mediaFailures.increment();
+        }
+        if (sample.event instanceof MediaTransferEvent event && event.shouldCommit()) {
+            event.direction = direction;
+            event.host = host;
+            event.size = size;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * A measurement in progress
+     */
+    public static final class Sample {
+        private final long startNanos;
+        private final Event event;
+
+        // The event is null if it isn't enabled in a running recording
+        private Sample(Event event) {
+            this.startNanos = System.nanoTime();
+            this.event = event;
+            if (event != null) {
+                event.begin();
+            }
+        }
+
+        private long end() {
+            if (event != null) {
+                event.end();
+            }
+            return System.nanoTime() - startNanos;
+        }
+    }
+}
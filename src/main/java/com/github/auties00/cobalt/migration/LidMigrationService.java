@@ -299,7 +299,7 @@ public final class LidMigrationService {
 
             // Handle the resolution
             switch (resolution) {
-                case LidMigrationResolution.Migrate(var threadLid) -> chat.setLid(threadLid);
+                case LidMigrationResolution.Migrate(var threadLid) -> migrateChat(chat, threadLid);
 
                 case LidMigrationResolution.Delete _ -> whatsapp.store().removeChat(chatJid);
 
@@ -320,6 +320,34 @@ public final class LidMigrationService {
         lidMigrationStatus.compareAndSet(LidThreadMigrationStatus.IN_PROGRESS, LidThreadMigrationStatus.COMPLETE);
     }
 
+    /**
+     * Migrates a chat to the LID of its thread.
+     * <p>
+     * The mapping between the phone number of the chat and its LID is registered, so that the chat can be found by either of them.
+     * If a chat addressed by the LID already exists, the phone number chat is merged into it,
+     * so that the thread isn't split between two chats.
+     *
+     * @param chat      the chat to migrate
+     * @param threadLid the LID of the thread
+     */
+    private void migrateChat(Chat chat, Jid threadLid) {
+        if (!chat.jid().hasUserServer()) {
+            chat.setLid(threadLid);
+            return;
+        }
+
+        var store = whatsapp.store();
+        store.registerLidMapping(chat.jid(), threadLid);
+        var lidChat = store.findChatByJid(threadLid)
+                .filter(candidate -> candidate != chat)
+                .orElse(null);
+        if (lidChat != null) {
+            store.mergeChat(chat, lidChat);
+        } else {
+            chat.setLid(threadLid);
+        }
+    }
+
     /**
      * Resolves how to handle a chat during LID migration.
      *
@@ -20,6 +20,7 @@ import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
 
 /**
@@ -114,6 +115,8 @@ public final class Chat implements MessageInfoParent {
     @ProtobufProperty(index = 999, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.ENUM)
     final ConcurrentHashMap<Jid, ContactStatus> presences;
 
+    private volatile ChatMessagesListener messagesListener;
+
     Chat(Jid jid, Messages messages, Jid newJid, Jid oldJid, int unreadMessagesCount, boolean endOfHistoryTransfer, ChatEphemeralTimer ephemeralMessageDuration, long ephemeralMessagesToggleTimeSeconds, EndOfHistoryTransferType endOfHistoryTransferType, long timestampSeconds, String name, boolean notSpam, boolean archived, ChatDisappear disappearInitiator, boolean markedAsUnread, int pinnedTimestampSeconds, ChatMute mute, ChatWallpaper wallpaper, MediaVisibility mediaVisibility, boolean suspended, boolean terminated, boolean support, String displayName, Jid phoneJid, boolean shareOwnPhoneNumber, boolean phoneDuplicateLidThread, Jid lid, ConcurrentHashMap<Jid, ContactStatus> presences) {
         this.jid = jid;
         this.messages = messages;
@@ -485,8 +488,49 @@ public final class Chat implements MessageInfoParent {
      */
     public void addMessage(ChatMessageInfo info) {
         Objects.requireNonNull(info, "info cannot be null");
-        messages.addMessageInfo(info);
+        var replaced = messages.addMessageInfo(info);
         updateChatTimestamp(info);
+        var listener = messagesListener;
+        if (listener == null) {
+            return;
+        }
+
+        if (replaced != null) {
+            listener.onMessageReplaced(this, replaced, info);
+        } else {
+            listener.onMessageAdded(this, info);
+        }
+    }
+
+    /**
+     * Adds messages to the chat, sorting all of its messages by timestamp.
+     * Unlike {@link #addMessage(ChatMessageInfo)}, the messages can be older than the ones the chat already holds:
+     * this is useful to merge the messages of another chat
+     *
+     * @param infos the messages to add
+     */
+    public void addMessagesSorted(Collection<ChatMessageInfo> infos) {
+        Objects.requireNonNull(infos, "infos cannot be null");
+        if (infos.isEmpty()) {
+            return;
+        }
+
+        var replaced = messages.addMessageInfosSorted(infos);
+        refreshChatTimestamp();
+        var listener = messagesListener;
+        if (listener == null) {
+            return;
+        }
+
+        var index = 0;
+        for (var info : infos) {
+            var replacedInfo = replaced.get(index++);
+            if (replacedInfo != null) {
+                listener.onMessageReplaced(this, replacedInfo, info);
+            } else {
+                listener.onMessageAdded(this, info);
+            }
+        }
     }
 
     /**
@@ -497,14 +541,40 @@ public final class Chat implements MessageInfoParent {
      */
     @Override
     public boolean removeMessage(String info) {
-        if(!messages.removeMessageInfoById(info)) {
+        var removed = messages.removeMessageInfo(info);
+        if(removed == null) {
             return false;
         }
 
         refreshChatTimestamp();
+        onMessageRemoved(removed);
+        return true;
+    }
+
+    /**
+     * Removes a message from the chat without updating the timestamp of the chat.
+     * This is useful to release the memory used by old messages: the chat is still as recent as its newest message was
+     *
+     * @param id the id of the message to remove
+     * @return whether the message was removed
+     */
+    public boolean evictMessage(String id) {
+        var removed = messages.removeMessageInfo(id);
+        if(removed == null) {
+            return false;
+        }
+
+        onMessageRemoved(removed);
         return true;
     }
 
+    private void onMessageRemoved(ChatMessageInfo info) {
+        var listener = messagesListener;
+        if (listener != null) {
+            listener.onMessageRemoved(this, info);
+        }
+    }
+
     private void refreshChatTimestamp() {
         var message = newestMessage();
         if (message.isEmpty()) {
@@ -537,6 +607,29 @@ public final class Chat implements MessageInfoParent {
     @Override
     public void removeMessages() {
         messages.clear();
+        var listener = messagesListener;
+        if (listener != null) {
+            listener.onMessagesCleared(this);
+        }
+    }
+
+    /**
+     * Sets the listener notified when the messages of this chat change.
+     * The listener isn't serialized: it's usually attached by the store that holds this chat
+     *
+     * @param messagesListener the listener, can be null to remove it
+     */
+    public void setMessagesListener(ChatMessagesListener messagesListener) {
+        this.messagesListener = messagesListener;
+    }
+
+    /**
+     * Returns the listener notified when the messages of this chat change
+     *
+     * @return an optional listener
+     */
+    public Optional<ChatMessagesListener> messagesListener() {
+        return Optional.ofNullable(messagesListener);
     }
 
     /**
@@ -549,6 +642,16 @@ public final class Chat implements MessageInfoParent {
         return messages.getMessageInfosAsSequencedCollection();
     }
 
+    /**
+     * Returns a copy of this chat without its messages.
+     * This is useful for serializers that persist the messages of a chat separately
+     *
+     * @return a non-null chat
+     */
+    public Chat withoutMessages() {
+        return new Chat(jid, new Messages(), newJid, oldJid, unreadMessagesCount, endOfHistoryTransfer, ephemeralMessageDuration, ephemeralMessagesToggleTimeSeconds, endOfHistoryTransferType, timestampSeconds, name, notSpam, archived, disappearInitiator, markedAsUnread, pinnedTimestampSeconds, mute, wallpaper, mediaVisibility, suspended, terminated, support, displayName, phoneJid, shareOwnPhoneNumber, phoneDuplicateLidThread, lid, presences);
+    }
+
     /**
      * Returns this object as a value
      *
@@ -632,28 +735,67 @@ public final class Chat implements MessageInfoParent {
     }
     
     static final class Messages extends AbstractCollection<HistorySyncMessage> {
-        private final ConcurrentLinkedHashMap<String, HistorySyncMessage> backing;
+        // Replaced when the messages are sorted again, readers use the map they read without locking
+        private volatile ConcurrentLinkedHashMap<String, HistorySyncMessage> backing;
+        // Writers are serialized, so that a message that is added while the map is replaced isn't lost
+        private final ReentrantLock writeLock;
 
         Messages() {
             this.backing = new ConcurrentLinkedHashMap<>();
+            this.writeLock = new ReentrantLock();
         }
 
         @Override
         public boolean add(HistorySyncMessage historySyncMessage) {
             if(historySyncMessage == null || historySyncMessage.messageInfo() == null) {
                 return false;
-            }else {
+            }
+
+            writeLock.lock();
+            try {
                 backing.put(historySyncMessage.messageInfo().id(), historySyncMessage);
                 return true;
+            } finally {
+                writeLock.unlock();
             }
         }
 
-        public boolean addMessageInfo(ChatMessageInfo messageInfo) {
+        public ChatMessageInfo addMessageInfo(ChatMessageInfo messageInfo) {
             if(messageInfo == null) {
-                return false;
-            }else {
-                backing.put(messageInfo.id(), new HistorySyncMessage(messageInfo, -1));
-                return true;
+                return null;
+            }
+
+            writeLock.lock();
+            try {
+                var replaced = backing.put(messageInfo.id(), new HistorySyncMessage(messageInfo, -1));
+                return replaced != null ? replaced.messageInfo() : null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        // Returns the messages that were replaced, in the order of the messages that were added, or null for the ones that weren't
+        // Messages without a timestamp are sorted as the oldest
+        public List<ChatMessageInfo> addMessageInfosSorted(Collection<ChatMessageInfo> messageInfos) {
+            writeLock.lock();
+            try {
+                var replaced = new ArrayList<ChatMessageInfo>(messageInfos.size());
+                var merged = new LinkedHashMap<String, HistorySyncMessage>(backing);
+                for (var messageInfo : messageInfos) {
+                    var replacedMessage = merged.put(messageInfo.id(), new HistorySyncMessage(messageInfo, -1));
+                    replaced.add(replacedMessage != null ? replacedMessage.messageInfo() : null);
+                }
+
+                var sorted = new ArrayList<>(merged.values());
+                sorted.sort(Comparator.comparingLong(message -> message.messageInfo().timestampSeconds().orElse(0L)));
+                var result = new ConcurrentLinkedHashMap<String, HistorySyncMessage>();
+                for (var message : sorted) {
+                    result.putLast(message.messageInfo().id(), message);
+                }
+                this.backing = result;
+                return replaced;
+            } finally {
+                writeLock.unlock();
             }
         }
 
@@ -673,7 +815,27 @@ public final class Chat implements MessageInfoParent {
         }
 
         public boolean removeMessageInfoById(String id) {
-            return backing.remove(id) != null;
+            return removeMessageInfo(id) != null;
+        }
+
+        public ChatMessageInfo removeMessageInfo(String id) {
+            writeLock.lock();
+            try {
+                var removed = backing.remove(id);
+                return removed != null ? removed.messageInfo() : null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void clear() {
+            writeLock.lock();
+            try {
+                backing.clear();
+            } finally {
+                writeLock.unlock();
+            }
         }
         
         public Stream<ChatMessageInfo> getMessageInfosAsStream() {
@@ -692,6 +854,17 @@ public final class Chat implements MessageInfoParent {
             return backing.size();
         }
 
+        // Depends on the messages, so that the hash of a chat changes when one of its messages is added, removed or changed
+        // The hash of a message that wasn't decoded is cached by its container, so this doesn't decode messages
+        @Override
+        public int hashCode() {
+            var result = 1;
+            for (var message : backing.sequencedValues()) {
+                result = 31 * result + message.hashCode();
+            }
+            return result;
+        }
+
         public SequencedCollection<ChatMessageInfo> getMessageInfosAsSequencedCollection() {
             return getMessageInfosAsSequencedCollection(backing.sequencedValues());
         }
@@ -0,0 +1,48 @@
+package com.github.auties00.cobalt.model.chat;
+
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+
+/**
+ * A listener notified when the messages of a {@link Chat} change.
+ * <p>
+ * Notifications are delivered synchronously, on the thread that changed the chat, after the change is applied.
+ * Messages that a chat already holds when the listener is attached are not notified.
+ *
+ * @see Chat#setMessagesListener(ChatMessagesListener)
+ */
+public interface ChatMessagesListener {
+    /**
+     * Called when a message is added to a chat, or when it replaces a message with the same id
+     * and {@link #onMessageReplaced(Chat, ChatMessageInfo, ChatMessageInfo)} isn't overridden
+     *
+     * @param chat        the chat
+     * @param messageInfo the message that was added
+     */
+    void onMessageAdded(Chat chat, ChatMessageInfo messageInfo);
+
+    /**
+     * Called when a message replaces a message with the same id, or when the same message is added again after being changed
+     *
+     * @param chat           the chat
+     * @param oldMessageInfo the message that was replaced, which may be the same instance as the new one
+     * @param newMessageInfo the message that was added
+     */
+    default void onMessageReplaced(Chat chat, ChatMessageInfo oldMessageInfo, ChatMessageInfo newMessageInfo) {
+        onMessageAdded(chat, newMessageInfo);
+    }
+
+    /**
+     * Called when a message is removed from a chat
+     *
+     * @param chat        the chat
+     * @param messageInfo the message that was removed
+     */
+    void onMessageRemoved(Chat chat, ChatMessageInfo messageInfo);
+
+    /**
+     * Called when all the messages of a chat are removed
+     *
+     * @param chat the chat
+     */
+    void onMessagesCleared(Chat chat);
+}
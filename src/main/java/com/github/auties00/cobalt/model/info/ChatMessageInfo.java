@@ -29,8 +29,8 @@ public final class ChatMessageInfo implements MessageInfo { // TODO: Check me
     @ProtobufProperty(index = 1, type = ProtobufType.MESSAGE)
     final ChatMessageKey key;
 
-    @ProtobufProperty(index = 2, type = ProtobufType.MESSAGE)
-    MessageContainer message;
+    @ProtobufProperty(index = 2, type = ProtobufType.BYTES)
+    LazyMessageContainer message;
 
     @ProtobufProperty(index = 3, type = ProtobufType.UINT64)
     final long timestampSeconds;
@@ -159,9 +159,9 @@ public final class ChatMessageInfo implements MessageInfo { // TODO: Check me
 
     private Contact sender;
 
-    ChatMessageInfo(ChatMessageKey key, MessageContainer message, long timestampSeconds, MessageStatus status, Jid senderJid, long messageC2STimestamp, boolean ignore, boolean starred, boolean broadcast, String pushName, byte[] mediaCiphertextSha256, boolean multicast, boolean urlText, boolean urlNumber, MessageInfoStubType stubType, boolean clearMedia, List<String> stubParameters, int duration, List<String> labels, PaymentInfo paymentInfo, LiveLocationMessage finalLiveLocation, PaymentInfo quotedPaymentInfo, long ephemeralStartTimestamp, int ephemeralDuration, boolean enableEphemeral, boolean ephemeralOutOfSync, BusinessPrivacyStatus businessPrivacyStatus, String businessVerifiedName, MediaData mediaData, PhotoChange photoChange, MessageReceipt receipt, List<ReactionMessage> reactions, MediaData quotedStickerData, byte[] futureProofData, PublicServiceAnnouncementStatus psaStatus, List<PollUpdate> pollUpdates, PollAdditionalMetadata pollAdditionalMetadata, String agentId, boolean statusAlreadyViewed, byte[] messageSecret, KeepInChat keepInChat, Jid originalSender, long revokeTimestampSeconds) {
+    ChatMessageInfo(ChatMessageKey key, LazyMessageContainer message, long timestampSeconds, MessageStatus status, Jid senderJid, long messageC2STimestamp, boolean ignore, boolean starred, boolean broadcast, String pushName, byte[] mediaCiphertextSha256, boolean multicast, boolean urlText, boolean urlNumber, MessageInfoStubType stubType, boolean clearMedia, List<String> stubParameters, int duration, List<String> labels, PaymentInfo paymentInfo, LiveLocationMessage finalLiveLocation, PaymentInfo quotedPaymentInfo, long ephemeralStartTimestamp, int ephemeralDuration, boolean enableEphemeral, boolean ephemeralOutOfSync, BusinessPrivacyStatus businessPrivacyStatus, String businessVerifiedName, MediaData mediaData, PhotoChange photoChange, MessageReceipt receipt, List<ReactionMessage> reactions, MediaData quotedStickerData, byte[] futureProofData, PublicServiceAnnouncementStatus psaStatus, List<PollUpdate> pollUpdates, PollAdditionalMetadata pollAdditionalMetadata, String agentId, boolean statusAlreadyViewed, byte[] messageSecret, KeepInChat keepInChat, Jid originalSender, long revokeTimestampSeconds) {
         this.key = key;
-        this.message = Objects.requireNonNullElseGet(message, MessageContainer::empty);
+        this.message = Objects.requireNonNullElseGet(message, LazyMessageContainer::empty);
         this.timestampSeconds = timestampSeconds;
         this.status = status;
         this.senderJid = senderJid;
@@ -345,12 +345,30 @@ public final class ChatMessageInfo implements MessageInfo { // TODO: Check me
 
     @Override
     public MessageContainer message() {
+        return message.get();
+    }
+
+    /**
+     * Returns the message wrapped by this info without decoding it
+     *
+     * @return a non-null lazy message container
+     */
+    public LazyMessageContainer lazyMessage() {
         return message;
     }
 
     @Override
     public void setMessage(MessageContainer message) {
-        this.message = message;
+        this.message = LazyMessageContainer.of(message);
+    }
+
+    /**
+     * Sets the message wrapped by this info without decoding it
+     *
+     * @param message the non-null lazy message container
+     */
+    public void setLazyMessage(LazyMessageContainer message) {
+        this.message = Objects.requireNonNull(message, "message cannot be null");
     }
 
     public OptionalLong timestampSeconds() {
@@ -16,6 +16,9 @@ import static com.github.auties00.cobalt.model.jid.JidConstants.*;
 
 /**
  * A record that represents a WhatsApp JID
+ * <p>
+ * Jids created using the static factories are interned in a bounded cache:
+ * parsing a jid that was recently seen returns the same instance without allocating.
  */
 public record Jid(String user, JidServer server, int device, int agent) implements JidProvider {
     private static final ConcurrentMap<JidServer, Jid> JID_SERVER_CACHE = new ConcurrentHashMap<>();
@@ -140,7 +143,8 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         if (user == null) {
             return of(server);
         } else {
-            return new Jid(user, server, device, agent);
+            Objects.requireNonNull(server, "server cannot be null");
+            return JidCache.intern(user, server, device, agent);
         }
     }
 
@@ -148,13 +152,17 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         if (jid < 0) {
             throw new MalformedJidException("value cannot be negative");
         }
-        return new Jid(String.valueOf(jid), JidServer.user());
+        return JidCache.intern(String.valueOf(jid), JidServer.user(), 0, 0);
     }
 
     public static Jid of(String jid) {
         if (jid == null) {
             return null;
         }
+        var cached = JidCache.findParsed(jid);
+        if (cached != null) {
+            return cached;
+        }
         var knownServer = JidServer.of(jid, false);
         if (knownServer != null) {
             return of(knownServer);
@@ -163,7 +171,9 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         var server = serverSeparatorIndex == -1
                 ? JidServer.user()
                 : JidServer.of(jid, serverSeparatorIndex + 1, jid.length() - serverSeparatorIndex - 1);
-        return parseJid(jid, serverSeparatorIndex, server);
+        var result = parseJid(jid, serverSeparatorIndex, server);
+        JidCache.addParsed(jid, result);
+        return result;
     }
 
     public static Jid of(String user, JidServer server) {
@@ -247,7 +257,7 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
             }
         }
         var user = new String(source, offset, userLength, StandardCharsets.UTF_8);
-        return new Jid(user, server, device, agent);
+        return JidCache.intern(user, server, device, agent);
     }
 
     private static void checkUnsignedByte(int i) {
@@ -317,22 +327,28 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
                 }
             }
         }
-        var user = jid.substring(offset, offset + userLength);
-        return new Jid(user, server, device, agent);
+        // Jids read from nodes usually have no device, agent or server, so their user doesn't need to be copied
+        var user = offset == 0 && userLength == jid.length() ? jid : jid.substring(offset, offset + userLength);
+        return JidCache.intern(user, server, device, agent);
     }
     
     @Override
     public String toString() {
-        var hasUser = this.hasUser();
-        var hasAgent = this.hasAgent();
-        var hasDevice = this.hasDevice();
-        if (!hasUser && !hasAgent && !hasDevice) {
-            return this.server().toString();
-        }
-        var user = hasUser ? this.user() : "";
-        var agentStr = hasAgent ? "" + AGENT_CHAR + this.agent() : "";
-        var deviceStr = hasDevice ? "" + DEVICE_CHAR + this.device() : "";
-        return user + agentStr + deviceStr + SERVER_CHAR + this.server().toString();
+        return JidCache.toString(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return this == other || other instanceof Jid that
+                && device == that.device
+                && agent == that.agent
+                && server.equals(that.server)
+                && Objects.equals(user, that.user);
+    }
+
+    @Override
+    public int hashCode() {
+        return JidCache.hash(user, server, device, agent);
     }
 
     @ProtobufSerializer
@@ -424,28 +440,29 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         if (Objects.equals(this.server, server)) {
             return this;
         }
-        return new Jid(user, server, device, agent);
+        Objects.requireNonNull(server, "server cannot be null");
+        return JidCache.intern(user, server, device, agent);
     }
 
     public Jid withAgent(int agent) {
         if (this.agent == agent) {
             return this;
         }
-        return new Jid(user, server, device, agent);
+        return JidCache.intern(user, server, device, agent);
     }
 
     public Jid withDevice(int device) {
         if (this.device == device) {
             return this;
         }
-        return new Jid(user, server, device, agent);
+        return JidCache.intern(user, server, device, agent);
     }
 
     public Jid withoutData() {
         if (!hasDevice() && !hasAgent()) {
             return this;
         }
-        return new Jid(user, server);
+        return JidCache.intern(user, server, 0, 0);
     }
 
     public Jid toUserJid() {
@@ -0,0 +1,120 @@
+package com.github.auties00.cobalt.model.jid;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded cache of canonical {@link Jid} instances.
+ * <p>
+ * The same jids are parsed over and over from node attributes, for example in receipts, presences and device lists.
+ * This cache makes parsing a jid that was recently seen return the same instance, along with its string form,
+ * without allocating.
+ * <p>
+ * The tables are direct mapped: a jid can only be stored in the slot selected by its hash,
+ * so lookups and insertions are lock free, and a colliding jid replaces the previous one.
+ * Canonical jids are stored as they are, so interning a jid that isn't cached allocates only the jid itself:
+ * as the tables have a fixed size, they retain at most a few thousand jids that are no longer used.
+ */
+final class JidCache {
+    private static final int SIZE = 1 << 14;
+    private static final int MASK = SIZE - 1;
+
+    // Canonical jids, indexed by their components
+    private static final AtomicReferenceArray<Jid> CANONICAL = new AtomicReferenceArray<>(SIZE);
+
+    // String forms of canonical jids, indexed by their components
+    private static final AtomicReferenceArray<Entry> FORMATTED = new AtomicReferenceArray<>(SIZE);
+
+    // Parsed jids, indexed by the string they were parsed from
+    private static final AtomicReferenceArray<Entry> PARSED = new AtomicReferenceArray<>(SIZE);
+
+    private JidCache() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Returns the canonical jid with the given components, creating it if necessary
+     *
+     * @return a non-null jid
+     */
+    static Jid intern(String user, JidServer server, int device, int agent) {
+        var index = indexOf(hash(user, server, device, agent));
+        var cached = CANONICAL.get(index);
+        if (cached != null && cached.device() == device && cached.agent() == agent
+            && cached.server().equals(server) && Objects.equals(cached.user(), user)) {
+            return cached;
+        }
+
+        var jid = new Jid(user, server, device, agent);
+        CANONICAL.set(index, jid);
+        return jid;
+    }
+
+    /**
+     * Returns the jid that was parsed from the given string, if it's cached
+     *
+     * @return a jid, or null
+     */
+    static Jid findParsed(String value) {
+        var entry = PARSED.get(indexOf(value.hashCode()));
+        if (entry == null || !value.equals(entry.string())) {
+            return null;
+        }
+
+        return entry.jid();
+    }
+
+    /**
+     * Caches the jid that was parsed from the given string
+     */
+    static void addParsed(String value, Jid jid) {
+        PARSED.set(indexOf(value.hashCode()), new Entry(jid, value));
+    }
+
+    /**
+     * Returns the string form of a jid, formatting it only if it's not cached
+     *
+     * @return a non-null string
+     */
+    static String toString(Jid jid) {
+        var index = indexOf(hash(jid.user(), jid.server(), jid.device(), jid.agent()));
+        var entry = FORMATTED.get(index);
+        if (entry != null && jid.equals(entry.jid())) {
+            return entry.string();
+        }
+
+        var string = format(jid);
+        FORMATTED.set(index, new Entry(jid, string));
+        return string;
+    }
+
+    private static String format(Jid jid) {
+        var hasUser = jid.hasUser();
+        var hasAgent = jid.hasAgent();
+        var hasDevice = jid.hasDevice();
+        if (!hasUser && !hasAgent && !hasDevice) {
+            return jid.server().toString();
+        }
+        var user = hasUser ? jid.user() : "";
+        var agentStr = hasAgent ? "" + JidConstants.AGENT_CHAR + jid.agent() : "";
+        var deviceStr = hasDevice ? "" + JidConstants.DEVICE_CHAR + jid.device() : "";
+        return user + agentStr + deviceStr + JidConstants.SERVER_CHAR + jid.server().toString();
+    }
+
+    static int hash(String user, JidServer server, int device, int agent) {
+        var result = Objects.hashCode(user);
+        result = 31 * result + server.hashCode();
+        result = 31 * result + device;
+        result = 31 * result + agent;
+        return result;
+    }
+
+    private static int indexOf(int hash) {
+        return (hash ^ (hash >>> 16)) & MASK;
+    }
+
+    // The string is the string form of the jid, or the string it was parsed from
+    private record Entry(Jid jid, String string) {
+
+    }
+}
@@ -430,7 +430,7 @@ public final class JidServer implements JidProvider { // String parsing is hard
 
     @Override
     public int hashCode() {
-        return Objects.hash(address);
+        return address.hashCode();
     }
 
     public Type type() {
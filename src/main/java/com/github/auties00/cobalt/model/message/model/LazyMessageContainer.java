@@ -0,0 +1,547 @@
+package com.github.auties00.cobalt.model.message.model;
+
+import it.auties.protobuf.annotation.ProtobufDeserializer;
+import it.auties.protobuf.annotation.ProtobufSerializer;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A {@link MessageContainer} that is decoded on first access.
+ * <p>
+ * Messages loaded from the store or from a history sync keep their encoded form until they are read,
+ * so that large histories don't materialize the object graph of every message, including context info,
+ * quoted messages and thumbnails.
+ * Messages that are never read are serialized again using the bytes they were decoded from.
+ * Once a message is decoded, its encoded form is released and the container is encoded on serialization,
+ * as it may have been modified.
+ * <p>
+ * The type of a message that wasn't decoded can be checked by reading only the tags of its fields,
+ * see {@link #mayHaveType(Message.Type)}.
+ * <p>
+ * The encoded form of a container can be moved off the heap, see {@link #moveTo(MessageBodyStorage)}:
+ * the container is then decoded from its storage every time it's read after being evicted from the containers decoded most recently,
+ * unless its decoded form is still referenced elsewhere, in which case the same instance is returned.
+ * <p>
+ * The hash of a container is the hash of its encoded form, and it's cached:
+ * decoding, moving or evicting a container doesn't change it, so serializers that detect changes using hashes
+ * don't write again the messages that were only read.
+ * A message that is changed in place must be marked as changed, see {@link #markChanged()},
+ * so that its hash is computed again from its decoded form.
+ */
+public final class LazyMessageContainer {
+    private static final LazyMessageContainer EMPTY = new LazyMessageContainer(null, MessageContainer.empty());
+
+    // The fields of MessageContainer that hold a message of a known type
+    private static final Map<Message.Type, Integer> TYPE_FIELDS = Map.of(
+            Message.Type.IMAGE, 3,
+            Message.Type.DOCUMENT, 7,
+            Message.Type.VIDEO, 9,
+            Message.Type.PROTOCOL, 12,
+            Message.Type.STICKER, 26,
+            Message.Type.REACTION, 46,
+            Message.Type.POLL_CREATION, 49,
+            Message.Type.POLL_UPDATE, 50,
+            Message.Type.KEEP_IN_CHAT, 51,
+            Message.Type.ENCRYPTED_REACTION, 56
+    );
+
+    // The fields of MessageContainer that wrap another container in their first field, like ephemeral and view once messages
+    private static final Set<Integer> FUTURE_PROOF_FIELDS = Set.of(37, 40, 53, 55, 58, 59);
+
+    // The field of MessageContainer that holds a DeviceSentMessage, which wraps another container in its second field
+    private static final int DEVICE_SENT_FIELD = 31;
+
+    private byte[] encoded;
+    private MessageContainer decoded;
+    private Consumer<MessageContainer> decodeListener;
+
+    // Set once the container is moved off the heap: offHeap then holds the last encoded form, and decoded is set while the container is hot
+    private MessageBodyStorage storage;
+    private MemorySegment offHeap;
+    private volatile boolean referenced;
+
+    // The decoded form of an evicted container, which is returned again while something else references it,
+    // so that changes made through it aren't discarded by decoding a new one
+    private WeakReference<MessageContainer> evicted;
+
+    // Cached by the first call to hashCode, or when the encoded form is released, and dropped when the container is marked as changed
+    private int hash;
+    private boolean hashed;
+
+    private LazyMessageContainer(byte[] encoded, MessageContainer decoded) {
+        this.encoded = encoded;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Wraps an encoded message container
+     *
+     * @param encoded the encoded message container
+     * @return a non-null lazy message container
+     */
+    @ProtobufDeserializer
+    public static LazyMessageContainer of(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            return EMPTY;
+        }
+
+        return new LazyMessageContainer(encoded, null);
+    }
+
+    /**
+     * Wraps a decoded message container
+     *
+     * @param decoded the message container
+     * @return a non-null lazy message container
+     */
+    public static LazyMessageContainer of(MessageContainer decoded) {
+        if (decoded == null) {
+            return EMPTY;
+        }
+
+        return new LazyMessageContainer(null, decoded);
+    }
+
+    /**
+     * Returns an empty lazy message container
+     *
+     * @return a non-null lazy message container
+     */
+    public static LazyMessageContainer empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the message container, decoding it if necessary
+     *
+     * @return a non-null message container
+     */
+    public MessageContainer get() {
+        Consumer<MessageContainer> listener;
+        MessageContainer result;
+        MessageBodyStorage hotStorage;
+        synchronized (this) {
+            if (decoded != null) {
+                if (storage != null) {
+                    this.referenced = true;
+                }
+                return decoded;
+            }
+
+            var retained = evicted != null ? evicted.get() : null;
+            if (storage == null) {
+                this.decoded = MessageContainerSpec.decode(encoded);
+                cacheHash(encoded);
+                this.encoded = null;
+                listener = decodeListener;
+                this.decodeListener = null;
+            } else if (retained != null) {
+                // The listeners already ran for this instance
+                this.decoded = retained;
+                this.evicted = null;
+                listener = null;
+            } else {
+                // The listeners are kept, as they must run again if the container is evicted and decoded again
+                this.decoded = MessageContainerSpec.decode(offHeap.toArray(ValueLayout.JAVA_BYTE));
+                listener = decodeListener;
+            }
+            result = decoded;
+            hotStorage = storage;
+        }
+
+        if (listener != null) {
+            listener.accept(result);
+        }
+        if (hotStorage != null) {
+            hotStorage.admit(this);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether the message container was decoded
+     *
+     * @return a boolean
+     */
+    public synchronized boolean isDecoded() {
+        return decoded != null;
+    }
+
+    /**
+     * Runs a task when the message container is decoded, or immediately if it already was.
+     * If the container was moved off the heap, the task runs every time the container is decoded from its storage.
+     *
+     * @param listener the task to run
+     */
+    public void whenDecoded(Consumer<MessageContainer> listener) {
+        Objects.requireNonNull(listener, "listener cannot be null");
+        MessageContainer result;
+        synchronized (this) {
+            if (decoded == null || storage != null) {
+                this.decodeListener = decodeListener == null ? listener : decodeListener.andThen(listener);
+            }
+            if (decoded == null) {
+                return;
+            }
+
+            result = decoded;
+        }
+
+        listener.accept(result);
+    }
+
+    /**
+     * Moves the encoded form of this container to off-heap storage.
+     * <p>
+     * From then on, the decoded form of the container is kept only while it's among the containers of the storage
+     * that were decoded most recently: once it's evicted, it's encoded again, if it changed, and released.
+     * A container that was already decoded is encoded, and its decoded form is kept as one of the containers decoded most recently.
+     * If the decoded form of an evicted container is still referenced elsewhere, it's returned again when the container is read,
+     * so changes made through it aren't lost as long as it's read again, or marked as changed, before it's released.
+     *
+     * @param storage the storage, must not be null
+     * @return whether the container is kept in the storage
+     * @throws NullPointerException if storage is null
+     * @see #markChanged()
+     */
+    public boolean moveTo(MessageBodyStorage storage) {
+        Objects.requireNonNull(storage, "storage cannot be null");
+        if (this == EMPTY) {
+            return false;
+        }
+
+        byte[] bytes;
+        MessageContainer container;
+        synchronized (this) {
+            if (this.storage != null || (encoded == null && decoded == null)) {
+                return this.storage == storage;
+            }
+
+            bytes = encoded;
+            container = decoded;
+        }
+
+        if (bytes == null) {
+            bytes = MessageContainerSpec.encode(container);
+        }
+        var segment = storage.allocate(bytes);
+        synchronized (this) {
+            // The container may have been decoded or moved while it was copied
+            if (this.storage != null || encoded != (container == null ? bytes : null) || decoded != container) {
+                return this.storage == storage;
+            }
+
+            cacheHash(bytes);
+            this.offHeap = segment;
+            this.encoded = null;
+            this.storage = storage;
+            this.referenced = true;
+        }
+
+        if (container != null) {
+            storage.admit(this);
+        }
+        return true;
+    }
+
+    /**
+     * Records that the decoded form of a container was changed in place.
+     * The cached hash of the container is dropped, so that the next hash reflects the changes.
+     * If the container is kept off the heap and was evicted while its decoded form was still referenced,
+     * that form is kept decoded again, so that it's encoded, with its changes, when it's evicted,
+     * and serialized with its changes until then.
+     */
+    public void markChanged() {
+        MessageBodyStorage hotStorage;
+        synchronized (this) {
+            this.hashed = false;
+            if (storage == null) {
+                return;
+            }
+
+            if (decoded != null) {
+                this.referenced = true;
+                return;
+            }
+
+            var retained = evicted != null ? evicted.get() : null;
+            if (retained == null) {
+                return;
+            }
+
+            this.decoded = retained;
+            this.evicted = null;
+            hotStorage = storage;
+        }
+
+        hotStorage.admit(this);
+    }
+
+    // Called by the storage when this container is evicted from its hot containers
+    void evict(MessageBodyStorage storage) {
+        MessageContainer container;
+        MemorySegment current;
+        synchronized (this) {
+            if (decoded == null || this.storage != storage) {
+                return;
+            }
+
+            container = decoded;
+            current = offHeap;
+        }
+
+        var bytes = MessageContainerSpec.encode(container);
+        var unchanged = current.byteSize() == bytes.length
+                        && MemorySegment.mismatch(current, 0, current.byteSize(), MemorySegment.ofArray(bytes), 0, bytes.length) == -1;
+        var segment = unchanged ? current : storage.allocate(bytes);
+        synchronized (this) {
+            if (decoded == container) {
+                this.offHeap = segment;
+                this.decoded = null;
+                this.evicted = new WeakReference<>(container);
+            }
+        }
+    }
+
+    // Implements the second chance of the clock used by the storage to evict containers
+    boolean clearReferenced() {
+        var result = referenced;
+        this.referenced = false;
+        return result;
+    }
+
+    /**
+     * Returns whether the wrapped message, unwrapping ephemeral, view once, edited and device sent messages,
+     * may be of the given type.
+     * If the container wasn't decoded, it's not decoded by this method: only the tags of its fields are read.
+     * In this case, the result can be a false positive, but never a false negative.
+     *
+     * @param type the non-null type to check against
+     * @return a boolean
+     */
+    public boolean mayHaveType(Message.Type type) {
+        Objects.requireNonNull(type, "type cannot be null");
+        MemorySegment bytes;
+        synchronized (this) {
+            if (decoded != null) {
+                return decoded.hasType(type);
+            }
+
+            bytes = encodedSegment();
+        }
+
+        var field = TYPE_FIELDS.get(type);
+        return field == null || hasContentField(bytes, 0, (int) bytes.byteSize(), field);
+    }
+
+    // Returns the encoded form of this container, wherever it's kept, or null if it's decoded
+    private MemorySegment encodedSegment() {
+        if (decoded != null) {
+            return null;
+        }
+
+        return encoded != null ? MemorySegment.ofArray(encoded) : offHeap;
+    }
+
+    // Returns true if the field, or a field that cannot be read, is found
+    private static boolean hasContentField(MemorySegment bytes, int offset, int limit, int field) {
+        var reader = new TagReader(bytes, offset, limit);
+        while (reader.hasNext()) {
+            var tag = reader.readVarInt();
+            var index = (int) (tag >>> 3);
+            switch ((int) (tag & 7)) {
+                case 0 -> reader.readVarInt();
+                case 1 -> reader.skip(8);
+                case 2 -> {
+                    var length = (int) reader.readVarInt();
+                    var start = reader.position();
+                    reader.skip(length);
+                    if (index == field || reader.isMalformed()) {
+                        return true;
+                    }
+
+                    var wrappedField = FUTURE_PROOF_FIELDS.contains(index) ? 1 : index == DEVICE_SENT_FIELD ? 2 : -1;
+                    if (wrappedField != -1 && hasWrappedContentField(bytes, start, start + length, wrappedField, field)) {
+                        return true;
+                    }
+                }
+                case 5 -> reader.skip(4);
+                default -> {
+                    return true;
+                }
+            }
+            if (reader.isMalformed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasWrappedContentField(MemorySegment bytes, int offset, int limit, int wrappedField, int field) {
+        var reader = new TagReader(bytes, offset, limit);
+        while (reader.hasNext()) {
+            var tag = reader.readVarInt();
+            switch ((int) (tag & 7)) {
+                case 0 -> reader.readVarInt();
+                case 1 -> reader.skip(8);
+                case 2 -> {
+                    var length = (int) reader.readVarInt();
+                    var start = reader.position();
+                    reader.skip(length);
+                    if ((int) (tag >>> 3) == wrappedField && !reader.isMalformed()) {
+                        return hasContentField(bytes, start, start + length, field);
+                    }
+                }
+                case 5 -> reader.skip(4);
+                default -> {
+                    return true;
+                }
+            }
+            if (reader.isMalformed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the encoded message container.
+     * If the container was never decoded, the bytes it was created from are returned.
+     *
+     * @return a non-null array of bytes
+     */
+    @ProtobufSerializer
+    public byte[] toBytes() {
+        MessageContainer result;
+        synchronized (this) {
+            // An evicted container that is still referenced may have been changed since it was encoded
+            result = decoded != null ? decoded : evicted != null ? evicted.get() : null;
+            if (result == null) {
+                return encoded != null ? encoded : offHeap.toArray(ValueLayout.JAVA_BYTE);
+            }
+        }
+
+        return MessageContainerSpec.encode(result);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LazyMessageContainer that)) {
+            return false;
+        }
+
+        if (this == that) {
+            return true;
+        }
+
+        MemorySegment thisEncoded;
+        MemorySegment thatEncoded;
+        synchronized (this) {
+            thisEncoded = encodedSegment();
+        }
+        synchronized (that) {
+            thatEncoded = that.encodedSegment();
+        }
+        if (thisEncoded != null && thatEncoded != null) {
+            return MemorySegment.mismatch(thisEncoded, 0, thisEncoded.byteSize(), thatEncoded, 0, thatEncoded.byteSize()) == -1;
+        }
+
+        return Objects.equals(get(), that.get());
+    }
+
+    // Containers created from a decoded message are encoded once to compute their hash
+    @Override
+    public int hashCode() {
+        MessageContainer result;
+        synchronized (this) {
+            if (hashed) {
+                return hash;
+            }
+
+            if (decoded == null) {
+                cacheHash(encoded != null ? encoded : offHeap.toArray(ValueLayout.JAVA_BYTE));
+                return hash;
+            }
+
+            result = decoded;
+        }
+
+        var bytes = MessageContainerSpec.encode(result);
+        synchronized (this) {
+            cacheHash(bytes);
+            return hash;
+        }
+    }
+
+    // Must be called while holding the lock
+    private void cacheHash(byte[] bytes) {
+        if (!hashed) {
+            this.hash = Arrays.hashCode(bytes);
+            this.hashed = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toString(get());
+    }
+
+    // Reads the tags of a protobuf message without decoding its fields
+    private static final class TagReader {
+        private final MemorySegment bytes;
+        private final int limit;
+        private int position;
+        private boolean malformed;
+
+        private TagReader(MemorySegment bytes, int offset, int limit) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.limit = limit;
+        }
+
+        private boolean hasNext() {
+            return !malformed && position < limit;
+        }
+
+        private int position() {
+            return position;
+        }
+
+        private boolean isMalformed() {
+            return malformed;
+        }
+
+        private long readVarInt() {
+            var result = 0L;
+            for (var shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    this.malformed = true;
+                    return 0;
+                }
+
+                var value = bytes.get(ValueLayout.JAVA_BYTE, position++);
+                result |= (long) (value & 0x7F) << shift;
+                if ((value & 0x80) == 0) {
+                    return result;
+                }
+            }
+            this.malformed = true;
+            return 0;
+        }
+
+        private void skip(int length) {
+            if (length < 0 || length > limit - position) {
+                this.malformed = true;
+            } else {
+                this.position += length;
+            }
+        }
+    }
+}
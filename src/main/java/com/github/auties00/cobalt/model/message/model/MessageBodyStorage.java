@@ -0,0 +1,122 @@
+package com.github.auties00.cobalt.model.message.model;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Off-heap storage for the encoded form of {@link LazyMessageContainer}s.
+ * <p>
+ * Containers moved to this storage keep their encoded form in native memory instead of the heap,
+ * and only the ones that were decoded most recently keep their decoded form:
+ * once more than {@link #hotCapacity()} containers were decoded, the least recently used ones are evicted,
+ * that is encoded again if they changed and then released, using a clock, or second chance, approximation of an LRU.
+ * This way, the heap footprint of a large store depends on the number of its messages that are read, not on the size of its history.
+ * <p>
+ * Encoded messages are copied into slabs of native memory allocated from automatic arenas:
+ * a slab is released by the garbage collector once none of the messages it holds is referenced.
+ */
+public final class MessageBodyStorage {
+    private static final int DEFAULT_HOT_CAPACITY = 1024;
+    private static final int SLAB_SIZE = 1 << 20;
+
+    // Messages bigger than this are allocated in their own slab, so that they don't waste the end of a shared one
+    private static final int MAX_SLAB_ALLOCATION = SLAB_SIZE / 8;
+
+    private final ReentrantLock lock;
+    private final LazyMessageContainer[] hot;
+    private int hand;
+    private MemorySegment slab;
+    private long slabOffset;
+
+    /**
+     * Creates a storage that keeps up to 1024 decoded containers
+     */
+    public MessageBodyStorage() {
+        this(DEFAULT_HOT_CAPACITY);
+    }
+
+    /**
+     * Creates a storage
+     *
+     * @param hotCapacity the maximum number of containers that are kept decoded, must be positive
+     * @throws IllegalArgumentException if hotCapacity isn't positive
+     */
+    public MessageBodyStorage(int hotCapacity) {
+        if (hotCapacity <= 0) {
+            throw new IllegalArgumentException("hotCapacity must be positive");
+        }
+
+        this.lock = new ReentrantLock();
+        this.hot = new LazyMessageContainer[hotCapacity];
+    }
+
+    /**
+     * Returns the maximum number of containers that are kept decoded
+     *
+     * @return a positive number
+     */
+    public int hotCapacity() {
+        return hot.length;
+    }
+
+    /**
+     * Copies an encoded message to native memory
+     *
+     * @param encoded the encoded message
+     * @return a non-null segment holding a copy of the message
+     */
+    MemorySegment allocate(byte[] encoded) {
+        MemorySegment segment;
+        lock.lock();
+        try {
+            if (encoded.length > MAX_SLAB_ALLOCATION) {
+                segment = Arena.ofAuto().allocate(encoded.length);
+            } else {
+                if (slab == null || slabOffset + encoded.length > slab.byteSize()) {
+                    this.slab = Arena.ofAuto().allocate(SLAB_SIZE);
+                    this.slabOffset = 0;
+                }
+
+                segment = slab.asSlice(slabOffset, encoded.length);
+                this.slabOffset += encoded.length;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        MemorySegment.copy(encoded, 0, segment, ValueLayout.JAVA_BYTE, 0, encoded.length);
+        return segment;
+    }
+
+    /**
+     * Records that a container was decoded, evicting the least recently used container if the storage is full
+     *
+     * @param container the container that was decoded
+     */
+    void admit(LazyMessageContainer container) {
+        LazyMessageContainer evicted;
+        lock.lock();
+        try {
+            while (true) {
+                var current = hot[hand];
+                if (current == null || !current.clearReferenced()) {
+                    hot[hand] = container;
+                    this.hand = (hand + 1) % hot.length;
+                    evicted = current;
+                    break;
+                }
+
+                this.hand = (hand + 1) % hot.length;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Eviction encodes the container, so it's done without holding the lock
+        if (evicted != null && evicted != container) {
+            evicted.evict(this);
+        }
+    }
+}
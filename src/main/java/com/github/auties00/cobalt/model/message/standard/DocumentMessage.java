@@ -72,7 +72,7 @@ public final class DocumentMessage
     final byte[] thumbnailEncSha256;
 
     @ProtobufProperty(index = 16, type = ProtobufType.BYTES)
-    final byte[] thumbnail;
+    byte[] thumbnail;
 
     @ProtobufProperty(index = 17, type = ProtobufType.MESSAGE)
     ContextInfo contextInfo;
@@ -247,6 +247,10 @@ public final class DocumentMessage
         return Optional.ofNullable(thumbnail);
     }
 
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
     public Optional<String> thumbnailDirectPath() {
         return Optional.ofNullable(thumbnailDirectPath);
     }
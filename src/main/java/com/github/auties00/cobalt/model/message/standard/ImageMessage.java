@@ -58,7 +58,7 @@ public final class ImageMessage
     Long mediaKeyTimestampSeconds;
 
     @ProtobufProperty(index = 16, type = ProtobufType.BYTES)
-    final byte[] thumbnail;
+    byte[] thumbnail;
 
     @ProtobufProperty(index = 17, type = ProtobufType.MESSAGE)
     ContextInfo contextInfo;
@@ -257,6 +257,10 @@ public final class ImageMessage
         return Optional.ofNullable(thumbnail);
     }
 
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
     public Optional<byte[]> firstScanSidecar() {
         return Optional.ofNullable(firstScanSidecar);
     }
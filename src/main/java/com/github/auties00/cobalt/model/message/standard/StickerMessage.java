@@ -57,7 +57,7 @@ public final class StickerMessage implements MediaMessage {
     final boolean animated;
 
     @ProtobufProperty(index = 16, type = ProtobufType.BYTES)
-    final byte[] thumbnail;
+    byte[] thumbnail;
 
     @ProtobufProperty(index = 17, type = ProtobufType.MESSAGE)
     ContextInfo contextInfo;
@@ -205,6 +205,10 @@ public final class StickerMessage implements MediaMessage {
         return Optional.ofNullable(thumbnail);
     }
 
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
     public OptionalLong stickerSentTimestamp() {
         return Clock.parseTimestamp(stickerSentTimestamp);
     }
@@ -65,7 +65,7 @@ public final class VideoOrGifMessage
     long mediaKeyTimestampSeconds;
 
     @ProtobufProperty(index = 16, type = ProtobufType.BYTES)
-    final byte[] thumbnail;
+    byte[] thumbnail;
 
     @ProtobufProperty(index = 17, type = ProtobufType.MESSAGE)
     ContextInfo contextInfo;
@@ -254,6 +254,10 @@ public final class VideoOrGifMessage
         return Optional.ofNullable(thumbnail);
     }
 
+    public void setThumbnail(byte[] thumbnail) {
+        this.thumbnail = thumbnail;
+    }
+
     public Optional<byte[]> streamingSidecar() {
         return Optional.ofNullable(streamingSidecar);
     }
@@ -113,6 +113,16 @@ public final class Newsletter implements MessageInfoParent {
         }
     }
 
+    /**
+     * Returns a copy of this newsletter without its messages.
+     * This is useful for serializers that persist the messages of a newsletter separately
+     *
+     * @return a non-null newsletter
+     */
+    public Newsletter withoutMessages() {
+        return new Newsletter(jid, state, metadata, viewerMetadata, new Messages());
+    }
+
     @Override
     public Jid toJid() {
         return jid;
@@ -1,6 +1,7 @@
 package com.github.auties00.cobalt.socket;
 
 import com.github.auties00.cobalt.exception.SessionClosedException;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
 import com.github.auties00.cobalt.model.auth.*;
 import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.node.NodeEncoder;
@@ -25,6 +26,7 @@ import java.security.GeneralSecurityException;
 import java.util.Base64;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.SequencedCollection;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Consumer;
 
@@ -65,25 +67,28 @@ public abstract sealed class SocketSession {
     private final SignalIdentityKeyPair noiseKeyPair;
     private final byte[] handshakePrologue;
     private final ClientPayload handshakePayload;
+    private final WhatsAppClientMetrics metrics;
 
-    protected SocketSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload) {
+    protected SocketSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, WhatsAppClientMetrics metrics) {
         this.noiseKeyPair = noiseKeyPair;
         this.handshakePrologue = handshakePrologue;
         this.handshakePayload = handshakePayload;
+        this.metrics = metrics;
     }
 
-    public static SocketSession of(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy) {
+    public static SocketSession of(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy, WhatsAppClientMetrics metrics) {
         Objects.requireNonNull(noiseKeyPair, "noiseKeyPair cannot be null");
         Objects.requireNonNull(handshakePrologue, "handshakePrologue cannot be null");
+        Objects.requireNonNull(metrics, "metrics cannot be null");
         if(proxy == null) {
-            return new DirectSession(noiseKeyPair, handshakePrologue, handshakePayload);
+            return new DirectSession(noiseKeyPair, handshakePrologue, handshakePayload, metrics);
         }
 
         var scheme = proxy.getScheme();
         Objects.requireNonNull(scheme, "Malformed proxy: scheme cannot be null");
         return switch (scheme.toLowerCase()) {
-            case "http", "https" -> new ProxiedHttpSession(noiseKeyPair, handshakePrologue, handshakePayload, proxy);
-            case "socks5", "socks5h" -> new ProxiedSocksSession(noiseKeyPair, handshakePrologue, handshakePayload, proxy);
+            case "http", "https" -> new ProxiedHttpSession(noiseKeyPair, handshakePrologue, handshakePayload, proxy, metrics);
+            case "socks5", "socks5h" -> new ProxiedSocksSession(noiseKeyPair, handshakePrologue, handshakePayload, proxy, metrics);
             default -> throw new IllegalArgumentException("Malformed proxy: unknown scheme " + scheme);
         };
     }
@@ -98,13 +103,16 @@ public abstract sealed class SocketSession {
         try {
             this.channel = SocketChannel.open();
             channel.configureBlocking(false);
-            var ctx = new ConnectionContext(tunnelled, handshakePrologue, handshakePayload, noiseKeyPair, onMessage);
+            var ctx = new ConnectionContext(tunnelled, handshakePrologue, handshakePayload, noiseKeyPair, metrics, onMessage);
             if (channel.connect(endpoint)) {
                 CentralSelector.INSTANCE.register(channel, SelectionKey.OP_READ, ctx);
             } else {
                 CentralSelector.INSTANCE.register(channel, SelectionKey.OP_CONNECT, ctx);
+                // The selector can finish the connection before this thread starts waiting
                 synchronized (ctx.connectionLock) {
-                    ctx.connectionLock.wait();
+                    while (!ctx.connectable) {
+                        ctx.connectionLock.wait();
+                    }
                 }
             }
             ctx.connected = true;
@@ -151,11 +159,44 @@ public abstract sealed class SocketSession {
     }
 
     public synchronized void sendNode(Node node) {
+        var ctx = getSecuredContext();
+        var frame = encryptFrame(ctx, node);
+        sendBinary(ByteBuffer.wrap(frame));
+    }
+
+    // Frames are concatenated so that they are written to the socket with a single write
+    public synchronized void sendNodes(SequencedCollection<Node> nodes) {
+        if(nodes.isEmpty()) {
+            return;
+        }
+
+        var ctx = getSecuredContext();
+        var frames = new byte[nodes.size()][];
+        var length = 0;
+        var index = 0;
+        for(var node : nodes) {
+            var frame = encryptFrame(ctx, node);
+            frames[index++] = frame;
+            length += frame.length;
+        }
+
+        var buffer = ByteBuffer.allocate(length);
+        for(var frame : frames) {
+            buffer.put(frame);
+        }
+        sendBinary(buffer.flip());
+    }
+
+    private ConnectionContext getSecuredContext() {
         var ctx = CentralSelector.INSTANCE.getContext(channel);
         if(ctx == null || !ctx.connected || !ctx.secured) {
             throw new SessionClosedException();
         }
 
+        return ctx;
+    }
+
+    private byte[] encryptFrame(ConnectionContext ctx, Node node) {
         try {
             var writeCipher = Cipher.getInstance("AES/GCM/NoPadding");
             writeCipher.init(
@@ -169,7 +210,9 @@ public abstract sealed class SocketSession {
             var offset = writeRequestHeader(ciphertextLength, ciphertext, 0);
             NodeEncoder.encode(node, ciphertext, offset, plaintextLength);
             writeCipher.doFinal(ciphertext, offset, plaintextLength, ciphertext, offset);
-            sendBinary(ByteBuffer.wrap(ciphertext));
+            metrics.recordFrameSent(ciphertext.length);
+            metrics.recordNodeSent();
+            return ciphertext;
         }catch (GeneralSecurityException exception) {
             throw new InternalError("Failed to encrypt node", exception);
         }
@@ -200,9 +243,15 @@ public abstract sealed class SocketSession {
             throw new IllegalStateException("Failed to read binary");
         }
 
+        // The selector can complete the read before this thread starts waiting
         synchronized (read.lock) {
             try {
-                read.lock.wait(DEFAULT_READ_TIMEOUT);
+                var deadline = System.currentTimeMillis() + DEFAULT_READ_TIMEOUT;
+                var remaining = (long) DEFAULT_READ_TIMEOUT;
+                while (!read.completed && remaining > 0) {
+                    read.lock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
             } catch (InterruptedException exception) {
                 throw new RuntimeException("Interrupted while waiting for read", exception);
             }
@@ -217,8 +266,8 @@ public abstract sealed class SocketSession {
 
     private static final class DirectSession extends SocketSession {
 
-        DirectSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload) {
-            super(noiseKeyPair, handshakePrologue, handshakePayload);
+        DirectSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, WhatsAppClientMetrics metrics) {
+            super(noiseKeyPair, handshakePrologue, handshakePayload, metrics);
         }
 
         @Override
@@ -239,8 +288,8 @@ public abstract sealed class SocketSession {
 
         private final URI proxy;
 
-        ProxiedHttpSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy) {
-            super(noiseKeyPair, handshakePrologue, handshakePayload);
+        ProxiedHttpSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy, WhatsAppClientMetrics metrics) {
+            super(noiseKeyPair, handshakePrologue, handshakePayload, metrics);
             this.proxy = proxy;
         }
 
@@ -425,8 +474,8 @@ public abstract sealed class SocketSession {
 
         private final URI proxy;
 
-        ProxiedSocksSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy) {
-            super(noiseKeyPair, handshakePrologue, handshakePayload);
+        ProxiedSocksSession(SignalIdentityKeyPair noiseKeyPair, byte[] handshakePrologue, ClientPayload handshakePayload, URI proxy, WhatsAppClientMetrics metrics) {
+            super(noiseKeyPair, handshakePrologue, handshakePayload, metrics);
             this.proxy = proxy;
         }
 
@@ -684,6 +733,7 @@ public abstract sealed class SocketSession {
                     if (channel.finishConnect()) {
                         key.interestOps(SelectionKey.OP_READ);
                         synchronized (ctx.connectionLock) {
+                            ctx.connectable = true;
                             ctx.connectionLock.notifyAll();
                         }
                     }
@@ -717,6 +767,7 @@ public abstract sealed class SocketSession {
                 if (bytesRead == -1) {
                     pendingRead.length = -1;
                     synchronized (pendingRead.lock) {
+                        pendingRead.completed = true;
                         pendingRead.lock.notifyAll();
                     }
                     return false;
@@ -729,6 +780,7 @@ public abstract sealed class SocketSession {
                     }
                     ctx.pendingReads.remove();
                     synchronized (pendingRead.lock) {
+                        pendingRead.completed = true;
                         pendingRead.lock.notifyAll();
                     }
                 }
@@ -767,6 +819,7 @@ public abstract sealed class SocketSession {
 
                     ctx.messageBuffer.flip();
                     ctx.messageLengthBuffer.clear();
+                    ctx.metrics.recordFrameReceived(ctx.messageBuffer.remaining());
                     var buffer = ctx.messageBuffer;
                     ctx.messageBuffer = null;
 
@@ -878,6 +931,9 @@ public abstract sealed class SocketSession {
         // Lock to synchronize the connect method
         private final Object connectionLock;
 
+        // Whether the selector finished the connection, guarded by the connection lock
+        private boolean connectable;
+
         // Whether the connection is tunneled
         // If the client is not using a proxy, this is instantly true, otherwise only after the proxy auth is done this is true
         private boolean tunnelled;
@@ -930,13 +986,17 @@ public abstract sealed class SocketSession {
         // Only used when ready = true
         private final Consumer<ByteBuffer> onMessage;
 
-        private ConnectionContext(boolean tunnelled, byte[] handshakePrologue, ClientPayload handshakePayload, SignalIdentityKeyPair handshakeNoiseKeyPair, Consumer<ByteBuffer> onMessage) {
+        // Metrics of the session that owns this connection
+        private final WhatsAppClientMetrics metrics;
+
+        private ConnectionContext(boolean tunnelled, byte[] handshakePrologue, ClientPayload handshakePayload, SignalIdentityKeyPair handshakeNoiseKeyPair, WhatsAppClientMetrics metrics, Consumer<ByteBuffer> onMessage) {
             this.handshakePrologue = handshakePrologue;
             this.handshakeNoiseKeyPair = handshakeNoiseKeyPair;
             this.handshakePayload = handshakePayload;
             this.connectionLock = new Object();
             this.tunnelled = tunnelled;
             this.onMessage = onMessage;
+            this.metrics = metrics;
             this.pendingReads = new ConcurrentLinkedQueue<>();
             this.pendingWrites = new ConcurrentLinkedQueue<>();
             this.messageLengthBuffer = ByteBuffer.allocate(3);
@@ -960,6 +1020,9 @@ public abstract sealed class SocketSession {
         // After the result has been notified, this property will have a value
         private int length;
 
+        // Whether the result has been notified, guarded by the lock
+        private boolean completed;
+
         private PendingRead(ByteBuffer buffer, boolean fullRead) {
             this.buffer = buffer;
             this.fullRead = fullRead;
@@ -1,10 +1,15 @@
 package com.github.auties00.cobalt.socket;
 
 import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientDispatcher;
 import com.github.auties00.cobalt.client.WhatsAppClientVerificationHandler;
 import com.github.auties00.cobalt.device.DeviceService;
+import com.github.auties00.cobalt.media.MediaConnectionService;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
 import com.github.auties00.cobalt.message.MessageReceiverService;
 import com.github.auties00.cobalt.migration.LidMigrationService;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
 import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.socket.call.CallAckStreamNodeHandler;
 import com.github.auties00.cobalt.socket.call.CallStreamNodeHandler;
@@ -18,13 +23,25 @@ import com.github.auties00.cobalt.socket.message.MessageStreamNodeHandler;
 import com.github.auties00.cobalt.socket.notification.NotificationStreamNodeHandler;
 import com.github.auties00.cobalt.socket.notification.PresenceStreamNodeHandler;
 import com.github.auties00.cobalt.socket.state.*;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.util.TimerWheel;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public final class SocketStream {
-    private final Map<String, SequencedCollection<Handler>> handlers;
+    // How long after a reconnect the state cached by the previous connection is trusted
+    private static final long RESUME_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(5);
 
-    public SocketStream(WhatsAppClient whatsapp, DeviceService deviceService, MessageReceiverService messageReceiverService, LidMigrationService lidMigrationService, WhatsAppClientVerificationHandler.Web webVerificationHandler) {
+    private final Map<String, SequencedCollection<Handler>> handlers;
+    private final WhatsAppClientDispatcher dispatcher;
+    private final WhatsAppClientMetrics metrics;
+    private volatile boolean loggedIn;
+    private volatile boolean resumable;
+    private volatile long disconnectedNanos;
+    private volatile boolean resumed;
+
+    public SocketStream(WhatsAppClient whatsapp, DeviceService deviceService, MessageReceiverService messageReceiverService, LidMigrationService lidMigrationService, MediaConnectionService mediaConnectionService, WhatsAppClientVerificationHandler.Web webVerificationHandler, TimerWheel.Scope timers) {
         var pairingCode = switch (webVerificationHandler) {
             case WhatsAppClientVerificationHandler.Web.PairingCode _ -> new SocketPhonePairing();
             case WhatsAppClientVerificationHandler.Web.QrCode _ -> null;
@@ -38,8 +55,8 @@ public final class SocketStream {
         addHandler(result, new ErrorStreamNodeHandler(whatsapp));
         addHandler(result, new FailureStreamNodeHandler(whatsapp));
         addHandler(result, new IbStreamNodeHandler(whatsapp));
-        addHandler(result, new IqStreamNodeHandler(whatsapp, webVerificationHandler, pairingCode));
-        addHandler(result, new MessageStreamNodeHandler(whatsapp, messageReceiverService, lidMigrationService));
+        addHandler(result, new IqStreamNodeHandler(whatsapp, webVerificationHandler, pairingCode, timers));
+        addHandler(result, new MessageStreamNodeHandler(whatsapp, messageReceiverService, lidMigrationService, timers));
         addHandler(result, new MessageAckStreamNodeHandler(whatsapp));
         addHandler(result, new MessageReceiptStreamNodeHandler(whatsapp, deviceService));
         addHandler(result, new NotificationStreamNodeHandler(whatsapp, pairingCode, lidMigrationService));
@@ -54,7 +71,7 @@ public final class SocketStream {
                 addHandler(result, new WebQueryGroupsStreamNodeHandler(whatsapp));
                 addHandler(result, new WebPullInitialAppStatePatchesStreamNodeHandler(whatsapp));
                 addHandler(result, new WebSetActiveConnectionStreamNodeHandler(whatsapp));
-                addHandler(result, new WebScheduleMediaConnectionUpdateStreamNodeHandler(whatsapp));
+                addHandler(result, new WebScheduleMediaConnectionUpdateStreamNodeHandler(whatsapp, mediaConnectionService));
                 addHandler(result, new WebUpdateSelfPresenceStreamNodeHandler(whatsapp));
                 addHandler(result, new WebQuery2faStreamNodeHandler(whatsapp));
                 addHandler(result, new WebQueryAboutPrivacyStreamNodeHandler(whatsapp));
@@ -70,24 +87,67 @@ public final class SocketStream {
         }
 
         this.handlers = Collections.unmodifiableMap(result);
+        this.dispatcher = whatsapp.dispatcher();
+        this.metrics = whatsapp.metrics();
     }
 
     private void addHandler(Map<String, SequencedCollection<Handler>> result, Handler handler) {
+        handler.stream = this;
         for (var description : handler.descriptions()) {
             result.computeIfAbsent(description, _ -> new ArrayList<>()).add(handler);
         }
     }
     
     public void digest(Node node) {
+        metrics.recordNodeReceived();
+        if (node.hasDescription("success")) {
+            this.resumed = resumable && System.nanoTime() - disconnectedNanos < RESUME_WINDOW_NANOS;
+            this.loggedIn = true;
+        }
+
         var handlers = this.handlers.get(node.description());
-        if(handlers != null) {
-            for(var handler : handlers) {
-                Thread.startVirtualThread(() -> handler.handle(node));
+        if(handlers == null) {
+            return;
+        }
+
+        // Nodes that refer to a chat are processed in order, by all handlers, with respect to that chat
+        // Nodes that refer to the connection, or that are sent by the server itself, are processed in order by each handler
+        var chat = findChat(node);
+        for(var handler : handlers) {
+            if(chat != null) {
+                dispatcher.execute(this, chat, () -> handler.handle(node));
+            }else {
+                dispatcher.execute(handler, null, () -> handler.handle(node));
             }
         }
     }
 
-    public void reset() {
+    // Requests, pings and acks are never queued behind the other nodes of a chat, as the server waits for them
+    private Jid findChat(Node node) {
+        if (node.hasDescription("iq") || node.hasDescription("ack")) {
+            return null;
+        }
+
+        return node.getAttributeAsJid("from")
+                .filter(Jid::hasUser)
+                .map(Jid::withoutData)
+                .orElse(null);
+    }
+
+    /**
+     * Resets the state of this stream after the connection was closed.
+     * If the session logged in before the connection was lost and the client is reconnecting,
+     * the next login resumes the session, unless it happens after the resume window
+     *
+     * @param reconnecting whether the client is reconnecting
+     */
+    public void reset(boolean reconnecting) {
+        if (loggedIn) {
+            this.disconnectedNanos = System.nanoTime();
+        }
+        this.resumable = reconnecting && (loggedIn || resumable);
+        this.loggedIn = false;
+        this.resumed = false;
         for (var entry : handlers.entrySet()) {
             for(var handler : entry.getValue()) {
                 handler.reset();
@@ -98,6 +158,7 @@ public final class SocketStream {
     public abstract static class Handler {
         protected final WhatsAppClient whatsapp;
         protected final Set<String> descriptions;
+        private SocketStream stream;
 
         public Handler(WhatsAppClient whatsapp, String... descriptions) {
             this.whatsapp = whatsapp;
@@ -106,6 +167,28 @@ public final class SocketStream {
 
         public abstract void handle(Node node);
 
+        // Blocks until a subsystem of the store is available, so that handlers that need it don't race with its deserialization
+        // If the subsystem couldn't be deserialized, the exception is rethrown, so that the node isn't applied to an empty store
+        protected void awaitStore(WhatsAppStoreSubsystem subsystem) {
+            whatsapp.store()
+                    .whenDeserialized(subsystem)
+                    .join();
+        }
+
+        // Blocks until the subsystem that holds the chat, or the newsletter, the node was sent from is available
+        protected void awaitStore(Node node) {
+            var newsletter = node.getAttributeAsJid("from")
+                    .filter(jid -> jid.hasServer(JidServer.newsletter()))
+                    .isPresent();
+            awaitStore(newsletter ? WhatsAppStoreSubsystem.NEWSLETTERS : WhatsAppStoreSubsystem.CHATS);
+        }
+
+        // Whether the current connection resumed a session that was logged in a short time ago
+        // The state queried by the previous connection is still valid, as the server sends updates to it as notifications
+        protected boolean isResumedSession() {
+            return stream != null && stream.resumed;
+        }
+
         public Set<String> descriptions() {
             return descriptions;
         }
@@ -46,7 +46,7 @@ public final class CallStreamNodeHandler extends SocketStream.Handler {
                 .build();
         whatsapp.store().addCall(call);
         for(var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onCall(whatsapp, call));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onCall(whatsapp, call));
         }
     }
 
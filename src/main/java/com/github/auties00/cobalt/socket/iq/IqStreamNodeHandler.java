@@ -20,29 +20,28 @@ import com.github.auties00.cobalt.socket.SocketPhonePairing;
 import com.github.auties00.cobalt.socket.SocketStream;
 import com.github.auties00.cobalt.device.adv.DeviceADVValidator;
 import com.github.auties00.cobalt.util.Clock;
+import com.github.auties00.cobalt.util.TimerWheel;
 import com.github.auties00.libsignal.key.SignalIdentityKeyPair;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
 import java.util.NoSuchElementException;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
-import java.util.concurrent.TimeUnit;
 
 import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.AUTH;
 
 public final class IqStreamNodeHandler extends SocketStream.Handler {
-    private static final int PING_INTERVAL = 30;
+    private static final Duration PING_INTERVAL = Duration.ofSeconds(30);
 
     private final WhatsAppClientVerificationHandler.Web webVerificationHandler;
     private final SocketPhonePairing pairingCode;
-    private final Executor pingExecutor;
-    public IqStreamNodeHandler(WhatsAppClient whatsapp, WhatsAppClientVerificationHandler.Web webVerificationHandler, SocketPhonePairing pairingCode) {
+    private final TimerWheel.Scope timers;
+    public IqStreamNodeHandler(WhatsAppClient whatsapp, WhatsAppClientVerificationHandler.Web webVerificationHandler, SocketPhonePairing pairingCode, TimerWheel.Scope timers) {
         super(whatsapp, "iq");
         this.webVerificationHandler = webVerificationHandler;
         this.pairingCode = pairingCode;
-        this.pingExecutor = CompletableFuture.delayedExecutor(PING_INTERVAL, TimeUnit.SECONDS);
+        this.timers = timers;
     }
 
     @Override
@@ -126,12 +125,15 @@ public final class IqStreamNodeHandler extends SocketStream.Handler {
     private void schedulePing() {
         var result = sendPing();
         if(result == null) {
+            // The pings of this connection are cancelled when it's closed
             whatsapp.disconnect(WhatsAppClientDisconnectReason.RECONNECTING);
-        }else {
-            var store = whatsapp.store();
-            store.serialize();
+            return;
         }
-        pingExecutor.execute(this::schedulePing);
+
+        var store = whatsapp.store();
+        store.serialize();
+        timers
+                .schedule(PING_INTERVAL, this::schedulePing);
     }
 
     private Node sendPing() {
@@ -1,6 +1,7 @@
 package com.github.auties00.cobalt.socket.message;
 
 import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
 import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.model.message.model.MessageStatus;
 import com.github.auties00.cobalt.socket.SocketStream;
@@ -16,6 +17,7 @@ public final class MessageAckStreamNodeHandler extends SocketStream.Handler {
             return;
         }
 
+        awaitStore(node);
         var messageId = node.getRequiredAttributeAsString("id");
         var from = node.getRequiredAttributeAsJid("from");
         var match = whatsapp.store()
@@ -31,6 +33,12 @@ public final class MessageAckStreamNodeHandler extends SocketStream.Handler {
         }else if (match.get().status() == MessageStatus.UNKNOWN || match.get().status().ordinal() < MessageStatus.SERVER_ACK.ordinal()) {
             match.get()
                     .setStatus(MessageStatus.SERVER_ACK);
+        }else {
+            return;
+        }
+
+        if (match.get() instanceof ChatMessageInfo chatMessageInfo) {
+            whatsapp.store().markMessageChanged(chatMessageInfo);
         }
     }
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ public final class MessageReceiptStreamNodeHandler extends SocketStream.Handler
 
     @Override
     public void handle(Node node) {
+        awaitStore(node);
         var senderJid = node.getRequiredAttributeAsJid("from");
         getReceiptsMessageIds(node).forEachOrdered(messageId -> {
             whatsapp.sendAck(messageId, node);
@@ -63,6 +64,7 @@ public final class MessageReceiptStreamNodeHandler extends SocketStream.Handler
         message.chat().ifPresent(chat -> {
             var newCount = chat.unreadMessagesCount() - 1;
             chat.setUnreadMessagesCount(newCount);
+            whatsapp.store().markChatChanged(chat);
             var participant = node.getAttributeAsJid("participant")
                     .flatMap(whatsapp.store()::findContactByJid)
                     .orElse(null);
@@ -83,13 +85,14 @@ public final class MessageReceiptStreamNodeHandler extends SocketStream.Handler
                 }
             }
             for(var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onMessageStatus(whatsapp, message));
+                whatsapp.dispatcher().execute(listener, message.parentJid(), () -> listener.onMessageStatus(whatsapp, message));
             }
         });
         if(node.hasAttribute("type", "retry")) {
             acceptMessageRetry(node, message);
         }
         message.setStatus(status);
+        whatsapp.store().markMessageChanged(message);
     }
 
     private void updateNewsletterReceipt(Node node, NewsletterMessageInfo message) {
@@ -98,7 +101,7 @@ public final class MessageReceiptStreamNodeHandler extends SocketStream.Handler
                 .orElse(MessageStatus.DELIVERED);
         message.setStatus(status);
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onMessageStatus(whatsapp, message));
+            whatsapp.dispatcher().execute(listener, message.parentJid(), () -> listener.onMessageStatus(whatsapp, message));
         }
         // Newsletter messages don't support retry (they're plaintext)
     }
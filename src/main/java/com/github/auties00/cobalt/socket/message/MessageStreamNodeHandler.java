@@ -21,17 +21,18 @@ import com.github.auties00.cobalt.model.sync.*;
 import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.socket.SocketStream;
 import com.github.auties00.cobalt.util.Clock;
+import com.github.auties00.cobalt.util.TimerWheel;
 import it.auties.protobuf.stream.ProtobufInputStream;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.BitSet;
 import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import java.util.zip.GZIPInputStream;
@@ -41,21 +42,23 @@ import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Locat
 import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.LID_MIGRATION;
 
 public final class MessageStreamNodeHandler extends SocketStream.Handler {
-    private static final int HISTORY_SYNC_MAX_TIMEOUT = 25;
+    private static final Duration HISTORY_SYNC_MAX_TIMEOUT = Duration.ofSeconds(25);
     private static final Set<HistorySync.Type> REQUIRED_HISTORY_SYNC_TYPES = Set.of(HistorySync.Type.INITIAL_BOOTSTRAP, HistorySync.Type.PUSH_NAME, HistorySync.Type.NON_BLOCKING_DATA);
 
     private final MessageReceiverService messageReceiverService;
     private final LidMigrationService lidMigrationService;
+    private final TimerWheel.Scope timers;
     private final Set<Jid> historyCache;
     private final HistorySyncProgressTracker recentHistorySyncTracker;
     private final HistorySyncProgressTracker fullHistorySyncTracker;
     private final Set<HistorySync.Type> historySyncTypes;
-    private CompletableFuture<Void> historySyncTask;
+    private TimerWheel.Timeout historySyncTask;
 
-    public MessageStreamNodeHandler(WhatsAppClient whatsapp, MessageReceiverService messageReceiverService, LidMigrationService lidMigrationService) {
+    public MessageStreamNodeHandler(WhatsAppClient whatsapp, MessageReceiverService messageReceiverService, LidMigrationService lidMigrationService, TimerWheel.Scope timers) {
         super(whatsapp, "message");
         this.messageReceiverService = messageReceiverService;
         this.lidMigrationService = lidMigrationService;
+        this.timers = timers;
         this.historyCache = new HashSet<>();
         this.historySyncTypes = new HashSet<>();
         this.recentHistorySyncTracker = new HistorySyncProgressTracker();
@@ -64,6 +67,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
 
     @Override
     public void handle(Node node) {
+        awaitStore(node);
         var messageInfos = messageReceiverService.readMessages(node);
         for(var messageInfo : messageInfos) {
             if(messageInfo instanceof ChatMessageInfo chatMessageInfo && chatMessageInfo.message().content() instanceof ProtocolMessage protocolMessage) {
@@ -85,6 +89,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             if (chatMessageInfo.timestampSeconds().orElse(0L) > whatsapp.store().initializationTimeStamp()) {
                 if (chat.archived() && whatsapp.store().unarchiveChats()) {
                     chat.setArchived(false);
+                    whatsapp.store().markChatChanged(chat);
                 }
                 chatMessageInfo.sender()
                         .filter(this::isTyping)
@@ -99,11 +104,12 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                             var provider = contact.orElse(sender);
                             chat.addPresence(sender, ContactStatus.AVAILABLE);
                             for (var listener : whatsapp.store().listeners()) {
-                                Thread.startVirtualThread(() -> listener.onContactPresence(whatsapp, chatMessageInfo.chatJid(), provider.jid()));
+                                whatsapp.dispatcher().execute(listener, chatMessageInfo.chatJid(), () -> listener.onContactPresence(whatsapp, chatMessageInfo.chatJid(), provider.jid()));
                             }
                         });
                 if (!chatMessageInfo.ignore() && !chatMessageInfo.fromMe()) {
                     chat.setUnreadMessagesCount(chat.unreadMessagesCount() + 1);
+                    whatsapp.store().markChatChanged(chat);
                 }
             }
         }
@@ -115,13 +121,15 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
     }
 
     private void notifyListeners(MessageInfo messageInfo) {
+        var dispatcher = whatsapp.dispatcher();
+        var chatJid = messageInfo.parentJid();
         if(messageInfo instanceof ChatMessageInfo chatInfo && chatInfo.chatJid().equals(Jid.statusBroadcastAccount())) {
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onNewStatus(whatsapp, chatInfo));
+                dispatcher.execute(listener, chatJid, () -> listener.onNewStatus(whatsapp, chatInfo));
             }
         }else {
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onNewMessage(whatsapp, messageInfo));
+                dispatcher.execute(listener, chatJid, () -> listener.onNewMessage(whatsapp, messageInfo));
             }
 
             var quotedMessageInfo = messageInfo.quotedMessage()
@@ -131,7 +139,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             }
 
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onMessageReply(whatsapp, messageInfo, quotedMessageInfo));
+                dispatcher.execute(listener, chatJid, () -> listener.onMessageReply(whatsapp, messageInfo, quotedMessageInfo));
             }
         }
     }
@@ -170,9 +178,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                 // TODO
             }
 
-            case MESSAGE_EDIT -> {
-                // TODO
-            }
+            case MESSAGE_EDIT -> onMessageEdited(info, protocolMessage);
 
             case PEER_DATA_OPERATION_REQUEST_MESSAGE -> {
                 // TODO
@@ -262,13 +268,14 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
         if (chat != null) {
             chat.setEphemeralMessagesToggleTimeSeconds(timestampSeconds);
             chat.setEphemeralMessageDuration(ChatEphemeralTimer.of((int) protocolMessage.ephemeralExpirationSeconds()));
+            whatsapp.store().markChatChanged(chat);
         }
         var setting = new EphemeralSettingsBuilder()
                 .timestampSeconds((int) protocolMessage.ephemeralExpirationSeconds())
                 .timestampSeconds(timestampSeconds)
                 .build();
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onWebAppStateSetting(whatsapp, setting));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onWebAppStateSetting(whatsapp, setting));
         }
     }
 
@@ -279,6 +286,55 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                 .ifPresent(message -> onMessageDeleted(info, message));
     }
 
+    private void onMessageEdited(ChatMessageInfo info, ProtocolMessage protocolMessage) {
+        var key = protocolMessage.key();
+        var editedMessage = protocolMessage.editedMessage();
+        if (key.isEmpty() || editedMessage.isEmpty()) {
+            return;
+        }
+
+        var chat = info.chat()
+                .orElse(null);
+        if (chat == null) {
+            return;
+        }
+
+        // Only the sender of a message can edit it
+        chat.getMessageById(key.get().id())
+                .filter(message -> isSameSender(message.senderJid(), info.senderJid()))
+                .ifPresent(message -> {
+                    // The content is replaced in place, and the listener of the chat is notified so that the new content is indexed
+                    message.setMessage(editedMessage.get());
+                    chat.messagesListener()
+                            .ifPresent(listener -> listener.onMessageReplaced(chat, message, message));
+                });
+    }
+
+    // A sender may be addressed by its phone number in a message and by its LID in another, and may use any of its devices
+    private boolean isSameSender(Jid first, Jid second) {
+        if (first == null || second == null) {
+            return false;
+        }
+
+        var firstUser = first.toUserJid();
+        var secondUser = second.toUserJid();
+        if (firstUser.equals(secondUser)) {
+            return true;
+        }
+
+        Optional<Jid> alternateUser;
+        if (firstUser.hasLidServer()) {
+            alternateUser = whatsapp.store().findPhoneByLid(firstUser);
+        } else if (firstUser.hasUserServer()) {
+            alternateUser = whatsapp.store().findLidByPhone(firstUser);
+        } else {
+            alternateUser = Optional.empty();
+        }
+        return alternateUser.map(Jid::toUserJid)
+                .filter(secondUser::equals)
+                .isPresent();
+    }
+
     private void onAppStateSyncKeyShare(ProtocolMessage protocolMessage) {
         var data = protocolMessage.appStateSyncKeyShare()
                 .orElseThrow(() -> new NoSuchElementException("Missing app state keys"));
@@ -340,7 +396,15 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             }else {
                 var mediaConnection = whatsapp.store()
                         .waitForMediaConnection();
-                try(var mediaStream = ProtobufInputStream.fromStream(mediaConnection.download(notification))) {
+                InputStream inputStream;
+                try {
+                    inputStream = mediaConnection.download(notification);
+                }catch (MediaDownloadException exception) {
+                    // The media connection might have been rejected: retry once with a fresh one
+                    inputStream = whatsapp.refreshMediaConnection()
+                            .download(notification);
+                }
+                try(var mediaStream = ProtobufInputStream.fromStream(inputStream)) {
                     return HistorySyncSpec.decode(mediaStream);
                 }
             }
@@ -364,14 +428,14 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             recentHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100);
             if (recentHistorySyncTracker.isDone()) {
                 for (var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onWebHistorySyncProgress(whatsapp, history.progress(), true));
+                    whatsapp.dispatcher().execute(listener, null, () -> listener.onWebHistorySyncProgress(whatsapp, history.progress(), true));
                 }
             }
         } else {
             fullHistorySyncTracker.commit(history.chunkOrder(), history.progress() == 100);
             if (fullHistorySyncTracker.isDone()) {
                 for (var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onWebHistorySyncProgress(whatsapp, history.progress(), false));
+                    whatsapp.dispatcher().execute(listener, null, () -> listener.onWebHistorySyncProgress(whatsapp, history.progress(), false));
                 }
             }
         }
@@ -381,7 +445,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
         info.chat().ifPresent(chat -> chat.removeMessage(message.id()));
         message.setRevokeTimestampSeconds(Clock.nowSeconds());
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onMessageDeleted(whatsapp, message, true));
+            whatsapp.dispatcher().execute(listener, message.parentJid(), () -> listener.onMessageDeleted(whatsapp, message, true));
         }
     }
 
@@ -406,7 +470,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
         var status = whatsapp.store()
                 .status();
         for(var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onStatus(whatsapp, status));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onStatus(whatsapp, status));
         }
     }
 
@@ -419,7 +483,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
         var contacts = whatsapp.store()
                 .contacts();
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onContacts(whatsapp, contacts));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onContacts(whatsapp, contacts));
         }
     }
 
@@ -429,7 +493,10 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                 .findContactByJid(jid)
                 .orElseGet(() -> createNewContact(jid));
         pushName.name()
-                .ifPresent(contact::setChosenName);
+                .ifPresent(name -> {
+                    contact.setChosenName(name);
+                    whatsapp.store().addContact(contact);
+                });
         var action = new ContactActionBuilder()
                 .firstName(pushName.name().orElse(null))
                 .build();
@@ -439,14 +506,14 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                 .fromMe(true)
                 .build();
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onWebAppStateAction(whatsapp, action, index));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onWebAppStateAction(whatsapp, action, index));
         }
     }
 
     private Contact createNewContact(Jid jid) {
         var contact = whatsapp.store().addNewContact(jid);
         for(var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onNewContact(whatsapp, contact));
+            whatsapp.dispatcher().execute(listener, contact.jid(), () -> listener.onNewContact(whatsapp, contact));
         }
         return contact;
     }
@@ -466,7 +533,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
                 .setSyncedChats(true);
         var chats = whatsapp.store().chats();
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onChats(whatsapp, chats));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onChats(whatsapp, chats));
         }
         lidMigrationService.triggerMigration();
     }
@@ -500,7 +567,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             }
 
             for(var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onWebHistorySyncMessages(whatsapp, chat, done));
+                whatsapp.dispatcher().execute(listener, chat.jid(), () -> listener.onWebHistorySyncMessages(whatsapp, chat, done));
             }
         }
 
@@ -508,12 +575,12 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
     }
 
     private void scheduleHistorySyncTimeout() {
-        if (historySyncTask != null && !historySyncTask.isDone()) {
-            historySyncTask.cancel(true);
+        if (historySyncTask != null) {
+            historySyncTask.cancel();
         }
 
-        this.historySyncTask =  CompletableFuture.runAsync(this::onForcedHistorySyncCompletion,
-                CompletableFuture.delayedExecutor(HISTORY_SYNC_MAX_TIMEOUT, TimeUnit.SECONDS));
+        this.historySyncTask = timers
+                .schedule(HISTORY_SYNC_MAX_TIMEOUT, this::onForcedHistorySyncCompletion);
     }
 
     private void onForcedHistorySyncCompletion() {
@@ -526,7 +593,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
             }
 
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onWebHistorySyncMessages(whatsapp, chat, true));
+                whatsapp.dispatcher().execute(listener, chat.jid(), () -> listener.onWebHistorySyncMessages(whatsapp, chat, true));
             }
         }
 
@@ -548,7 +615,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
     private void handlePastParticipants(HistorySync history) {
         for (var pastParticipants : history.pastParticipants()) {
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onWebHistorySyncPastParticipants(whatsapp, pastParticipants.groupJid(), pastParticipants.pastParticipants()));
+                whatsapp.dispatcher().execute(listener, pastParticipants.groupJid(), () -> listener.onWebHistorySyncPastParticipants(whatsapp, pastParticipants.groupJid(), pastParticipants.pastParticipants()));
             }
         }
     }
@@ -561,7 +628,7 @@ public final class MessageStreamNodeHandler extends SocketStream.Handler {
     public void reset() {
         historyCache.clear();
         if (historySyncTask != null) {
-            historySyncTask.cancel(true);
+            historySyncTask.cancel();
             historySyncTask = null;
         }
         recentHistorySyncTracker.clear();
@@ -56,6 +56,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
 
     @Override
     public void handle(Node node) {
+        awaitStore(node);
         try {
             var type = node.getRequiredAttributeAsString("type");
             switch (type) {
@@ -314,7 +315,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
         }
 
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onRegistrationCode(whatsapp, code.getAsLong()));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onRegistrationCode(whatsapp, code.getAsLong()));
         }
     }
 
@@ -332,11 +333,11 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
         if(whatsapp.store().findContactByJid(fromJid).isEmpty()) {
             var contact = whatsapp.store().addNewContact(fromJid);
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onNewContact(whatsapp, contact));
+                whatsapp.dispatcher().execute(listener, contact.jid(), () -> listener.onNewContact(whatsapp, contact));
             }
         }
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onProfilePictureChanged(whatsapp, fromJid));
+            whatsapp.dispatcher().execute(listener, fromJid, () -> listener.onProfilePictureChanged(whatsapp, fromJid));
         }
     }
 
@@ -372,7 +373,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
                 .build();
         chat.addMessage(message);
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onNewMessage(whatsapp, message));
+            whatsapp.dispatcher().execute(listener, message.parentJid(), () -> listener.onNewMessage(whatsapp, message));
         }
     }
 
@@ -429,7 +430,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
         whatsapp.store()
                 .setProfilePicture(result.orElse(null));
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onProfilePictureChanged(whatsapp, user.withoutData()));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onProfilePictureChanged(whatsapp, user.withoutData()));
         }
     }
 
@@ -455,7 +456,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
         whatsapp.store()
                 .setAbout(newAbout);
         for (var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onAboutChanged(whatsapp, oldAbout, newAbout));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onAboutChanged(whatsapp, oldAbout, newAbout));
         }
     }
 
@@ -470,7 +471,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
                     .findContactByJid(value.get())
                     .ifPresent(contact -> contact.setBlocked(entry.hasAttribute("action", "block")));
             for (var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onContactBlocked(whatsapp, value.get()));
+                whatsapp.dispatcher().execute(listener, value.get(), () -> listener.onContactBlocked(whatsapp, value.get()));
             }
         });
     }
@@ -500,7 +501,7 @@ public final class NotificationStreamNodeHandler extends SocketStream.Handler {
             whatsapp.store()
                     .addPrivacySetting(newEntry);
             for(var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onPrivacySettingChanged(whatsapp, newEntry));
+                whatsapp.dispatcher().execute(listener, null, () -> listener.onPrivacySettingChanged(whatsapp, newEntry));
             }
         });
     }
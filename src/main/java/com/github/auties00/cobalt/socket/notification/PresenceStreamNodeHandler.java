@@ -14,6 +14,7 @@ public final class PresenceStreamNodeHandler extends SocketStream.Handler {
 
     @Override
     public void handle(Node node) {
+        awaitStore(node);
         var status = getUpdateType(node);
         var chatJid = node.getRequiredAttributeAsJid("from");
         var participantJid = node.getAttributeAsJid("participant");
@@ -25,7 +26,7 @@ public final class PresenceStreamNodeHandler extends SocketStream.Handler {
                         contact.setLastSeen(ZonedDateTime.now());
                     });
             for(var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onContactPresence(whatsapp, chatJid, chatJid));
+                whatsapp.dispatcher().execute(listener, chatJid, () -> listener.onContactPresence(whatsapp, chatJid, chatJid));
             }
         } else {
             whatsapp.store()
@@ -38,7 +39,7 @@ public final class PresenceStreamNodeHandler extends SocketStream.Handler {
                     .findChatByJid(chatJid)
                     .ifPresent(chat -> chat.addPresence(participantJid.get(), status));
             for(var listener : whatsapp.store().listeners()) {
-                Thread.startVirtualThread(() -> listener.onContactPresence(whatsapp, chatJid, participantJid.get()));
+                whatsapp.dispatcher().execute(listener, chatJid, () -> listener.onContactPresence(whatsapp, chatJid, participantJid.get()));
             }
         }
     }
@@ -5,7 +5,11 @@ import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.socket.SocketStream;
 
 import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Location.AUTH;
+import static com.github.auties00.cobalt.store.WhatsAppStoreSubsystem.CHATS;
+import static com.github.auties00.cobalt.store.WhatsAppStoreSubsystem.NEWSLETTERS;
 
+// Chats and newsletters may still be deserializing when the session is authenticated:
+// their listeners are notified once they are ready, while the others are notified immediately
 public final class WebNotifyStoreStreamNodeHandler extends SocketStream.Handler {
     public WebNotifyStoreStreamNodeHandler(WhatsAppClient whatsapp) {
         super(whatsapp, "success");
@@ -13,36 +17,51 @@ public final class WebNotifyStoreStreamNodeHandler extends SocketStream.Handler
 
     @Override
     public void handle(Node node) {
-        try {
+        if (isResumedSession()) {
+            return;
+        }
+
+        if(whatsapp.store().syncedChats()) {
             whatsapp.store()
-                    .serializer()
-                    .finishDeserialize(whatsapp.store());
-            if(whatsapp.store().syncedChats()) {
-                var chats = whatsapp.store().chats();
-                for(var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onChats(whatsapp, chats));
-                }
-            }
-            if(whatsapp.store().syncedContacts()) {
-                var contacts = whatsapp.store().contacts();
-                for(var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onContacts(whatsapp, contacts));
-                }
-            }
-            if(whatsapp.store().syncedNewsletters()) {
-                var newsletters = whatsapp.store().newsletters();
-                for(var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onNewsletters(whatsapp, newsletters));
-                }
+                    .whenDeserialized(CHATS)
+                    .whenComplete((_, error) -> {
+                        if(error != null) {
+                            whatsapp.handleFailure(AUTH, error);
+                            return;
+                        }
+
+                        var chats = whatsapp.store().chats();
+                        for(var listener : whatsapp.store().listeners()) {
+                            whatsapp.dispatcher().execute(listener, null, () -> listener.onChats(whatsapp, chats));
+                        }
+                    });
+        }
+        if(whatsapp.store().syncedContacts()) {
+            var contacts = whatsapp.store().contacts();
+            for(var listener : whatsapp.store().listeners()) {
+                whatsapp.dispatcher().execute(listener, null, () -> listener.onContacts(whatsapp, contacts));
             }
-            if(whatsapp.store().syncedStatus()) {
-                var status = whatsapp.store().status();
-                for(var listener : whatsapp.store().listeners()) {
-                    Thread.startVirtualThread(() -> listener.onStatus(whatsapp, status));
-                }
+        }
+        if(whatsapp.store().syncedNewsletters()) {
+            whatsapp.store()
+                    .whenDeserialized(NEWSLETTERS)
+                    .whenComplete((_, error) -> {
+                        if(error != null) {
+                            whatsapp.handleFailure(AUTH, error);
+                            return;
+                        }
+
+                        var newsletters = whatsapp.store().newsletters();
+                        for(var listener : whatsapp.store().listeners()) {
+                            whatsapp.dispatcher().execute(listener, null, () -> listener.onNewsletters(whatsapp, newsletters));
+                        }
+                    });
+        }
+        if(whatsapp.store().syncedStatus()) {
+            var status = whatsapp.store().status();
+            for(var listener : whatsapp.store().listeners()) {
+                whatsapp.dispatcher().execute(listener, null, () -> listener.onStatus(whatsapp, status));
             }
-        } catch (Exception exception) {
-            whatsapp.handleFailure(AUTH, exception);
         }
     }
 }
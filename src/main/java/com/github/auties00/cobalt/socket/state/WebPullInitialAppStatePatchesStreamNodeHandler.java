@@ -4,6 +4,7 @@ import com.github.auties00.cobalt.client.WhatsAppClient;
 import com.github.auties00.cobalt.model.sync.PatchType;
 import com.github.auties00.cobalt.node.Node;
 import com.github.auties00.cobalt.socket.SocketStream;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
 
 public final class WebPullInitialAppStatePatchesStreamNodeHandler extends SocketStream.Handler {
     public WebPullInitialAppStatePatchesStreamNodeHandler(WhatsAppClient whatsapp) {
@@ -15,6 +16,7 @@ public final class WebPullInitialAppStatePatchesStreamNodeHandler extends Socket
         if (!whatsapp.store().hasPreKeys() || whatsapp.store().syncedWebAppState()) {
             return;
         }
+        awaitStore(WhatsAppStoreSubsystem.CHATS);
         whatsapp.pullWebAppState(PatchType.values());
         whatsapp.store()
                 .setSyncedWebAppState(true);
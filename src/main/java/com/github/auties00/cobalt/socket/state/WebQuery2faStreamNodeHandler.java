@@ -13,6 +13,10 @@ public final class WebQuery2faStreamNodeHandler extends SocketStream.Handler {
 
     @Override
     public void handle(Node node) {
+        if (isResumedSession()) {
+            return;
+        }
+
         var queryRequestBody = new NodeBuilder()
                 .description("2fa")
                 .build();
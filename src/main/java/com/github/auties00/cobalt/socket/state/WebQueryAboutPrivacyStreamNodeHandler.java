@@ -13,6 +13,10 @@ public final class WebQueryAboutPrivacyStreamNodeHandler extends SocketStream.Ha
 
     @Override
     public void handle(Node node) {
+        if (isResumedSession()) {
+            return;
+        }
+
         var queryRequestBody = new NodeBuilder()
                 .description("privacy")
                 .build();
@@ -12,6 +12,10 @@ public final class WebQueryBlockListStreamNodeHandler extends SocketStream.Handl
 
     @Override
     public void handle(Node node) {
+        if (isResumedSession()) {
+            return;
+        }
+
         for (var jid : whatsapp.queryBlockList()) {
             markBlocked(jid);
         }
@@ -23,7 +27,7 @@ public final class WebQueryBlockListStreamNodeHandler extends SocketStream.Handl
                 .orElseGet(() -> {
                     var newContact = whatsapp.store().addNewContact(entry);
                     for(var listener : whatsapp.store().listeners()) {
-                        Thread.startVirtualThread(() -> listener.onNewContact(whatsapp, newContact));
+                        whatsapp.dispatcher().execute(listener, newContact.jid(), () -> listener.onNewContact(whatsapp, newContact));
                     }
                     return newContact;
                 })
@@ -13,6 +13,10 @@ public final class WebQueryDisappearingModeStreamNodeHandler extends SocketStrea
 
     @Override
     public void handle(Node node) {
+        if (isResumedSession()) {
+            return;
+        }
+
         var queryRequest = new NodeBuilder()
                 .description("iq")
                 .attribute("to", JidServer.user())
@@ -11,9 +11,11 @@ public final class WebQueryGroupsStreamNodeHandler extends SocketStream.Handler
 
     @Override
     public void handle(Node node) {
-        if (whatsapp.store().syncedChats()) {
+        if (isResumedSession()) {
             return;
         }
+
+        // Incremental, so it's cheap enough to run on every login
         var _ = whatsapp.queryGroups();
     }
 }
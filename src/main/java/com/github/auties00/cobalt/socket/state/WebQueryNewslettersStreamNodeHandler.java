@@ -16,7 +16,7 @@ public final class WebQueryNewslettersStreamNodeHandler extends SocketStream.Han
         }
         var newsletters = whatsapp.queryNewsletters();
         for(var listener : whatsapp.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onNewsletters(whatsapp, newsletters));
+            whatsapp.dispatcher().execute(listener, null, () -> listener.onNewsletters(whatsapp, newsletters));
         }
     }
 }
@@ -19,6 +19,10 @@ public final class WebQueryPrivacySettingsStreamNodeHandler extends SocketStream
 
     @Override
     public void handle(Node node) {
+        if (isResumedSession()) {
+            return;
+        }
+
         var queryRequestBody = new NodeBuilder()
                 .description("privacy")
                 .build();
@@ -0,0 +1,289 @@
+package com.github.auties00.cobalt.store;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A preset dictionary used to compress the blocks of a {@link RecordFile} with {@link Deflater}.
+ * <p>
+ * Messages are small, so on their own they compress poorly: most of what they have in common with other messages,
+ * like jids, message keys and the structure of their protobuf, is only found in other blocks.
+ * A dictionary made of the byte sequences that occur most often in the messages of an account
+ * lets every block reference them as if they had been seen right before it.
+ * <p>
+ * Dictionaries are trained with a simplified version of the COVER algorithm used by Zstandard:
+ * the samples are split in epochs and the segment of every epoch that covers the most frequent sequences is selected,
+ * so that the dictionary isn't filled with many copies of the same sequence.
+ */
+final class CompressionDictionary {
+    /**
+     * The maximum length of a dictionary: Deflate can only reference the last 32 KiB of its input
+     */
+    static final int MAX_LENGTH = 32 * 1024;
+
+    // The length of the sequences whose frequency is counted, and of the segments that are selected
+    private static final int SEQUENCE_LENGTH = 8;
+    private static final int SEGMENT_LENGTH = 64;
+
+    // A dictionary trained on less data than this would only fit the few messages it was trained on
+    private static final int MIN_SAMPLES_LENGTH = MAX_LENGTH * 4;
+    private static final int MAX_SAMPLES_LENGTH = 4 * 1024 * 1024;
+
+    private static final int FREQUENCIES_BITS = 20;
+
+    private static final CompressionDictionary NONE = new CompressionDictionary(new byte[0], 0);
+
+    private final byte[] bytes;
+    private final int id;
+
+    private CompressionDictionary(byte[] bytes, int id) {
+        this.bytes = bytes;
+        this.id = id;
+    }
+
+    /**
+     * Returns the dictionary used to compress blocks without a dictionary
+     *
+     * @return a non-null dictionary whose id is zero
+     */
+    static CompressionDictionary none() {
+        return NONE;
+    }
+
+    private static CompressionDictionary of(byte[] bytes) {
+        // The id is the checksum that zlib writes in the header of a stream compressed with a dictionary
+        var checksum = new Adler32();
+        checksum.update(bytes);
+        return new CompressionDictionary(bytes, (int) checksum.getValue());
+    }
+
+    /**
+     * Returns the maximum length of the samples that are considered by {@link #train(List)}
+     *
+     * @return a positive number of bytes
+     */
+    static int maxSamplesLength() {
+        return MAX_SAMPLES_LENGTH;
+    }
+
+    /**
+     * Trains a dictionary
+     *
+     * @param samples the samples, usually encoded messages
+     * @return an optional dictionary, empty if the samples are too few to train one
+     */
+    static Optional<CompressionDictionary> train(List<byte[]> samples) {
+        var data = new ByteArrayOutputStream();
+        for (var sample : samples) {
+            if (data.size() + sample.length > MAX_SAMPLES_LENGTH) {
+                break;
+            }
+            data.writeBytes(sample);
+        }
+
+        if (data.size() < MIN_SAMPLES_LENGTH) {
+            return Optional.empty();
+        }
+
+        var input = data.toByteArray();
+        var frequencies = new int[1 << FREQUENCIES_BITS];
+        for (var i = 0; i + SEQUENCE_LENGTH <= input.length; i++) {
+            frequencies[hash(input, i)]++;
+        }
+
+        var epochs = MAX_LENGTH / SEGMENT_LENGTH;
+        var epochLength = input.length / epochs;
+        var segments = new ArrayList<Segment>(epochs);
+        for (var epoch = 0; epoch < epochs; epoch++) {
+            var segment = selectSegment(input, frequencies, epoch * epochLength, epochLength);
+            if (segment != null) {
+                segments.add(segment);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            return Optional.empty();
+        }
+
+        // Deflate encodes closer matches with fewer bits, so the best segments are placed at the end
+        segments.sort(Comparator.comparingLong(Segment::score));
+        var result = new ByteArrayOutputStream(MAX_LENGTH);
+        for (var segment : segments) {
+            result.write(input, segment.offset(), SEGMENT_LENGTH);
+        }
+        return Optional.of(of(result.toByteArray()));
+    }
+
+    // Finds the segment of an epoch whose sequences are the most frequent,
+    // then forgets the frequency of its sequences so that they don't make later segments look valuable
+    private static Segment selectSegment(byte[] input, int[] frequencies, int start, int length) {
+        var end = Math.min(start + length, input.length) - SEQUENCE_LENGTH;
+        var sequences = SEGMENT_LENGTH - SEQUENCE_LENGTH + 1;
+        if (end - start < sequences) {
+            return null;
+        }
+
+        var score = 0L;
+        for (var i = start; i < start + sequences; i++) {
+            score += frequencies[hash(input, i)];
+        }
+
+        var bestScore = score;
+        var bestOffset = start;
+        for (var i = start + 1; i + sequences <= end; i++) {
+            score += frequencies[hash(input, i + sequences - 1)] - frequencies[hash(input, i - 1)];
+            if (score > bestScore) {
+                bestScore = score;
+                bestOffset = i;
+            }
+        }
+
+        if (bestScore <= sequences) {
+            return null;
+        }
+
+        for (var i = bestOffset; i < bestOffset + sequences; i++) {
+            frequencies[hash(input, i)] = 0;
+        }
+        return new Segment(bestOffset, bestScore);
+    }
+
+    private static int hash(byte[] input, int offset) {
+        var value = 0L;
+        for (var i = 0; i < SEQUENCE_LENGTH; i++) {
+            value = (value << 8) | (input[offset + i] & 0xFF);
+        }
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - FREQUENCIES_BITS));
+    }
+
+    /**
+     * Loads a dictionary
+     *
+     * @param file the file
+     * @return an optional dictionary, empty if the file doesn't exist
+     * @throws IOException if the file cannot be read or is damaged
+     */
+    static Optional<CompressionDictionary> load(Path file) throws IOException {
+        if (Files.notExists(file)) {
+            return Optional.empty();
+        }
+
+        var contents = RecordFile.read(file, -1, null);
+        if (!contents.complete() || contents.records().size() != 1) {
+            throw new IOException("Damaged dictionary");
+        }
+
+        return Optional.of(of(contents.records().getFirst()));
+    }
+
+    /**
+     * Saves this dictionary atomically.
+     * The file is durable once this method returns, but the rename is only durable once the directory is forced.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be written
+     */
+    void save(Path file) throws IOException {
+        var tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var writer = RecordFile.newWriter(tempFile)) {
+            writer.append(bytes);
+            writer.force();
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the id of this dictionary, which is written in the header of the files compressed with it
+     *
+     * @return the id, or zero if this is {@link #none()}
+     */
+    int id() {
+        return id;
+    }
+
+    /**
+     * Compresses a block.
+     * The result starts with the length of the block, so that it can be decompressed into an array of the right size.
+     *
+     * @param deflater the deflater, which is reset
+     * @param block    the block
+     * @param length   the length of the block
+     * @return a non-null array
+     */
+    byte[] compress(Deflater deflater, byte[] block, int length) {
+        deflater.reset();
+        if (bytes.length != 0) {
+            deflater.setDictionary(bytes);
+        }
+        deflater.setInput(block, 0, length);
+        deflater.finish();
+        var output = new ByteArrayOutputStream(Integer.BYTES + length / 2);
+        output.writeBytes(ByteBuffer.allocate(Integer.BYTES).putInt(length).array());
+        var buffer = new byte[8192];
+        while (!deflater.finished()) {
+            var written = deflater.deflate(buffer);
+            output.write(buffer, 0, written);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decompresses a block compressed by {@link #compress(Deflater, byte[], int)}
+     *
+     * @param inflater the inflater, which is reset
+     * @param block    the compressed block
+     * @return a non-null array
+     * @throws IOException if the block is damaged, or wasn't compressed with this dictionary
+     */
+    byte[] decompress(Inflater inflater, byte[] block) throws IOException {
+        if (block.length < Integer.BYTES) {
+            throw new IOException("Truncated block");
+        }
+
+        var length = ByteBuffer.wrap(block).getInt();
+        if (length < 0) {
+            throw new IOException("Invalid block length");
+        }
+
+        inflater.reset();
+        inflater.setInput(block, Integer.BYTES, block.length - Integer.BYTES);
+        var result = new byte[length];
+        try {
+            var read = 0;
+            while (read < length && !inflater.finished()) {
+                var inflated = inflater.inflate(result, read, length - read);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    if (bytes.length == 0 || inflater.getAdler() != id) {
+                        throw new IOException("Block was compressed with a different dictionary");
+                    }
+                    inflater.setDictionary(bytes);
+                } else if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated block");
+                }
+                read += inflated;
+            }
+            if (read != length) {
+                throw new IOException("Block length mismatch");
+            }
+            return result;
+        } catch (DataFormatException exception) {
+            throw new IOException("Damaged block", exception);
+        }
+    }
+
+    private record Segment(int offset, long score) {
+
+    }
+}
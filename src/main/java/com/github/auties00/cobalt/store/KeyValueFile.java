@@ -0,0 +1,443 @@
+package com.github.auties00.cobalt.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A transactional key value store backed by a single file.
+ * <p>
+ * Keys are grouped in keyspaces, and are sorted by their unsigned bytes inside a keyspace,
+ * so that keys sharing a prefix, for example the messages of a chat ordered by timestamp, can be scanned as a range.
+ * <p>
+ * The file is a log: a transaction appends its puts and deletes, followed by a commit record, using a single write and a single sync.
+ * Records are never modified in place, so a reader always sees the value of a committed transaction.
+ * Every record is checksummed: when the file is opened, the records that follow the last valid commit record,
+ * that is a transaction torn by a crash, are discarded.
+ * The location of the live value of every key is kept in memory, and the file is compacted
+ * when most of it is made of values that were overwritten or deleted.
+ */
+final class KeyValueFile implements Closeable {
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final byte COMMIT = 2;
+
+    // checksum, length of the body, type, keyspace and length of the key
+    private static final int HEADER_LENGTH = Integer.BYTES + Integer.BYTES + Byte.BYTES + Byte.BYTES + Integer.BYTES;
+
+    // The checksum and the length of the body aren't part of the body
+    private static final int BODY_HEADER_LENGTH = HEADER_LENGTH - Integer.BYTES * 2;
+
+    private static final long MIN_COMPACTION_SIZE = 4L * 1024 * 1024;
+
+    private final Path path;
+    private final EnumMap<Keyspace, ConcurrentSkipListMap<byte[], Location>> index;
+    private final ReentrantReadWriteLock fileLock;
+    private final ReentrantLock writeLock;
+    private FileChannel channel;
+    private long size;
+    private long liveBytes;
+
+    private KeyValueFile(Path path) {
+        this.path = path;
+        this.index = new EnumMap<>(Keyspace.class);
+        for (var keyspace : Keyspace.values()) {
+            index.put(keyspace, new ConcurrentSkipListMap<>(Arrays::compareUnsigned));
+        }
+        this.fileLock = new ReentrantReadWriteLock();
+        this.writeLock = new ReentrantLock();
+    }
+
+    /**
+     * Opens a file, creating it if it doesn't exist
+     *
+     * @param path the path of the file
+     * @return a non-null key value file
+     * @throws IOException if the file cannot be opened or read
+     */
+    static KeyValueFile open(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        var result = new KeyValueFile(path);
+        result.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        result.load();
+        return result;
+    }
+
+    // Reads the records of the file, and discards the ones that weren't committed
+    private void load() throws IOException {
+        var bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        var checksum = new CRC32();
+        var pending = new ArrayList<Record>();
+        var committedSize = 0L;
+        while (bytes.remaining() >= HEADER_LENGTH) {
+            var recordOffset = bytes.position();
+            var expectedChecksum = bytes.getInt();
+            var bodyLength = bytes.getInt();
+            if (bodyLength < BODY_HEADER_LENGTH || bodyLength > bytes.remaining()) {
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(bytes.array(), bytes.position(), bodyLength);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+
+            var type = bytes.get();
+            var keyspace = bytes.get();
+            var keyLength = bytes.getInt();
+            if (keyLength < 0 || keyLength > bodyLength - BODY_HEADER_LENGTH || keyspace < 0 || keyspace >= Keyspace.values().length) {
+                break;
+            }
+
+            var key = new byte[keyLength];
+            bytes.get(key);
+            var valueLength = bodyLength - BODY_HEADER_LENGTH - keyLength;
+            var location = new Location(recordOffset, HEADER_LENGTH - BODY_HEADER_LENGTH + bodyLength, bytes.position(), valueLength);
+            bytes.position(bytes.position() + valueLength);
+            if (type == COMMIT) {
+                for (var record : pending) {
+                    apply(record.keyspace(), record.key(), record.location());
+                }
+                pending.clear();
+                committedSize = bytes.position();
+            } else {
+                pending.add(new Record(Keyspace.values()[keyspace], key, type == PUT ? location : null));
+            }
+        }
+
+        this.size = committedSize;
+        if (channel.size() != committedSize) {
+            channel.truncate(committedSize);
+            channel.force(true);
+        }
+    }
+
+    // Must be called while holding the write lock
+    private void apply(Keyspace keyspace, byte[] key, Location location) {
+        var entries = index.get(keyspace);
+        var previous = location == null ? entries.remove(key) : entries.put(key, location);
+        if (previous != null) {
+            liveBytes -= previous.recordLength();
+        }
+        if (location != null) {
+            liveBytes += location.recordLength();
+        }
+    }
+
+    /**
+     * Reads the value of a key
+     *
+     * @param keyspace the keyspace of the key
+     * @param key      the key
+     * @return the value, if the key exists
+     * @throws IOException if the value cannot be read
+     */
+    Optional<byte[]> get(Keyspace keyspace, byte[] key) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            var location = index.get(keyspace).get(key);
+            return location == null ? Optional.empty() : Optional.of(read(location));
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the keys that start with a prefix, and their values, in the order of their keys
+     *
+     * @param keyspace the keyspace of the keys
+     * @param prefix   the prefix of the keys, or an empty array to read the whole keyspace
+     * @param consumer the consumer of the keys and of their values
+     * @throws IOException if a value cannot be read
+     */
+    void scan(Keyspace keyspace, byte[] prefix, BiConsumer<byte[], byte[]> consumer) throws IOException {
+        fileLock.readLock().lock();
+        try {
+            for (var entry : index.get(keyspace).tailMap(prefix, true).entrySet()) {
+                if (!hasPrefix(entry.getKey(), prefix)) {
+                    break;
+                }
+
+                consumer.accept(entry.getKey(), read(entry.getValue()));
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the keys that start with a prefix, in order, without reading their values
+     *
+     * @param keyspace the keyspace of the keys
+     * @param prefix   the prefix of the keys, or an empty array to read the whole keyspace
+     * @return a non-null list
+     */
+    List<byte[]> keys(Keyspace keyspace, byte[] prefix) {
+        fileLock.readLock().lock();
+        try {
+            var result = new ArrayList<byte[]>();
+            for (var key : index.get(keyspace).tailMap(prefix, true).keySet()) {
+                if (!hasPrefix(key, prefix)) {
+                    break;
+                }
+
+                result.add(key);
+            }
+            return result;
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private static boolean hasPrefix(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    // Must be called while holding the read lock
+    private byte[] read(Location location) throws IOException {
+        var buffer = ByteBuffer.allocate(location.valueLength());
+        var position = location.valueOffset();
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Starts a transaction
+     *
+     * @return a non-null transaction
+     */
+    Transaction newTransaction() {
+        return new Transaction();
+    }
+
+    /**
+     * Compacts the file if most of it is made of values that were overwritten or deleted
+     *
+     * @throws IOException if the file cannot be compacted
+     */
+    void compactIfNecessary() throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            if (size < MIN_COMPACTION_SIZE || (size - liveBytes) * 2 < size) {
+                return;
+            }
+
+            var tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+            var liveIndex = new EnumMap<Keyspace, ConcurrentSkipListMap<byte[], Location>>(Keyspace.class);
+            var live = 0L;
+            var compactedSize = 0L;
+            try (var output = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                var position = 0L;
+                for (var keyspace : Keyspace.values()) {
+                    var entries = new ConcurrentSkipListMap<byte[], Location>(Arrays::compareUnsigned);
+                    for (var entry : index.get(keyspace).entrySet()) {
+                        var record = encode(PUT, keyspace, entry.getKey(), read(entry.getValue()));
+                        var location = new Location(position, record.remaining(), position + HEADER_LENGTH + entry.getKey().length, entry.getValue().valueLength());
+                        position += write(output, record, position);
+                        live += location.recordLength();
+                        entries.put(entry.getKey(), location);
+                    }
+                    liveIndex.put(keyspace, entries);
+                }
+                position += write(output, encode(COMMIT, Keyspace.STORE, new byte[0], new byte[0]), position);
+                output.force(true);
+                compactedSize = position;
+            }
+
+            // Transactions committed after the compaction are appended to the new file, so the rename must be durable before them
+            channel.close();
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            RecordFile.forceDirectory(path.getParent());
+            this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = compactedSize;
+            index.putAll(liveIndex);
+            this.liveBytes = live;
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private static ByteBuffer encode(byte type, Keyspace keyspace, byte[] key, byte[] value) {
+        var bodyLength = BODY_HEADER_LENGTH + key.length + value.length;
+        var buffer = ByteBuffer.allocate(Integer.BYTES * 2 + bodyLength);
+        buffer.position(Integer.BYTES * 2);
+        buffer.put(type);
+        buffer.put((byte) keyspace.ordinal());
+        buffer.putInt(key.length);
+        buffer.put(key);
+        buffer.put(value);
+        var checksum = new CRC32();
+        checksum.update(buffer.array(), Integer.BYTES * 2, bodyLength);
+        buffer.putInt(0, (int) checksum.getValue());
+        buffer.putInt(Integer.BYTES, bodyLength);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        var length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileLock.writeLock().lock();
+        try {
+            channel.close();
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The keyspaces of a key value file.
+     * Their ordinal is persisted, so new keyspaces must be added at the end.
+     */
+    enum Keyspace {
+        STORE,
+        CHATS,
+        MESSAGES,
+        NEWSLETTERS,
+        SIGNAL_KEYS
+    }
+
+    /**
+     * A set of puts and deletes that are committed atomically
+     */
+    final class Transaction {
+        private final List<Record> records;
+        private final List<byte[]> values;
+
+        private Transaction() {
+            this.records = new ArrayList<>();
+            this.values = new ArrayList<>();
+        }
+
+        /**
+         * Sets the value of a key
+         *
+         * @param keyspace the keyspace of the key
+         * @param key      the key
+         * @param value    the value
+         * @return this transaction
+         */
+        Transaction put(Keyspace keyspace, byte[] key, byte[] value) {
+            records.add(new Record(keyspace, key, null));
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * Deletes a key
+         *
+         * @param keyspace the keyspace of the key
+         * @param key      the key
+         * @return this transaction
+         */
+        Transaction delete(Keyspace keyspace, byte[] key) {
+            records.add(new Record(keyspace, key, null));
+            values.add(null);
+            return this;
+        }
+
+        /**
+         * Returns whether this transaction doesn't change anything
+         *
+         * @return a boolean
+         */
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        /**
+         * Writes this transaction to the file, and waits until it's durable
+         *
+         * @throws IOException if the transaction cannot be written, in which case none of its changes are visible
+         */
+        void commit() throws IOException {
+            if (records.isEmpty()) {
+                return;
+            }
+
+            var encoded = new ArrayList<ByteBuffer>(records.size() + 1);
+            var length = 0;
+            for (var i = 0; i < records.size(); i++) {
+                var record = records.get(i);
+                var value = values.get(i);
+                var buffer = value == null ? encode(DELETE, record.keyspace(), record.key(), new byte[0]) : encode(PUT, record.keyspace(), record.key(), value);
+                encoded.add(buffer);
+                length += buffer.remaining();
+            }
+            var commit = encode(COMMIT, Keyspace.STORE, new byte[0], new byte[0]);
+            encoded.add(commit);
+            length += commit.remaining();
+
+            var batch = ByteBuffer.allocate(length);
+            for (var buffer : encoded) {
+                batch.put(buffer);
+            }
+            batch.flip();
+
+            fileLock.readLock().lock();
+            writeLock.lock();
+            try {
+                var start = size;
+                try {
+                    write(channel, batch, start);
+                    channel.force(false);
+                } catch (IOException exception) {
+                    // Nothing after the last commit can be read, so the torn transaction is dropped
+                    channel.truncate(start);
+                    throw exception;
+                }
+
+                var position = start;
+                for (var i = 0; i < records.size(); i++) {
+                    var record = records.get(i);
+                    var recordLength = encoded.get(i).limit();
+                    var value = values.get(i);
+                    if (value == null) {
+                        apply(record.keyspace(), record.key(), null);
+                    } else {
+                        var location = new Location(position, recordLength, position + HEADER_LENGTH + record.key().length, value.length);
+                        apply(record.keyspace(), record.key(), location);
+                    }
+                    position += recordLength;
+                }
+                size = start + length;
+            } finally {
+                writeLock.unlock();
+                fileLock.readLock().unlock();
+            }
+        }
+    }
+
+    private record Record(Keyspace keyspace, byte[] key, Location location) {
+
+    }
+
+    private record Location(long recordOffset, int recordLength, long valueOffset, int valueLength) {
+
+    }
+}
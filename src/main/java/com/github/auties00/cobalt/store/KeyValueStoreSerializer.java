@@ -0,0 +1,732 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.chat.ChatSpec;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoSpec;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.newsletter.Newsletter;
+import com.github.auties00.cobalt.model.newsletter.NewsletterSpec;
+import com.github.auties00.cobalt.store.KeyValueFile.Keyspace;
+import com.github.auties00.cobalt.util.TimerWheel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A serializer that persists every session in a single {@link KeyValueFile}.
+ * <p>
+ * The store, the chats, the messages, the newsletters and the Signal keys of a session are kept in separate keyspaces.
+ * Messages are keyed by their chat and by their timestamp, so that the messages of a chat are loaded in order with a range scan,
+ * and only the chats, messages and keys that changed since the last serialization are written, in a single transaction.
+ * <p>
+ * The messages that changed are the ones recorded by the store, see {@link WhatsAppStore#trackMessageChanges()},
+ * so a serialization doesn't compare every message of the store:
+ * all the messages are compared only by the first serialization of a store that wasn't deserialized, and after a serialization fails.
+ */
+final class KeyValueStoreSerializer implements WhatsappStoreSerializer {
+    private static final Path DEFAULT_SERIALIZER_PATH = Path.of(System.getProperty("user.home") + "/.cobalt/kv/");
+    private static final String FILE_SUFFIX = ".kv";
+    private static final String SEARCH_INDEX_SUFFIX = ".idx";
+    private static final String CHANGE_LOG_SUFFIX = ".changes";
+    private static final byte[] STORE_KEY = "store".getBytes(StandardCharsets.UTF_8);
+    private static final byte KEY_SEPARATOR = 0;
+    private static final Duration SIGNAL_KEYS_FLUSH_INTERVAL = Duration.ofSeconds(1);
+
+    private final Path baseDirectory;
+    private final ConcurrentMap<UUID, Session> sessions;
+
+    KeyValueStoreSerializer() {
+        this(DEFAULT_SERIALIZER_PATH);
+    }
+
+    KeyValueStoreSerializer(Path baseDirectory) {
+        Objects.requireNonNull(baseDirectory, "baseDirectory cannot be null");
+        this.baseDirectory = baseDirectory;
+        this.sessions = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public SequencedCollection<UUID> listIds(WhatsAppClientType type) {
+        return list(type, fileName -> {
+            if (!fileName.endsWith(FILE_SUFFIX)) {
+                return Optional.empty();
+            }
+
+            try {
+                return Optional.of(UUID.fromString(fileName.substring(0, fileName.length() - FILE_SUFFIX.length())));
+            } catch (IllegalArgumentException ignored) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    @Override
+    public SequencedCollection<Long> listPhoneNumbers(WhatsAppClientType type) {
+        return list(type, fileName -> {
+            try {
+                if (fileName.isEmpty()) {
+                    return Optional.empty();
+                }
+                var result = Long.parseUnsignedLong(fileName, fileName.charAt(0) == '+' ? 1 : 0, fileName.length(), 10);
+                return Optional.of(result);
+            } catch (NumberFormatException ignored) {
+                return Optional.empty();
+            }
+        });
+    }
+
+    private <T> SequencedCollection<T> list(WhatsAppClientType type, Function<String, Optional<T>> adapter) {
+        Objects.requireNonNull(type, "type cannot be null");
+
+        var directory = getHome(type);
+        if (Files.notExists(directory)) {
+            return List.of();
+        }
+
+        try (var walker = Files.list(directory)
+                .sorted(Comparator.comparing(this::getLastModifiedTime))) {
+            return walker.map(path -> adapter.apply(path.getFileName().toString()))
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toCollection(LinkedList::new));
+        } catch (IOException exception) {
+            return List.of();
+        }
+    }
+
+    private FileTime getLastModifiedTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException exception) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    @Override
+    public void serialize(WhatsAppStore store) {
+        Objects.requireNonNull(store, "store cannot be null");
+        Session session;
+        try {
+            session = findOrOpenSession(store);
+        } catch (UncheckedIOException exception) {
+            handleSerializeError(store, exception);
+            return;
+        }
+
+        session.lock.lock();
+        flushChangeLog(store, session);
+        var metrics = store.metrics();
+        var sample = metrics.startStoreSerialize();
+        var chats = store.chats();
+        var newsletters = store.newsletters();
+        var success = false;
+        var transaction = session.file.newTransaction();
+        var signalKeys = addSignalKeys(store, transaction);
+        var changedMessages = drainChangedMessages(store);
+        var reconcile = session.reconcile;
+        try {
+            var storeHashCode = store.hashCode();
+            if (storeHashCode != session.storeHashCode) {
+                transaction.put(Keyspace.STORE, STORE_KEY, WhatsAppStoreSpec.encode(store));
+            }
+
+            var chatJids = new HashSet<Jid>();
+            for (var chat : chats) {
+                chatJids.add(chat.jid());
+                addChat(session, chat, reconcile, changedMessages, transaction);
+            }
+            // Chats that are still being deserialized, or that couldn't be, aren't in the store
+            if (session.chats.state() == Future.State.SUCCESS) {
+                for (var chatJid : session.chatHashCodes.keySet()) {
+                    if (!chatJids.contains(chatJid)) {
+                        removeChat(session, chatJid, transaction);
+                    }
+                }
+            }
+
+            var newsletterJids = new HashSet<Jid>();
+            for (var newsletter : newsletters) {
+                newsletterJids.add(newsletter.jid());
+                addNewsletter(session, newsletter, transaction);
+            }
+            if (session.newsletters.state() == Future.State.SUCCESS) {
+                for (var newsletterJid : session.newsletterHashCodes.keySet()) {
+                    if (!newsletterJids.contains(newsletterJid)) {
+                        transaction.delete(Keyspace.NEWSLETTERS, newsletterJid.toString().getBytes(StandardCharsets.UTF_8));
+                        session.newsletterHashCodes.remove(newsletterJid);
+                    }
+                }
+            }
+
+            transaction.commit();
+            session.storeHashCode = storeHashCode;
+            if (reconcile) {
+                session.reconcile = false;
+            }
+            success = true;
+            store.phoneNumber()
+                    .ifPresent(phoneNumber -> linkPhoneNumber(store.clientType(), store.uuid(), phoneNumber));
+            session.file.compactIfNecessary();
+            store.messageSearchIndex()
+                    .ifPresent(index -> serializeMessageSearchIndex(store, index));
+        } catch (IOException | RuntimeException exception) {
+            // What was written is unknown, so everything is written again by the next serialization
+            for (var entry : signalKeys) {
+                entry.markChanged(store);
+            }
+            session.reset();
+            handleSerializeError(store, exception);
+        } finally {
+            metrics.recordStoreSerialize(sample, store.uuid(), chats.size(), newsletters.size(), success);
+            session.lock.unlock();
+        }
+    }
+
+    // The changes are appended to the file of the log, instead of being written with the store
+    // Must be called while holding the lock of the session
+    private void flushChangeLog(WhatsAppStore store, Session session) {
+        var changeLog = store.changeLog;
+        try {
+            if (session.changeLog != null && session.changeLog != changeLog) {
+                // The changes of a log that was discarded must not be replayed into the next one
+                session.changeLog.detach();
+                Files.deleteIfExists(getChangeLogFile(store.clientType(), store.uuid()));
+            }
+            session.changeLog = changeLog;
+            if (changeLog != null) {
+                if (!changeLog.attached()) {
+                    changeLog.attach(getChangeLogFile(store.clientType(), store.uuid()));
+                }
+                changeLog.flush();
+            }
+        } catch (IOException exception) {
+            handleSerializeError(store, exception);
+        }
+    }
+
+    // The index isn't part of the transaction: if it's lost or stale, the messages it's missing are indexed again when chats are loaded
+    private void serializeMessageSearchIndex(WhatsAppStore store, MessageSearchIndex index) {
+        try {
+            index.save(getMessageSearchIndexFile(store.clientType(), store.uuid()));
+        } catch (IOException exception) {
+            handleSerializeError(store, exception);
+        }
+    }
+
+    // Messages are removed from the changed ones before they are read, so that a change that happens in the meantime is written again by the next serialization
+    // The ids of the changed messages are grouped by chat: a null set stands for all the messages of the chat
+    private static Map<Jid, Set<String>> drainChangedMessages(WhatsAppStore store) {
+        var result = new HashMap<Jid, Set<String>>();
+        for (var iterator = store.changedMessages.iterator(); iterator.hasNext(); ) {
+            var changed = iterator.next();
+            iterator.remove();
+            if (changed.id() == null) {
+                result.put(changed.chatJid(), null);
+            } else if (!result.containsKey(changed.chatJid())) {
+                result.put(changed.chatJid(), new HashSet<>(Set.of(changed.id())));
+            } else {
+                var ids = result.get(changed.chatJid());
+                if (ids != null) {
+                    ids.add(changed.id());
+                }
+            }
+        }
+        return result;
+    }
+
+    // Only the metadata of a chat is written when it changes, and every message is written on its own
+    private void addChat(Session session, Chat chat, boolean reconcile, Map<Jid, Set<String>> changedMessages, KeyValueFile.Transaction transaction) {
+        var chatKey = chat.jid().toString().getBytes(StandardCharsets.UTF_8);
+        var metadata = ChatSpec.encode(chat.withoutMessages());
+        var metadataHashCode = Arrays.hashCode(metadata);
+        var oldMetadataHashCode = session.chatHashCodes.put(chat.jid(), metadataHashCode);
+        if (oldMetadataHashCode == null || oldMetadataHashCode != metadataHashCode) {
+            transaction.put(Keyspace.CHATS, chatKey, metadata);
+        }
+
+        var persistedMessages = session.messages.computeIfAbsent(chat.jid(), _ -> new ConcurrentHashMap<>());
+        if (!reconcile && !changedMessages.containsKey(chat.jid())) {
+            return;
+        }
+
+        var changedIds = changedMessages.get(chat.jid());
+        if (!reconcile && changedIds != null) {
+            for (var id : changedIds) {
+                var message = chat.getMessageById(id);
+                if (message.isPresent()) {
+                    addMessage(persistedMessages, chatKey, message.get(), transaction);
+                } else {
+                    var persisted = persistedMessages.remove(id);
+                    if (persisted != null) {
+                        transaction.delete(Keyspace.MESSAGES, persisted.key());
+                    }
+                }
+            }
+            return;
+        }
+
+        var messageIds = new HashSet<String>();
+        for (var message : chat.messages()) {
+            messageIds.add(message.id());
+            addMessage(persistedMessages, chatKey, message, transaction);
+        }
+        persistedMessages.entrySet().removeIf(entry -> {
+            if (messageIds.contains(entry.getKey())) {
+                return false;
+            }
+
+            transaction.delete(Keyspace.MESSAGES, entry.getValue().key());
+            return true;
+        });
+    }
+
+    private static void addMessage(ConcurrentMap<String, PersistedMessage> persistedMessages, byte[] chatKey, ChatMessageInfo message, KeyValueFile.Transaction transaction) {
+        var hashCode = message.hashCode();
+        var persisted = persistedMessages.get(message.id());
+        if (persisted == null || persisted.contentHash() != hashCode) {
+            var key = persisted != null ? persisted.key() : getMessageKey(chatKey, message);
+            transaction.put(Keyspace.MESSAGES, key, ChatMessageInfoSpec.encode(message));
+            persistedMessages.put(message.id(), new PersistedMessage(key, hashCode));
+        }
+    }
+
+    private void removeChat(Session session, Jid chatJid, KeyValueFile.Transaction transaction) {
+        transaction.delete(Keyspace.CHATS, chatJid.toString().getBytes(StandardCharsets.UTF_8));
+        session.chatHashCodes.remove(chatJid);
+        var persistedMessages = session.messages.remove(chatJid);
+        if (persistedMessages != null) {
+            for (var persisted : persistedMessages.values()) {
+                transaction.delete(Keyspace.MESSAGES, persisted.key());
+            }
+        }
+    }
+
+    // Messages are sorted by their timestamp inside a chat
+    private static byte[] getMessageKey(byte[] chatKey, ChatMessageInfo message) {
+        var id = message.id().getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(chatKey.length + Byte.BYTES + Long.BYTES + id.length)
+                .put(chatKey)
+                .put(KEY_SEPARATOR)
+                .putLong(message.timestampSeconds().orElse(0L))
+                .put(id)
+                .array();
+    }
+
+    private static byte[] getMessagesPrefix(byte[] chatKey) {
+        return ByteBuffer.allocate(chatKey.length + Byte.BYTES)
+                .put(chatKey)
+                .put(KEY_SEPARATOR)
+                .array();
+    }
+
+    private void addNewsletter(Session session, Newsletter newsletter, KeyValueFile.Transaction transaction) {
+        var hashCode = newsletter.hashCode();
+        var oldHashCode = session.newsletterHashCodes.put(newsletter.jid(), hashCode);
+        if (oldHashCode == null || oldHashCode != hashCode) {
+            transaction.put(Keyspace.NEWSLETTERS, newsletter.jid().toString().getBytes(StandardCharsets.UTF_8), NewsletterSpec.encode(newsletter));
+        }
+    }
+
+    // Signal keys are keyed by the encoding of their entry without a value
+    private static List<SignalKeyLogEntry> addSignalKeys(WhatsAppStore store, KeyValueFile.Transaction transaction) {
+        var entries = new ArrayList<SignalKeyLogEntry>();
+        for (var iterator = store.changedSessions.iterator(); iterator.hasNext(); ) {
+            var address = iterator.next();
+            iterator.remove();
+            var entry = SignalKeyLogEntry.ofSession(address, store.sessions.get(address));
+            addSignalKey(transaction, SignalKeyLogEntry.ofSession(address, null), entry);
+            entries.add(entry);
+        }
+        for (var iterator = store.changedSenderKeys.iterator(); iterator.hasNext(); ) {
+            var name = iterator.next();
+            iterator.remove();
+            var entry = SignalKeyLogEntry.ofSenderKey(name, store.senderKeys.get(name));
+            addSignalKey(transaction, SignalKeyLogEntry.ofSenderKey(name, null), entry);
+            entries.add(entry);
+        }
+        for (var iterator = store.changedPreKeys.iterator(); iterator.hasNext(); ) {
+            var id = iterator.next();
+            iterator.remove();
+            var entry = SignalKeyLogEntry.ofPreKey(id, store.preKeys.get(id));
+            addSignalKey(transaction, SignalKeyLogEntry.ofPreKey(id, null), entry);
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    private static void addSignalKey(KeyValueFile.Transaction transaction, SignalKeyLogEntry key, SignalKeyLogEntry entry) {
+        var encodedKey = SignalKeyLogEntrySpec.encode(key);
+        if (entry.session() == null && entry.senderKey() == null && entry.preKey() == null) {
+            transaction.delete(Keyspace.SIGNAL_KEYS, encodedKey);
+        } else {
+            transaction.put(Keyspace.SIGNAL_KEYS, encodedKey, SignalKeyLogEntrySpec.encode(entry));
+        }
+    }
+
+    @Override
+    public void serializeSignalKeys(WhatsAppStore store, boolean sync) {
+        Objects.requireNonNull(store, "store cannot be null");
+        Session session;
+        try {
+            session = findOrOpenSession(store);
+        } catch (UncheckedIOException exception) {
+            if (sync) {
+                throw exception;
+            }
+            handleSerializeError(store, exception);
+            return;
+        }
+
+        if (!sync) {
+            if (session.signalKeysFlushScheduled.compareAndSet(false, true)) {
+                TimerWheel.shared()
+                        .schedule(SIGNAL_KEYS_FLUSH_INTERVAL, () -> flushSignalKeys(store, session));
+            }
+            return;
+        }
+
+        try {
+            commitSignalKeys(store, session);
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot serialize signal keys", exception);
+        }
+    }
+
+    private void flushSignalKeys(WhatsAppStore store, Session session) {
+        try {
+            commitSignalKeys(store, session);
+        } catch (IOException exception) {
+            handleSerializeError(store, exception);
+        }
+    }
+
+    // Concurrent callers are batched: a caller whose keys were taken by a commit that is in progress waits for it
+    private void commitSignalKeys(WhatsAppStore store, Session session) throws IOException {
+        session.lock.lock();
+        try {
+            session.signalKeysFlushScheduled.set(false);
+            var transaction = session.file.newTransaction();
+            var entries = addSignalKeys(store, transaction);
+            try {
+                transaction.commit();
+            } catch (IOException exception) {
+                for (var entry : entries) {
+                    entry.markChanged(store);
+                }
+                throw exception;
+            }
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    // The chats and newsletters of a store that wasn't deserialized are already in memory
+    private Session findOrOpenSession(WhatsAppStore store) {
+        return sessions.computeIfAbsent(store.uuid(), _ -> {
+            try {
+                var session = new Session(KeyValueFile.open(getSessionFile(store.clientType(), store.uuid())));
+                session.chats.complete(null);
+                session.newsletters.complete(null);
+                // The messages that changed before now are found by comparing all of them
+                store.trackMessageChanges();
+                return session;
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Cannot open session file", exception);
+            }
+        });
+    }
+
+    private void handleSerializeError(WhatsAppStore store, Throwable error) {
+        var logger = System.getLogger("KeyValueSerializer - " + store.uuid());
+        logger.log(System.Logger.Level.ERROR, error);
+    }
+
+    @Override
+    public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, UUID id) {
+        Objects.requireNonNull(type, "type cannot be null");
+        Objects.requireNonNull(id, "id cannot be null");
+
+        var path = getSessionFile(type, id);
+        if (Files.notExists(path)) {
+            return Optional.empty();
+        }
+
+        KeyValueFile file = null;
+        try {
+            file = KeyValueFile.open(path);
+            var encodedStore = file.get(Keyspace.STORE, STORE_KEY);
+            if (encodedStore.isEmpty()) {
+                file.close();
+                return Optional.empty();
+            }
+
+            var store = WhatsAppStoreSpec.decode(encodedStore.get());
+            file.scan(Keyspace.SIGNAL_KEYS, new byte[0], (_, value) -> SignalKeyLogEntrySpec.decode(value).applyTo(store));
+            // The index must be restored before chats are loaded, so that their messages aren't indexed again
+            if (store.messageSearch()) {
+                store.setMessageSearchIndex(MessageSearchIndex.load(getMessageSearchIndexFile(type, id)));
+            }
+            // Chats are restored without recording their messages, which are already persisted
+            store.trackMessageChanges();
+            var session = new Session(file);
+            attachChangeLog(store, session);
+            session.storeHashCode = store.hashCode();
+            session.reconcile = false;
+            var oldSession = sessions.put(store.uuid(), session);
+            if (oldSession != null) {
+                oldSession.file.close();
+                if (oldSession.changeLog != null) {
+                    oldSession.changeLog.detach();
+                }
+            }
+            Thread.startVirtualThread(() -> deserializeChatsAndNewsletters(store, session));
+            return Optional.of(store);
+        } catch (IOException | RuntimeException exception) {
+            closeQuietly(file);
+            return Optional.empty();
+        }
+    }
+
+    // The session is still loaded if the changes can't be read, as they are only a copy of what's in the store
+    private void attachChangeLog(WhatsAppStore store, Session session) {
+        var file = getChangeLogFile(store.clientType(), store.uuid());
+        try {
+            if (store.changeLog == null) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            store.changeLog.attach(file);
+            session.changeLog = store.changeLog;
+        } catch (IOException exception) {
+            handleSerializeError(store, exception);
+        }
+    }
+
+    private void closeQuietly(KeyValueFile file) {
+        if (file == null) {
+            return;
+        }
+
+        try {
+            file.close();
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    @Override
+    public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, Long phoneNumber) {
+        Objects.requireNonNull(type, "type cannot be null");
+        Objects.requireNonNull(phoneNumber, "phoneNumber cannot be null");
+
+        var file = getHome(type).resolve(phoneNumber.toString());
+        if (Files.notExists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            return startDeserialize(type, UUID.fromString(Files.readString(file)));
+        } catch (IOException | IllegalArgumentException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private void deserializeChatsAndNewsletters(WhatsAppStore store, Session session) {
+        Thread.startVirtualThread(() -> completeAttribution(session.newsletters, () -> deserializeNewsletters(store, session)));
+        completeAttribution(session.chats, () -> {
+            deserializeChats(store, session);
+            ProtobufStoreSerializer.attributeStoreContextualMessages(store);
+        });
+    }
+
+    private void completeAttribution(CompletableFuture<Void> future, IORunnable task) {
+        try {
+            task.run();
+            future.complete(null);
+        } catch (Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    // A chat is tracked as persisted only once it's in the store, so that a chat that couldn't be loaded is never removed
+    private void deserializeChats(WhatsAppStore store, Session session) throws IOException {
+        var chats = new ArrayList<Map.Entry<Chat, Integer>>();
+        session.file.scan(Keyspace.CHATS, new byte[0], (_, value) -> chats.add(Map.entry(ChatSpec.decode(value), Arrays.hashCode(value))));
+        for (var entry : chats) {
+            var chat = entry.getKey();
+            var persistedMessages = new ConcurrentHashMap<String, PersistedMessage>();
+            var prefix = getMessagesPrefix(chat.jid().toString().getBytes(StandardCharsets.UTF_8));
+            session.file.scan(Keyspace.MESSAGES, prefix, (key, value) -> {
+                var message = ChatMessageInfoSpec.decode(value);
+                message.setChat(chat);
+                store.findContactByJid(message.senderJid())
+                        .ifPresent(message::setSender);
+                chat.addMessage(message);
+                persistedMessages.put(message.id(), new PersistedMessage(key, message.hashCode()));
+            });
+            store.restoreChat(chat);
+            session.messages.computeIfAbsent(chat.jid(), _ -> new ConcurrentHashMap<>())
+                    .putAll(persistedMessages);
+            session.chatHashCodes.putIfAbsent(chat.jid(), entry.getValue());
+        }
+    }
+
+    private void deserializeNewsletters(WhatsAppStore store, Session session) throws IOException {
+        session.file.scan(Keyspace.NEWSLETTERS, new byte[0], (_, value) -> {
+            var newsletter = NewsletterSpec.decode(value);
+            for (var message : newsletter.messages()) {
+                message.setNewsletter(newsletter);
+            }
+            store.addNewsletter(newsletter);
+            session.newsletterHashCodes.putIfAbsent(newsletter.jid(), newsletter.hashCode());
+        });
+    }
+
+    @Override
+    public void finishDeserialize(WhatsAppStore store) {
+        Objects.requireNonNull(store, "store cannot be null");
+
+        var session = sessions.get(store.uuid());
+        if (session == null) {
+            return;
+        }
+
+        try {
+            CompletableFuture.allOf(session.chats, session.newsletters)
+                    .join();
+        } catch (CompletionException exception) {
+            throw new RuntimeException("Cannot finish deserializing store", exception.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> whenDeserialized(WhatsAppStore store, WhatsAppStoreSubsystem subsystem) {
+        Objects.requireNonNull(store, "store cannot be null");
+        Objects.requireNonNull(subsystem, "subsystem cannot be null");
+
+        var session = sessions.get(store.uuid());
+        if (session == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return switch (subsystem) {
+            case CHATS -> session.chats;
+            case NEWSLETTERS -> session.newsletters;
+        };
+    }
+
+    @Override
+    public void deleteSession(WhatsAppClientType type, UUID uuid) {
+        Objects.requireNonNull(type, "type cannot be null");
+        Objects.requireNonNull(uuid, "uuid cannot be null");
+
+        try {
+            var session = sessions.remove(uuid);
+            if (session != null) {
+                session.file.close();
+                if (session.changeLog != null) {
+                    session.changeLog.detach();
+                }
+            }
+            Files.deleteIfExists(getSessionFile(type, uuid));
+            Files.deleteIfExists(getMessageSearchIndexFile(type, uuid));
+            Files.deleteIfExists(getChangeLogFile(type, uuid));
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot delete session", exception);
+        }
+    }
+
+    private void linkPhoneNumber(WhatsAppClientType type, UUID uuid, long phoneNumber) {
+        try {
+            var link = getHome(type).resolve(String.valueOf(phoneNumber));
+            Files.writeString(link, uuid.toString(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException ignored) {
+
+        }
+    }
+
+    private Path getHome(WhatsAppClientType type) {
+        return baseDirectory.resolve(type == WhatsAppClientType.MOBILE ? "mobile" : "web");
+    }
+
+    private Path getSessionFile(WhatsAppClientType type, UUID uuid) {
+        return getHome(type).resolve(uuid + FILE_SUFFIX);
+    }
+
+    private Path getMessageSearchIndexFile(WhatsAppClientType type, UUID uuid) {
+        return getHome(type).resolve(uuid + SEARCH_INDEX_SUFFIX);
+    }
+
+    private Path getChangeLogFile(WhatsAppClientType type, UUID uuid) {
+        return getHome(type).resolve(uuid + CHANGE_LOG_SUFFIX);
+    }
+
+    private record PersistedMessage(byte[] key, int contentHash) {
+
+    }
+
+    @FunctionalInterface
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+
+    // What was persisted for a store, so that only what changed is written
+    private static final class Session {
+        private final KeyValueFile file;
+        private final ReentrantLock lock;
+        private final AtomicBoolean signalKeysFlushScheduled;
+        private final ConcurrentMap<Jid, Integer> chatHashCodes;
+        private final ConcurrentMap<Jid, ConcurrentMap<String, PersistedMessage>> messages;
+        private final ConcurrentMap<Jid, Integer> newsletterHashCodes;
+        private final CompletableFuture<Void> chats;
+        private final CompletableFuture<Void> newsletters;
+        // The log whose changes are appended to its file, guarded by the lock
+        private StoreChangeLog changeLog;
+        private volatile int storeHashCode;
+        // Whether all the messages must be compared, instead of only the ones recorded as changed by the store
+        private volatile boolean reconcile;
+
+        private Session(KeyValueFile file) {
+            this.file = file;
+            this.lock = new ReentrantLock(true);
+            this.signalKeysFlushScheduled = new AtomicBoolean();
+            this.chatHashCodes = new ConcurrentHashMap<>();
+            this.messages = new ConcurrentHashMap<>();
+            this.newsletterHashCodes = new ConcurrentHashMap<>();
+            this.chats = new CompletableFuture<>();
+            this.newsletters = new CompletableFuture<>();
+            this.storeHashCode = -1;
+            this.reconcile = true;
+        }
+
+        // The known hash codes are inverted, so that they don't match, but the keys that were persisted are still tracked
+        private void reset() {
+            this.storeHashCode = ~storeHashCode;
+            this.reconcile = true;
+            chatHashCodes.replaceAll((_, hashCode) -> ~hashCode);
+            newsletterHashCodes.replaceAll((_, hashCode) -> ~hashCode);
+            for (var persistedMessages : messages.values()) {
+                persistedMessages.replaceAll((_, persisted) -> new PersistedMessage(persisted.key(), ~persisted.contentHash()));
+            }
+        }
+    }
+}
@@ -0,0 +1,863 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.message.model.Message;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainerSpec;
+import com.github.auties00.cobalt.model.message.standard.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.BreakIterator;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An inverted index of the text of the messages of a store.
+ * <p>
+ * Every indexed message is a document, identified by a number that grows as messages are indexed.
+ * The index maps each word to the sorted list of the documents that contain it, so that a query only reads the lists of its own words,
+ * and keeps the chat, sender, timestamp and type of each document, so that filters don't need to decode messages.
+ * A message that is edited is indexed again as a new document: documents that are replaced or removed are only marked as removed,
+ * and are purged from the lists when they make up most of the index.
+ * <p>
+ * Text is split in words using the Unicode rules of {@link BreakIterator}, then folded to lower case and stripped of diacritics.
+ * Scripts that aren't written with spaces, like Chinese and Japanese, are indexed as overlapping pairs of characters.
+ * <p>
+ * The index is persisted by the serializer next to the store, as front-coded words followed by delta-encoded document lists.
+ * When it's loaded, the messages that it already contains aren't decoded again.
+ */
+final class MessageSearchIndex {
+    private static final int MAGIC = 0x43534958;
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_TOKEN_LENGTH = 64;
+    private static final int MIN_PURGED_DOCUMENTS = 4096;
+
+    private final ReentrantReadWriteLock lock;
+    private final ReentrantLock saveLock;
+
+    // The documents, as parallel arrays indexed by document id
+    private Jid[] documentChats;
+    private String[] documentIds;
+    private Jid[] documentSenders;
+    private long[] documentTimestamps;
+    private Message.Type[] documentTypes;
+    private int documents;
+
+    private final BitSet removed;
+    private int removedDocuments;
+
+    private final Map<Jid, Map<String, Integer>> chatDocuments;
+    private final TreeMap<String, Postings> terms;
+
+    private long modifications;
+    // Guarded by the save lock
+    private long savedModifications;
+
+    MessageSearchIndex() {
+        this.lock = new ReentrantReadWriteLock();
+        this.saveLock = new ReentrantLock();
+        this.documentChats = new Jid[INITIAL_CAPACITY];
+        this.documentIds = new String[INITIAL_CAPACITY];
+        this.documentSenders = new Jid[INITIAL_CAPACITY];
+        this.documentTimestamps = new long[INITIAL_CAPACITY];
+        this.documentTypes = new Message.Type[INITIAL_CAPACITY];
+        this.removed = new BitSet();
+        this.chatDocuments = new HashMap<>();
+        this.terms = new TreeMap<>();
+    }
+
+    /**
+     * Indexes the messages of a chat that aren't indexed yet, and removes the ones that the chat doesn't hold anymore
+     *
+     * @param chat the chat
+     */
+    void addChat(Chat chat) {
+        Set<String> indexed;
+        lock.readLock().lock();
+        try {
+            var documents = chatDocuments.get(chat.jid());
+            indexed = documents == null ? Set.of() : new HashSet<>(documents.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        for (var messageInfo : chat.messages()) {
+            if (!indexed.contains(messageInfo.id())) {
+                addMessage(chat, messageInfo);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            var documents = chatDocuments.get(chat.jid());
+            if (documents == null) {
+                return;
+            }
+
+            // The chat is checked instead of the messages that were iterated, as messages can be added concurrently
+            for (var iterator = documents.entrySet().iterator(); iterator.hasNext(); ) {
+                var entry = iterator.next();
+                if (chat.getMessageById(entry.getKey()).isEmpty()) {
+                    iterator.remove();
+                    markRemoved(entry.getValue());
+                }
+            }
+            purgeIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes a message, replacing the message with the same id if it was already indexed
+     *
+     * @param chat        the chat of the message
+     * @param messageInfo the message
+     */
+    void addMessage(Chat chat, ChatMessageInfo messageInfo) {
+        // Tokenization and decoding happen outside the lock, as they are the expensive part
+        var container = decodeMessage(messageInfo);
+        var tokens = new LinkedHashSet<>(tokenize(extractText(container)));
+        var timestamp = messageInfo.timestampSeconds().orElse(0L);
+        var type = container.deepType();
+        lock.writeLock().lock();
+        try {
+            var document = documents;
+            ensureCapacity(document + 1);
+            documentChats[document] = chat.jid();
+            documentIds[document] = messageInfo.id();
+            documentSenders[document] = messageInfo.senderJid();
+            documentTimestamps[document] = timestamp;
+            documentTypes[document] = type;
+            this.documents = document + 1;
+            var previous = chatDocuments.computeIfAbsent(chat.jid(), _ -> new HashMap<>())
+                    .put(messageInfo.id(), document);
+            if (previous != null) {
+                markRemoved(previous);
+            }
+            for (var token : tokens) {
+                terms.computeIfAbsent(token, _ -> new Postings())
+                        .add(document);
+            }
+            modifications++;
+            purgeIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a message from the index
+     *
+     * @param chat        the chat of the message
+     * @param messageInfo the message
+     */
+    void removeMessage(Chat chat, ChatMessageInfo messageInfo) {
+        lock.writeLock().lock();
+        try {
+            var documents = chatDocuments.get(chat.jid());
+            if (documents == null) {
+                return;
+            }
+
+            var document = documents.remove(messageInfo.id());
+            if (document == null) {
+                return;
+            }
+
+            if (documents.isEmpty()) {
+                chatDocuments.remove(chat.jid());
+            }
+            markRemoved(document);
+            purgeIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the messages of a chat from the index
+     *
+     * @param chatJid the jid of the chat
+     */
+    void removeChat(Jid chatJid) {
+        lock.writeLock().lock();
+        try {
+            var documents = chatDocuments.remove(chatJid);
+            if (documents == null) {
+                return;
+            }
+
+            for (var document : documents.values()) {
+                markRemoved(document);
+            }
+            purgeIfNecessary();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must be called while holding the write lock
+    private void markRemoved(int document) {
+        if (removed.get(document)) {
+            return;
+        }
+
+        removed.set(document);
+        removedDocuments++;
+        documentChats[document] = null;
+        documentIds[document] = null;
+        documentSenders[document] = null;
+        modifications++;
+    }
+
+    // Must be called while holding the write lock
+    private void ensureCapacity(int capacity) {
+        if (capacity <= documentIds.length) {
+            return;
+        }
+
+        var newCapacity = Math.max(capacity, documentIds.length * 2);
+        this.documentChats = Arrays.copyOf(documentChats, newCapacity);
+        this.documentIds = Arrays.copyOf(documentIds, newCapacity);
+        this.documentSenders = Arrays.copyOf(documentSenders, newCapacity);
+        this.documentTimestamps = Arrays.copyOf(documentTimestamps, newCapacity);
+        this.documentTypes = Arrays.copyOf(documentTypes, newCapacity);
+    }
+
+    // Renumbers the documents that weren't removed, once they are less than the removed ones
+    // Must be called while holding the write lock
+    private void purgeIfNecessary() {
+        if (removedDocuments < MIN_PURGED_DOCUMENTS || removedDocuments < documents - removedDocuments) {
+            return;
+        }
+
+        var renumbered = renumber();
+        var liveDocuments = documents - removedDocuments;
+        var newCapacity = Math.max(INITIAL_CAPACITY, liveDocuments);
+        var newChats = new Jid[newCapacity];
+        var newIds = new String[newCapacity];
+        var newSenders = new Jid[newCapacity];
+        var newTimestamps = new long[newCapacity];
+        var newTypes = new Message.Type[newCapacity];
+        for (var document = 0; document < documents; document++) {
+            var newDocument = renumbered[document];
+            if (newDocument != -1) {
+                newChats[newDocument] = documentChats[document];
+                newIds[newDocument] = documentIds[document];
+                newSenders[newDocument] = documentSenders[document];
+                newTimestamps[newDocument] = documentTimestamps[document];
+                newTypes[newDocument] = documentTypes[document];
+            }
+        }
+        this.documentChats = newChats;
+        this.documentIds = newIds;
+        this.documentSenders = newSenders;
+        this.documentTimestamps = newTimestamps;
+        this.documentTypes = newTypes;
+        this.documents = liveDocuments;
+        removed.clear();
+        this.removedDocuments = 0;
+
+        for (var documents : chatDocuments.values()) {
+            documents.replaceAll((_, document) -> renumbered[document]);
+        }
+        for (var iterator = terms.values().iterator(); iterator.hasNext(); ) {
+            var postings = iterator.next();
+            postings.renumber(renumbered);
+            if (postings.size == 0) {
+                iterator.remove();
+            }
+        }
+    }
+
+    // Maps every document to its number once the removed documents are purged, or -1 if it was removed
+    private int[] renumber() {
+        var renumbered = new int[documents];
+        var next = 0;
+        for (var document = 0; document < documents; document++) {
+            renumbered[document] = removed.get(document) ? -1 : next++;
+        }
+        return renumbered;
+    }
+
+    /**
+     * Searches the index
+     *
+     * @param query the query
+     * @param chats a function that returns the chat with a jid, used to resolve the messages that match
+     * @return the messages that match, from the newest to the oldest
+     */
+    List<ChatMessageInfo> search(MessageSearchQuery query, Function<Jid, Optional<Chat>> chats) {
+        var tokens = tokenize(query.text());
+        if (tokens.isEmpty()) {
+            return List.of();
+        }
+
+        var chatJid = query.chatJid().orElse(null);
+        var senderJid = query.senderJid().orElse(null);
+        var types = query.types();
+        var after = query.after().map(instant -> instant.getEpochSecond()).orElse(Long.MIN_VALUE);
+        var before = query.before().map(instant -> instant.getEpochSecond()).orElse(Long.MAX_VALUE);
+        var matches = new PriorityQueue<Match>(Comparator.comparingLong(Match::timestampSeconds));
+        lock.readLock().lock();
+        try {
+            var lists = new ArrayList<int[]>(tokens.size() + 1);
+            for (var i = 0; i < tokens.size() - 1; i++) {
+                var postings = terms.get(tokens.get(i));
+                if (postings == null) {
+                    return List.of();
+                }
+                lists.add(postings.toArray());
+            }
+
+            var last = findPrefix(tokens.getLast());
+            if (last.length == 0) {
+                return List.of();
+            }
+            lists.add(last);
+
+            if (chatJid != null) {
+                var documents = chatDocuments.get(chatJid);
+                if (documents == null) {
+                    return List.of();
+                }
+                var chatList = documents.values()
+                        .stream()
+                        .mapToInt(Integer::intValue)
+                        .sorted()
+                        .toArray();
+                lists.add(chatList);
+            }
+
+            for (var document : intersect(lists)) {
+                if (removed.get(document)) {
+                    continue;
+                }
+
+                var timestamp = documentTimestamps[document];
+                if (timestamp < after || timestamp >= before) {
+                    continue;
+                }
+
+                if (senderJid != null && !senderJid.equals(documentSenders[document])) {
+                    continue;
+                }
+
+                if (!types.isEmpty() && !types.contains(documentTypes[document])) {
+                    continue;
+                }
+
+                matches.add(new Match(documentChats[document], documentIds[document], timestamp));
+                if (matches.size() > query.limit()) {
+                    matches.poll();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        var results = new ArrayList<ChatMessageInfo>(matches.size());
+        while (!matches.isEmpty()) {
+            var match = matches.poll();
+            chats.apply(match.chatJid())
+                    .flatMap(chat -> chat.getMessageById(match.messageId()))
+                    .ifPresent(results::add);
+        }
+        return results.reversed();
+    }
+
+    // Returns the sorted documents of the words that start with a prefix
+    // Must be called while holding the read lock
+    private int[] findPrefix(String prefix) {
+        var matching = new ArrayList<Postings>();
+        for (var entry : terms.tailMap(prefix, true).entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                break;
+            }
+            matching.add(entry.getValue());
+        }
+
+        if (matching.size() == 1) {
+            return matching.getFirst().toArray();
+        }
+
+        var length = 0;
+        for (var postings : matching) {
+            length += postings.size;
+        }
+        var result = new int[length];
+        var offset = 0;
+        for (var postings : matching) {
+            System.arraycopy(postings.documents, 0, result, offset, postings.size);
+            offset += postings.size;
+        }
+        Arrays.sort(result);
+        var unique = 0;
+        for (var i = 0; i < result.length; i++) {
+            if (i == 0 || result[i] != result[i - 1]) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, unique);
+    }
+
+    // Intersects sorted lists, starting from the shortest one and searching the others
+    private static int[] intersect(List<int[]> lists) {
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        var result = lists.getFirst();
+        for (var i = 1; i < lists.size() && result.length > 0; i++) {
+            var other = lists.get(i);
+            var intersection = new int[result.length];
+            var size = 0;
+            var from = 0;
+            for (var document : result) {
+                var index = Arrays.binarySearch(other, from, other.length, document);
+                if (index >= 0) {
+                    intersection[size++] = document;
+                    from = index + 1;
+                } else {
+                    from = -index - 1;
+                }
+
+                if (from >= other.length) {
+                    break;
+                }
+            }
+            result = Arrays.copyOf(intersection, size);
+        }
+        return result;
+    }
+
+    private static MessageContainer decodeMessage(ChatMessageInfo messageInfo) {
+        // Messages that weren't decoded yet are decoded on the side, so that indexing them doesn't keep them decoded in memory
+        var lazyMessage = messageInfo.lazyMessage();
+        return lazyMessage.isDecoded() ? lazyMessage.get() : MessageContainerSpec.decode(lazyMessage.toBytes());
+    }
+
+    private static String extractText(MessageContainer container) {
+        return switch (container.content()) {
+            case TextMessage textMessage -> textMessage.text();
+            case ImageMessage imageMessage -> imageMessage.caption().orElse(null);
+            case VideoOrGifMessage videoMessage -> videoMessage.caption().orElse(null);
+            case DocumentMessage documentMessage -> joinText(documentMessage.caption(), documentMessage.title(), documentMessage.fileName());
+            case LocationMessage locationMessage -> joinText(locationMessage.name(), locationMessage.address(), locationMessage.caption());
+            case ContactMessage contactMessage -> contactMessage.name();
+            case PollCreationMessage pollCreationMessage -> pollCreationMessage.title();
+            case GroupInviteMessage groupInviteMessage -> groupInviteMessage.caption().orElse(null);
+            default -> null;
+        };
+    }
+
+    @SafeVarargs
+    private static String joinText(Optional<String>... values) {
+        var joiner = new StringJoiner(" ");
+        for (var value : values) {
+            value.ifPresent(joiner::add);
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Splits a text in the words used by the index
+     *
+     * @param text the text, can be null
+     * @return a non-null list of words
+     */
+    static List<String> tokenize(String text) {
+        var tokens = new ArrayList<String>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        // Compatibility decomposition splits accented characters from their diacritics and folds variants like ligatures and full width forms
+        var normalized = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        var words = BreakIterator.getWordInstance(Locale.ROOT);
+        words.setText(normalized);
+        var start = words.first();
+        for (var end = words.next(); end != BreakIterator.DONE; start = end, end = words.next()) {
+            addTokens(normalized, start, end, tokens);
+        }
+        return tokens;
+    }
+
+    private static void addTokens(String text, int start, int end, List<String> tokens) {
+        var word = new StringBuilder(end - start);
+        var script = Character.UnicodeScript.COMMON;
+        var ideographic = false;
+        for (var i = start; i < end; ) {
+            var codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            var type = Character.getType(codePoint);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK || type == Character.ENCLOSING_MARK) {
+                // Diacritics are only dropped in scripts where they are accents, as in other scripts they are part of the letter
+                if (!isAccentedScript(script)) {
+                    word.appendCodePoint(codePoint);
+                }
+                continue;
+            }
+
+            if (!Character.isLetterOrDigit(codePoint)) {
+                continue;
+            }
+
+            script = Character.UnicodeScript.of(codePoint);
+            ideographic |= isIdeographicScript(script);
+            word.appendCodePoint(Character.toLowerCase(codePoint));
+        }
+
+        if (word.isEmpty()) {
+            return;
+        }
+
+        if (!ideographic) {
+            tokens.add(truncate(word.toString()));
+            return;
+        }
+
+        var codePoints = word.codePoints().toArray();
+        if (codePoints.length == 1) {
+            tokens.add(word.toString());
+            return;
+        }
+
+        for (var i = 0; i < codePoints.length - 1; i++) {
+            tokens.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isAccentedScript(Character.UnicodeScript script) {
+        return script == Character.UnicodeScript.LATIN
+               || script == Character.UnicodeScript.GREEK
+               || script == Character.UnicodeScript.CYRILLIC;
+    }
+
+    private static boolean isIdeographicScript(Character.UnicodeScript script) {
+        return script == Character.UnicodeScript.HAN
+               || script == Character.UnicodeScript.HIRAGANA
+               || script == Character.UnicodeScript.KATAKANA;
+    }
+
+    private static String truncate(String token) {
+        if (token.length() <= MAX_TOKEN_LENGTH) {
+            return token;
+        }
+
+        var end = MAX_TOKEN_LENGTH;
+        if (Character.isHighSurrogate(token.charAt(end - 1))) {
+            end--;
+        }
+        return token.substring(0, end);
+    }
+
+    /**
+     * Loads an index that was saved by {@link #save(Path)}
+     *
+     * @param file the file of the index
+     * @return a non-null index, which is empty if the file doesn't exist or is corrupted
+     */
+    static MessageSearchIndex load(Path file) {
+        try {
+            if (Files.notExists(file)) {
+                return new MessageSearchIndex();
+            }
+
+            var bytes = Files.readAllBytes(file);
+            if (bytes.length < Integer.BYTES) {
+                return new MessageSearchIndex();
+            }
+
+            var length = bytes.length - Integer.BYTES;
+            var checksum = new CRC32();
+            checksum.update(bytes, 0, length);
+            var expectedChecksum = (bytes[length] & 0xFF) << 24 | (bytes[length + 1] & 0xFF) << 16 | (bytes[length + 2] & 0xFF) << 8 | (bytes[length + 3] & 0xFF);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                return new MessageSearchIndex();
+            }
+
+            return read(new DataInputStream(new ByteArrayInputStream(bytes, 0, length)));
+        } catch (IOException | RuntimeException _) {
+            // The messages are indexed again as their chats are loaded
+            return new MessageSearchIndex();
+        }
+    }
+
+    private static MessageSearchIndex read(DataInputStream input) throws IOException {
+        if (input.readInt() != MAGIC || input.readUnsignedByte() != VERSION) {
+            return new MessageSearchIndex();
+        }
+
+        var jids = new Jid[readVarInt(input)];
+        for (var i = 0; i < jids.length; i++) {
+            jids[i] = Jid.of(input.readUTF());
+        }
+
+        var types = new Message.Type[readVarInt(input)];
+        for (var i = 0; i < types.length; i++) {
+            var name = input.readUTF();
+            types[i] = Arrays.stream(Message.Type.values())
+                    .filter(type -> type.name().equals(name))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        var index = new MessageSearchIndex();
+        var documents = readVarInt(input);
+        index.ensureCapacity(documents);
+        for (var document = 0; document < documents; document++) {
+            var chatJid = jids[readVarInt(input)];
+            var messageId = input.readUTF();
+            var sender = readVarInt(input);
+            var type = readVarInt(input);
+            index.documentChats[document] = chatJid;
+            index.documentIds[document] = messageId;
+            index.documentSenders[document] = sender == 0 ? null : jids[sender - 1];
+            index.documentTimestamps[document] = readVarLong(input);
+            index.documentTypes[document] = type == 0 ? null : types[type - 1];
+            index.chatDocuments.computeIfAbsent(chatJid, _ -> new HashMap<>())
+                    .put(messageId, document);
+        }
+        index.documents = documents;
+
+        var terms = readVarInt(input);
+        var previous = "";
+        for (var i = 0; i < terms; i++) {
+            var sharedPrefix = readVarInt(input);
+            var term = previous.substring(0, sharedPrefix) + input.readUTF();
+            var size = readVarInt(input);
+            var postings = new Postings(size);
+            var document = -1;
+            for (var j = 0; j < size; j++) {
+                document += readVarInt(input) + 1;
+                postings.add(document);
+            }
+            index.terms.put(term, postings);
+            previous = term;
+        }
+        return index;
+    }
+
+    /**
+     * Saves this index, unless it didn't change since it was last saved or loaded.
+     * Removed documents are purged from the saved index.
+     * The index is encoded while holding the read lock, then written to disk without holding it,
+     * so that messages can be indexed while the file is written.
+     *
+     * @param file the file of the index
+     * @throws IOException if the index cannot be saved
+     */
+    void save(Path file) throws IOException {
+        saveLock.lock();
+        try {
+            byte[] snapshot;
+            long snapshotModifications;
+            lock.readLock().lock();
+            try {
+                if (modifications == savedModifications) {
+                    return;
+                }
+
+                var buffer = new ByteArrayOutputStream();
+                var checksum = new CRC32();
+                var output = new DataOutputStream(new CheckedOutputStream(buffer, checksum));
+                write(output);
+                output.flush();
+                new DataOutputStream(buffer).writeInt((int) checksum.getValue());
+                snapshot = buffer.toByteArray();
+                snapshotModifications = modifications;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            var tempFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                    var buffer = ByteBuffer.wrap(snapshot);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                RecordFile.forceDirectory(file.getParent());
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+            this.savedModifications = snapshotModifications;
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    // Must be called while holding the read lock
+    private void write(DataOutputStream output) throws IOException {
+        output.writeInt(MAGIC);
+        output.writeByte(VERSION);
+
+        var jids = new LinkedHashMap<Jid, Integer>();
+        var types = new EnumMap<Message.Type, Integer>(Message.Type.class);
+        for (var document = 0; document < documents; document++) {
+            if (removed.get(document)) {
+                continue;
+            }
+
+            jids.putIfAbsent(documentChats[document], jids.size());
+            if (documentSenders[document] != null) {
+                jids.putIfAbsent(documentSenders[document], jids.size());
+            }
+            if (documentTypes[document] != null) {
+                types.putIfAbsent(documentTypes[document], types.size());
+            }
+        }
+
+        writeVarInt(output, jids.size());
+        for (var jid : jids.keySet()) {
+            output.writeUTF(jid.toString());
+        }
+
+        var sortedTypes = new Message.Type[types.size()];
+        types.forEach((type, position) -> sortedTypes[position] = type);
+        writeVarInt(output, sortedTypes.length);
+        for (var type : sortedTypes) {
+            output.writeUTF(type.name());
+        }
+
+        writeVarInt(output, documents - removedDocuments);
+        for (var document = 0; document < documents; document++) {
+            if (removed.get(document)) {
+                continue;
+            }
+
+            writeVarInt(output, jids.get(documentChats[document]));
+            output.writeUTF(documentIds[document]);
+            var sender = documentSenders[document];
+            writeVarInt(output, sender == null ? 0 : jids.get(sender) + 1);
+            var type = documentTypes[document];
+            writeVarInt(output, type == null ? 0 : types.get(type) + 1);
+            writeVarLong(output, documentTimestamps[document]);
+        }
+
+        var renumbered = renumber();
+        var liveTerms = new ArrayList<Map.Entry<String, int[]>>();
+        for (var entry : terms.entrySet()) {
+            var postings = entry.getValue().renumbered(renumbered);
+            if (postings.length != 0) {
+                liveTerms.add(Map.entry(entry.getKey(), postings));
+            }
+        }
+
+        writeVarInt(output, liveTerms.size());
+        var previous = "";
+        for (var entry : liveTerms) {
+            var term = entry.getKey();
+            var sharedPrefix = 0;
+            var maxSharedPrefix = Math.min(previous.length(), term.length());
+            while (sharedPrefix < maxSharedPrefix && previous.charAt(sharedPrefix) == term.charAt(sharedPrefix)) {
+                sharedPrefix++;
+            }
+            writeVarInt(output, sharedPrefix);
+            output.writeUTF(term.substring(sharedPrefix));
+            var postings = entry.getValue();
+            writeVarInt(output, postings.length);
+            var document = -1;
+            for (var next : postings) {
+                writeVarInt(output, next - document - 1);
+                document = next;
+            }
+            previous = term;
+        }
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        writeVarLong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        var value = readVarLong(input);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Malformed varint");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        var value = 0L;
+        for (var shift = 0; shift < Long.SIZE; shift += 7) {
+            var next = input.readUnsignedByte();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private record Match(Jid chatJid, String messageId, long timestampSeconds) {
+
+    }
+
+    // The sorted documents that contain a word
+    private static final class Postings {
+        private int[] documents;
+        private int size;
+
+        private Postings() {
+            this(4);
+        }
+
+        private Postings(int capacity) {
+            this.documents = new int[Math.max(capacity, 1)];
+        }
+
+        // Documents are numbered in the order they are indexed, so appending keeps the list sorted
+        private void add(int document) {
+            if (size == documents.length) {
+                this.documents = Arrays.copyOf(documents, size * 2);
+            }
+            documents[size++] = document;
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(documents, size);
+        }
+
+        private int[] renumbered(int[] renumbered) {
+            var result = new int[size];
+            var resultSize = 0;
+            for (var i = 0; i < size; i++) {
+                var document = renumbered[documents[i]];
+                if (document != -1) {
+                    result[resultSize++] = document;
+                }
+            }
+            return Arrays.copyOf(result, resultSize);
+        }
+
+        private void renumber(int[] renumbered) {
+            this.documents = renumbered(renumbered);
+            this.size = documents.length;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidProvider;
+import com.github.auties00.cobalt.model.message.model.Message;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Represents a query for {@link WhatsAppStore#searchMessages(MessageSearchQuery)}.
+ * <p>
+ * A message matches the query if its text contains every word of the query, in any order:
+ * the last word also matches the words that start with it, so that queries can be answered as they are typed.
+ * Words are compared ignoring case and diacritics.
+ * <p>
+ * This class is immutable and thread-safe: every method that configures a filter returns a new query.
+ */
+public final class MessageSearchQuery {
+    private static final int DEFAULT_LIMIT = 50;
+
+    private final String text;
+    private final Jid chatJid;
+    private final Jid senderJid;
+    private final Instant after;
+    private final Instant before;
+    private final Set<Message.Type> types;
+    private final int limit;
+
+    private MessageSearchQuery(String text, Jid chatJid, Jid senderJid, Instant after, Instant before, Set<Message.Type> types, int limit) {
+        this.text = text;
+        this.chatJid = chatJid;
+        this.senderJid = senderJid;
+        this.after = after;
+        this.before = before;
+        this.types = types;
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a query that matches the messages that contain the given text, returning at most 50 messages
+     *
+     * @param text the text to search
+     * @return a non-null query
+     */
+    public static MessageSearchQuery of(String text) {
+        Objects.requireNonNull(text, "text cannot be null");
+        return new MessageSearchQuery(text, null, null, null, null, Set.of(), DEFAULT_LIMIT);
+    }
+
+    /**
+     * Returns a copy of this query that only matches the messages of a chat
+     *
+     * @param chat the chat, can be null to match all chats
+     * @return a non-null query
+     */
+    public MessageSearchQuery chat(JidProvider chat) {
+        return new MessageSearchQuery(text, chat == null ? null : chat.toJid(), senderJid, after, before, types, limit);
+    }
+
+    /**
+     * Returns a copy of this query that only matches the messages sent by a contact
+     *
+     * @param sender the sender, can be null to match all senders
+     * @return a non-null query
+     */
+    public MessageSearchQuery sender(JidProvider sender) {
+        return new MessageSearchQuery(text, chatJid, sender == null ? null : sender.toJid(), after, before, types, limit);
+    }
+
+    /**
+     * Returns a copy of this query that only matches the messages sent at or after an instant
+     *
+     * @param after the instant, can be null to remove the bound
+     * @return a non-null query
+     */
+    public MessageSearchQuery after(Instant after) {
+        return new MessageSearchQuery(text, chatJid, senderJid, after, before, types, limit);
+    }
+
+    /**
+     * Returns a copy of this query that only matches the messages sent before an instant
+     *
+     * @param before the instant, can be null to remove the bound
+     * @return a non-null query
+     */
+    public MessageSearchQuery before(Instant before) {
+        return new MessageSearchQuery(text, chatJid, senderJid, after, before, types, limit);
+    }
+
+    /**
+     * Returns a copy of this query that only matches the messages of the given types.
+     * The type of a message is the type of its content, ignoring ephemeral and view once wrappers.
+     *
+     * @param types the types, no types to match all messages
+     * @return a non-null query
+     */
+    public MessageSearchQuery types(Message.Type... types) {
+        Objects.requireNonNull(types, "types cannot be null");
+        var result = types.length == 0 ? Set.<Message.Type>of() : Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(types)));
+        return new MessageSearchQuery(text, chatJid, senderJid, after, before, result, limit);
+    }
+
+    /**
+     * Returns a copy of this query that returns at most the given number of messages
+     *
+     * @param limit the maximum number of messages
+     * @return a non-null query
+     * @throws IllegalArgumentException if the limit isn't positive
+     */
+    public MessageSearchQuery limit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        return new MessageSearchQuery(text, chatJid, senderJid, after, before, types, limit);
+    }
+
+    /**
+     * Returns the text to search
+     *
+     * @return a non-null string
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * Returns the chat whose messages are matched
+     *
+     * @return an optional jid
+     */
+    public Optional<Jid> chatJid() {
+        return Optional.ofNullable(chatJid);
+    }
+
+    /**
+     * Returns the sender whose messages are matched
+     *
+     * @return an optional jid
+     */
+    public Optional<Jid> senderJid() {
+        return Optional.ofNullable(senderJid);
+    }
+
+    /**
+     * Returns the instant at or after which matched messages were sent
+     *
+     * @return an optional instant
+     */
+    public Optional<Instant> after() {
+        return Optional.ofNullable(after);
+    }
+
+    /**
+     * Returns the instant before which matched messages were sent
+     *
+     * @return an optional instant
+     */
+    public Optional<Instant> before() {
+        return Optional.ofNullable(before);
+    }
+
+    /**
+     * Returns the types of the matched messages, or an empty set if messages of all types are matched
+     *
+     * @return a non-null set
+     */
+    public Set<Message.Type> types() {
+        return types;
+    }
+
+    /**
+     * Returns the maximum number of messages returned
+     *
+     * @return a positive number
+     */
+    public int limit() {
+        return limit;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MessageSearchQuery that
+               && limit == that.limit
+               && Objects.equals(text, that.text)
+               && Objects.equals(chatJid, that.chatJid)
+               && Objects.equals(senderJid, that.senderJid)
+               && Objects.equals(after, that.after)
+               && Objects.equals(before, that.before)
+               && Objects.equals(types, that.types);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(text, chatJid, senderJid, after, before, types, limit);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageSearchQuery[" +
+               "text=" + text + ", " +
+               "chatJid=" + chatJid + ", " +
+               "senderJid=" + senderJid + ", " +
+               "after=" + after + ", " +
+               "before=" + before + ", " +
+               "types=" + types + ", " +
+               "limit=" + limit + ']';
+    }
+}
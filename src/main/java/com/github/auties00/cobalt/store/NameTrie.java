@@ -0,0 +1,245 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A trie of the words of the names of contacts or chats, used to find them by name without scanning the store.
+ * <p>
+ * Names are split in words and normalized like the text of messages, see {@link MessageSearchIndex#tokenize(String)},
+ * so lookups ignore case, diacritics and word order.
+ * A name matches a query if every word of the query is the prefix of one of its words,
+ * or, for approximate lookups, is within the given number of edits of one of its words.
+ */
+final class NameTrie {
+    private final ReentrantReadWriteLock lock;
+    private final Node root;
+
+    // The words indexed for each jid, so that they can be removed when its names change
+    private final Map<Jid, Set<String>> words;
+
+    NameTrie() {
+        this.lock = new ReentrantReadWriteLock();
+        this.root = new Node();
+        this.words = new HashMap<>();
+    }
+
+    /**
+     * Indexes the names of a jid, replacing the names that were indexed before
+     *
+     * @param jid   the jid
+     * @param names the names, null names are ignored
+     */
+    void put(Jid jid, String... names) {
+        var newWords = new HashSet<String>();
+        for (var name : names) {
+            newWords.addAll(MessageSearchIndex.tokenize(name));
+        }
+
+        lock.writeLock().lock();
+        try {
+            var oldWords = newWords.isEmpty() ? words.remove(jid) : words.put(jid, newWords);
+            if (oldWords != null) {
+                for (var word : oldWords) {
+                    if (!newWords.contains(word)) {
+                        remove(word, jid);
+                    }
+                }
+            }
+            for (var word : newWords) {
+                if (oldWords == null || !oldWords.contains(word)) {
+                    add(word, jid);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the names of a jid
+     *
+     * @param jid the jid
+     */
+    void remove(Jid jid) {
+        lock.writeLock().lock();
+        try {
+            var oldWords = words.remove(jid);
+            if (oldWords != null) {
+                for (var word : oldWords) {
+                    remove(word, jid);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Must be called while holding the write lock
+    private void add(String word, Jid jid) {
+        var node = root;
+        for (var i = 0; i < word.length(); i++) {
+            node = node.children.computeIfAbsent(word.charAt(i), _ -> new Node());
+        }
+        if (node.jids == null) {
+            node.jids = new HashSet<>();
+        }
+        node.jids.add(jid);
+    }
+
+    // Must be called while holding the write lock
+    private void remove(String word, Jid jid) {
+        var path = new Node[word.length() + 1];
+        path[0] = root;
+        for (var i = 0; i < word.length(); i++) {
+            var next = path[i].children.get(word.charAt(i));
+            if (next == null) {
+                return;
+            }
+            path[i + 1] = next;
+        }
+
+        var leaf = path[word.length()];
+        if (leaf.jids == null || !leaf.jids.remove(jid)) {
+            return;
+        }
+
+        if (leaf.jids.isEmpty()) {
+            leaf.jids = null;
+        }
+
+        // Prunes the nodes that don't lead to any jid anymore
+        for (var i = word.length(); i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].children.remove(word.charAt(i - 1));
+        }
+    }
+
+    /**
+     * Finds the jids whose names contain a word that starts with every word of a query
+     *
+     * @param query the query
+     * @return a non-null set of jids
+     */
+    Set<Jid> findByPrefix(String query) {
+        return find(query, 0);
+    }
+
+    /**
+     * Finds the jids whose names contain a word that is at most the given number of edits away from every word of a query.
+     * An edit is the insertion, deletion or substitution of a character.
+     *
+     * @param query    the query
+     * @param maxEdits the maximum number of edits for each word
+     * @return a non-null set of jids
+     */
+    Set<Jid> findApproximate(String query, int maxEdits) {
+        if (maxEdits < 0) {
+            throw new IllegalArgumentException("maxEdits cannot be negative");
+        }
+        return find(query, maxEdits);
+    }
+
+    private Set<Jid> find(String query, int maxEdits) {
+        var queryWords = new LinkedHashSet<>(MessageSearchIndex.tokenize(query));
+        if (queryWords.isEmpty()) {
+            return Set.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            Set<Jid> result = null;
+            for (var word : queryWords) {
+                var matches = new HashSet<Jid>();
+                if (maxEdits == 0) {
+                    var node = findNode(word);
+                    if (node != null) {
+                        node.collect(matches);
+                    }
+                } else {
+                    var row = new int[word.length() + 1];
+                    for (var i = 0; i < row.length; i++) {
+                        row[i] = i;
+                    }
+                    for (var entry : root.children.entrySet()) {
+                        collectApproximate(entry.getValue(), entry.getKey(), word, row, maxEdits, matches);
+                    }
+                }
+
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.retainAll(matches);
+                }
+
+                if (result.isEmpty()) {
+                    return Set.of();
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Node findNode(String prefix) {
+        var node = root;
+        for (var i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        return node;
+    }
+
+    // Computes the Levenshtein distance between the query and every word of the trie one row at a time,
+    // so that the words that share a prefix share its rows and branches that are already too far away are skipped
+    private static void collectApproximate(Node node, char character, String word, int[] previousRow, int maxEdits, Set<Jid> matches) {
+        var row = new int[previousRow.length];
+        row[0] = previousRow[0] + 1;
+        var minimum = row[0];
+        for (var i = 1; i < row.length; i++) {
+            var substitution = previousRow[i - 1] + (word.charAt(i - 1) == character ? 0 : 1);
+            row[i] = Math.min(substitution, Math.min(row[i - 1], previousRow[i]) + 1);
+            minimum = Math.min(minimum, row[i]);
+        }
+
+        if (row[row.length - 1] <= maxEdits && node.jids != null) {
+            matches.addAll(node.jids);
+        }
+
+        if (minimum > maxEdits) {
+            return;
+        }
+
+        for (var entry : node.children.entrySet()) {
+            collectApproximate(entry.getValue(), entry.getKey(), word, row, maxEdits, matches);
+        }
+    }
+
+    private static final class Node {
+        private final Map<Character, Node> children;
+        private Set<Jid> jids;
+
+        private Node() {
+            this.children = new HashMap<>(2);
+        }
+
+        private boolean isEmpty() {
+            return jids == null && children.isEmpty();
+        }
+
+        private void collect(Set<Jid> result) {
+            var stack = new ArrayDeque<Node>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                var node = stack.pop();
+                if (node.jids != null) {
+                    result.addAll(node.jids);
+                }
+                for (var child : node.children.values()) {
+                    stack.push(child);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.google.i18n.phonenumbers.NumberParseException;
+import com.google.i18n.phonenumbers.PhoneNumberUtil;
+import com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * An index of the phone number jids known to a store, sorted by phone number so that they can be found by prefix.
+ * <p>
+ * Phone numbers are keyed by their E.164 digits, which is the format of the user of a phone number jid:
+ * queries are canonicalized to the same format, so that they can be written as they are usually displayed,
+ * with spaces, dashes, parentheses or the {@code 00} international prefix.
+ */
+final class PhoneNumberIndex {
+    private final ConcurrentSkipListMap<String, Jid> phoneNumbers;
+
+    PhoneNumberIndex() {
+        this.phoneNumbers = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Indexes a phone number jid, ignoring jids that don't have the user server
+     *
+     * @param jid the jid, can be null
+     */
+    void put(Jid jid) {
+        if (jid == null || !jid.hasUserServer()) {
+            return;
+        }
+
+        var phoneJid = jid.withoutData();
+        phoneNumbers.putIfAbsent(phoneJid.user(), phoneJid);
+    }
+
+    /**
+     * Removes a phone number jid, ignoring jids that don't have the user server
+     *
+     * @param jid the jid, can be null
+     */
+    void remove(Jid jid) {
+        if (jid == null || !jid.hasUserServer()) {
+            return;
+        }
+
+        var phoneJid = jid.withoutData();
+        phoneNumbers.remove(phoneJid.user(), phoneJid);
+    }
+
+    /**
+     * Finds the jid of a phone number
+     *
+     * @param phoneNumber the phone number, in international format
+     * @return an optional jid
+     */
+    Optional<Jid> find(String phoneNumber) {
+        return canonicalize(phoneNumber)
+                .map(phoneNumbers::get);
+    }
+
+    /**
+     * Finds the jids whose phone number starts with a prefix
+     *
+     * @param prefix the prefix, in international format
+     * @return a non-null collection of jids sorted by phone number
+     */
+    Collection<Jid> findByPrefix(String prefix) {
+        var digits = toDigits(prefix);
+        if (digits.isEmpty()) {
+            return List.of();
+        }
+
+        return phoneNumbers.subMap(digits, true, digits + Character.MAX_VALUE, false)
+                .values();
+    }
+
+    /**
+     * Converts a phone number in international format to its E.164 digits, without the leading plus
+     *
+     * @param phoneNumber the phone number
+     * @return an optional string, empty if the phone number isn't valid
+     */
+    static Optional<String> canonicalize(String phoneNumber) {
+        if (phoneNumber == null) {
+            return Optional.empty();
+        }
+
+        var digits = toDigits(phoneNumber);
+        if (digits.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try {
+            // The national prefix written between parentheses after the country code, as in +44 (0) 20, is dropped by the parser
+            var util = PhoneNumberUtil.getInstance();
+            var international = phoneNumber.strip().startsWith("+") ? phoneNumber.strip() : "+" + digits;
+            var parsed = util.parse(international, null);
+            return Optional.of(util.format(parsed, PhoneNumberFormat.E164).substring(1));
+        } catch (NumberParseException exception) {
+            return Optional.empty();
+        }
+    }
+
+    private static String toDigits(String phoneNumber) {
+        if (phoneNumber == null) {
+            return "";
+        }
+
+        var result = new StringBuilder(phoneNumber.length());
+        for (var i = 0; i < phoneNumber.length(); i++) {
+            var character = phoneNumber.charAt(i);
+            if (character >= '0' && character <= '9') {
+                result.append(character);
+            }
+        }
+
+        // The 00 international prefix is used instead of the plus in most countries
+        if (result.length() > 2 && result.charAt(0) == '0' && result.charAt(1) == '0') {
+            result.delete(0, 2);
+        }
+        return result.toString();
+    }
+}
@@ -3,10 +3,15 @@ package com.github.auties00.cobalt.store;
 import com.github.auties00.cobalt.client.WhatsAppClientType;
 import com.github.auties00.cobalt.model.chat.Chat;
 import com.github.auties00.cobalt.model.chat.ChatSpec;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoSpec;
 import com.github.auties00.cobalt.model.info.ContextInfo;
 import com.github.auties00.cobalt.model.info.MessageInfo;
+import com.github.auties00.cobalt.model.info.NewsletterMessageInfo;
+import com.github.auties00.cobalt.model.info.NewsletterMessageInfoSpec;
 import com.github.auties00.cobalt.model.jid.Jid;
 import com.github.auties00.cobalt.model.message.model.ContextualMessage;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
 import com.github.auties00.cobalt.model.newsletter.Newsletter;
 import com.github.auties00.cobalt.model.newsletter.NewsletterSpec;
 import it.auties.protobuf.stream.ProtobufInputStream;
@@ -14,13 +19,20 @@ import it.auties.protobuf.stream.ProtobufOutputStream;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -29,27 +41,55 @@ import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
 
 final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
     private static final String CHAT_PREFIX = "chat_";
+    private static final String SEARCH_INDEX_FILE = "search.idx";
     private static final String NEWSLETTER_PREFIX = "newsletter_";
+    private static final String LEGACY_FILE_SUFFIX = ".proto";
+    private static final String RECORD_FILE_SUFFIX = ".rec";
+    private static final String CORRUPTED_FILE_SUFFIX = ".corrupted";
+    private static final String DICTIONARY_FILE = "dictionary";
+    private static final String CHANGE_LOG_FILE = "changes.log";
+    private static final int MIN_SAMPLES_PER_CHAT_LENGTH = 4 * 1024;
     private static final Path DEFAULT_SERIALIZER_PATH = Path.of(System.getProperty("user.home") + "/.cobalt/");
+    private static final int MAX_CONCURRENT_FILE_OPERATIONS = 64;
 
 
     private final Path baseDirectory;
+    private final boolean compressed;
     private final ConcurrentMap<UUID, Integer> storesHashCodes;
-    private final ConcurrentMap<UUID, Thread> storesAttributions;
+    private final ConcurrentMap<UUID, StoreAttribution> storesAttributions;
     private final ConcurrentMap<StoreJidPair, Integer> jidsHashCodes;
+    private final ConcurrentMap<UUID, SignalKeyLog> signalKeyLogs;
+    private final ConcurrentMap<UUID, StoreManifest> manifests;
+    private final ConcurrentMap<UUID, CompressionDictionary> dictionaries;
+    private final ConcurrentMap<UUID, StoreChangeLog> changeLogs;
     private final ReentrantKeyedLock storeLock;
+    private final Semaphore fileOperations;
 
     ProtobufStoreSerializer() {
         this(DEFAULT_SERIALIZER_PATH);
     }
 
+    ProtobufStoreSerializer(boolean compressed) {
+        this(DEFAULT_SERIALIZER_PATH, compressed);
+    }
+
     ProtobufStoreSerializer(Path baseDirectory) {
+        this(baseDirectory, false);
+    }
+
+    ProtobufStoreSerializer(Path baseDirectory, boolean compressed) {
         Objects.requireNonNull(baseDirectory, "baseDirectory cannot be null");
         this.baseDirectory = baseDirectory;
+        this.compressed = compressed;
         this.storesHashCodes = new ConcurrentHashMap<>();
         this.storesAttributions = new ConcurrentHashMap<>();
         this.jidsHashCodes = new ConcurrentHashMap<>();
+        this.signalKeyLogs = new ConcurrentHashMap<>();
+        this.manifests = new ConcurrentHashMap<>();
+        this.dictionaries = new ConcurrentHashMap<>();
+        this.changeLogs = new ConcurrentHashMap<>();
         this.storeLock = new ReentrantKeyedLock();
+        this.fileOperations = new Semaphore(MAX_CONCURRENT_FILE_OPERATIONS);
     }
 
     @Override
@@ -112,91 +152,382 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
         Objects.requireNonNull(store, "store cannot be null");
         try {
             storeLock.lock(store.uuid());
+            var signalKeyLog = flushSignalKeyLog(store);
+            flushChangeLog(store);
             var oldHashCode = storesHashCodes.getOrDefault(store.uuid(), -1);
             var newHashCode = store.hashCode();
-            if (oldHashCode == newHashCode) {
+            if (oldHashCode == newHashCode && (signalKeyLog == null || !signalKeyLog.needsCompaction())) {
                 return;
             }
 
             storesHashCodes.put(store.uuid(), newHashCode);
+            var signalKeyLogGeneration = rotateSignalKeyLog(store, signalKeyLog);
+            var metrics = store.metrics();
+            var sample = metrics.startStoreSerialize();
+            var chats = store.chats();
+            var newsletters = store.newsletters();
+            var success = false;
+            var manifest = findOrLoadManifest(store);
+            var generation = manifest.nextGeneration();
+            var dictionary = compressed ? findOrTrainDictionary(store, manifest) : null;
+            var writtenChats = new ConcurrentLinkedQueue<StoreManifest.Entry>();
+            var writtenNewsletters = new ConcurrentLinkedQueue<StoreManifest.Entry>();
             try (var executor = newVirtualThreadPerTaskExecutor()) {
-                executor.submit(() -> encodeStore(store, getSessionFile(store, "store" + ".proto")));
-                store.chats()
-                        .forEach(chat -> executor.submit(() -> serializeChat(store, chat)));
-                store.newsletters()
-                        .forEach(newsletter -> executor.submit(() -> serializeNewsletter(store, newsletter)));
+                var storeTask = executor.submit(() -> withFileBudget(() -> encodeStore(store, getSessionFile(store, "store" + ".proto"))));
+                chats.forEach(chat -> executor.submit(() -> withFileBudget(() -> serializeChat(store, chat, generation, dictionary, writtenChats))));
+                newsletters.forEach(newsletter -> executor.submit(() -> withFileBudget(() -> serializeNewsletter(store, newsletter, generation, dictionary, writtenNewsletters))));
+                store.messageSearchIndex()
+                        .ifPresent(index -> executor.submit(() -> withFileBudget(() -> serializeMessageSearchIndex(store, index))));
                 var phoneNumber = store.phoneNumber();
                 if (phoneNumber.isPresent()) {
                     executor.submit(() -> linkPhoneNumber(store.clientType(), store.uuid(), phoneNumber.getAsLong()));
                 }
+                executor.close();
+                // Files are forced by the tasks that wrote them, concurrently, and are all made durable by a single commit
+                var committed = commitManifest(store, manifest, generation, dictionary, writtenChats, writtenNewsletters, chats, newsletters);
+                success = storeTask.state() == Future.State.SUCCESS && committed;
+                if (success && signalKeyLogGeneration != -1) {
+                    deleteSignalKeyLogGenerations(store, signalKeyLog, signalKeyLogGeneration);
+                }
+            } finally {
+                metrics.recordStoreSerialize(sample, store.uuid(), chats.size(), newsletters.size(), success);
             }
         } finally {
             storeLock.unlock(store.uuid());
         }
     }
 
+    // Changes that weren't flushed yet must be persisted even if the snapshot isn't written
+    private SignalKeyLog flushSignalKeyLog(WhatsAppStore store) {
+        try {
+            var signalKeyLog = findOrOpenSignalKeyLog(store);
+            signalKeyLog.flush();
+            return signalKeyLog;
+        } catch (IOException | UncheckedIOException exception) {
+            handleSerializeError(getSessionFile(store, "store.proto"), exception);
+            return null;
+        }
+    }
+
+    // The changes are appended to the file of the log, instead of being written with the snapshot
+    private void flushChangeLog(WhatsAppStore store) {
+        var file = getSessionFile(store, CHANGE_LOG_FILE);
+        var changeLog = store.changeLog;
+        var oldChangeLog = changeLog == null ? changeLogs.remove(store.uuid()) : changeLogs.put(store.uuid(), changeLog);
+        try {
+            if (oldChangeLog != null && oldChangeLog != changeLog) {
+                // The changes of a log that was discarded must not be replayed into the next one
+                oldChangeLog.detach();
+                Files.deleteIfExists(file);
+            }
+            if (changeLog != null) {
+                if (!changeLog.attached()) {
+                    changeLog.attach(file);
+                }
+                changeLog.flush();
+            }
+        } catch (IOException exception) {
+            handleSerializeError(file, exception);
+        }
+    }
+
+    // Starts a new generation of the log, so that the snapshot includes all the changes of the previous ones
+    // Returns the new generation, or -1 if the log couldn't be rotated and no generation can be deleted
+    private long rotateSignalKeyLog(WhatsAppStore store, SignalKeyLog signalKeyLog) {
+        if (signalKeyLog == null) {
+            return -1;
+        }
+
+        try {
+            var generation = signalKeyLog.rotate();
+            store.signalKeyLogGeneration = generation;
+            return generation;
+        } catch (IOException exception) {
+            handleSerializeError(getSessionFile(store, "store.proto"), exception);
+            return -1;
+        }
+    }
+
+    private void deleteSignalKeyLogGenerations(WhatsAppStore store, SignalKeyLog signalKeyLog, long generation) {
+        try {
+            signalKeyLog.deleteGenerationsBefore(generation);
+        } catch (IOException exception) {
+            handleSerializeError(getSessionFile(store, "store.proto"), exception);
+        }
+    }
+
+    @Override
+    public void serializeSignalKeys(WhatsAppStore store, boolean sync) {
+        Objects.requireNonNull(store, "store cannot be null");
+        if (!sync) {
+            try {
+                findOrOpenSignalKeyLog(store).scheduleFlush();
+            } catch (UncheckedIOException exception) {
+                handleSerializeError(getSessionFile(store, "store.proto"), exception);
+            }
+            return;
+        }
+
+        try {
+            findOrOpenSignalKeyLog(store).flush();
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot serialize signal keys", exception);
+        }
+    }
+
+    private SignalKeyLog findOrOpenSignalKeyLog(WhatsAppStore store) {
+        return signalKeyLogs.computeIfAbsent(store.uuid(), _ -> {
+            try {
+                return SignalKeyLog.open(store, getSessionDirectory(store.clientType(), store.uuid().toString()));
+            } catch (IOException exception) {
+                throw new UncheckedIOException("Cannot open signal key log", exception);
+            }
+        });
+    }
+
+    // Bounds the files open at the same time across all the stores handled by this serializer,
+    // so that many sessions sharing it can't exhaust file descriptors or saturate the disk
+    private void withFileBudget(Runnable task) {
+        fileOperations.acquireUninterruptibly();
+        try {
+            task.run();
+        } finally {
+            fileOperations.release();
+        }
+    }
+
     private void encodeStore(WhatsAppStore store, Path path) {
         try {
-            var tempFile = Files.createTempFile(path.getFileName().toString(), ".tmp");
+            // The temporary file is created next to the snapshot, so that it can be renamed atomically
+            var tempFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
             try (var stream = Files.newOutputStream(tempFile)) {
                 WhatsAppStoreSpec.encode(store, ProtobufOutputStream.toStream(stream));
             }
-            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+            // The snapshot, including its rename, must be durable before the generations of the Signal key log that it includes are deleted
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            RecordFile.forceDirectory(path.getParent());
         } catch (IOException exception) {
             throw new UncheckedIOException(exception);
         }
     }
 
-    private void serializeChat(WhatsAppStore store, Chat chat) {
+    private void serializeMessageSearchIndex(WhatsAppStore store, MessageSearchIndex index) {
+        var path = getSessionFile(store, SEARCH_INDEX_FILE);
+        try {
+            index.save(path);
+        } catch (IOException exception) {
+            handleSerializeError(path, exception);
+        }
+    }
+
+    // Chats are written to a new file, which is listed in place of the previous one when the manifest is committed
+    private void serializeChat(WhatsAppStore store, Chat chat, long generation, CompressionDictionary dictionary, Collection<StoreManifest.Entry> written) {
         Objects.requireNonNull(store, "store cannot be null");
         Objects.requireNonNull(chat, "chat cannot be null");
 
-        var outputFile = getMessagesContainerPathIfUpdated(store, chat.jid(), chat.hashCode(), CHAT_PREFIX);
-        if (outputFile == null) {
+        var identifier = new StoreJidPair(store.uuid(), chat.jid());
+        var hashCode = chat.hashCode();
+        if (!markUpdated(identifier, hashCode)) {
             return;
         }
 
-        try {
-            var tempFile = Files.createTempFile(outputFile.getFileName().toString(), ".tmp");
-            try (var stream = Files.newOutputStream(tempFile)) {
-                ChatSpec.encode(chat, ProtobufOutputStream.toStream(stream));
+        var fileName = CHAT_PREFIX + chat.jid() + "." + generation + RECORD_FILE_SUFFIX;
+        var outputFile = getSessionFile(store, fileName);
+        try (var writer = RecordFile.newWriter(outputFile, dictionary)) {
+            writer.append(ChatSpec.encode(chat.withoutMessages()));
+            for (var message : chat.messages()) {
+                writer.append(ChatMessageInfoSpec.encode(message));
             }
-            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            writer.force();
+            written.add(new StoreManifest.Entry(chat.jid(), fileName, writer.length()));
         } catch (Throwable throwable) {
+            jidsHashCodes.remove(identifier, hashCode);
+            deleteQuietly(outputFile);
             handleSerializeError(outputFile, throwable);
         }
     }
 
-    private void serializeNewsletter(WhatsAppStore store, Newsletter newsletter) {
+    private void serializeNewsletter(WhatsAppStore store, Newsletter newsletter, long generation, CompressionDictionary dictionary, Collection<StoreManifest.Entry> written) {
         Objects.requireNonNull(store, "store cannot be null");
         Objects.requireNonNull(newsletter, "newsletter cannot be null");
 
-        var outputFile = getMessagesContainerPathIfUpdated(store, newsletter.jid(), newsletter.hashCode(), NEWSLETTER_PREFIX);
-        if (outputFile == null) {
+        var identifier = new StoreJidPair(store.uuid(), newsletter.jid());
+        var hashCode = newsletter.hashCode();
+        if (!markUpdated(identifier, hashCode)) {
             return;
         }
 
-        try {
-            var tempFile = Files.createTempFile(outputFile.getFileName().toString(), ".tmp");
-            try (var stream = Files.newOutputStream(tempFile)) {
-                NewsletterSpec.encode(newsletter, ProtobufOutputStream.toStream(stream));
+        var fileName = NEWSLETTER_PREFIX + newsletter.jid() + "." + generation + RECORD_FILE_SUFFIX;
+        var outputFile = getSessionFile(store, fileName);
+        try (var writer = RecordFile.newWriter(outputFile, dictionary)) {
+            writer.append(NewsletterSpec.encode(newsletter.withoutMessages()));
+            for (var message : newsletter.messages()) {
+                writer.append(NewsletterMessageInfoSpec.encode(message));
             }
-            Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING);
+            writer.force();
+            written.add(new StoreManifest.Entry(newsletter.jid(), fileName, writer.length()));
         } catch (Throwable throwable) {
+            jidsHashCodes.remove(identifier, hashCode);
+            deleteQuietly(outputFile);
             handleSerializeError(outputFile, throwable);
         }
     }
 
-    private Path getMessagesContainerPathIfUpdated(WhatsAppStore store, Jid jid, int hashCode, String filePrefix) {
-        var identifier = new StoreJidPair(store.uuid(), jid);
-        var oldHashCode = jidsHashCodes.getOrDefault(identifier, -1);
-        if (oldHashCode == hashCode) {
-            return null;
+    // The dictionary is trained once, when the store has enough messages, and never changes afterwards,
+    // so that the files that were compressed with it can always be read
+    private CompressionDictionary findOrTrainDictionary(WhatsAppStore store, StoreManifest manifest) {
+        var dictionary = dictionaries.get(store.uuid());
+        if (dictionary != null) {
+            return dictionary;
+        }
+
+        var file = getSessionFile(store, DICTIONARY_FILE);
+        try {
+            var loaded = CompressionDictionary.load(file);
+            if (loaded.isPresent()) {
+                dictionaries.put(store.uuid(), loaded.get());
+                return loaded.get();
+            }
+        } catch (IOException exception) {
+            // A damaged dictionary mustn't be replaced if any file was compressed with it, or those files could never be read again
+            handleSerializeError(file, exception);
+            if (manifest.dictionaryId() != 0) {
+                return CompressionDictionary.none();
+            }
+        }
+
+        var trained = CompressionDictionary.train(sampleMessages(store));
+        if (trained.isEmpty()) {
+            return CompressionDictionary.none();
+        }
+
+        try {
+            // The dictionary is made durable by the commit of the manifest, before any file that was compressed with it is listed
+            trained.get().save(file);
+            dictionaries.put(store.uuid(), trained.get());
+            return trained.get();
+        } catch (IOException exception) {
+            handleSerializeError(file, exception);
+            return CompressionDictionary.none();
+        }
+    }
+
+    // The newest messages of every chat are sampled, so that the dictionary isn't trained on a single conversation
+    private List<byte[]> sampleMessages(WhatsAppStore store) {
+        var chats = store.chats();
+        var newsletters = store.newsletters();
+        var containers = Math.max(chats.size() + newsletters.size(), 1);
+        var maxLength = CompressionDictionary.maxSamplesLength();
+        var maxLengthPerContainer = Math.max(maxLength / containers, MIN_SAMPLES_PER_CHAT_LENGTH);
+        var samples = new ArrayList<byte[]>();
+        var length = 0;
+        for (var chat : chats) {
+            var chatLength = 0;
+            for (var message : chat.messages().reversed()) {
+                if (length >= maxLength || chatLength >= maxLengthPerContainer) {
+                    break;
+                }
+                var sample = ChatMessageInfoSpec.encode(message);
+                samples.add(sample);
+                chatLength += sample.length;
+                length += sample.length;
+            }
+        }
+        for (var newsletter : newsletters) {
+            var newsletterLength = 0;
+            for (var message : newsletter.messages().reversed()) {
+                if (length >= maxLength || newsletterLength >= maxLengthPerContainer) {
+                    break;
+                }
+                var sample = NewsletterMessageInfoSpec.encode(message);
+                samples.add(sample);
+                newsletterLength += sample.length;
+                length += sample.length;
+            }
+        }
+        return samples;
+    }
+
+    // Returns whether the chat or newsletter changed since it was last written
+    private boolean markUpdated(StoreJidPair identifier, int hashCode) {
+        var oldHashCode = jidsHashCodes.put(identifier, hashCode);
+        return oldHashCode == null || oldHashCode != hashCode;
+    }
+
+    private boolean commitManifest(WhatsAppStore store, StoreManifest manifest, long generation, CompressionDictionary dictionary, Collection<StoreManifest.Entry> writtenChats, Collection<StoreManifest.Entry> writtenNewsletters, Collection<Chat> chats, Collection<Newsletter> newsletters) {
+        // Chats and newsletters that are still being deserialized, or that couldn't be, aren't in the store
+        var attribution = storesAttributions.get(store.uuid());
+        var removedChats = attribution == null || attribution.chats().state() == Future.State.SUCCESS
+                ? findRemoved(manifest.chats(), chats.stream().map(Chat::jid).collect(Collectors.toSet()))
+                : List.<Jid>of();
+        var removedNewsletters = attribution == null || attribution.newsletters().state() == Future.State.SUCCESS
+                ? findRemoved(manifest.newsletters(), newsletters.stream().map(Newsletter::jid).collect(Collectors.toSet()))
+                : List.<Jid>of();
+        var directory = getSessionDirectory(store.clientType(), store.uuid().toString());
+        List<String> obsolete;
+        try {
+            obsolete = manifest.commit(generation, dictionary == null ? 0 : dictionary.id(), writtenChats, writtenNewsletters, removedChats, removedNewsletters);
+        } catch (IOException exception) {
+            // The files written by this flush aren't listed, so they must be written again by the next one
+            for (var entry : writtenChats) {
+                jidsHashCodes.remove(new StoreJidPair(store.uuid(), entry.jid()));
+                deleteQuietly(directory.resolve(entry.fileName()));
+            }
+            for (var entry : writtenNewsletters) {
+                jidsHashCodes.remove(new StoreJidPair(store.uuid(), entry.jid()));
+                deleteQuietly(directory.resolve(entry.fileName()));
+            }
+            handleSerializeError(directory, exception);
+            return false;
+        }
+
+        for (var jid : removedChats) {
+            jidsHashCodes.remove(new StoreJidPair(store.uuid(), jid));
+        }
+        for (var jid : removedNewsletters) {
+            jidsHashCodes.remove(new StoreJidPair(store.uuid(), jid));
         }
+        for (var fileName : obsolete) {
+            deleteQuietly(directory.resolve(fileName));
+        }
+        return true;
+    }
+
+    private static List<Jid> findRemoved(List<StoreManifest.Entry> entries, Set<Jid> jids) {
+        return entries.stream()
+                .map(StoreManifest.Entry::jid)
+                .filter(jid -> !jids.contains(jid))
+                .toList();
+    }
+
+    private StoreManifest findOrLoadManifest(WhatsAppStore store) {
+        return manifests.computeIfAbsent(store.uuid(), _ -> loadManifest(getSessionDirectory(store.clientType(), store.uuid().toString())));
+    }
+
+    private StoreManifest loadManifest(Path directory) {
+        if (Files.notExists(directory)) {
+            return StoreManifest.empty(directory);
+        }
+
+        return StoreManifest.read(directory).orElseGet(() -> {
+            try {
+                return StoreManifest.scan(directory, CHAT_PREFIX, NEWSLETTER_PREFIX, LEGACY_FILE_SUFFIX, RECORD_FILE_SUFFIX);
+            } catch (IOException exception) {
+                handleSerializeError(directory, exception);
+                return StoreManifest.empty(directory);
+            }
+        });
+    }
 
-        jidsHashCodes.put(identifier, hashCode);
-        var fileName = filePrefix + jid.user() + ".proto";
-        return getSessionFile(store, fileName);
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException exception) {
+            handleSerializeError(path, exception);
+        }
     }
 
     private void handleSerializeError(Path path, Throwable error) {
@@ -237,6 +568,19 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
 
         try (var stream = Files.newInputStream(path)) {
             var store = WhatsAppStoreSpec.decode(ProtobufInputStream.fromStream(stream));
+            var manifest = loadManifest(getSessionDirectory(type, id));
+            loadDictionary(store, getSessionFile(type, id, DICTIONARY_FILE), manifest.dictionaryId());
+            var signalKeyLog = SignalKeyLog.open(store, getSessionDirectory(type, id));
+            var oldSignalKeyLog = signalKeyLogs.put(store.uuid(), signalKeyLog);
+            if (oldSignalKeyLog != null) {
+                oldSignalKeyLog.close();
+            }
+            attachChangeLog(store, getSessionFile(type, id, CHANGE_LOG_FILE));
+            // The index must be restored before chats are loaded, so that their messages aren't indexed again
+            if (store.messageSearch()) {
+                store.setMessageSearchIndex(MessageSearchIndex.load(getSessionFile(type, id, SEARCH_INDEX_FILE)));
+            }
+            manifests.put(store.uuid(), manifest);
             startAttribute(store);
             storesHashCodes.put(store.uuid(), store.hashCode());
             return Optional.of(store);
@@ -245,77 +589,279 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
         }
     }
 
+    // The session is still loaded if the changes can't be read, as they are only a copy of what's in the store
+    private void attachChangeLog(WhatsAppStore store, Path file) {
+        var changeLog = store.changeLog;
+        var oldChangeLog = changeLog == null ? changeLogs.remove(store.uuid()) : changeLogs.put(store.uuid(), changeLog);
+        if (oldChangeLog != null) {
+            oldChangeLog.detach();
+        }
+
+        if (changeLog == null) {
+            deleteQuietly(file);
+            return;
+        }
+
+        try {
+            changeLog.attach(file);
+        } catch (IOException exception) {
+            handleSerializeError(file, exception);
+        }
+    }
+
+    // Chats and newsletters are deserialized independently so that each can be awaited on its own
+    // while the client is connecting and logging in
     private void startAttribute(WhatsAppStore store) {
-        var task = Thread.startVirtualThread(() -> deserializeChatsAndNewsletters(store));
-        storesAttributions.put(store.uuid(), task);
+        var attribution = new StoreAttribution(new CompletableFuture<>(), new CompletableFuture<>());
+        storesAttributions.put(store.uuid(), attribution);
+        Thread.startVirtualThread(() -> deserializeChatsAndNewsletters(store, attribution));
     }
 
-    private void deserializeChatsAndNewsletters(WhatsAppStore store) {
-        var directory = getSessionDirectory(store.clientType(), store.uuid().toString());
-        try (var walker = Files.walk(directory); var executor = newVirtualThreadPerTaskExecutor()) {
-            walker.forEach(path -> executor.submit(() -> deserializeChatOrNewsletter(store, path)));
+    // The files of the chats and newsletters can't be read without the dictionary they were compressed with:
+    // if it's missing or damaged, the session isn't loaded, instead of being loaded without them,
+    // as the next flush would then replace them with empty chats
+    private void loadDictionary(WhatsAppStore store, Path file, int dictionaryId) {
+        Optional<CompressionDictionary> dictionary;
+        try {
+            dictionary = CompressionDictionary.load(file);
         } catch (IOException exception) {
-            throw new RuntimeException("Cannot attribute store", exception);
+            if (dictionaryId != 0) {
+                throw new UncheckedIOException("Cannot load the compression dictionary of the session", exception);
+            }
+
+            // No file was compressed with it, so it's trained again
+            handleSerializeError(file, exception);
+            return;
+        }
+
+        if (dictionaryId != 0 && (dictionary.isEmpty() || dictionary.get().id() != dictionaryId)) {
+            throw new UncheckedIOException(new IOException("Missing compression dictionary %s".formatted(Integer.toHexString(dictionaryId))));
         }
-        attributeStoreContextualMessages(store);
+
+        dictionary.ifPresent(value -> dictionaries.put(store.uuid(), value));
     }
 
-    private void deserializeChatOrNewsletter(WhatsAppStore store, Path path) {
+    private void deserializeChatsAndNewsletters(WhatsAppStore store, StoreAttribution attribution) {
+        var directory = getSessionDirectory(store.clientType(), store.uuid().toString());
+        var manifest = findOrLoadManifest(store);
         try {
-            var fileName = path.getFileName().toString();
-            if (fileName.startsWith(CHAT_PREFIX)) {
-                deserializeChat(store, path);
-            } else if (fileName.startsWith(NEWSLETTER_PREFIX)) {
-                deserializeNewsletter(store, path);
-            }
+            deleteLeftovers(directory, manifest);
         } catch (Throwable throwable) {
-            handleSerializeError(path, throwable);
+            var exception = new RuntimeException("Cannot attribute store", throwable);
+            attribution.chats().completeExceptionally(exception);
+            attribution.newsletters().completeExceptionally(exception);
+            return;
         }
+
+        Thread.startVirtualThread(() -> completeAttribution(attribution.newsletters(),
+                () -> deserializeAll(directory, manifest.newsletters(), (path, entry) -> deserializeNewsletter(store, manifest, path, entry))));
+        completeAttribution(attribution.chats(), () -> {
+            deserializeAll(directory, manifest.chats(), (path, entry) -> deserializeChat(store, manifest, path, entry));
+            attributeStoreContextualMessages(store);
+        });
     }
 
-    private void deserializeChat(WhatsAppStore store, Path chatFile) {
-        try (var stream = Files.newInputStream(chatFile)) {
-            var chat = ChatSpec.decode(ProtobufInputStream.fromStream(stream));
-            var storeJidPair = new StoreJidPair(store.uuid(), chat.jid());
-            jidsHashCodes.put(storeJidPair, chat.hashCode());
-            for (var message : chat.messages()) {
-                message.setChat(chat);
-                store.findContactByJid(message.senderJid())
-                        .ifPresent(message::setSender);
+    // Files that the manifest doesn't list were written by a flush that didn't commit, or were replaced by a flush that did
+    private void deleteLeftovers(Path directory, StoreManifest manifest) throws IOException {
+        if (!manifest.persisted()) {
+            return;
+        }
+
+        var fileNames = manifest.fileNames();
+        try (var files = Files.list(directory)) {
+            for (var iterator = files.iterator(); iterator.hasNext(); ) {
+                var path = iterator.next();
+                var fileName = path.getFileName().toString();
+                var leftover = (fileName.startsWith(CHAT_PREFIX) || fileName.startsWith(NEWSLETTER_PREFIX))
+                        && !fileName.endsWith(CORRUPTED_FILE_SUFFIX)
+                        && !fileNames.contains(fileName);
+                if (leftover) {
+                    deleteQuietly(path);
+                }
             }
-            store.addChat(chat);
-        } catch (IOException exception) {
-            try {
-                Files.deleteIfExists(chatFile);
-            } catch (IOException ignored) {
+        }
+    }
+
+    private void completeAttribution(CompletableFuture<Void> future, Runnable task) {
+        try {
+            task.run();
+            future.complete(null);
+        } catch (Throwable throwable) {
+            future.completeExceptionally(throwable);
+        }
+    }
 
+    // Every file is read even if another one fails, but then the load fails too,
+    // so that the chats and newsletters that weren't restored aren't removed by the next flush
+    private void deserializeAll(Path directory, List<StoreManifest.Entry> entries, BiConsumer<Path, StoreManifest.Entry> deserializer) {
+        var failures = new ConcurrentLinkedQueue<Throwable>();
+        try (var executor = newVirtualThreadPerTaskExecutor()) {
+            for (var entry : entries) {
+                var file = directory.resolve(entry.fileName());
+                executor.submit(() -> {
+                    try {
+                        withFileBudget(() -> deserializer.accept(file, entry));
+                    } catch (Throwable throwable) {
+                        handleSerializeError(file, throwable);
+                        failures.add(throwable);
+                    }
+                });
             }
-            var chatName = chatFile.getFileName().toString()
-                    .replaceFirst(CHAT_PREFIX, "")
-                    .replace(".proto", "");
-            store.addNewChat(Jid.of(chatName));
+        }
+
+        if (!failures.isEmpty()) {
+            var exception = new RuntimeException("Cannot deserialize %s of %s files".formatted(failures.size(), entries.size()));
+            failures.forEach(exception::addSuppressed);
+            throw exception;
         }
     }
 
-    private void deserializeNewsletter(WhatsAppStore store, Path newsletterFile) {
-        try (var stream = Files.newInputStream(newsletterFile)) {
-            var newsletter = NewsletterSpec.decode(ProtobufInputStream.fromStream(stream));
-            var storeJidPair = new StoreJidPair(store.uuid(), newsletter.jid());
-            jidsHashCodes.put(storeJidPair, newsletter.hashCode());
-            for (var message : newsletter.messages()) {
-                message.setNewsletter(newsletter);
+    private void deserializeChat(WhatsAppStore store, StoreManifest manifest, Path chatFile, StoreManifest.Entry entry) {
+        if (entry.fileName().endsWith(LEGACY_FILE_SUFFIX)) {
+            deserializeLegacyChat(store, manifest, chatFile, entry);
+            return;
+        }
+
+        List<byte[]> records;
+        var complete = false;
+        Chat chat;
+        try {
+            var contents = RecordFile.read(chatFile, entry.length(), dictionaries.get(store.uuid()));
+            records = contents.records();
+            complete = contents.complete();
+            if (records.isEmpty()) {
+                throw new IOException("No valid records");
             }
-            store.addNewsletter(newsletter);
-        } catch (IOException exception) {
+            chat = ChatSpec.decode(records.getFirst());
+        } catch (IOException | RuntimeException exception) {
+            handleSerializeError(chatFile, exception);
+            markCorrupted(chatFile);
+            store.addNewChat(entry.jid());
+            return;
+        }
+
+        for (var i = 1; i < records.size(); i++) {
+            ChatMessageInfo message;
             try {
-                Files.deleteIfExists(newsletterFile);
-            } catch (IOException ignored) {
+                message = ChatMessageInfoSpec.decode(records.get(i));
+            } catch (RuntimeException exception) {
+                handleSerializeError(chatFile, exception);
+                complete = false;
+                break;
+            }
+            message.setChat(chat);
+            store.findContactByJid(message.senderJid())
+                    .ifPresent(message::setSender);
+            chat.addMessage(message);
+        }
+
+        // A chat that was only partially salvaged isn't marked as persisted, so that the next flush writes it again
+        if (complete) {
+            jidsHashCodes.put(new StoreJidPair(store.uuid(), chat.jid()), chat.hashCode());
+        } else {
+            handleSerializeError(chatFile, new IOException("Salvaged %s of the messages of a damaged chat".formatted(chat.messages().size())));
+        }
+        store.restoreChat(chat);
+    }
+
+    // Chats written before records were introduced are a single message, which is migrated by the next flush
+    private void deserializeLegacyChat(WhatsAppStore store, StoreManifest manifest, Path chatFile, StoreManifest.Entry entry) {
+        Chat chat;
+        try (var stream = Files.newInputStream(chatFile)) {
+            chat = ChatSpec.decode(ProtobufInputStream.fromStream(stream));
+        } catch (IOException | RuntimeException exception) {
+            handleSerializeError(chatFile, exception);
+            markCorrupted(chatFile);
+            store.addNewChat(entry.jid());
+            return;
+        }
+
+        if (!manifest.rekey(entry, chat.jid())) {
+            deleteQuietly(chatFile);
+            return;
+        }
+
+        for (var message : chat.messages()) {
+            message.setChat(chat);
+            store.findContactByJid(message.senderJid())
+                    .ifPresent(message::setSender);
+        }
+        store.restoreChat(chat);
+    }
 
+    private void deserializeNewsletter(WhatsAppStore store, StoreManifest manifest, Path newsletterFile, StoreManifest.Entry entry) {
+        if (entry.fileName().endsWith(LEGACY_FILE_SUFFIX)) {
+            deserializeLegacyNewsletter(store, manifest, newsletterFile, entry);
+            return;
+        }
+
+        List<byte[]> records;
+        var complete = false;
+        Newsletter newsletter;
+        try {
+            var contents = RecordFile.read(newsletterFile, entry.length(), dictionaries.get(store.uuid()));
+            records = contents.records();
+            complete = contents.complete();
+            if (records.isEmpty()) {
+                throw new IOException("No valid records");
+            }
+            newsletter = NewsletterSpec.decode(records.getFirst());
+        } catch (IOException | RuntimeException exception) {
+            handleSerializeError(newsletterFile, exception);
+            markCorrupted(newsletterFile);
+            store.addNewNewsletter(entry.jid());
+            return;
+        }
+
+        for (var i = 1; i < records.size(); i++) {
+            NewsletterMessageInfo message;
+            try {
+                message = NewsletterMessageInfoSpec.decode(records.get(i));
+            } catch (RuntimeException exception) {
+                handleSerializeError(newsletterFile, exception);
+                complete = false;
+                break;
             }
-            var newsletterName = newsletterFile.getFileName().toString()
-                    .replaceFirst(CHAT_PREFIX, "")
-                    .replace(".proto", "");
-            store.addNewNewsletter(Jid.of(newsletterName));
+            message.setNewsletter(newsletter);
+            newsletter.addMessage(message);
+        }
+
+        if (complete) {
+            jidsHashCodes.put(new StoreJidPair(store.uuid(), newsletter.jid()), newsletter.hashCode());
+        } else {
+            handleSerializeError(newsletterFile, new IOException("Salvaged %s of the messages of a damaged newsletter".formatted(newsletter.messages().size())));
+        }
+        store.addNewsletter(newsletter);
+    }
+
+    private void deserializeLegacyNewsletter(WhatsAppStore store, StoreManifest manifest, Path newsletterFile, StoreManifest.Entry entry) {
+        Newsletter newsletter;
+        try (var stream = Files.newInputStream(newsletterFile)) {
+            newsletter = NewsletterSpec.decode(ProtobufInputStream.fromStream(stream));
+        } catch (IOException | RuntimeException exception) {
+            handleSerializeError(newsletterFile, exception);
+            markCorrupted(newsletterFile);
+            store.addNewNewsletter(entry.jid());
+            return;
+        }
+
+        if (!manifest.rekey(entry, newsletter.jid())) {
+            deleteQuietly(newsletterFile);
+            return;
+        }
+
+        for (var message : newsletter.messages()) {
+            message.setNewsletter(newsletter);
+        }
+        store.addNewsletter(newsletter);
+    }
+
+    // Files that cannot be decoded are kept aside instead of being deleted, so that they can be recovered by hand
+    private void markCorrupted(Path path) {
+        try {
+            Files.move(path, path.resolveSibling(path.getFileName() + CORRUPTED_FILE_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            handleSerializeError(path, exception);
         }
     }
 
@@ -323,21 +869,37 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
     public void finishDeserialize(WhatsAppStore store) {
         Objects.requireNonNull(store, "store cannot be null");
 
-        var task = storesAttributions.get(store.uuid());
-        if (task == null) {
+        var attribution = storesAttributions.get(store.uuid());
+        if (attribution == null) {
             return;
         }
 
         try {
-            task.join();
-        } catch (InterruptedException exception) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException("Cannot finish deserializing store", exception);
+            CompletableFuture.allOf(attribution.chats(), attribution.newsletters())
+                    .join();
+        } catch (CompletionException exception) {
+            throw new RuntimeException("Cannot finish deserializing store", exception.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> whenDeserialized(WhatsAppStore store, WhatsAppStoreSubsystem subsystem) {
+        Objects.requireNonNull(store, "store cannot be null");
+        Objects.requireNonNull(subsystem, "subsystem cannot be null");
+
+        var attribution = storesAttributions.get(store.uuid());
+        if (attribution == null) {
+            return CompletableFuture.completedFuture(null);
         }
+
+        return switch (subsystem) {
+            case CHATS -> attribution.chats();
+            case NEWSLETTERS -> attribution.newsletters();
+        };
     }
 
     // Do this after we have all the chats, or it won't work for obvious reasons
-    private void attributeStoreContextualMessages(WhatsAppStore store) {
+    static void attributeStoreContextualMessages(WhatsAppStore store) {
         store.chats()
                 .parallelStream()
                 .map(Chat::messages)
@@ -345,14 +907,23 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
                 .forEach(message -> attributeStoreContextualMessage(store, message));
     }
 
-    private void attributeStoreContextualMessage(WhatsAppStore store, MessageInfo message) {
-        message.message()
-                .contentWithContext()
+    // Messages that weren't read yet are attributed when they are decoded, so that loading a store doesn't decode them
+    private static void attributeStoreContextualMessage(WhatsAppStore store, MessageInfo message) {
+        if (message instanceof ChatMessageInfo chatMessageInfo) {
+            chatMessageInfo.lazyMessage()
+                    .whenDecoded(container -> attributeStoreContextualMessage(store, container));
+        } else {
+            attributeStoreContextualMessage(store, message.message());
+        }
+    }
+
+    static void attributeStoreContextualMessage(WhatsAppStore store, MessageContainer container) {
+        container.contentWithContext()
                 .flatMap(ContextualMessage::contextInfo)
                 .ifPresent(contextInfo -> attributeStoreContextInfo(store, contextInfo));
     }
 
-    private void attributeStoreContextInfo(WhatsAppStore store, ContextInfo contextInfo) {
+    private static void attributeStoreContextInfo(WhatsAppStore store, ContextInfo contextInfo) {
         contextInfo.quotedMessageParentJid()
                 .flatMap(store::findChatByJid)
                 .ifPresent(contextInfo::setQuotedMessageParent);
@@ -366,6 +937,17 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
         Objects.requireNonNull(type, "type cannot be null");
         Objects.requireNonNull(uuid, "uuid cannot be null");
 
+        var signalKeyLog = signalKeyLogs.remove(uuid);
+        if (signalKeyLog != null) {
+            signalKeyLog.close();
+        }
+        var changeLog = changeLogs.remove(uuid);
+        if (changeLog != null) {
+            changeLog.detach();
+        }
+        manifests.remove(uuid);
+        dictionaries.remove(uuid);
+
         try {
             var folderPath = getSessionDirectory(type, uuid.toString());
             delete(folderPath);
@@ -442,6 +1024,10 @@ final class ProtobufStoreSerializer implements WhatsappStoreSerializer {
 
     }
 
+    private record StoreAttribution(CompletableFuture<Void> chats, CompletableFuture<Void> newsletters) {
+
+    }
+
     private final static class ReentrantKeyedLock {
         private final ConcurrentMap<UUID, ReentrantLock> locks;
 
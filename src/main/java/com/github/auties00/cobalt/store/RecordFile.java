@@ -0,0 +1,341 @@
+package com.github.auties00.cobalt.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A file made of checksummed, length-prefixed records, used by {@link ProtobufStoreSerializer} to persist chats and newsletters.
+ * <p>
+ * The file starts with a magic number and a version, followed by the records:
+ * every record starts with the length of its payload and the checksum of its payload, like the records of {@link SignalKeyLog}.
+ * A file that was torn by a crash, or damaged afterwards, can be read up to its first invalid record,
+ * so that the records before it are salvaged instead of discarding the whole file.
+ * <p>
+ * Records can be compressed with a {@link CompressionDictionary}: they are then packed in blocks of about 32 KiB,
+ * the length of the window of Deflate, so that every byte of a block can reference the dictionary.
+ * Every block is compressed on its own and written as a single checksummed record,
+ * so that it can be decompressed without the blocks before it, and a damaged block only loses the records it holds.
+ * The id of the dictionary is written in the header of the file: files that aren't compressed have version 1,
+ * or version 2 and no compression.
+ */
+final class RecordFile {
+    private static final int MAGIC = 0x43425246;
+    private static final int VERSION = 2;
+    private static final int UNCOMPRESSED_VERSION = 1;
+    private static final int FILE_HEADER_LENGTH = Integer.BYTES + Byte.BYTES + Byte.BYTES + Integer.BYTES;
+    private static final int UNCOMPRESSED_FILE_HEADER_LENGTH = Integer.BYTES + Byte.BYTES;
+    private static final int RECORD_HEADER_LENGTH = Integer.BYTES * 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE = 32 * 1024;
+    private static final byte COMPRESSION_NONE = 0;
+    private static final byte COMPRESSION_DEFLATE = 1;
+
+    private RecordFile() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Opens a writer that creates a new record file, or truncates an existing one.
+     * The file isn't forced to the disk when the writer is closed: see {@link Writer#force()}.
+     *
+     * @param file the file
+     * @return a non-null writer
+     * @throws IOException if the file cannot be opened
+     */
+    static Writer newWriter(Path file) throws IOException {
+        return newWriter(file, null);
+    }
+
+    /**
+     * Opens a writer that creates a new record file whose records are compressed, or truncates an existing one.
+     * The file isn't forced to the disk when the writer is closed: see {@link Writer#force()}.
+     *
+     * @param file       the file
+     * @param dictionary the dictionary, or null if the records shouldn't be compressed
+     * @return a non-null writer
+     * @throws IOException if the file cannot be opened
+     */
+    static Writer newWriter(Path file, CompressionDictionary dictionary) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            return new Writer(channel, dictionary);
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Reads the valid records of a file.
+     * Reading stops at the first record that is truncated or whose checksum doesn't match.
+     *
+     * @param file           the file
+     * @param expectedLength the length the file had when it was written, or -1 if it's unknown
+     * @param dictionary     the dictionary that the records may be compressed with, or null if there is none
+     * @return a non-null result
+     * @throws IOException if the file cannot be read, or its records were compressed with a different dictionary
+     */
+    static Contents read(Path file, long expectedLength, CompressionDictionary dictionary) throws IOException {
+        var bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (bytes.remaining() < UNCOMPRESSED_FILE_HEADER_LENGTH || bytes.getInt() != MAGIC) {
+            return new Contents(List.of(), false);
+        }
+
+        var version = bytes.get();
+        var compressed = false;
+        if (version == VERSION) {
+            if (bytes.remaining() < FILE_HEADER_LENGTH - UNCOMPRESSED_FILE_HEADER_LENGTH) {
+                return new Contents(List.of(), false);
+            }
+
+            compressed = bytes.get() == COMPRESSION_DEFLATE;
+            var dictionaryId = bytes.getInt();
+            if (dictionaryId == 0) {
+                dictionary = CompressionDictionary.none();
+            } else if (compressed && (dictionary == null || dictionaryId != dictionary.id())) {
+                throw new IOException("Missing dictionary %s".formatted(Integer.toHexString(dictionaryId)));
+            }
+        } else if (version != UNCOMPRESSED_VERSION) {
+            return new Contents(List.of(), false);
+        }
+
+        var records = new ArrayList<byte[]>();
+        var checksum = new CRC32();
+        var inflater = compressed ? new Inflater() : null;
+        try {
+            var valid = readRecords(bytes, checksum, inflater, dictionary, records);
+            var complete = valid && (expectedLength < 0 || expectedLength == bytes.capacity());
+            return new Contents(records, complete);
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Reads the id of the dictionary that the records of a file were compressed with, from its header
+     *
+     * @param file the file
+     * @return the id, or 0 if the records of the file weren't compressed or its header is damaged
+     * @throws IOException if the file cannot be read
+     */
+    static int readDictionaryId(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(FILE_HEADER_LENGTH);
+            while (header.hasRemaining()) {
+                if (channel.read(header) == -1) {
+                    return 0;
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.get() != VERSION) {
+                return 0;
+            }
+
+            var compressed = header.get() == COMPRESSION_DEFLATE;
+            var dictionaryId = header.getInt();
+            return compressed ? dictionaryId : 0;
+        }
+    }
+
+    // Returns whether all the records were valid
+    private static boolean readRecords(ByteBuffer bytes, CRC32 checksum, Inflater inflater, CompressionDictionary dictionary, List<byte[]> records) {
+        while (bytes.remaining() >= RECORD_HEADER_LENGTH) {
+            var length = bytes.getInt();
+            var expectedChecksum = bytes.getInt();
+            if (length < 0 || length > bytes.remaining()) {
+                bytes.position(bytes.position() - RECORD_HEADER_LENGTH);
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(bytes.array(), bytes.position(), length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                bytes.position(bytes.position() - RECORD_HEADER_LENGTH);
+                break;
+            }
+
+            var record = new byte[length];
+            bytes.get(record);
+            if (inflater == null) {
+                records.add(record);
+            } else if (!readBlock(record, inflater, dictionary, records)) {
+                return false;
+            }
+        }
+
+        return !bytes.hasRemaining();
+    }
+
+    // The records of a block are only added if the whole block is valid
+    private static boolean readBlock(byte[] record, Inflater inflater, CompressionDictionary dictionary, List<byte[]> records) {
+        try {
+            var block = ByteBuffer.wrap(dictionary.decompress(inflater, record));
+            var result = new ArrayList<byte[]>();
+            while (block.hasRemaining()) {
+                var length = block.getInt();
+                if (length < 0 || length > block.remaining()) {
+                    return false;
+                }
+                var payload = new byte[length];
+                block.get(payload);
+                result.add(payload);
+            }
+            records.addAll(result);
+            return true;
+        } catch (IOException | BufferUnderflowException _) {
+            return false;
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to the disk, so that files that were created, renamed or deleted in it survive a crash.
+     * Some platforms, like Windows, don't support this operation: in that case, this method does nothing.
+     *
+     * @param directory the directory
+     * @throws IOException if the directory cannot be forced
+     */
+    static void forceDirectory(Path directory) throws IOException {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException _) {
+            // Directories cannot be opened on Windows, where renames are durable once they complete
+        }
+    }
+
+    /**
+     * The records that could be read from a file
+     *
+     * @param records  the valid records, in the order they were written
+     * @param complete whether the whole file was valid
+     */
+    record Contents(List<byte[]> records, boolean complete) {
+
+    }
+
+    /**
+     * Writes the records of a file
+     */
+    static final class Writer implements AutoCloseable {
+        private final FileChannel channel;
+        private final DataOutputStream output;
+        private final CRC32 checksum;
+        private final CompressionDictionary dictionary;
+        private final Deflater deflater;
+        private final ByteBuffer block;
+        private long length;
+
+        private Writer(FileChannel channel, CompressionDictionary dictionary) throws IOException {
+            this.channel = channel;
+            this.output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            this.checksum = new CRC32();
+            this.dictionary = dictionary;
+            this.deflater = dictionary != null ? new Deflater() : null;
+            this.block = dictionary != null ? ByteBuffer.allocate(BLOCK_SIZE) : null;
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeByte(dictionary != null ? COMPRESSION_DEFLATE : COMPRESSION_NONE);
+            output.writeInt(dictionary != null ? dictionary.id() : 0);
+            this.length = FILE_HEADER_LENGTH;
+        }
+
+        /**
+         * Appends a record.
+         * If the records are compressed, the record is buffered until its block is full, or the writer is forced or closed.
+         *
+         * @param payload the payload of the record
+         * @throws IOException if the record cannot be written
+         */
+        void append(byte[] payload) throws IOException {
+            if (block == null) {
+                write(payload, payload.length);
+                return;
+            }
+
+            var recordLength = Integer.BYTES + payload.length;
+            if (block.position() > 0 && recordLength > block.remaining()) {
+                writeBlock();
+            }
+
+            if (recordLength > block.capacity()) {
+                // Records that don't fit in a block are compressed in a block of their own
+                var largeBlock = ByteBuffer.allocate(recordLength)
+                        .putInt(payload.length)
+                        .put(payload);
+                var compressed = dictionary.compress(deflater, largeBlock.array(), recordLength);
+                write(compressed, compressed.length);
+                return;
+            }
+
+            block.putInt(payload.length);
+            block.put(payload);
+        }
+
+        private void writeBlock() throws IOException {
+            if (block == null || block.position() == 0) {
+                return;
+            }
+
+            var compressed = dictionary.compress(deflater, block.array(), block.position());
+            block.clear();
+            write(compressed, compressed.length);
+        }
+
+        private void write(byte[] payload, int payloadLength) throws IOException {
+            checksum.reset();
+            checksum.update(payload, 0, payloadLength);
+            output.writeInt(payloadLength);
+            output.writeInt((int) checksum.getValue());
+            output.write(payload, 0, payloadLength);
+            length += RECORD_HEADER_LENGTH + payloadLength;
+        }
+
+        /**
+         * Writes the buffered records and waits until the file is durable
+         *
+         * @throws IOException if the file cannot be forced
+         */
+        void force() throws IOException {
+            writeBlock();
+            output.flush();
+            channel.force(true);
+        }
+
+        /**
+         * Returns the length of the file, including the records that are still buffered.
+         * If the records are compressed, the block that isn't full yet isn't included.
+         *
+         * @return the length in bytes
+         */
+        long length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                writeBlock();
+                output.flush();
+            } finally {
+                if (deflater != null) {
+                    deflater.end();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.util.TimerWheel;
+import it.auties.protobuf.stream.ProtobufInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the Signal keys of a store.
+ * <p>
+ * Sessions and sender keys change every time a message is encrypted or decrypted:
+ * persisting them with the rest of the store would rewrite the whole snapshot on every ratchet step.
+ * Instead, the keys that changed are appended to this log, and the log is replayed over the snapshot when the store is loaded.
+ * <p>
+ * Writes are batched: changes are flushed at most {@link #FLUSH_INTERVAL} after they happen,
+ * or immediately by {@link #flush()}, which must complete before a message encrypted using the changed keys is sent.
+ * Otherwise, a crash could restore a ratchet state older than the one used by a message that the recipient already received.
+ * <p>
+ * The log is split in generations: when the snapshot is written, a new generation is started,
+ * and the previous ones are deleted once the snapshot, which includes their changes, is durable.
+ * Every record is checksummed, so that a record torn by a crash, which can only be the last one, is discarded on replay.
+ */
+final class SignalKeyLog {
+    private static final String FILE_PREFIX = "signal_";
+    private static final String FILE_SUFFIX = ".log";
+    private static final Duration FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final long COMPACTION_THRESHOLD = 8L * 1024 * 1024;
+
+    // Every record starts with the length of its payload and the checksum of its payload
+    private static final int HEADER_LENGTH = Integer.BYTES * 2;
+
+    private final WhatsAppStore store;
+    private final Path directory;
+    private final ReentrantLock lock;
+    private final AtomicBoolean flushScheduled;
+    private FileChannel channel;
+    private long generation;
+
+    private SignalKeyLog(WhatsAppStore store, Path directory) {
+        this.store = store;
+        this.directory = directory;
+        this.lock = new ReentrantLock();
+        this.flushScheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Replays the generations of the log that are newer than the snapshot of a store, and opens a new generation
+     *
+     * @param store     the store that was loaded from its snapshot
+     * @param directory the directory of the store
+     * @return a non-null log
+     * @throws IOException if the log cannot be read or opened
+     */
+    static SignalKeyLog open(WhatsAppStore store, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        var firstGeneration = store.signalKeyLogGeneration;
+        var lastGeneration = firstGeneration - 1;
+        for (var generation : listGenerations(directory)) {
+            var file = getFile(directory, generation);
+            if (generation < firstGeneration) {
+                Files.deleteIfExists(file);
+            } else {
+                replay(store, file);
+                lastGeneration = generation;
+            }
+        }
+
+        // A new generation is started, so that records are never appended after a record torn by a crash
+        var log = new SignalKeyLog(store, directory);
+        log.openGeneration(lastGeneration + 1);
+        return log;
+    }
+
+    private static List<Long> listGenerations(Path directory) throws IOException {
+        var generations = new ArrayList<Long>();
+        try (var files = Files.list(directory)) {
+            for (var iterator = files.iterator(); iterator.hasNext(); ) {
+                var fileName = iterator.next().getFileName().toString();
+                if (!fileName.startsWith(FILE_PREFIX) || !fileName.endsWith(FILE_SUFFIX)) {
+                    continue;
+                }
+
+                try {
+                    generations.add(Long.parseLong(fileName, FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length(), 10));
+                } catch (NumberFormatException _) {
+                    // Not a log
+                }
+            }
+        }
+        generations.sort(null);
+        return generations;
+    }
+
+    private static Path getFile(Path directory, long generation) {
+        return directory.resolve(FILE_PREFIX + generation + FILE_SUFFIX);
+    }
+
+    private static void replay(WhatsAppStore store, Path file) throws IOException {
+        var bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        var checksum = new CRC32();
+        while (bytes.remaining() >= HEADER_LENGTH) {
+            var length = bytes.getInt();
+            var expectedChecksum = bytes.getInt();
+            if (length < 0 || length > bytes.remaining()) {
+                break;
+            }
+
+            checksum.reset();
+            checksum.update(bytes.array(), bytes.position(), length);
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+
+            var entry = SignalKeyLogEntrySpec.decode(ProtobufInputStream.fromBytes(bytes.array(), bytes.position(), length));
+            entry.applyTo(store);
+            bytes.position(bytes.position() + length);
+        }
+    }
+
+    // Forcing the records of a generation doesn't make its file durable, so the directory is forced once the file is created:
+    // otherwise, a crash after the previous generations are deleted could lose the file, and the keys it holds
+    private void openGeneration(long generation) throws IOException {
+        this.channel = FileChannel.open(getFile(directory, generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.generation = generation;
+        RecordFile.forceDirectory(directory);
+    }
+
+    /**
+     * Schedules a flush of the changed keys, if one isn't already scheduled
+     */
+    void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            TimerWheel.shared()
+                    .schedule(FLUSH_INTERVAL, this::flushOrReschedule);
+        }
+    }
+
+    private void flushOrReschedule() {
+        try {
+            flush();
+        } catch (IOException exception) {
+            var logger = System.getLogger("SignalKeyLog - " + directory);
+            logger.log(System.Logger.Level.ERROR, exception);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Appends the keys that changed since the last flush to the log, and waits until they are durable.
+     * Concurrent callers are batched: a caller whose changes were taken by a flush that is in progress waits for it.
+     *
+     * @throws IOException if the keys cannot be written, in which case they are flushed again later
+     */
+    void flush() throws IOException {
+        lock.lock();
+        try {
+            flushScheduled.set(false);
+            if (channel == null) {
+                return;
+            }
+
+            // Keys are removed from the changed ones before their value is read,
+            // so that a change that happens in the meantime is written again by the next flush
+            var entries = new ArrayList<SignalKeyLogEntry>();
+            drain(store.changedSessions, address -> entries.add(SignalKeyLogEntry.ofSession(address, store.sessions.get(address))));
+            drain(store.changedSenderKeys, name -> entries.add(SignalKeyLogEntry.ofSenderKey(name, store.senderKeys.get(name))));
+            drain(store.changedPreKeys, id -> entries.add(SignalKeyLogEntry.ofPreKey(id, store.preKeys.get(id))));
+            if (entries.isEmpty()) {
+                return;
+            }
+
+            try {
+                write(entries);
+            } catch (IOException | RuntimeException exception) {
+                for (var entry : entries) {
+                    entry.markChanged(store);
+                }
+                // The batch may have been written partially, so records can't be appended after it
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    exception.addSuppressed(closeException);
+                }
+                openGeneration(generation + 1);
+                scheduleFlush();
+                throw exception;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <T> void drain(Set<T> keys, Consumer<T> consumer) {
+        for (var iterator = keys.iterator(); iterator.hasNext(); ) {
+            var key = iterator.next();
+            iterator.remove();
+            consumer.accept(key);
+        }
+    }
+
+    // Must be called while holding the lock
+    private void write(List<SignalKeyLogEntry> entries) throws IOException {
+        var payloads = new ArrayList<byte[]>(entries.size());
+        var length = 0;
+        for (var entry : entries) {
+            var payload = SignalKeyLogEntrySpec.encode(entry);
+            payloads.add(payload);
+            length += HEADER_LENGTH + payload.length;
+        }
+
+        var buffer = ByteBuffer.allocate(length);
+        var checksum = new CRC32();
+        for (var payload : payloads) {
+            checksum.reset();
+            checksum.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) checksum.getValue());
+            buffer.put(payload);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Returns whether the log grew enough that the snapshot should be written, so that older generations can be deleted
+     *
+     * @return a boolean
+     */
+    boolean needsCompaction() {
+        lock.lock();
+        try {
+            return channel != null && channel.size() > COMPACTION_THRESHOLD;
+        } catch (IOException _) {
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new generation: changes flushed from now on are written to it.
+     * Must be called before the snapshot is encoded, so that the snapshot includes all the changes of the previous generations.
+     *
+     * @return the new generation
+     * @throws IOException if the new generation cannot be opened
+     */
+    long rotate() throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) {
+                throw new IOException("Log is closed");
+            }
+
+            channel.close();
+            openGeneration(generation + 1);
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the generations older than the given one, after a snapshot that includes their changes is durable
+     *
+     * @param generation the first generation that the snapshot doesn't include
+     * @throws IOException if a generation cannot be deleted
+     */
+    void deleteGenerationsBefore(long generation) throws IOException {
+        lock.lock();
+        try {
+            for (var entry : listGenerations(directory)) {
+                if (entry < generation) {
+                    Files.deleteIfExists(getFile(directory, entry));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes this log: changes that weren't flushed are discarded
+     */
+    void close() {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                this.channel = null;
+            }
+        } catch (IOException _) {
+            // Nothing to flush
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.libsignal.SignalProtocolAddress;
+import com.github.auties00.libsignal.groups.SignalSenderKeyName;
+import com.github.auties00.libsignal.groups.state.SignalSenderKeyRecord;
+import com.github.auties00.libsignal.key.SignalPreKeyPair;
+import com.github.auties00.libsignal.state.SignalSessionRecord;
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+
+import static it.auties.protobuf.model.ProtobufType.*;
+
+/**
+ * A record of a {@link SignalKeyLog}: the new value of a session, sender key or pre key.
+ * Exactly one key is set, and a key without a value is a deletion.
+ */
+@ProtobufMessage
+record SignalKeyLogEntry(
+        @ProtobufProperty(index = 1, type = STRING)
+        SignalProtocolAddress sessionAddress,
+        @ProtobufProperty(index = 2, type = MESSAGE)
+        SignalSessionRecord session,
+        @ProtobufProperty(index = 3, type = STRING)
+        SignalSenderKeyName senderKeyName,
+        @ProtobufProperty(index = 4, type = MESSAGE)
+        SignalSenderKeyRecord senderKey,
+        @ProtobufProperty(index = 5, type = INT32)
+        Integer preKeyId,
+        @ProtobufProperty(index = 6, type = MESSAGE)
+        SignalPreKeyPair preKey
+) {
+    static SignalKeyLogEntry ofSession(SignalProtocolAddress address, SignalSessionRecord session) {
+        return new SignalKeyLogEntry(address, session, null, null, null, null);
+    }
+
+    static SignalKeyLogEntry ofSenderKey(SignalSenderKeyName name, SignalSenderKeyRecord senderKey) {
+        return new SignalKeyLogEntry(null, null, name, senderKey, null, null);
+    }
+
+    static SignalKeyLogEntry ofPreKey(Integer id, SignalPreKeyPair preKey) {
+        return new SignalKeyLogEntry(null, null, null, null, id, preKey);
+    }
+
+    // Applies this change to the store, without marking the key as changed
+    void applyTo(WhatsAppStore store) {
+        if (sessionAddress != null) {
+            if (session != null) {
+                store.sessions.put(sessionAddress, session);
+            } else {
+                store.sessions.remove(sessionAddress);
+            }
+        } else if (senderKeyName != null) {
+            if (senderKey != null) {
+                store.senderKeys.put(senderKeyName, senderKey);
+            } else {
+                store.senderKeys.remove(senderKeyName);
+            }
+        } else if (preKeyId != null) {
+            if (preKey != null) {
+                store.preKeys.put(preKeyId, preKey);
+            } else {
+                store.preKeys.remove(preKeyId);
+            }
+        }
+    }
+
+    // Marks the key as changed again, so that it's written by the next flush
+    void markChanged(WhatsAppStore store) {
+        if (sessionAddress != null) {
+            store.changedSessions.add(sessionAddress);
+        } else if (senderKeyName != null) {
+            store.changedSenderKeys.add(senderKeyName);
+        } else if (preKeyId != null) {
+            store.changedPreKeys.add(preKeyId);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.util.Clock;
+import it.auties.protobuf.annotation.ProtobufEnum;
+import it.auties.protobuf.annotation.ProtobufEnumIndex;
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+
+import java.time.ZonedDateTime;
+import java.util.Optional;
+
+import static it.auties.protobuf.model.ProtobufType.*;
+
+/**
+ * A change to a {@link WhatsAppStore}, recorded by its {@link StoreChangeLog}.
+ * <p>
+ * A change identifies what changed, not its new value: consumers read the current value from the store,
+ * for example through {@link WhatsAppStore#findChatByJid(com.github.auties00.cobalt.model.jid.JidProvider)},
+ * so that applying the same change twice, or applying an older change after a newer one, converges to the same state.
+ *
+ * @param sequence              the sequence number of the change, strictly greater than the ones of the changes before it
+ * @param timestampMilliseconds the time at which the change was recorded, in milliseconds since the epoch
+ * @param operation             whether the entity was inserted, updated or deleted
+ * @param entity                the type of the entity that changed
+ * @param key                   the key of the entity: a jid for chats, contacts and groups, the id of a message, the id of a label or the name of a setting,
+ *                              or null if all the messages of a chat were deleted
+ * @param parentJid             the jid of the chat of a message, or null for the other entities
+ */
+@ProtobufMessage
+public record StoreChange(
+        @ProtobufProperty(index = 1, type = INT64)
+        long sequence,
+        @ProtobufProperty(index = 2, type = INT64)
+        long timestampMilliseconds,
+        @ProtobufProperty(index = 3, type = ENUM)
+        Operation operation,
+        @ProtobufProperty(index = 4, type = ENUM)
+        Entity entity,
+        @ProtobufProperty(index = 5, type = STRING)
+        String key,
+        @ProtobufProperty(index = 6, type = STRING)
+        Jid parentJid
+) {
+    /**
+     * Returns the time at which the change was recorded
+     *
+     * @return an optional date
+     */
+    public Optional<ZonedDateTime> timestamp() {
+        return Clock.parseMilliseconds(timestampMilliseconds);
+    }
+
+    /**
+     * Returns the jid of the chat of a message
+     *
+     * @return an optional jid, empty if the entity isn't a message
+     */
+    public Optional<Jid> parent() {
+        return Optional.ofNullable(parentJid);
+    }
+
+    /**
+     * The operations that can change an entity
+     */
+    @ProtobufEnum
+    public enum Operation {
+        /**
+         * The entity was added to the store
+         */
+        INSERT(0),
+
+        /**
+         * The entity was replaced, or changed in place
+         */
+        UPDATE(1),
+
+        /**
+         * The entity was removed from the store
+         */
+        DELETE(2);
+
+        final int index;
+
+        Operation(@ProtobufEnumIndex int index) {
+            this.index = index;
+        }
+
+        public int index() {
+            return index;
+        }
+    }
+
+    /**
+     * The entities whose changes are recorded
+     */
+    @ProtobufEnum
+    public enum Entity {
+        /**
+         * A chat, keyed by its jid
+         */
+        CHAT(0),
+
+        /**
+         * A message of a chat, keyed by its id
+         */
+        MESSAGE(1),
+
+        /**
+         * A contact, keyed by its jid
+         */
+        CONTACT(2),
+
+        /**
+         * The metadata of a group or community, keyed by its jid
+         */
+        GROUP(3),
+
+        /**
+         * A label, keyed by its id
+         */
+        LABEL(4),
+
+        /**
+         * A setting of the account, keyed by its name
+         */
+        SETTING(5);
+
+        final int index;
+
+        Entity(@ProtobufEnumIndex int index) {
+            this.index = index;
+        }
+
+        public int index() {
+            return index;
+        }
+    }
+}
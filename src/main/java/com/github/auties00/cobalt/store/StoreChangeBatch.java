@@ -0,0 +1,16 @@
+package com.github.auties00.cobalt.store;
+
+import java.util.List;
+
+/**
+ * A batch of changes read from a {@link StoreChangeLog}
+ *
+ * @param changes    the changes, sorted by sequence number
+ * @param checkpoint the checkpoint to read the next batch from: the sequence number of the last change, or the checkpoint that was read from if there were none
+ * @param gap        whether some changes after the checkpoint that was read from are no longer available,
+ *                   because they were discarded to bound the size of the log or were lost in a crash:
+ *                   consumers must then rebuild their copy from the current state of the store before applying the batch
+ */
+public record StoreChangeBatch(List<StoreChange> changes, long checkpoint, boolean gap) {
+
+}
@@ -0,0 +1,531 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.util.Clock;
+import it.auties.protobuf.annotation.ProtobufMessage;
+import it.auties.protobuf.annotation.ProtobufProperty;
+import it.auties.protobuf.model.ProtobufType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An ordered log of the changes to the chats, messages, contacts, groups, labels and settings of a {@link WhatsAppStore}.
+ * <p>
+ * Every change is assigned a sequence number, starting from one and increasing by one for every change,
+ * so that a consumer can replicate the store to an external system by reading the log in batches from a checkpoint:
+ * the sequence number of the last change it applied, or zero to start from the oldest change.
+ * Consumers that store their checkpoint together with the data they replicated, for example in the same database transaction,
+ * can resume exactly where they stopped.
+ * Consumers that don't can {@linkplain #commit(String, long) commit} their checkpoint to the log, which is persisted with the store.
+ * <p>
+ * The log holds at most {@link #capacity()} changes:
+ * older changes are discarded once every consumer that committed a checkpoint read them, or once the log is full.
+ * Its changes aren't encoded with the store: when the store is serialized, the changes recorded since the previous serialization
+ * are appended to a file of their own.
+ * Sequence numbers are reserved in that file in blocks before they are assigned, so that the ones assigned to changes
+ * that were lost because the process stopped before the store was serialized are never assigned again.
+ * A consumer whose checkpoint falls behind the oldest change that is still available, or that may have missed changes that were lost,
+ * is told so through {@link StoreChangeBatch#gap()}.
+ * <p>
+ * Entities that are changed in place, through their setters, are recorded by the code that changes them:
+ * see {@link WhatsAppStore#markChatChanged(com.github.auties00.cobalt.model.chat.Chat)} and {@link WhatsAppStore#markMessageChanged(com.github.auties00.cobalt.model.info.ChatMessageInfo)}.
+ *
+ * @see WhatsAppStore#setChangeCapture(boolean)
+ */
+@ProtobufMessage
+public final class StoreChangeLog {
+    private static final System.Logger LOGGER = System.getLogger(StoreChangeLog.class.getName());
+    private static final int DEFAULT_CAPACITY = 65_536;
+
+    // The number of sequence numbers that are reserved at once, so that the file is only forced once every this many changes
+    private static final int RESERVATION_BLOCK = 1024;
+
+    @ProtobufProperty(index = 1, type = ProtobufType.INT64)
+    volatile long lastSequence;
+
+    // Index 2 held the changes, which are now persisted in the file of the log
+
+    @ProtobufProperty(index = 3, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.INT64)
+    final ConcurrentHashMap<String, Long> checkpoints;
+
+    @ProtobufProperty(index = 4, type = ProtobufType.INT32)
+    volatile int capacity;
+
+    final ConcurrentLinkedDeque<StoreChange> changes;
+
+    // The ranges of sequence numbers that may have been assigned to changes that were lost, from the last sequence number before each range to the last one of the range
+    final ConcurrentSkipListMap<Long, Long> holes;
+
+    // Only appends, trims and writes to the file are serialized, reads iterate the deque without locking
+    private final ReentrantLock lock;
+    private final Condition appended;
+    private int size;
+    private StoreChangeLogFile file;
+    private long reservedSequence;
+    private long flushedSequence;
+    private long flushedFirstSequence;
+
+    StoreChangeLog(long lastSequence, ConcurrentHashMap<String, Long> checkpoints, int capacity) {
+        this.lastSequence = lastSequence;
+        this.changes = new ConcurrentLinkedDeque<>();
+        this.checkpoints = Objects.requireNonNullElseGet(checkpoints, ConcurrentHashMap::new);
+        this.capacity = capacity > 0 ? capacity : DEFAULT_CAPACITY;
+        this.holes = new ConcurrentSkipListMap<>();
+        this.lock = new ReentrantLock();
+        this.appended = lock.newCondition();
+    }
+
+    /**
+     * Creates an empty log
+     *
+     * @return a non-null log
+     */
+    static StoreChangeLog empty() {
+        return new StoreChangeLog(0, null, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Reads the changes persisted in a file, and appends the changes recorded from now on to it when the log is {@linkplain #flush() flushed}.
+     * The sequence numbers that may have been assigned to changes that were lost since the file was last flushed are never assigned again,
+     * and the consumers that may have missed those changes are told so through {@link StoreChangeBatch#gap()}.
+     *
+     * @param path the file
+     * @throws IOException if the file cannot be opened, read or written
+     */
+    void attach(Path path) throws IOException {
+        lock.lock();
+        try {
+            detach();
+            var replay = StoreChangeLogFile.open(path);
+            long lastAssigned;
+            try {
+                // The changes recorded before the log was attached are newer than the ones in the file
+                var oldest = changes.peekFirst();
+                for (var iterator = replay.changes().reversed().iterator(); iterator.hasNext(); ) {
+                    var change = iterator.next();
+                    if (oldest == null || change.sequence() < oldest.sequence()) {
+                        changes.addFirst(change);
+                        size++;
+                    }
+                }
+                holes.putAll(replay.holes());
+
+                // Every change up to this sequence number is either in the file or will be appended to it when the log is flushed
+                var last = changes.peekLast();
+                var lastKept = Math.max(last == null ? 0 : last.sequence(), replay.firstSequence() - 1);
+                lastAssigned = Math.max(lastKept, Math.max(replay.reservedSequence(), lastSequence));
+                if (lastAssigned > lastKept) {
+                    replay.file().hole(lastKept, lastAssigned);
+                    holes.put(lastKept, lastAssigned);
+                }
+                replay.file().reserve(lastAssigned);
+            } catch (IOException | RuntimeException exception) {
+                replay.file().close();
+                throw exception;
+            }
+
+            this.file = replay.file();
+            this.flushedSequence = replay.changes().isEmpty() ? 0 : replay.changes().getLast().sequence();
+            this.flushedFirstSequence = replay.firstSequence();
+            this.reservedSequence = lastAssigned;
+            this.lastSequence = lastAssigned;
+            trim();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends the changes recorded since the previous flush to the file of this log, and waits until they are durable.
+     * Does nothing if the log isn't {@linkplain #attach(Path) attached} to a file.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    void flush() throws IOException {
+        lock.lock();
+        try {
+            if (file == null) {
+                return;
+            }
+
+            var pending = new ArrayDeque<StoreChange>();
+            for (var iterator = changes.descendingIterator(); iterator.hasNext(); ) {
+                var change = iterator.next();
+                if (change.sequence() <= flushedSequence) {
+                    break;
+                }
+                pending.addFirst(change);
+            }
+            var firstSequence = firstSequence();
+            if (pending.isEmpty() && firstSequence == flushedFirstSequence && reservedSequence == lastSequence) {
+                return;
+            }
+
+            // The reservation shrinks to the last sequence number that was assigned, so that a clean restart loses no sequence number
+            file.append(List.copyOf(pending), firstSequence == flushedFirstSequence ? -1 : firstSequence, lastSequence);
+            this.flushedSequence = lastSequence;
+            this.flushedFirstSequence = firstSequence;
+            this.reservedSequence = lastSequence;
+            if (file.needsCompaction(size)) {
+                file.compact(changes, holes, firstSequence, lastSequence);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the file of this log, if it's {@linkplain #attach(Path) attached} to one
+     */
+    void detach() {
+        lock.lock();
+        try {
+            if (file != null) {
+                file.close();
+                this.file = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether this log is {@linkplain #attach(Path) attached} to a file
+     *
+     * @return a boolean
+     */
+    boolean attached() {
+        lock.lock();
+        try {
+            return file != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a change
+     *
+     * @param operation the operation
+     * @param entity    the entity
+     * @param key       the key of the entity
+     * @param parentJid the jid of the chat of a message, or null
+     */
+    void record(StoreChange.Operation operation, StoreChange.Entity entity, String key, Jid parentJid) {
+        lock.lock();
+        try {
+            var sequence = lastSequence + 1;
+            if (file != null && sequence > reservedSequence) {
+                reserve(sequence + RESERVATION_BLOCK - 1);
+            }
+            changes.addLast(new StoreChange(sequence, Clock.nowMilliseconds(), operation, entity, key, parentJid));
+            this.lastSequence = sequence;
+            size++;
+            trim();
+            appended.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called while holding the lock
+    private void reserve(long sequence) {
+        try {
+            file.reserve(sequence);
+        } catch (IOException exception) {
+            // The change is still recorded: if the process stops before the log is flushed, its sequence number may be assigned again
+            LOGGER.log(System.Logger.Level.WARNING, "Cannot reserve the sequence numbers of the change log", exception);
+        }
+        this.reservedSequence = sequence;
+    }
+
+    // Must be called while holding the lock
+    private void trim() {
+        var minCheckpoint = checkpoints.values()
+                .stream()
+                .mapToLong(Long::longValue)
+                .min()
+                .orElse(Long.MIN_VALUE);
+        while (size > 0) {
+            var first = changes.peekFirst();
+            if (first == null || (size <= capacity && first.sequence() > minCheckpoint)) {
+                break;
+            }
+
+            changes.pollFirst();
+            size--;
+        }
+
+        // The consumers that are behind the oldest change are already told that they missed changes
+        var firstSequence = firstSequence();
+        while (!holes.isEmpty() && holes.firstEntry().getValue() < firstSequence) {
+            holes.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last change that was recorded
+     *
+     * @return a non-negative number, zero if no change was recorded
+     */
+    public long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Reads the changes recorded after a checkpoint
+     *
+     * @param checkpoint the sequence number of the last change that was read, or zero to read from the oldest change
+     * @param limit      the maximum number of changes to read
+     * @return a non-null batch, whose changes are empty if there are no changes after the checkpoint
+     * @throws IllegalArgumentException if the checkpoint is negative or the limit isn't positive
+     */
+    public StoreChangeBatch read(long checkpoint, int limit) {
+        if (checkpoint < 0) {
+            throw new IllegalArgumentException("checkpoint cannot be negative");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+
+        var lastSequence = this.lastSequence;
+        if (checkpoint > lastSequence) {
+            // The consumer read changes that were lost because the store wasn't serialized after they were recorded:
+            // the sequence skips them, so that the changes recorded from now on aren't mistaken for the ones that were read
+            skipTo(checkpoint);
+            return new StoreChangeBatch(List.of(), checkpoint, true);
+        }
+
+        var first = changes.peekFirst();
+        var firstSequence = first == null ? lastSequence + 1 : first.sequence();
+        var gap = checkpoint < firstSequence - 1;
+        var from = Math.max(checkpoint, firstSequence - 1);
+        var until = lastSequence;
+        for (var hole : holes.entrySet()) {
+            if (hole.getValue() <= from) {
+                continue;
+            }
+
+            if (hole.getKey() > from) {
+                // The changes before the hole are read first, the gap is reported by the next read
+                until = hole.getKey();
+                break;
+            }
+
+            // The consumer may have missed changes that were lost, or read changes whose sequence numbers are now unassigned
+            gap = true;
+            from = hole.getValue();
+        }
+
+        var result = new ArrayList<StoreChange>(Math.min(limit, (int) Math.clamp(until - from, 0, Integer.MAX_VALUE)));
+        if (from - firstSequence < lastSequence - from) {
+            for (var change : changes) {
+                if (change.sequence() <= from) {
+                    continue;
+                }
+                if (change.sequence() > until) {
+                    break;
+                }
+                result.add(change);
+                if (result.size() == limit) {
+                    break;
+                }
+            }
+        } else {
+            // Consumers that are tailing the log only need its newest changes, so it's walked from its end
+            var newest = new ArrayDeque<StoreChange>();
+            for (var iterator = changes.descendingIterator(); iterator.hasNext(); ) {
+                var change = iterator.next();
+                if (change.sequence() > until) {
+                    continue;
+                }
+                if (change.sequence() <= from) {
+                    break;
+                }
+                newest.addFirst(change);
+                if (newest.size() > limit) {
+                    newest.removeLast();
+                }
+            }
+            result.addAll(newest);
+        }
+
+        var nextCheckpoint = result.isEmpty() ? from : result.getLast().sequence();
+        return new StoreChangeBatch(Collections.unmodifiableList(result), nextCheckpoint, gap);
+    }
+
+    private void skipTo(long checkpoint) {
+        lock.lock();
+        try {
+            if (checkpoint > lastSequence) {
+                var last = lastSequence;
+                if (file != null) {
+                    try {
+                        file.hole(last, checkpoint);
+                    } catch (IOException exception) {
+                        LOGGER.log(System.Logger.Level.WARNING, "Cannot persist the skipped sequence numbers of the change log", exception);
+                    }
+                    if (checkpoint > reservedSequence) {
+                        reserve(checkpoint);
+                    }
+                }
+                holes.put(last, checkpoint);
+                this.lastSequence = checkpoint;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads the changes recorded after a checkpoint, waiting until at least one is available or the timeout elapses
+     *
+     * @param checkpoint the sequence number of the last change that was read, or zero to read from the oldest change
+     * @param limit      the maximum number of changes to read
+     * @param timeout    the maximum time to wait, must not be null
+     * @return a non-null batch, whose changes are empty if the timeout elapsed
+     * @throws InterruptedException     if the thread is interrupted while waiting
+     * @throws IllegalArgumentException if the checkpoint is negative or the limit isn't positive
+     * @throws NullPointerException     if timeout is null
+     */
+    public StoreChangeBatch poll(long checkpoint, int limit, Duration timeout) throws InterruptedException {
+        Objects.requireNonNull(timeout, "timeout cannot be null");
+        var batch = read(checkpoint, limit);
+        if (!batch.changes().isEmpty() || batch.gap()) {
+            return batch;
+        }
+
+        var remaining = timeout.toNanos();
+        lock.lock();
+        try {
+            while (lastSequence <= checkpoint && remaining > 0) {
+                remaining = appended.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return read(checkpoint, limit);
+    }
+
+    /**
+     * Commits the checkpoint of a consumer, so that it can resume from it after a restart.
+     * Changes are kept until every consumer that committed a checkpoint read them, as long as the log isn't full.
+     *
+     * @param consumer   the name of the consumer, must not be null
+     * @param checkpoint the sequence number of the last change that the consumer applied
+     * @throws NullPointerException     if consumer is null
+     * @throws IllegalArgumentException if the checkpoint is negative
+     */
+    public void commit(String consumer, long checkpoint) {
+        Objects.requireNonNull(consumer, "consumer cannot be null");
+        if (checkpoint < 0) {
+            throw new IllegalArgumentException("checkpoint cannot be negative");
+        }
+
+        lock.lock();
+        try {
+            checkpoints.put(consumer, checkpoint);
+            trim();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the checkpoint committed by a consumer
+     *
+     * @param consumer the name of the consumer, must not be null
+     * @return an optional checkpoint, empty if the consumer never committed one
+     * @throws NullPointerException if consumer is null
+     */
+    public OptionalLong findCheckpoint(String consumer) {
+        Objects.requireNonNull(consumer, "consumer cannot be null");
+        var checkpoint = checkpoints.get(consumer);
+        return checkpoint == null ? OptionalLong.empty() : OptionalLong.of(checkpoint);
+    }
+
+    /**
+     * Removes the checkpoint of a consumer, so that the changes it didn't read yet can be discarded
+     *
+     * @param consumer the name of the consumer, must not be null
+     * @return whether the consumer had committed a checkpoint
+     * @throws NullPointerException if consumer is null
+     */
+    public boolean removeCheckpoint(String consumer) {
+        Objects.requireNonNull(consumer, "consumer cannot be null");
+        lock.lock();
+        try {
+            var removed = checkpoints.remove(consumer) != null;
+            trim();
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the maximum number of changes that this log holds
+     *
+     * @return a positive number
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets the maximum number of changes that this log holds, discarding the oldest changes if it holds more
+     *
+     * @param capacity the capacity, must be positive
+     * @throws IllegalArgumentException if capacity isn't positive
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            trim();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || o instanceof StoreChangeLog that
+               && lastSequence == that.lastSequence
+               && capacity == that.capacity
+               && firstSequence() == that.firstSequence()
+               && Objects.equals(checkpoints, that.checkpoints);
+    }
+
+    // The changes between the first and the last sequence number never change, so they aren't hashed
+    @Override
+    public int hashCode() {
+        return Objects.hash(lastSequence, capacity, firstSequence(), checkpoints);
+    }
+
+    private long firstSequence() {
+        var first = changes.peekFirst();
+        return first == null ? lastSequence + 1 : first.sequence();
+    }
+
+    @Override
+    public String toString() {
+        return "StoreChangeLog[" +
+               "lastSequence=" + lastSequence +
+               ", capacity=" + capacity +
+               ", checkpoints=" + checkpoints +
+               ']';
+    }
+}
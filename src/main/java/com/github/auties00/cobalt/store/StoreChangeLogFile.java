@@ -0,0 +1,277 @@
+package com.github.auties00.cobalt.store;
+
+import it.auties.protobuf.stream.ProtobufInputStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only file of a {@link StoreChangeLog}.
+ * <p>
+ * The changes are appended to this file as they are flushed, instead of being encoded with the snapshot of the store,
+ * so that a flush only writes the changes recorded since the previous one.
+ * The file also holds the reservations of sequence numbers: a sequence number is only assigned to a change
+ * after a reservation that includes it is durable, so that the sequence numbers of the changes that were lost in a crash
+ * are known when the file is replayed, and are never assigned again.
+ * <p>
+ * Every record starts with the length of its payload and the checksum of its payload, like the records of {@link SignalKeyLog}:
+ * a record torn by a crash, which can only be the last one, is discarded when the file is replayed, and the file is truncated before it.
+ * When most of the changes of the file were discarded from the log, the file is rewritten with the changes that are left.
+ * <p>
+ * This class isn't thread safe: its methods must be called while holding the lock of the log.
+ */
+final class StoreChangeLogFile {
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int MIN_COMPACTION_RECORDS = 4096;
+
+    // Every record starts with the length of its payload and the checksum of its payload
+    private static final int HEADER_LENGTH = Integer.BYTES * 2;
+
+    // The payload of a record starts with its type
+    private static final byte CHANGE = 1;
+    private static final byte RESERVATION = 2;
+    private static final byte HOLE = 3;
+    private static final byte FIRST_SEQUENCE = 4;
+
+    private final Path file;
+    private FileChannel channel;
+    private long records;
+
+    private StoreChangeLogFile(Path file, FileChannel channel, long records) {
+        this.file = file;
+        this.channel = channel;
+        this.records = records;
+    }
+
+    /**
+     * Opens the file of a log, and reads its valid records
+     *
+     * @param file the file
+     * @return a non-null result
+     * @throws IOException if the file cannot be opened or read
+     */
+    static Replay open(Path file) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // The records are forced as they are written, but the file itself is only durable once the directory is forced
+            RecordFile.forceDirectory(file.getParent());
+            var bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+            var changes = new ArrayList<StoreChange>();
+            var holes = new TreeMap<Long, Long>();
+            var firstSequence = 0L;
+            var reservedSequence = 0L;
+            var records = 0L;
+            var checksum = new CRC32();
+            while (bytes.remaining() >= HEADER_LENGTH) {
+                var start = bytes.position();
+                var length = bytes.getInt();
+                var expectedChecksum = bytes.getInt();
+                if (length <= 0 || length > bytes.remaining()) {
+                    bytes.position(start);
+                    break;
+                }
+
+                checksum.reset();
+                checksum.update(bytes.array(), bytes.position(), length);
+                if ((int) checksum.getValue() != expectedChecksum) {
+                    bytes.position(start);
+                    break;
+                }
+
+                var payload = bytes.slice(bytes.position(), length);
+                switch (payload.get()) {
+                    case CHANGE -> {
+                        var change = StoreChangeSpec.decode(ProtobufInputStream.fromBytes(bytes.array(), bytes.position() + 1, length - 1));
+                        if (changes.isEmpty() || change.sequence() > changes.getLast().sequence()) {
+                            changes.add(change);
+                        }
+                    }
+                    case RESERVATION -> reservedSequence = payload.getLong();
+                    case HOLE -> holes.put(payload.getLong(), payload.getLong());
+                    case FIRST_SEQUENCE -> firstSequence = Math.max(firstSequence, payload.getLong());
+                    default -> {
+                        // Written by a newer version
+                    }
+                }
+                bytes.position(bytes.position() + length);
+                records++;
+            }
+
+            // Records are never appended after a record torn by a crash
+            channel.truncate(bytes.position());
+            channel.position(bytes.position());
+            var first = firstSequence;
+            changes.removeIf(change -> change.sequence() < first);
+            return new Replay(new StoreChangeLogFile(file, channel, records), changes, holes, firstSequence, reservedSequence);
+        } catch (IOException | RuntimeException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    /**
+     * Appends changes to the file, and waits until they are durable
+     *
+     * @param changes          the changes, sorted by sequence number
+     * @param firstSequence    the sequence number of the first change that is still in the log, or -1 if it didn't change
+     * @param reservedSequence the last sequence number that can be assigned without a new reservation
+     * @throws IOException if the records cannot be written
+     */
+    void append(List<StoreChange> changes, long firstSequence, long reservedSequence) throws IOException {
+        var payloads = new ArrayList<byte[]>(changes.size() + 2);
+        for (var change : changes) {
+            payloads.add(encodeChange(change));
+        }
+        if (firstSequence != -1) {
+            payloads.add(encodeLong(FIRST_SEQUENCE, firstSequence));
+        }
+        payloads.add(encodeLong(RESERVATION, reservedSequence));
+        write(channel, payloads);
+        records += payloads.size();
+    }
+
+    /**
+     * Appends a reservation to the file, and waits until it's durable
+     *
+     * @param reservedSequence the last sequence number that can be assigned without a new reservation
+     * @throws IOException if the record cannot be written
+     */
+    void reserve(long reservedSequence) throws IOException {
+        write(channel, List.of(encodeLong(RESERVATION, reservedSequence)));
+        records++;
+    }
+
+    /**
+     * Appends a range of sequence numbers that may have been assigned to changes that were lost, and waits until it's durable
+     *
+     * @param start the last sequence number before the range
+     * @param end   the last sequence number of the range
+     * @throws IOException if the record cannot be written
+     */
+    void hole(long start, long end) throws IOException {
+        write(channel, List.of(encodeHole(start, end)));
+        records++;
+    }
+
+    /**
+     * Returns whether the file holds enough records that were discarded from the log that it should be rewritten
+     *
+     * @param changes the number of changes in the log
+     * @return a boolean
+     */
+    boolean needsCompaction(int changes) {
+        return records > MIN_COMPACTION_RECORDS && records > 2L * changes;
+    }
+
+    /**
+     * Rewrites the file with the changes that are still in the log.
+     * The file is replaced atomically, so a crash leaves either the previous file or the new one.
+     *
+     * @param changes          the changes, sorted by sequence number
+     * @param holes            the ranges of sequence numbers that may have been assigned to changes that were lost
+     * @param firstSequence    the sequence number of the first change that is still in the log
+     * @param reservedSequence the last sequence number that can be assigned without a new reservation
+     * @throws IOException if the file cannot be rewritten, in which case the previous one is still used
+     */
+    void compact(Collection<StoreChange> changes, Map<Long, Long> holes, long firstSequence, long reservedSequence) throws IOException {
+        var payloads = new ArrayList<byte[]>(changes.size() + holes.size() + 2);
+        payloads.add(encodeLong(FIRST_SEQUENCE, firstSequence));
+        holes.forEach((start, end) -> payloads.add(encodeHole(start, end)));
+        for (var change : changes) {
+            payloads.add(encodeChange(change));
+        }
+        payloads.add(encodeLong(RESERVATION, reservedSequence));
+
+        var tempFile = file.resolveSibling(file.getFileName() + TEMP_FILE_SUFFIX);
+        try {
+            try (var tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(tempChannel, payloads);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            RecordFile.forceDirectory(file.getParent());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+
+        channel.close();
+        this.channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        this.records = payloads.size();
+    }
+
+    /**
+     * Closes the file
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException _) {
+            // Every record was already forced
+        }
+    }
+
+    private static void write(FileChannel channel, List<byte[]> payloads) throws IOException {
+        var length = 0;
+        for (var payload : payloads) {
+            length += HEADER_LENGTH + payload.length;
+        }
+
+        var buffer = ByteBuffer.allocate(length);
+        var checksum = new CRC32();
+        for (var payload : payloads) {
+            checksum.reset();
+            checksum.update(payload);
+            buffer.putInt(payload.length);
+            buffer.putInt((int) checksum.getValue());
+            buffer.put(payload);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private static byte[] encodeChange(StoreChange change) {
+        var encoded = StoreChangeSpec.encode(change);
+        var payload = new byte[encoded.length + 1];
+        payload[0] = CHANGE;
+        System.arraycopy(encoded, 0, payload, 1, encoded.length);
+        return payload;
+    }
+
+    private static byte[] encodeLong(byte type, long value) {
+        return ByteBuffer.allocate(Byte.BYTES + Long.BYTES)
+                .put(type)
+                .putLong(value)
+                .array();
+    }
+
+    private static byte[] encodeHole(long start, long end) {
+        return ByteBuffer.allocate(Byte.BYTES + Long.BYTES * 2)
+                .put(HOLE)
+                .putLong(start)
+                .putLong(end)
+                .array();
+    }
+
+    /**
+     * The records read from the file of a log
+     *
+     * @param file             the file, opened for appending after its last valid record
+     * @param changes          the changes, sorted by sequence number
+     * @param holes            the ranges of sequence numbers that may have been assigned to changes that were lost, from the last sequence number before each range to the last sequence number of the range
+     * @param firstSequence    the sequence number of the first change that was still in the log, or zero if it's unknown
+     * @param reservedSequence the last sequence number that may have been assigned, or zero if none was reserved
+     */
+    record Replay(StoreChangeLogFile file, List<StoreChange> changes, NavigableMap<Long, Long> holes, long firstSequence, long reservedSequence) {
+
+    }
+}
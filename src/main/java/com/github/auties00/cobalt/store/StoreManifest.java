@@ -0,0 +1,387 @@
+package com.github.auties00.cobalt.store;
+
+import com.github.auties00.cobalt.model.jid.Jid;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The list of the files that hold the chats and newsletters of a store persisted by {@link ProtobufStoreSerializer}.
+ * <p>
+ * Chats and newsletters are never overwritten: every flush writes the ones that changed to new files, named after a new generation,
+ * and then commits the manifest, which points to the new files, with an atomic rename.
+ * As the manifest is the only file that is renamed, a flush is durable with a single directory sync however many chats it wrote,
+ * and a crash during a flush leaves the files of the previous generation in place.
+ * Files that aren't listed by the manifest are leftovers of an interrupted flush, or of the previous generation, and are deleted.
+ * <p>
+ * The manifest also records the id of the {@link CompressionDictionary} that its files were compressed with, if any,
+ * so that a store whose dictionary was lost can be told apart from a store that was never compressed.
+ * <p>
+ * Stores persisted before the manifest was introduced don't have one: their files are listed by scanning the directory.
+ */
+final class StoreManifest {
+    private static final String FILE_NAME = "manifest";
+    private static final String TEMP_FILE_NAME = "manifest.tmp";
+    private static final int VERSION = 2;
+    private static final int UNCOMPRESSED_VERSION = 1;
+
+    private final Path directory;
+    private final ReentrantLock lock;
+    private final Map<Jid, Entry> chats;
+    private final Map<Jid, Entry> newsletters;
+    private final boolean persisted;
+    private long generation;
+    private int dictionaryId;
+
+    private StoreManifest(Path directory, Map<Jid, Entry> chats, Map<Jid, Entry> newsletters, long generation, int dictionaryId, boolean persisted) {
+        this.directory = directory;
+        this.lock = new ReentrantLock();
+        this.chats = chats;
+        this.newsletters = newsletters;
+        this.generation = generation;
+        this.dictionaryId = dictionaryId;
+        this.persisted = persisted;
+    }
+
+    /**
+     * Creates an empty manifest for a new store
+     *
+     * @param directory the directory of the store
+     * @return a non-null manifest
+     */
+    static StoreManifest empty(Path directory) {
+        return new StoreManifest(directory, new HashMap<>(), new HashMap<>(), 0, 0, false);
+    }
+
+    /**
+     * Reads the manifest of a store
+     *
+     * @param directory the directory of the store
+     * @return an optional manifest, empty if the store doesn't have one or it cannot be read
+     */
+    static Optional<StoreManifest> read(Path directory) {
+        var file = directory.resolve(FILE_NAME);
+        if (Files.notExists(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            var contents = RecordFile.read(file, -1, null);
+            if (!contents.complete() || contents.records().size() != 1) {
+                return Optional.empty();
+            }
+
+            var input = new DataInputStream(new ByteArrayInputStream(contents.records().getFirst()));
+            var version = input.readUnsignedByte();
+            if (version != VERSION && version != UNCOMPRESSED_VERSION) {
+                return Optional.empty();
+            }
+
+            var generation = input.readLong();
+            var dictionaryId = version == VERSION ? input.readInt() : 0;
+            var chats = readEntries(input);
+            var newsletters = readEntries(input);
+            return Optional.of(new StoreManifest(directory, chats, newsletters, generation, dictionaryId, true));
+        } catch (IOException | RuntimeException _) {
+            return Optional.empty();
+        }
+    }
+
+    private static Map<Jid, Entry> readEntries(DataInputStream input) throws IOException {
+        var size = input.readInt();
+        var entries = new HashMap<Jid, Entry>(size);
+        for (var i = 0; i < size; i++) {
+            var jid = Jid.of(input.readUTF());
+            var fileName = input.readUTF();
+            var length = input.readLong();
+            entries.put(jid, new Entry(jid, fileName, length));
+        }
+        return entries;
+    }
+
+    /**
+     * Creates a manifest from the files of the directory of a store.
+     * Used when the store doesn't have a manifest, or it was lost: the newest file of every chat or newsletter is listed,
+     * and the id of the dictionary is read from the headers of the files.
+     *
+     * @param directory         the directory of the store
+     * @param chatPrefix        the prefix of the files of chats
+     * @param newsletterPrefix  the prefix of the files of newsletters
+     * @param legacyFileSuffix  the suffix of the files written before records were introduced
+     * @param recordFileSuffix  the suffix of record files
+     * @return a non-null manifest
+     * @throws IOException if the directory cannot be listed
+     */
+    static StoreManifest scan(Path directory, String chatPrefix, String newsletterPrefix, String legacyFileSuffix, String recordFileSuffix) throws IOException {
+        var chats = new HashMap<Jid, Entry>();
+        var newsletters = new HashMap<Jid, Entry>();
+        var generations = new HashMap<String, Long>();
+        var maxGeneration = 0L;
+        var dictionaryId = 0;
+        try (var files = Files.list(directory)) {
+            for (var iterator = files.iterator(); iterator.hasNext(); ) {
+                var file = iterator.next();
+                var fileName = file.getFileName().toString();
+                Map<Jid, Entry> entries;
+                String name;
+                if (fileName.startsWith(chatPrefix)) {
+                    entries = chats;
+                    name = fileName.substring(chatPrefix.length());
+                } else if (fileName.startsWith(newsletterPrefix)) {
+                    entries = newsletters;
+                    name = fileName.substring(newsletterPrefix.length());
+                } else {
+                    continue;
+                }
+
+                long generation;
+                String jid;
+                if (name.endsWith(legacyFileSuffix)) {
+                    // Files written before records were introduced are named after the user of their jid
+                    generation = -1;
+                    jid = name.substring(0, name.length() - legacyFileSuffix.length());
+                } else if (name.endsWith(recordFileSuffix)) {
+                    var baseName = name.substring(0, name.length() - recordFileSuffix.length());
+                    var separator = baseName.lastIndexOf('.');
+                    if (separator == -1) {
+                        continue;
+                    }
+
+                    try {
+                        generation = Long.parseLong(baseName, separator + 1, baseName.length(), 10);
+                    } catch (NumberFormatException _) {
+                        continue;
+                    }
+                    jid = baseName.substring(0, separator);
+                } else {
+                    continue;
+                }
+
+                Jid parsedJid;
+                try {
+                    parsedJid = Jid.of(jid);
+                } catch (RuntimeException _) {
+                    continue;
+                }
+
+                var key = (entries == chats ? chatPrefix : newsletterPrefix) + parsedJid;
+                var previousGeneration = generations.get(key);
+                if (previousGeneration != null && previousGeneration >= generation) {
+                    continue;
+                }
+
+                generations.put(key, generation);
+                maxGeneration = Math.max(maxGeneration, generation);
+                entries.put(parsedJid, new Entry(parsedJid, fileName, -1));
+                if (dictionaryId == 0 && generation != -1) {
+                    dictionaryId = RecordFile.readDictionaryId(file);
+                }
+            }
+        }
+        return new StoreManifest(directory, chats, newsletters, maxGeneration, dictionaryId, false);
+    }
+
+    /**
+     * Returns whether this manifest was read from its file.
+     * If it wasn't, the files that it doesn't list cannot be considered leftovers.
+     *
+     * @return a boolean
+     */
+    boolean persisted() {
+        return persisted;
+    }
+
+    /**
+     * Returns the entries of the chats
+     *
+     * @return a non-null copy of the entries
+     */
+    List<Entry> chats() {
+        lock.lock();
+        try {
+            return List.copyOf(chats.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the entries of the newsletters
+     *
+     * @return a non-null copy of the entries
+     */
+    List<Entry> newsletters() {
+        lock.lock();
+        try {
+            return List.copyOf(newsletters.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the names of all the files listed by this manifest
+     *
+     * @return a non-null set of file names
+     */
+    Set<String> fileNames() {
+        lock.lock();
+        try {
+            var result = new HashSet<String>();
+            chats.values().forEach(entry -> result.add(entry.fileName()));
+            newsletters.values().forEach(entry -> result.add(entry.fileName()));
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the id of the dictionary that the listed files were compressed with
+     *
+     * @return the id, or 0 if no file was compressed with a dictionary
+     */
+    int dictionaryId() {
+        lock.lock();
+        try {
+            return dictionaryId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the generation of the files written by the next flush
+     *
+     * @return a positive number
+     */
+    long nextGeneration() {
+        lock.lock();
+        try {
+            return generation + 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Commits a flush: the files that were written are listed in place of the previous ones, and the manifest is atomically replaced.
+     * The files that were written must be durable before this method is called.
+     *
+     * @param generation         the generation of the flush, returned by {@link #nextGeneration()}
+     * @param dictionaryId       the id of the dictionary that the files were compressed with, or 0 if they weren't.
+     *                           A dictionary is never replaced, so the id of a previous flush is kept
+     * @param writtenChats       the entries of the chats that were written
+     * @param writtenNewsletters the entries of the newsletters that were written
+     * @param removedChats       the chats that were removed from the store
+     * @param removedNewsletters the newsletters that were removed from the store
+     * @return the names of the files that aren't listed anymore, which can be deleted
+     * @throws IOException if the manifest cannot be written, in which case it's unchanged
+     */
+    List<String> commit(long generation, int dictionaryId, Collection<Entry> writtenChats, Collection<Entry> writtenNewsletters, Collection<Jid> removedChats, Collection<Jid> removedNewsletters) throws IOException {
+        lock.lock();
+        try {
+            var newChats = new HashMap<>(chats);
+            var newNewsletters = new HashMap<>(newsletters);
+            var obsolete = new ArrayList<String>();
+            update(newChats, writtenChats, removedChats, obsolete);
+            update(newNewsletters, writtenNewsletters, removedNewsletters, obsolete);
+            var newDictionaryId = dictionaryId != 0 ? dictionaryId : this.dictionaryId;
+
+            var tempFile = directory.resolve(TEMP_FILE_NAME);
+            try (var writer = RecordFile.newWriter(tempFile)) {
+                var bytes = new ByteArrayOutputStream();
+                var output = new DataOutputStream(bytes);
+                output.writeByte(VERSION);
+                output.writeLong(generation);
+                output.writeInt(newDictionaryId);
+                writeEntries(output, newChats);
+                writeEntries(output, newNewsletters);
+                writer.append(bytes.toByteArray());
+                writer.force();
+            }
+            Files.move(tempFile, directory.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            RecordFile.forceDirectory(directory);
+
+            chats.clear();
+            chats.putAll(newChats);
+            newsletters.clear();
+            newsletters.putAll(newNewsletters);
+            this.generation = Math.max(this.generation, generation);
+            this.dictionaryId = newDictionaryId;
+            return obsolete;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists an entry under the jid that was decoded from its file.
+     * Files written before records were introduced are named after the user of their jid, so their entries are listed under a jid
+     * that was guessed from their name when the directory was scanned.
+     *
+     * @param entry the entry
+     * @param jid   the jid of the chat or newsletter
+     * @return whether the entry was listed, or false if a newer file is already listed under the jid, in which case the entry can be discarded
+     */
+    boolean rekey(Entry entry, Jid jid) {
+        lock.lock();
+        try {
+            var entries = chats.get(entry.jid()) == entry ? chats : newsletters;
+            if (entry.jid().equals(jid)) {
+                return entries.get(jid) == entry;
+            }
+
+            var existing = entries.get(jid);
+            if (existing != null && existing != entry) {
+                entries.remove(entry.jid(), entry);
+                return false;
+            }
+
+            entries.remove(entry.jid(), entry);
+            entries.put(jid, new Entry(jid, entry.fileName(), entry.length()));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void update(Map<Jid, Entry> entries, Collection<Entry> written, Collection<Jid> removed, List<String> obsolete) {
+        for (var entry : written) {
+            var previous = entries.put(entry.jid(), entry);
+            if (previous != null && !previous.fileName().equals(entry.fileName())) {
+                obsolete.add(previous.fileName());
+            }
+        }
+        for (var jid : removed) {
+            var previous = entries.remove(jid);
+            if (previous != null) {
+                obsolete.add(previous.fileName());
+            }
+        }
+    }
+
+    private static void writeEntries(DataOutputStream output, Map<Jid, Entry> entries) throws IOException {
+        output.writeInt(entries.size());
+        for (var entry : entries.values()) {
+            output.writeUTF(entry.jid().toString());
+            output.writeUTF(entry.fileName());
+            output.writeLong(entry.length());
+        }
+    }
+
+    /**
+     * A file listed by the manifest
+     *
+     * @param jid      the jid of the chat or newsletter
+     * @param fileName the name of the file, relative to the directory of the store
+     * @param length   the length of the file, or -1 if it's unknown
+     */
+    record Entry(Jid jid, String fileName, long length) {
+
+    }
+}
@@ -6,7 +6,12 @@ import com.github.auties00.cobalt.client.WhatsAppClientListener;
 import com.github.auties00.cobalt.client.WhatsAppClientType;
 import com.github.auties00.cobalt.client.WhatsAppWebClientHistory;
 import com.github.auties00.cobalt.client.info.WhatsAppClientInfo;
+import com.github.auties00.cobalt.contact.ContactDiscoveryResult;
+import com.github.auties00.cobalt.contact.ContactDiscoveryService;
+import com.github.auties00.cobalt.contact.ContactProfile;
+import com.github.auties00.cobalt.contact.ContactProfileService;
 import com.github.auties00.cobalt.media.MediaConnection;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
 import com.github.auties00.cobalt.model.auth.SignedDeviceIdentity;
 import com.github.auties00.cobalt.model.auth.UserAgent.ReleaseChannel;
 import com.github.auties00.cobalt.model.auth.Version;
@@ -15,6 +20,7 @@ import com.github.auties00.cobalt.model.call.Call;
 import com.github.auties00.cobalt.model.chat.Chat;
 import com.github.auties00.cobalt.model.chat.ChatBuilder;
 import com.github.auties00.cobalt.model.chat.ChatEphemeralTimer;
+import com.github.auties00.cobalt.model.chat.ChatMessagesListener;
 import com.github.auties00.cobalt.model.chat.GroupOrCommunityMetadata;
 import com.github.auties00.cobalt.model.contact.Contact;
 import com.github.auties00.cobalt.model.contact.ContactBuilder;
@@ -26,6 +32,7 @@ import com.github.auties00.cobalt.model.jid.JidCompanion;
 import com.github.auties00.cobalt.model.jid.JidProvider;
 import com.github.auties00.cobalt.model.jid.JidServer;
 import com.github.auties00.cobalt.model.message.model.ChatMessageKey;
+import com.github.auties00.cobalt.model.message.model.MessageBodyStorage;
 import com.github.auties00.cobalt.model.newsletter.Newsletter;
 import com.github.auties00.cobalt.model.newsletter.NewsletterBuilder;
 import com.github.auties00.cobalt.model.preferences.Label;
@@ -50,9 +57,12 @@ import it.auties.protobuf.model.ProtobufType;
 
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentHashMap.KeySetView;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
  * WhatsappStore manages all session-scoped data and state for WhatsApp client connections.
@@ -793,6 +803,97 @@ public final class WhatsAppStore implements SignalProtocolStore {
     @ProtobufProperty(index = 65, type = ProtobufType.MESSAGE)
     Version companionVersion;
 
+    /**
+     * Versions of the groups and communities this account participates in.
+     * <p>
+     * A version is a fingerprint of the summary of a group returned by the server: the metadata of a group
+     * is fetched again during a sync only if its version changed.
+     *
+     * @see #findGroupOrCommunityVersion(Jid)
+     */
+    @ProtobufProperty(index = 66, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.INT64)
+    final ConcurrentMap<Jid, Long> groupOrCommunityVersions;
+
+    /**
+     * The first generation of the Signal key log that isn't included in this snapshot.
+     * <p>
+     * Sessions, sender keys and pre keys may be persisted by the serializer in a log,
+     * separately from the rest of the store: only the generations of the log starting from this one
+     * are replayed when the store is loaded.
+     *
+     * @see WhatsappStoreSerializer#serializeSignalKeys(WhatsAppStore, boolean)
+     */
+    @ProtobufProperty(index = 67, type = ProtobufType.INT64)
+    volatile long signalKeyLogGeneration;
+
+    /**
+     * Whether the messages of this store are indexed for full-text search.
+     * <p>
+     * When true: messages are indexed as they are added to a chat, and can be searched via {@link #searchMessages(MessageSearchQuery)}.
+     * When false: no index is kept in memory or persisted.
+     * Default: false
+     */
+    @ProtobufProperty(index = 68, type = ProtobufType.BOOL)
+    volatile boolean messageSearch;
+
+    /**
+     * The log of the changes to this store, or null if change capture is disabled.
+     * <p>
+     * When present: inserts, updates and deletions of chats, messages, contacts, groups, labels and settings are recorded,
+     * see {@link #changeLog()}.
+     * Default: null
+     */
+    @ProtobufProperty(index = 69, type = ProtobufType.MESSAGE)
+    volatile StoreChangeLog changeLog;
+
+    /**
+     * LID to phone number JID mappings for the LID migration system.
+     * <p>
+     * Thread-safe map that enables reverse lookups from LID to phone number.
+     * Keeps the mappings of the LIDs that a user had before changing it,
+     * so that messages addressed to an old LID can still be resolved.
+     * Used for contact resolution when receiving messages with LID addressing.
+     */
+    @ProtobufProperty(index = 70, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.STRING)
+    final ConcurrentHashMap<Jid, Jid> lidToPhoneMappings;
+
+    /**
+     * Phone number JID to LID mappings for the LID migration system.
+     * <p>
+     * Thread-safe map that enables lookups from phone number to the current LID of a user.
+     */
+    @ProtobufProperty(index = 71, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.STRING)
+    final ConcurrentHashMap<Jid, Jid> phoneToLidMappings;
+
+    /**
+     * Whether the messages of this store that weren't read are kept off the heap.
+     * <p>
+     * When true: the encoded messages of the chats in this store are moved to {@link #messageBodyStorage},
+     * and only the ones that were read most recently are kept decoded on the heap.
+     * When false: messages are kept on the heap, and stay decoded once they are read.
+     * Default: false
+     */
+    @ProtobufProperty(index = 72, type = ProtobufType.BOOL)
+    volatile boolean offHeapMessages;
+
+    /**
+     * The about and the profile picture of users and groups, indexed by jid.
+     * <p>
+     * Serialized so that {@link ContactProfileService} can revalidate the pictures using their id across sessions,
+     * instead of querying again the url of every picture after a restart.
+     */
+    @ProtobufProperty(index = 73, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.MESSAGE)
+    final ConcurrentHashMap<Jid, ContactProfile> contactProfiles;
+
+    /**
+     * The results of contact discovery queries, indexed by phone number jid.
+     * <p>
+     * Serialized so that {@link ContactDiscoveryService} doesn't query again the contacts it checked before a restart.
+     * Results that expired are dropped when the store is deserialized, and evicted by {@link ContactDiscoveryService} before every query.
+     */
+    @ProtobufProperty(index = 74, type = ProtobufType.MAP, mapKeyType = ProtobufType.STRING, mapValueType = ProtobufType.MESSAGE)
+    final ConcurrentHashMap<Jid, ContactDiscoveryResult> contactDiscoveryResults;
+
     // =====================================================
     // SECTION: Runtime State (Non-Serialized)
     // =====================================================
@@ -817,6 +918,26 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     private boolean serializable;
 
+    /**
+     * Signal keys that changed since they were last persisted by the serializer.
+     * <p>
+     * Serializers that persist Signal keys separately from the rest of the store consume them,
+     * see {@link WhatsappStoreSerializer#serializeSignalKeys(WhatsAppStore, boolean)}.
+     * Otherwise, they are bounded by the number of keys.
+     */
+    final Set<SignalProtocolAddress> changedSessions;
+    final Set<SignalSenderKeyName> changedSenderKeys;
+    final Set<Integer> changedPreKeys;
+
+    /**
+     * Messages that were added, changed or removed since they were last persisted by the serializer.
+     * <p>
+     * They are recorded only after a serializer that persists messages on their own calls {@link #trackMessageChanges()},
+     * and that serializer consumes them: otherwise, they would grow with every message.
+     */
+    final Set<ChangedMessage> changedMessages;
+    private volatile boolean messageChangesTracked;
+
     /**
      * Registered event listeners for this session.
      * <p>
@@ -830,21 +951,58 @@ public final class WhatsAppStore implements SignalProtocolStore {
     private final KeySetView<WhatsAppClientListener, Boolean> listeners;
 
     /**
-     * LID to phone number JID mappings for the LID migration system.
+     * Index of the chats in this store by every address they can be found by.
      * <p>
-     * Thread-safe map that enables reverse lookups from LID to phone number.
-     * Not serialized - rebuilt from contacts on session restoration.
-     * Used for contact resolution when receiving messages with LID addressing.
+     * A one-to-one chat is listed under both the phone number and the LID of its peer,
+     * so that {@link #findChatByJid(JidProvider)} resolves either of them with a single lookup.
+     * If a chat exists for both addresses, each address is listed with its own chat.
+     * Not serialized - rebuilt as chats are added and LID mappings are registered.
      */
-    private final ConcurrentHashMap<Jid, Jid> lidToPhoneMappings;
+    private final ConcurrentHashMap<Jid, Chat> chatAddresses;
 
     /**
-     * Phone number JID to LID mappings for the LID migration system.
+     * Index of the contacts in this store by every address they can be found by.
+     * <p>
+     * Not serialized - rebuilt as contacts are added and LID mappings are registered.
+     *
+     * @see #chatAddresses
+     */
+    private final ConcurrentHashMap<Jid, Contact> contactAddresses;
+
+    /**
+     * Index of the names of the contacts in this store.
      * <p>
-     * Thread-safe map that enables lookups from phone number to LID.
      * Not serialized - rebuilt from contacts on session restoration.
+     * Updated when a contact is added or removed.
+     *
+     * @see #findContactsByName(String)
+     */
+    private final NameTrie contactNames;
+
+    /**
+     * Index of the names of the chats in this store.
+     * <p>
+     * Not serialized - rebuilt as chats are restored.
+     * Updated when a chat is added or removed.
+     *
+     * @see #findChatsByName(String)
+     */
+    private final NameTrie chatNames;
+
+    /**
+     * Index of the phone number JIDs of the contacts and chats in this store, including the ones known through a LID mapping.
+     * A phone number is unlisted when the last contact or chat stored under it is removed.
+     * <p>
+     * Not serialized - rebuilt from contacts and chats on session restoration.
+     *
+     * @see #findContactByPhoneNumber(String)
+     */
+    private final PhoneNumberIndex phoneNumbers;
+
+    /**
+     * Serializes the updates of {@link #phoneNumbers}, which depend on both {@link #contactAddresses} and {@link #chatAddresses}.
      */
-    private final ConcurrentHashMap<Jid, Jid> phoneToLidMappings;
+    private final ReentrantLock phoneNumbersLock;
 
     /**
      * Active media connection for uploading/downloading media files.
@@ -888,6 +1046,42 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     private final ConcurrentMap<Jid, SequencedCollection<Jid>> deviceLists;
 
+    /**
+     * Metrics recorded by this session.
+     * <p>
+     * Not serialized - counters start from zero on each session restoration.
+     *
+     * @see WhatsAppClientMetrics
+     */
+    private final WhatsAppClientMetrics metrics;
+
+    /**
+     * Full-text index of the messages of the chats in this store, or null if search is disabled.
+     * <p>
+     * Kept up to date by {@link #messagesListener}.
+     *
+     * @see #setMessageSearch(boolean)
+     */
+    private volatile MessageSearchIndex messageSearchIndex;
+
+    /**
+     * Off-heap storage of the encoded messages of the chats in this store, or null if off-heap messages are disabled.
+     *
+     * @see #setOffHeapMessages(boolean)
+     */
+    private volatile MessageBodyStorage messageBodyStorage;
+
+    /**
+     * The storage set by {@link #setMessageBodyStorage(MessageBodyStorage)}, used instead of a new one when off-heap messages are enabled.
+     */
+    private volatile MessageBodyStorage sharedMessageBodyStorage;
+
+    /**
+     * Forwards the changes to the messages of a chat to {@link #messageSearchIndex} and {@link #changeLog}.
+     * Attached to every chat in this store.
+     */
+    private final ChatMessagesListener messagesListener;
+
     // =====================================================
     // SECTION: Constructor & Factory Methods
     // =====================================================
@@ -959,7 +1153,16 @@ public final class WhatsAppStore implements SignalProtocolStore {
             ConcurrentMap<String, QuickReply> quickReplies,
             ConcurrentMap<Integer, Label> labels,
             Version clientVersion,
-            Version companionVersion
+            Version companionVersion,
+            ConcurrentMap<Jid, Long> groupOrCommunityVersions,
+            long signalKeyLogGeneration,
+            boolean messageSearch,
+            StoreChangeLog changeLog,
+            ConcurrentHashMap<Jid, Jid> lidToPhoneMappings,
+            ConcurrentHashMap<Jid, Jid> phoneToLidMappings,
+            boolean offHeapMessages,
+            ConcurrentHashMap<Jid, ContactProfile> contactProfiles,
+            ConcurrentHashMap<Jid, ContactDiscoveryResult> contactDiscoveryResults
     ) {
         this.uuid = Objects.requireNonNull(uuid, "uuid cannot be null");
         this.phoneNumber = phoneNumber; 
@@ -1007,11 +1210,17 @@ public final class WhatsAppStore implements SignalProtocolStore {
         this.newsletters = new ConcurrentHashMap<>();
         this.status = new ConcurrentHashMap<>();
         this.listeners = ConcurrentHashMap.newKeySet();
-        this.lidToPhoneMappings = new ConcurrentHashMap<>();
-        this.phoneToLidMappings = new ConcurrentHashMap<>();
+        this.lidToPhoneMappings = Objects.requireNonNullElseGet(lidToPhoneMappings, ConcurrentHashMap::new);
+        this.phoneToLidMappings = Objects.requireNonNullElseGet(phoneToLidMappings, ConcurrentHashMap::new);
+        this.chatAddresses = new ConcurrentHashMap<>();
+        this.contactAddresses = new ConcurrentHashMap<>();
+        this.contactNames = new NameTrie();
+        this.chatNames = new NameTrie();
+        this.phoneNumbers = new PhoneNumberIndex();
+        this.phoneNumbersLock = new ReentrantLock();
+        registerLidMapping(jid, lid);
         for (var contact : contacts.values()) {
-            contact.lid()
-                    .ifPresent(entry -> registerLidMapping(contact.jid(), entry));
+            indexContact(contact);
         }
         this.registrationId = Objects.requireNonNullElseGet(registrationId, () -> SecureBytes.nextInt(16380) + 1);
         this.noiseKeyPair = Objects.requireNonNullElseGet(noiseKeyPair, SignalIdentityKeyPair::random);
@@ -1035,11 +1244,28 @@ public final class WhatsAppStore implements SignalProtocolStore {
         this.clientVersion = clientVersion;
         this.clientVersionLock = new Object();
         this.companionVersion = companionVersion;
+        this.groupOrCommunityVersions = groupOrCommunityVersions;
+        this.signalKeyLogGeneration = signalKeyLogGeneration;
+        this.messageSearch = messageSearch;
+        this.changeLog = changeLog;
+        this.messagesListener = new StoreMessagesListener();
+        this.messageSearchIndex = messageSearch ? new MessageSearchIndex() : null;
+        this.offHeapMessages = offHeapMessages;
+        this.messageBodyStorage = offHeapMessages ? new MessageBodyStorage() : null;
+        this.changedSessions = ConcurrentHashMap.newKeySet();
+        this.changedSenderKeys = ConcurrentHashMap.newKeySet();
+        this.changedPreKeys = ConcurrentHashMap.newKeySet();
+        this.changedMessages = ConcurrentHashMap.newKeySet();
         this.webAppStatePendingMutations = new ConcurrentHashMap<>();
         this.webAppStateCollections = new ConcurrentHashMap<>();
         this.serializable = true;
         this.groupOrCommunityMetadata = new ConcurrentHashMap<>();
         this.deviceLists = new ConcurrentHashMap<>();
+        this.contactDiscoveryResults = Objects.requireNonNullElseGet(contactDiscoveryResults, ConcurrentHashMap::new);
+        var now = Clock.nowMilliseconds();
+        this.contactDiscoveryResults.values().removeIf(result -> result.isExpired(now));
+        this.contactProfiles = Objects.requireNonNullElseGet(contactProfiles, ConcurrentHashMap::new);
+        this.metrics = new WhatsAppClientMetrics();
     }
 
     // =====================================================
@@ -1106,6 +1332,42 @@ public final class WhatsAppStore implements SignalProtocolStore {
         return this;
     }
 
+    /**
+     * Persists the Signal keys of this store that changed since they were last persisted,
+     * and waits until they are durable.
+     * <p>
+     * Must be called before sending a message encrypted using this store's sessions or sender keys,
+     * so that a crash can't restore a ratchet state older than the one used by a message that was already sent.
+     *
+     * @return this store instance for method chaining
+     */
+    public WhatsAppStore serializeSignalKeys() {
+        if (serializable && serializer != null) {
+            serializer.serializeSignalKeys(this, true);
+        }
+        return this;
+    }
+
+    // Called after a Signal key is marked as changed, so that the serializer can persist it in the background
+    private void onSignalKeyChanged() {
+        if (serializable && serializer != null) {
+            serializer.serializeSignalKeys(this, false);
+        }
+    }
+
+    /**
+     * Returns a future that completes when a subsystem of this store has been loaded by its serializer.
+     * <p>
+     * Stores that weren't deserialized, or whose serializer loads everything synchronously,
+     * return an already completed future.
+     *
+     * @param subsystem the subsystem to await
+     * @return a future that completes when the subsystem is available
+     */
+    public CompletableFuture<Void> whenDeserialized(WhatsAppStoreSubsystem subsystem) {
+        return serializer().whenDeserialized(this, subsystem);
+    }
+
     // =====================================================
     // SECTION: Contact Management
     // =====================================================
@@ -1113,8 +1375,9 @@ public final class WhatsAppStore implements SignalProtocolStore {
     /**
      * Finds a contact by either phone number JID or LID.
      * <p>
-     * First attempts direct lookup by the provided JID, then tries
-     * the alternate addressing mode if the first lookup fails.
+     * A contact stored under a phone number can be found by its LID, and the other way around,
+     * as long as the mapping between the two was registered.
+     * The lookup is a single probe of an index that lists every contact under all of its addresses.
      *
      * @param jid the JID to search for (phone or LID)
      * @return Optional containing the contact if found
@@ -1123,29 +1386,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
         return switch (jid) {
             case Contact contact -> Optional.of(contact);
             case null -> Optional.empty();
-            case Chat _, Newsletter _, Jid _, JidServer _-> {
-                var targetJid = jid.toJid();
-                if(targetJid.hasUserServer()) {
-                    var jidContact = contacts.get(targetJid);
-                    if(jidContact != null) {
-                        yield Optional.of(jidContact);
-                    } else {
-                        yield findLidByPhone(targetJid)
-                                .map(contacts::get);
-                    }
-                } else if(targetJid.hasLidServer()) {
-                    var lidContact = contacts.get(targetJid);
-                    if(lidContact != null) {
-                        yield Optional.of(lidContact);
-                    } else {
-                        yield findPhoneByLid(targetJid)
-                                .map(contacts::get);
-                    }
-                } else {
-                    var contact = contacts.get(targetJid);
-                    yield Optional.ofNullable(contact);
-                }
-            }
+            case Chat _, Newsletter _, Jid _, JidServer _-> Optional.ofNullable(contactAddresses.get(jid.toJid().withoutData()));
         };
     }
 
@@ -1181,6 +1422,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
      * Adds or updates a contact in the store.
      * <p>
      * If a contact with the same JID already exists, it will be replaced with the new one.
+     * The secondary indexes of the store are updated with the names, phone number and LID of the contact:
+     * a contact whose names or LID were changed through its setters must be added again to be found by them.
      *
      * @param contact the contact to add or update, must not be null
      * @return the contact that was added (same as parameter)
@@ -1188,10 +1431,19 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public Contact addContact(Contact contact) {
         Objects.requireNonNull(contact, "contact cannot be null");
-        contacts.put(contact.jid(), contact);
+        var oldContact = contacts.put(contact.jid(), contact);
+        indexContact(contact);
+        recordChange(oldContact == null ? StoreChange.Operation.INSERT : StoreChange.Operation.UPDATE, StoreChange.Entity.CONTACT, contact.jid().toString(), null);
         return contact;
     }
 
+    private void indexContact(Contact contact) {
+        contact.lid()
+                .ifPresent(entry -> registerLidMapping(contact.jid(), entry));
+        indexAddresses(contacts, contactAddresses, contact.jid());
+        contactNames.put(contact.jid(), contact.chosenName().orElse(null), contact.fullName().orElse(null), contact.shortName().orElse(null));
+    }
+
     /**
      * Removes a contact from the store.
      *
@@ -1202,30 +1454,91 @@ public final class WhatsAppStore implements SignalProtocolStore {
         if(contactJid == null) {
             return Optional.empty();
         } else {
-            var targetJid = jid.toJid();
-            if(targetJid.hasUserServer()) {
-                var jidContact = contacts.remove(targetJid);
-                if(jidContact != null) {
-                    return Optional.of(jidContact);
-                } else {
-                    return findLidByPhone(targetJid)
-                            .map(contacts::remove);
-                }
-            } else if(targetJid.hasLidServer()) {
-                var lidContact = contacts.remove(targetJid);
-                if(lidContact != null) {
-                    return Optional.of(lidContact);
-                } else {
-                    return findPhoneByLid(targetJid)
-                            .map(contacts::remove);
-                }
-            } else {
-                var chat = contacts.remove(targetJid);
-                return Optional.ofNullable(chat);
-            }
+            var result = Optional.ofNullable(contactAddresses.get(contactJid.toJid().withoutData()))
+                    .filter(contact -> contacts.remove(contact.jid(), contact));
+            result.ifPresent(contact -> {
+                indexAddresses(contacts, contactAddresses, contact.jid());
+                contactNames.remove(contact.jid());
+                recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.CONTACT, contact.jid().toString(), null);
+            });
+            return result;
         }
     }
 
+    /**
+     * Finds the contacts whose names contain words starting with every word of a query.
+     * <p>
+     * The chosen, full and short names of a contact are matched, ignoring case, diacritics and word order:
+     * for example, {@code "jo sm"} matches a contact named {@code "John Smith"}.
+     *
+     * @param query the query, must not be null
+     * @return a non-null list of contacts sorted by name
+     * @throws NullPointerException if query is null
+     */
+    public List<Contact> findContactsByName(String query) {
+        Objects.requireNonNull(query, "query cannot be null");
+        return toSortedContacts(contactNames.findByPrefix(query));
+    }
+
+    /**
+     * Finds the contacts whose names contain words that are at most the given number of edits away from every word of a query.
+     * <p>
+     * An edit is the insertion, deletion or substitution of a character: this lookup tolerates typos and alternative spellings,
+     * but, unlike {@link #findContactsByName(String)}, matches whole words.
+     *
+     * @param query    the query, must not be null
+     * @param maxEdits the maximum number of edits for each word, usually 1 or 2
+     * @return a non-null list of contacts sorted by name
+     * @throws NullPointerException     if query is null
+     * @throws IllegalArgumentException if maxEdits is negative
+     */
+    public List<Contact> findContactsByName(String query, int maxEdits) {
+        Objects.requireNonNull(query, "query cannot be null");
+        return toSortedContacts(contactNames.findApproximate(query, maxEdits));
+    }
+
+    private List<Contact> toSortedContacts(Set<Jid> jids) {
+        return jids.stream()
+                .map(contacts::get)
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Contact::name, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+    }
+
+    /**
+     * Finds a contact by its phone number.
+     * <p>
+     * The phone number must be in international format, but can be formatted:
+     * for example, {@code "+1 (650) 555-0100"}, {@code "0016505550100"} and {@code "16505550100"} are equivalent.
+     * Contacts addressed by LID are found through their LID mapping.
+     *
+     * @param phoneNumber the phone number, must not be null
+     * @return Optional containing the contact if found
+     * @throws NullPointerException if phoneNumber is null
+     */
+    public Optional<Contact> findContactByPhoneNumber(String phoneNumber) {
+        Objects.requireNonNull(phoneNumber, "phoneNumber cannot be null");
+        return phoneNumbers.find(phoneNumber)
+                .flatMap(this::findContactByJid);
+    }
+
+    /**
+     * Finds the contacts whose phone number starts with a prefix, in international format.
+     *
+     * @param prefix the prefix, must not be null
+     * @return a non-null list of contacts sorted by phone number
+     * @throws NullPointerException if prefix is null
+     */
+    public List<Contact> findContactsByPhoneNumberPrefix(String prefix) {
+        Objects.requireNonNull(prefix, "prefix cannot be null");
+        return phoneNumbers.findByPrefix(prefix)
+                .stream()
+                .map(this::findContactByJid)
+                .flatMap(Optional::stream)
+                .distinct()
+                .toList();
+    }
+
     // =====================================================
     // SECTION: LID Migration Support
     // =====================================================
@@ -1235,6 +1548,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
      * <p>
      * This creates bidirectional mappings between phone number JID and LID
      * to enable lookups in both directions during LID migration.
+     * The mappings are persisted with the store, and the chats and contacts stored under either address
+     * are indexed under the other one as well, so that they can be found by it.
      *
      * @param phoneJid the phone number JID
      * @param lidJid the LID JID
@@ -1245,8 +1560,77 @@ public final class WhatsAppStore implements SignalProtocolStore {
         }
         var normalizedPhone = phoneJid.withoutData();
         var normalizedLid = lidJid.withoutData();
-        lidToPhoneMappings.put(normalizedLid, normalizedPhone);
-        phoneToLidMappings.put(normalizedPhone, normalizedLid);
+        var previousPhone = lidToPhoneMappings.put(normalizedLid, normalizedPhone);
+        var previousLid = phoneToLidMappings.put(normalizedPhone, normalizedLid);
+        if (!normalizedPhone.equals(previousPhone) || !normalizedLid.equals(previousLid)) {
+            reindexAddresses(normalizedPhone);
+            reindexAddresses(normalizedLid);
+            if (previousPhone != null && !previousPhone.equals(normalizedPhone)) {
+                reindexAddresses(previousPhone);
+            }
+        }
+    }
+
+    // Recomputes the entries of the address indexes for a jid, after the entity stored under it, or under its other address, changed
+    private void reindexAddresses(Jid jid) {
+        indexAddresses(chats, chatAddresses, jid);
+        indexAddresses(contacts, contactAddresses, jid);
+    }
+
+    // Lists a jid and, for users, its other address under the entity stored with either of them as key
+    private <T> void indexAddresses(Map<Jid, T> entries, ConcurrentMap<Jid, T> addresses, Jid jid) {
+        indexAddress(entries, addresses, jid);
+        var alternateJid = findAlternateAddress(jid);
+        if (alternateJid != null) {
+            indexAddress(entries, addresses, alternateJid);
+        }
+    }
+
+    // The entry of an address is computed atomically from the entities stored when it runs, instead of being put or removed,
+    // so that concurrent updates of the same address leave the entry computed by the last one, which saw the last entity stored
+    private <T> void indexAddress(Map<Jid, T> entries, ConcurrentMap<Jid, T> addresses, Jid jid) {
+        addresses.compute(jid, (_, _) -> {
+            var entry = entries.get(jid);
+            if (entry != null) {
+                return entry;
+            }
+
+            var alternateJid = findAlternateAddress(jid);
+            return alternateJid != null ? entries.get(alternateJid) : null;
+        });
+        indexPhoneNumber(jid);
+    }
+
+    // Lists a phone number while a contact or a chat is stored under it, or under its LID, and unlists it after the last one is removed
+    // The check and the update are atomic, so that a removal that saw no entity can't unlist a number that was listed after
+    private void indexPhoneNumber(Jid jid) {
+        if (!jid.hasUserServer()) {
+            return;
+        }
+
+        phoneNumbersLock.lock();
+        try {
+            if (contactAddresses.containsKey(jid) || chatAddresses.containsKey(jid)) {
+                phoneNumbers.put(jid);
+            } else {
+                phoneNumbers.remove(jid);
+            }
+        } finally {
+            phoneNumbersLock.unlock();
+        }
+    }
+
+    private Jid findAlternateAddress(Jid jid) {
+        if (jid.hasUserServer()) {
+            return findLidByPhone(jid)
+                    .map(Jid::withoutData)
+                    .orElse(null);
+        } else if (jid.hasLidServer()) {
+            return findPhoneByLid(jid)
+                    .orElse(null);
+        } else {
+            return null;
+        }
     }
 
     /**
@@ -1286,6 +1670,10 @@ public final class WhatsAppStore implements SignalProtocolStore {
 
     /**
      * Finds a chat by its JID.
+     * <p>
+     * A one-to-one chat stored under a phone number can be found by the LID of its peer, and the other way around,
+     * as long as the mapping between the two was registered.
+     * The lookup is a single probe of an index that lists every chat under all of its addresses.
      *
      * @param jid the JID to search for, may be null
      * @return Optional containing the chat if found, empty otherwise
@@ -1294,29 +1682,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
         return switch (jid) {
             case null -> Optional.empty();
             case Chat chat -> Optional.of(chat);
-            case Contact _, Newsletter _, Jid _, JidServer _-> {
-                var targetJid = jid.toJid();
-                if(targetJid.hasUserServer()) {
-                    var jidChat = chats.get(targetJid);
-                    if(jidChat != null) {
-                        yield Optional.of(jidChat);
-                    } else {
-                        yield findLidByPhone(targetJid)
-                                .map(chats::get);
-                    }
-                } else if(targetJid.hasLidServer()) {
-                    var lidChat = chats.get(targetJid);
-                    if(lidChat != null) {
-                        yield Optional.of(lidChat);
-                    } else {
-                        yield findPhoneByLid(targetJid)
-                                .map(chats::get);
-                    }
-                } else {
-                    var chat = chats.get(targetJid);
-                    yield Optional.ofNullable(chat);
-                }
-            }
+            case Contact _, Newsletter _, Jid _, JidServer _-> Optional.ofNullable(chatAddresses.get(jid.toJid().withoutData()));
         };
     }
 
@@ -1391,6 +1757,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
      * Adds or updates a chat in the store.
      * <p>
      * If a chat with the same JID already exists, it will be replaced.
+     * The secondary indexes of the store are updated with the name, phone number and LID of the chat:
+     * a chat whose name was changed through its setters must be added again to be found by it.
      *
      * @param chat the chat to add or update, must not be null
      * @return the chat that was added (same as parameter)
@@ -1398,10 +1766,116 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public Chat addChat(Chat chat) {
         Objects.requireNonNull(chat, "chat cannot be null");
-        chats.put(chat.jid(), chat);
+        var oldChat = putChat(chat);
+        if (oldChat != chat) {
+            // The messages that the chat already holds aren't notified by its listener
+            markMessagesChanged(chat.jid(), null);
+        }
+        recordChange(oldChat == null ? StoreChange.Operation.INSERT : StoreChange.Operation.UPDATE, StoreChange.Entity.CHAT, chat.jid().toString(), null);
         return chat;
     }
 
+    /**
+     * Adds a chat that was deserialized to the store.
+     * Unlike {@link #addChat(Chat)}, the chat isn't recorded in the {@link #changeLog()}, as it was already there when it was persisted.
+     *
+     * @param chat the chat to add, must not be null
+     * @throws NullPointerException if chat is null
+     */
+    void restoreChat(Chat chat) {
+        Objects.requireNonNull(chat, "chat cannot be null");
+        putChat(chat);
+    }
+
+    private Chat putChat(Chat chat) {
+        var oldChat = chats.put(chat.jid(), chat);
+        indexAddresses(chats, chatAddresses, chat.jid());
+        indexChat(chat);
+        if (oldChat != chat) {
+            if (oldChat != null) {
+                oldChat.setMessagesListener(null);
+            }
+            chat.setMessagesListener(messagesListener);
+            var storage = messageBodyStorage;
+            if (storage != null) {
+                moveMessagesTo(chat, storage);
+            }
+            var index = messageSearchIndex;
+            if (index != null) {
+                if (oldChat != null) {
+                    index.removeChat(oldChat.jid());
+                }
+                index.addChat(chat);
+            }
+        }
+        return oldChat;
+    }
+
+    private void indexChat(Chat chat) {
+        var chatJid = chat.jid();
+        var name = chat.name();
+        chatNames.put(chatJid, Objects.equals(name, chatJid.user()) ? null : name);
+        if (chatJid.hasUserServer()) {
+            chat.lidJid()
+                    .ifPresent(lidJid -> registerLidMapping(chatJid, lidJid));
+        } else if (chatJid.hasLidServer()) {
+            chat.phoneJid()
+                    .ifPresent(phoneJid -> registerLidMapping(phoneJid, chatJid));
+        }
+    }
+
+    /**
+     * Finds the chats whose names contain words starting with every word of a query.
+     * <p>
+     * Names are matched ignoring case, diacritics and word order.
+     *
+     * @param query the query, must not be null
+     * @return a non-null list of chats sorted by name
+     * @throws NullPointerException if query is null
+     * @see #findContactsByName(String)
+     */
+    public List<Chat> findChatsByName(String query) {
+        Objects.requireNonNull(query, "query cannot be null");
+        return toSortedChats(chatNames.findByPrefix(query));
+    }
+
+    /**
+     * Finds the chats whose names contain words that are at most the given number of edits away from every word of a query.
+     *
+     * @param query    the query, must not be null
+     * @param maxEdits the maximum number of edits for each word, usually 1 or 2
+     * @return a non-null list of chats sorted by name
+     * @throws NullPointerException     if query is null
+     * @throws IllegalArgumentException if maxEdits is negative
+     * @see #findContactsByName(String, int)
+     */
+    public List<Chat> findChatsByName(String query, int maxEdits) {
+        Objects.requireNonNull(query, "query cannot be null");
+        return toSortedChats(chatNames.findApproximate(query, maxEdits));
+    }
+
+    private List<Chat> toSortedChats(Set<Jid> jids) {
+        return jids.stream()
+                .map(chats::get)
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Chat::name, String.CASE_INSENSITIVE_ORDER))
+                .toList();
+    }
+
+    /**
+     * Finds a chat by the phone number of the contact it's with.
+     *
+     * @param phoneNumber the phone number in international format, must not be null
+     * @return Optional containing the chat if found
+     * @throws NullPointerException if phoneNumber is null
+     * @see #findContactByPhoneNumber(String)
+     */
+    public Optional<Chat> findChatByPhoneNumber(String phoneNumber) {
+        Objects.requireNonNull(phoneNumber, "phoneNumber cannot be null");
+        return phoneNumbers.find(phoneNumber)
+                .flatMap(this::findChatByJid);
+    }
+
     /**
      * Adds a chat in memory
      *
@@ -1428,28 +1902,65 @@ public final class WhatsAppStore implements SignalProtocolStore {
         if(chatJid == null) {
             return Optional.empty();
         } else {
-            var targetJid = jid.toJid();
-            if(targetJid.hasUserServer()) {
-                var jidChat = chats.remove(targetJid);
-                if(jidChat != null) {
-                    return Optional.of(jidChat);
-                } else {
-                    return findLidByPhone(targetJid)
-                            .map(chats::remove);
+            var result = Optional.ofNullable(chatAddresses.get(chatJid.toJid().withoutData()))
+                    .filter(chat -> chats.remove(chat.jid(), chat));
+            result.ifPresent(chat -> {
+                indexAddresses(chats, chatAddresses, chat.jid());
+                chatNames.remove(chat.jid());
+                chat.setMessagesListener(null);
+                var index = messageSearchIndex;
+                if (index != null) {
+                    index.removeChat(chat.jid());
                 }
-            } else if(targetJid.hasLidServer()) {
-                var lidChat = chats.remove(targetJid);
-                if(lidChat != null) {
-                    return Optional.of(lidChat);
-                } else {
-                    return findPhoneByLid(targetJid)
-                            .map(chats::remove);
-                }
-            } else {
-                var chat = chats.remove(targetJid);
-                return Optional.ofNullable(chat);
+                recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.CHAT, chat.jid().toString(), null);
+            });
+            return result;
+        }
+    }
+
+    /**
+     * Merges a chat into another one, for example the chat addressed by the phone number of a user into the chat addressed by their LID.
+     * <p>
+     * The messages of the source chat that the target chat doesn't have are moved to it, with their keys rewritten to the JID of the target chat,
+     * and the source chat is removed from the store.
+     * The unread messages and the timestamps of the two chats are combined,
+     * and a target chat addressed by LID keeps the JID of a source chat addressed by phone number as its phone number.
+     *
+     * @param source the chat to merge, must not be null
+     * @param target the chat to merge into, must not be null
+     * @return the target chat
+     * @throws NullPointerException     if source or target is null
+     * @throws IllegalArgumentException if source and target are the same chat
+     */
+    public Chat mergeChat(Chat source, Chat target) {
+        Objects.requireNonNull(source, "source cannot be null");
+        Objects.requireNonNull(target, "target cannot be null");
+        if (source == target) {
+            throw new IllegalArgumentException("Cannot merge a chat into itself");
+        }
+
+        removeChat(source);
+        var messages = new ArrayList<ChatMessageInfo>();
+        for (var message : source.messages()) {
+            if (target.getMessageById(message.id()).isPresent()) {
+                continue;
             }
+
+            message.key().setChatJid(target.jid());
+            message.setChat(target);
+            messages.add(message);
+        }
+        // The messages of the source can be older than the ones of the target, so they aren't appended
+        target.addMessagesSorted(messages);
+        target.setUnreadMessagesCount(target.unreadMessagesCount() + source.unreadMessagesCount());
+        target.setTimestampSeconds(Math.max(target.timestampSeconds(), source.timestampSeconds()));
+        if (!target.hasName() && source.hasName()) {
+            target.setName(source.name());
+        }
+        if (target.jid().hasLidServer() && source.jid().hasUserServer() && target.phoneJid().isEmpty()) {
+            target.setPhoneJid(source.jid());
         }
+        return addChat(target);
     }
 
     public ChatMessageInfo addStatus(ChatMessageInfo messageInfo) {
@@ -1703,6 +2214,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setLocale(String locale) {
         this.locale = locale;
+        recordSettingChange("locale");
         return this;
     }
 
@@ -1723,6 +2235,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setName(String name) {
         this.name = name;
+        recordSettingChange("name");
         return this;
     }
 
@@ -1743,6 +2256,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setVerifiedName(String verifiedName) {
         this.verifiedName = verifiedName;
+        recordSettingChange("verifiedName");
         return this;
     }
 
@@ -1763,6 +2277,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setProfilePicture(URI profilePicture) {
         this.profilePicture = profilePicture;
+        recordSettingChange("profilePicture");
         return this;
     }
 
@@ -1783,6 +2298,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setAbout(String about) {
         this.about = about;
+        recordSettingChange("about");
         return this;
     }
 
@@ -1803,6 +2319,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setJid(Jid jid) {
         this.jid = jid;
+        registerLidMapping(jid, lid);
         return this;
     }
 
@@ -1823,6 +2340,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setLid(Jid lid) {
         this.lid = lid;
+        registerLidMapping(jid, lid);
         return this;
     }
 
@@ -1843,6 +2361,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessAddress(String businessAddress) {
         this.businessAddress = businessAddress;
+        recordSettingChange("businessAddress");
         return this;
     }
 
@@ -1863,6 +2382,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessLongitude(Double businessLongitude) {
         this.businessLongitude = businessLongitude;
+        recordSettingChange("businessLongitude");
         return this;
     }
 
@@ -1883,6 +2403,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessLatitude(Double businessLatitude) {
         this.businessLatitude = businessLatitude;
+        recordSettingChange("businessLatitude");
         return this;
     }
 
@@ -1903,6 +2424,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessDescription(String businessDescription) {
         this.businessDescription = businessDescription;
+        recordSettingChange("businessDescription");
         return this;
     }
 
@@ -1923,6 +2445,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessWebsite(String businessWebsite) {
         this.businessWebsite = businessWebsite;
+        recordSettingChange("businessWebsite");
         return this;
     }
 
@@ -1943,6 +2466,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessEmail(String businessEmail) {
         this.businessEmail = businessEmail;
+        recordSettingChange("businessEmail");
         return this;
     }
 
@@ -1963,6 +2487,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setBusinessCategory(BusinessCategory businessCategory) {
         this.businessCategory = businessCategory;
+        recordSettingChange("businessCategory");
         return this;
     }
 
@@ -2019,6 +2544,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setUnarchiveChats(boolean unarchiveChats) {
         this.unarchiveChats = unarchiveChats;
+        recordSettingChange("unarchiveChats");
         return this;
     }
 
@@ -2039,6 +2565,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setTwentyFourHourFormat(boolean twentyFourHourFormat) {
         this.twentyFourHourFormat = twentyFourHourFormat;
+        recordSettingChange("twentyFourHourFormat");
         return this;
     }
 
@@ -2068,6 +2595,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public WhatsAppStore setNewChatsEphemeralTimer(ChatEphemeralTimer newChatsEphemeralTimer) {
         this.newChatsEphemeralTimer = Objects.requireNonNull(newChatsEphemeralTimer, "newChatsEphemeralTimer cannot be null");
+        recordSettingChange("newChatsEphemeralTimer");
         return this;
     }
 
@@ -2131,6 +2659,260 @@ public final class WhatsAppStore implements SignalProtocolStore {
         return this;
     }
 
+    /**
+     * Returns whether the messages of this store are indexed for full-text search.
+     *
+     * @return true if enabled, false otherwise
+     */
+    public boolean messageSearch() {
+        return messageSearch;
+    }
+
+    /**
+     * Sets whether the messages of this store are indexed for full-text search.
+     * <p>
+     * Enabling search indexes the messages already in the store, which may take a while for large stores.
+     * Disabling it drops the index.
+     *
+     * @param messageSearch true to enable, false to disable
+     * @return this store instance for method chaining
+     */
+    public WhatsAppStore setMessageSearch(boolean messageSearch) {
+        this.messageSearch = messageSearch;
+        if (!messageSearch) {
+            setMessageSearchIndex(null);
+        } else if (messageSearchIndex == null) {
+            setMessageSearchIndex(new MessageSearchIndex());
+        }
+        return this;
+    }
+
+    /**
+     * Searches the messages of the chats in this store.
+     * <p>
+     * Newsletter messages are not indexed.
+     *
+     * @param query the query, must not be null
+     * @return a non-null list of the messages that match, from the newest to the oldest
+     * @throws NullPointerException  if query is null
+     * @throws IllegalStateException if search is not enabled
+     * @see #setMessageSearch(boolean)
+     */
+    public List<ChatMessageInfo> searchMessages(MessageSearchQuery query) {
+        Objects.requireNonNull(query, "query cannot be null");
+        var index = messageSearchIndex;
+        if (index == null) {
+            throw new IllegalStateException("Message search is not enabled");
+        }
+
+        return index.search(query, this::findChatByJid);
+    }
+
+    /**
+     * Returns the full-text index of this store, if search is enabled.
+     * Used by serializers to persist it.
+     *
+     * @return an optional index
+     */
+    Optional<MessageSearchIndex> messageSearchIndex() {
+        return Optional.ofNullable(messageSearchIndex);
+    }
+
+    /**
+     * Replaces the full-text index of this store, indexing the messages of its chats that the new index doesn't contain.
+     * Used by serializers to restore a persisted index before chats are loaded, so that their messages aren't indexed again.
+     *
+     * @param index the index, or null to drop it
+     */
+    void setMessageSearchIndex(MessageSearchIndex index) {
+        this.messageSearchIndex = index;
+        if (index != null) {
+            for (var chat : chats.values()) {
+                index.addChat(chat);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the changes to this store are recorded in its {@link #changeLog()}.
+     *
+     * @return true if enabled, false otherwise
+     */
+    public boolean changeCapture() {
+        return changeLog != null;
+    }
+
+    /**
+     * Sets whether the changes to this store are recorded in its {@link #changeLog()}.
+     * <p>
+     * Enabling change capture doesn't record the entities already in the store:
+     * consumers should copy the current state of the store before reading the log from its first change.
+     * Disabling it drops the log, including the checkpoints committed to it.
+     *
+     * @param changeCapture true to enable, false to disable
+     * @return this store instance for method chaining
+     */
+    public WhatsAppStore setChangeCapture(boolean changeCapture) {
+        if (!changeCapture) {
+            this.changeLog = null;
+        } else if (changeLog == null) {
+            this.changeLog = StoreChangeLog.empty();
+        }
+        return this;
+    }
+
+    /**
+     * Returns the log of the changes to this store, if change capture is enabled.
+     * <p>
+     * The log can be used to replicate this store to an external system incrementally,
+     * instead of copying all of its chats and contacts every time it changes.
+     *
+     * @return an optional log
+     * @see #setChangeCapture(boolean)
+     */
+    public Optional<StoreChangeLog> changeLog() {
+        return Optional.ofNullable(changeLog);
+    }
+
+    /**
+     * Records that a message of a chat in this store was changed in place, for example when its status was updated.
+     * Messages that are added to a chat or removed from it are recorded automatically.
+     *
+     * @param messageInfo the message that changed, must not be null
+     * @throws NullPointerException if messageInfo is null
+     */
+    public void markMessageChanged(ChatMessageInfo messageInfo) {
+        Objects.requireNonNull(messageInfo, "messageInfo cannot be null");
+        messageInfo.lazyMessage().markChanged();
+        markMessagesChanged(messageInfo.parentJid(), messageInfo.id());
+        recordChange(StoreChange.Operation.UPDATE, StoreChange.Entity.MESSAGE, messageInfo.id(), messageInfo.parentJid());
+    }
+
+    /**
+     * Records that a chat in this store was changed in place, for example when it was archived or muted.
+     * Chats that are added to this store or removed from it are recorded automatically.
+     *
+     * @param chat the chat that changed, must not be null
+     * @throws NullPointerException if chat is null
+     */
+    public void markChatChanged(Chat chat) {
+        Objects.requireNonNull(chat, "chat cannot be null");
+        recordChange(StoreChange.Operation.UPDATE, StoreChange.Entity.CHAT, chat.jid().toString(), null);
+    }
+
+    /**
+     * Starts recording the messages that are added, changed or removed in {@link #changedMessages}.
+     * The serializer that calls this method must consume them.
+     */
+    void trackMessageChanges() {
+        this.messageChangesTracked = true;
+    }
+
+    // A null id stands for all the messages of the chat
+    private void markMessagesChanged(Jid chatJid, String messageId) {
+        if (messageChangesTracked) {
+            changedMessages.add(new ChangedMessage(chatJid, messageId));
+        }
+    }
+
+    /**
+     * Returns whether the messages of this store that weren't read are kept off the heap.
+     *
+     * @return true if enabled, false otherwise
+     */
+    public boolean offHeapMessages() {
+        return offHeapMessages;
+    }
+
+    /**
+     * Sets whether the messages of this store that weren't read are kept off the heap.
+     * <p>
+     * When enabled, the encoded messages of the chats in this store, which are decoded only when they are read,
+     * are moved to native memory, and only the messages that were read most recently are kept decoded on the heap.
+     * This reduces the heap footprint of stores with large histories, at the cost of decoding messages again when they are read after being evicted.
+     * Messages that were already decoded, for example because they were received during this session, are encoded and moved as well,
+     * and stay decoded only until they are evicted.
+     * Disabling it doesn't move the messages back to the heap: only the messages added from then on are kept there.
+     *
+     * @param offHeapMessages true to enable, false to disable
+     * @return this store instance for method chaining
+     */
+    public WhatsAppStore setOffHeapMessages(boolean offHeapMessages) {
+        this.offHeapMessages = offHeapMessages;
+        if (!offHeapMessages) {
+            this.messageBodyStorage = null;
+        } else if (messageBodyStorage == null) {
+            var storage = Objects.requireNonNullElseGet(sharedMessageBodyStorage, MessageBodyStorage::new);
+            this.messageBodyStorage = storage;
+            for (var chat : chats.values()) {
+                moveMessagesTo(chat, storage);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Sets the storage used to keep the messages of this store off the heap when off-heap messages are enabled,
+     * so that it can be shared with other stores.
+     * <p>
+     * The hot capacity of a shared storage is a budget for all the stores that use it:
+     * it bounds the number of messages kept decoded on the heap by all of them.
+     * Messages that were already moved to another storage stay there.
+     *
+     * @param messageBodyStorage the storage, must not be null
+     * @return this store instance for method chaining
+     * @see #setOffHeapMessages(boolean)
+     */
+    public WhatsAppStore setMessageBodyStorage(MessageBodyStorage messageBodyStorage) {
+        Objects.requireNonNull(messageBodyStorage, "messageBodyStorage cannot be null");
+        this.sharedMessageBodyStorage = messageBodyStorage;
+        if (offHeapMessages && this.messageBodyStorage != messageBodyStorage) {
+            this.messageBodyStorage = messageBodyStorage;
+            for (var chat : chats.values()) {
+                moveMessagesTo(chat, messageBodyStorage);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the off-heap storage of the messages of this store, if off-heap messages are enabled.
+     * Used to move messages whose container was replaced back to the storage.
+     *
+     * @return an optional storage
+     * @see #setOffHeapMessages(boolean)
+     */
+    public Optional<MessageBodyStorage> messageBodyStorage() {
+        return Optional.ofNullable(messageBodyStorage);
+    }
+
+    private void moveMessagesTo(Chat chat, MessageBodyStorage storage) {
+        for (var message : chat.messages()) {
+            moveMessageTo(message, storage);
+        }
+    }
+
+    // The attribution of a decoded container to the entities of this store isn't encoded:
+    // it's done again when the container is decoded after being evicted, like for the containers loaded by the serializers
+    private void moveMessageTo(ChatMessageInfo message, MessageBodyStorage storage) {
+        var lazyMessage = message.lazyMessage();
+        var decoded = lazyMessage.isDecoded();
+        if (lazyMessage.moveTo(storage) && decoded) {
+            lazyMessage.whenDecoded(container -> ProtobufStoreSerializer.attributeStoreContextualMessage(this, container));
+        }
+    }
+
+    private void recordChange(StoreChange.Operation operation, StoreChange.Entity entity, String key, Jid parentJid) {
+        var log = changeLog;
+        if (log != null) {
+            log.record(operation, entity, key, parentJid);
+        }
+    }
+
+    private void recordSettingChange(String name) {
+        recordChange(StoreChange.Operation.UPDATE, StoreChange.Entity.SETTING, name, null);
+    }
+
     /**
      * Returns whether patch MAC verification is enabled.
      *
@@ -2288,6 +3070,23 @@ public final class WhatsAppStore implements SignalProtocolStore {
         return Collections.unmodifiableCollection(listeners);
     }
 
+    /**
+     * Returns the metrics recorded by this session.
+     *
+     * @return the metrics, never null
+     */
+    public WhatsAppClientMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the media connection, if one was already queried
+     *
+     * @return an optional
+     */
+    public Optional<MediaConnection> mediaConnection() {
+        return Optional.ofNullable(mediaConnection);
+    }
 
     public MediaConnection waitForMediaConnection() throws InterruptedException {
         if(mediaConnection == null) {
@@ -2479,6 +3278,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
     public void addPreKey(SignalPreKeyPair preKey) {
         Objects.requireNonNull(preKey, "preKey cannot be null");
         preKeys.put(preKey.id(), preKey);
+        changedPreKeys.add(preKey.id());
+        onSignalKeyChanged();
     }
 
     /**
@@ -2492,7 +3293,12 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     @Override
     public boolean removePreKey(int id) {
-        return preKeys.remove(id) != null;
+        var removed = preKeys.remove(id) != null;
+        if (removed) {
+            changedPreKeys.add(id);
+            onSignalKeyChanged();
+        }
+        return removed;
     }
 
     /**
@@ -2541,6 +3347,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public void addSession(SignalProtocolAddress address, SignalSessionRecord record) {
         sessions.put(address, record);
+        changedSessions.add(address);
+        onSignalKeyChanged();
     }
 
     /**
@@ -2563,6 +3371,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
     @Override
     public void addSenderKey(SignalSenderKeyName name, SignalSenderKeyRecord newRecord) {
         senderKeys.put(name, newRecord);
+        changedSenderKeys.add(name);
+        onSignalKeyChanged();
     }
 
     /**
@@ -2658,6 +3468,19 @@ public final class WhatsAppStore implements SignalProtocolStore {
         webAppStatePendingMutations.remove(collectionName);
     }
 
+    /**
+     * Removes the specified pending mutations, leaving the ones that were queued afterward.
+     *
+     * @param collectionName the collection name
+     * @param patches the patches to remove
+     */
+    public void removePendingMutations(PatchType collectionName, Collection<? extends PendingMutation> patches) {
+        webAppStatePendingMutations.computeIfPresent(collectionName, (_, current) -> {
+            current.removeAll(patches);
+            return current.isEmpty() ? null : current;
+        });
+    }
+
     /**
      * Clears all pending mutations for a collection.
      *
@@ -2906,6 +3729,13 @@ public final class WhatsAppStore implements SignalProtocolStore {
                && twentyFourHourFormat == that.twentyFourHourFormat
                && automaticPresenceUpdates == that.automaticPresenceUpdates
                && automaticMessageReceipts == that.automaticMessageReceipts
+               && messageSearch == that.messageSearch
+               && Objects.equals(changeLog, that.changeLog)
+               && Objects.equals(lidToPhoneMappings, that.lidToPhoneMappings)
+               && Objects.equals(phoneToLidMappings, that.phoneToLidMappings)
+               && offHeapMessages == that.offHeapMessages
+               && Objects.equals(contactProfiles, that.contactProfiles)
+               && Objects.equals(contactDiscoveryResults, that.contactDiscoveryResults)
                && checkPatchMacs == that.checkPatchMacs
                && syncedChats == that.syncedChats
                && syncedContacts == that.syncedContacts
@@ -2965,6 +3795,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
                && Objects.equals(mediaConnection, that.mediaConnection);
     }
 
+    // Signal keys are excluded, as they change on every message and serializers may persist them separately
     @Override
     public int hashCode() {
         return Objects.hash(uuid, phoneNumber, clientType, serializer, serializable,
@@ -2974,11 +3805,11 @@ public final class WhatsAppStore implements SignalProtocolStore {
                 businessDescription, businessWebsite, businessEmail, businessCategory,
                 chats, newsletters, status, contacts, calls, privacySettings, properties,
                 unarchiveChats, twentyFourHourFormat, newChatsEphemeralTimer, webHistoryPolicy,
-                automaticPresenceUpdates, automaticMessageReceipts, checkPatchMacs, syncedChats, 
+                automaticPresenceUpdates, automaticMessageReceipts, messageSearch, changeLog, lidToPhoneMappings, phoneToLidMappings, offHeapMessages, contactProfiles, contactDiscoveryResults, checkPatchMacs, syncedChats, 
                 syncedContacts, syncedNewsletters, syncedStatus, syncedWebAppState, syncedBusinessCertificate,
                 registrationId, noiseKeyPair, identityKeyPair, companionKeyPair, companionIdentity,
-                signedKeyPair, preKeys, fdid, Arrays.hashCode(deviceId), advertisingId, Arrays.hashCode(identityId), 
-                Arrays.hashCode(backupToken), senderKeys, appStateKeys, sessions, hashStates, registered, listeners, mediaConnection);
+                signedKeyPair, fdid, Arrays.hashCode(deviceId), advertisingId, Arrays.hashCode(identityId), 
+                Arrays.hashCode(backupToken), appStateKeys, hashStates, registered, listeners, mediaConnection);
     }
 
     @Override
@@ -3000,6 +3831,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
     public void addPrivacySetting(PrivacySettingEntry entry) {
         Objects.requireNonNull(entry, "entry cannot be null");
         privacySettings.put(entry.type(), entry);
+        recordSettingChange("privacy." + entry.type().name());
     }
 
     public Optional<ChatMessageInfo> findChatMessageByKey(ChatMessageKey key) {
@@ -3017,6 +3849,7 @@ public final class WhatsAppStore implements SignalProtocolStore {
 
     public void setShowSecurityNotifications(boolean showSecurityNotifications) {
         this.showSecurityNotifications = showSecurityNotifications;
+        recordSettingChange("showSecurityNotifications");
     }
 
     public Optional<Sticker> findRecentSticker(String stickerHash) {
@@ -3061,12 +3894,17 @@ public final class WhatsAppStore implements SignalProtocolStore {
     }
 
     public Optional<Label> removeLabel(int labelId) {
-        return Optional.ofNullable(labels.remove(labelId));
+        var result = labels.remove(labelId);
+        if (result != null) {
+            recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.LABEL, String.valueOf(labelId), null);
+        }
+        return Optional.ofNullable(result);
     }
 
     public void addLabel(Label label) {
         Objects.requireNonNull(label, "label cannot be null");
-        labels.put(label.id(), label);
+        var oldLabel = labels.put(label.id(), label);
+        recordChange(oldLabel == null ? StoreChange.Operation.INSERT : StoreChange.Operation.UPDATE, StoreChange.Entity.LABEL, String.valueOf(label.id()), null);
     }
 
     public Optional<QuickReply> removeQuickReply(String shortcut) {
@@ -3117,7 +3955,8 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public void addGroupOrCommunityMetadata(GroupOrCommunityMetadata groupData) {
         Objects.requireNonNull(groupData, "groupData cannot be null");
-        groupOrCommunityMetadata.put(groupData.jid(), groupData);
+        var oldGroupData = groupOrCommunityMetadata.put(groupData.jid(), groupData);
+        recordChange(oldGroupData == null ? StoreChange.Operation.INSERT : StoreChange.Operation.UPDATE, StoreChange.Entity.GROUP, groupData.jid().toString(), null);
     }
 
     /**
@@ -3127,7 +3966,51 @@ public final class WhatsAppStore implements SignalProtocolStore {
      */
     public void removeGroupOrCommunityMetadata(Jid groupJid) {
         Objects.requireNonNull(groupJid, "groupJid cannot be null");
-        groupOrCommunityMetadata.remove(groupJid);
+        if (groupOrCommunityMetadata.remove(groupJid) != null) {
+            recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.GROUP, groupJid.toString(), null);
+        }
+    }
+
+    /**
+     * Gets the version of a group that was last synced.
+     *
+     * @param groupJid the group JID
+     * @return the version, or empty if the group was never synced
+     */
+    public OptionalLong findGroupOrCommunityVersion(Jid groupJid) {
+        Objects.requireNonNull(groupJid, "groupJid cannot be null");
+        var version = groupOrCommunityVersions.get(groupJid);
+        return version == null ? OptionalLong.empty() : OptionalLong.of(version);
+    }
+
+    /**
+     * Gets the groups that were synced.
+     *
+     * @return an unmodifiable view of the synced groups
+     */
+    public Set<Jid> groupOrCommunityVersionJids() {
+        return Collections.unmodifiableSet(groupOrCommunityVersions.keySet());
+    }
+
+    /**
+     * Stores the version of a group that was synced.
+     *
+     * @param groupJid the group JID
+     * @param version  the version
+     */
+    public void addGroupOrCommunityVersion(Jid groupJid, long version) {
+        Objects.requireNonNull(groupJid, "groupJid cannot be null");
+        groupOrCommunityVersions.put(groupJid, version);
+    }
+
+    /**
+     * Clears the version of a group, so that its metadata is fetched again on the next sync.
+     *
+     * @param groupJid the group JID
+     */
+    public void removeGroupOrCommunityVersion(Jid groupJid) {
+        Objects.requireNonNull(groupJid, "groupJid cannot be null");
+        groupOrCommunityVersions.remove(groupJid);
     }
 
     /**
@@ -3198,6 +4081,58 @@ public final class WhatsAppStore implements SignalProtocolStore {
         deviceLists.remove(userJid);
     }
 
+    /**
+     * Gets the last contact discovery result for a user.
+     *
+     * @param userJid the phone number JID of the user
+     * @return the result, or empty if not cached
+     */
+    public Optional<ContactDiscoveryResult> findContactDiscoveryResult(Jid userJid) {
+        Objects.requireNonNull(userJid, "userJid cannot be null");
+        return Optional.ofNullable(contactDiscoveryResults.get(userJid));
+    }
+
+    /**
+     * Stores a contact discovery result.
+     *
+     * @param result the result
+     */
+    public void addContactDiscoveryResult(ContactDiscoveryResult result) {
+        Objects.requireNonNull(result, "result cannot be null");
+        contactDiscoveryResults.put(result.jid(), result);
+    }
+
+    /**
+     * Removes the contact discovery results that match a filter.
+     *
+     * @param filter the filter
+     */
+    public void removeContactDiscoveryResults(Predicate<? super ContactDiscoveryResult> filter) {
+        Objects.requireNonNull(filter, "filter cannot be null");
+        contactDiscoveryResults.values().removeIf(filter);
+    }
+
+    /**
+     * Gets the last known profile of a user or group.
+     *
+     * @param jid the JID of the user or group
+     * @return the profile, or empty if not cached
+     */
+    public Optional<ContactProfile> findContactProfile(Jid jid) {
+        Objects.requireNonNull(jid, "jid cannot be null");
+        return Optional.ofNullable(contactProfiles.get(jid));
+    }
+
+    /**
+     * Stores the profile of a user or group.
+     *
+     * @param profile the profile
+     */
+    public void addContactProfile(ContactProfile profile) {
+        Objects.requireNonNull(profile, "profile cannot be null");
+        contactProfiles.put(profile.jid(), profile);
+    }
+
     public boolean hasJid(JidProvider entry) {
         if(entry == null) {
             return false;
@@ -3220,4 +4155,66 @@ public final class WhatsAppStore implements SignalProtocolStore {
                     || (localLid != null && remoteJid.hasUser(localLid.user()));
         }
     }
-}
\ No newline at end of file
+
+    private final class StoreMessagesListener implements ChatMessagesListener {
+        @Override
+        public void onMessageAdded(Chat chat, ChatMessageInfo messageInfo) {
+            var index = messageSearchIndex;
+            if (index != null) {
+                index.addMessage(chat, messageInfo);
+            }
+            var storage = messageBodyStorage;
+            if (storage != null) {
+                moveMessageTo(messageInfo, storage);
+            }
+            markMessagesChanged(chat.jid(), messageInfo.id());
+            recordChange(StoreChange.Operation.INSERT, StoreChange.Entity.MESSAGE, messageInfo.id(), chat.jid());
+        }
+
+        @Override
+        public void onMessageReplaced(Chat chat, ChatMessageInfo oldMessageInfo, ChatMessageInfo newMessageInfo) {
+            var index = messageSearchIndex;
+            if (index != null) {
+                index.removeMessage(chat, oldMessageInfo);
+                index.addMessage(chat, newMessageInfo);
+            }
+            var storage = messageBodyStorage;
+            if (storage != null) {
+                moveMessageTo(newMessageInfo, storage);
+            }
+            markMessagesChanged(chat.jid(), newMessageInfo.id());
+            recordChange(StoreChange.Operation.UPDATE, StoreChange.Entity.MESSAGE, newMessageInfo.id(), chat.jid());
+        }
+
+        @Override
+        public void onMessageRemoved(Chat chat, ChatMessageInfo messageInfo) {
+            var index = messageSearchIndex;
+            if (index != null) {
+                index.removeMessage(chat, messageInfo);
+            }
+            markMessagesChanged(chat.jid(), messageInfo.id());
+            recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.MESSAGE, messageInfo.id(), chat.jid());
+        }
+
+        // A deletion without a key stands for all the messages of the chat
+        @Override
+        public void onMessagesCleared(Chat chat) {
+            var index = messageSearchIndex;
+            if (index != null) {
+                index.removeChat(chat.jid());
+            }
+            markMessagesChanged(chat.jid(), null);
+            recordChange(StoreChange.Operation.DELETE, StoreChange.Entity.MESSAGE, null, chat.jid());
+        }
+    }
+
+    /**
+     * A message of a chat that was added, changed or removed
+     *
+     * @param chatJid the jid of the chat
+     * @param id      the id of the message, or null for all the messages of the chat
+     */
+    record ChangedMessage(Jid chatJid, String id) {
+
+    }
+}
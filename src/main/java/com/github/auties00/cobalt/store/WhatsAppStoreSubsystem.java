@@ -0,0 +1,22 @@
+package com.github.auties00.cobalt.store;
+
+/**
+ * The parts of a {@link WhatsAppStore} that a {@link WhatsappStoreSerializer} may deserialize asynchronously.
+ * <p>
+ * Everything that is needed to bootstrap a session, like the keys, the contacts and the status, is always
+ * available once the store is returned by the serializer.
+ * The subsystems listed here can instead become available later, while the client connects and logs in.
+ *
+ * @see WhatsappStoreSerializer#whenDeserialized(WhatsAppStore, WhatsAppStoreSubsystem)
+ */
+public enum WhatsAppStoreSubsystem {
+    /**
+     * The chats, their messages and the quoted messages they reference
+     */
+    CHATS,
+
+    /**
+     * The newsletters and their messages
+     */
+    NEWSLETTERS
+}
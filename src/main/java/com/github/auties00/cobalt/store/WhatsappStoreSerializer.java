@@ -5,6 +5,7 @@ import com.github.auties00.cobalt.client.WhatsAppClientType;
 
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A serialization interface for managing persistent storage of WhatsApp session data.
@@ -12,9 +13,11 @@ import java.util.*;
  * This interface provides a standardized mechanism for serializing and deserializing ({@link WhatsAppStore}).
  * <p>
  * The interface supports multiple client types ({@link WhatsAppClientType#WEB} and {@link WhatsAppClientType#MOBILE})
- * and can be implemented to provide different storage backends. Two built-in implementations are provided:
+ * and can be implemented to provide different storage backends. Three built-in implementations are provided:
  * <ul>
- *     <li>{@link WhatsappStoreSerializer#toProtobuf()} - Persists sessions as Protocol Buffer files on disk</li>
+ *     <li>{@link WhatsappStoreSerializer#toProtobuf()} - Persists sessions as Protocol Buffer files on disk,
+ *     optionally compressed with {@link WhatsappStoreSerializer#toCompressedProtobuf()}</li>
+ *     <li>{@link WhatsappStoreSerializer#toKeyValue()} - Persists every session in a single transactional key value file</li>
  *     <li>{@link WhatsappStoreSerializer#discarding()} - Discards all session data (useful for temporary/ephemeral sessions)</li>
  * </ul>
  * <p>
@@ -66,6 +69,57 @@ public interface WhatsappStoreSerializer {
         return new ProtobufStoreSerializer(baseDirectory);
     }
 
+    /**
+     * Creates a protobuf-based serializer that persists sessions to the default directory and compresses their chats and newsletters.
+     * <p>
+     * Messages are compressed in blocks with a dictionary trained on the messages of the session,
+     * once it has enough of them, so sessions with large histories take less space on disk.
+     * Decompressing takes longer than reading the larger files, so sessions load and save more slowly:
+     * that's why {@link #toProtobuf()} doesn't compress.
+     * Sessions written without compression can be read, and are compressed as their chats change.
+     *
+     * @return a new compressing protobuf-based serializer using the default storage directory
+     */
+    static WhatsappStoreSerializer toCompressedProtobuf() {
+        return new ProtobufStoreSerializer(true);
+    }
+
+    /**
+     * Creates a protobuf-based serializer that persists sessions to a specified directory and compresses their chats and newsletters.
+     *
+     * @param baseDirectory the directory where session files should be stored; must be writable
+     * @return a new compressing protobuf-based serializer using the specified storage directory
+     * @see #toCompressedProtobuf()
+     */
+    static WhatsappStoreSerializer toCompressedProtobuf(Path baseDirectory) {
+        return new ProtobufStoreSerializer(baseDirectory, true);
+    }
+
+    /**
+     * Creates a key value serializer that persists sessions to the default directory.
+     * <p>
+     * Every session is stored in a single file, where the store, the chats, the messages, the newsletters
+     * and the Signal keys are kept in separate keyspaces.
+     * Only what changed since the last serialization is written, in a single transaction,
+     * so this serializer is better suited than {@link #toProtobuf()} for sessions with large histories.
+     *
+     * @return a new key value serializer using the default storage directory
+     */
+    static WhatsappStoreSerializer toKeyValue() {
+        return new KeyValueStoreSerializer();
+    }
+
+    /**
+     * Creates a key value serializer that persists sessions to a specified directory.
+     *
+     * @param baseDirectory the directory where session files should be stored; must be writable
+     * @return a new key value serializer using the specified storage directory
+     * @see #toKeyValue()
+     */
+    static WhatsappStoreSerializer toKeyValue(Path baseDirectory) {
+        return new KeyValueStoreSerializer(baseDirectory);
+    }
+
     /**
      * Retrieves an existing session from persistent storage using one or more identifiers.
      * <p>
@@ -138,6 +192,30 @@ public interface WhatsappStoreSerializer {
      */
     void serialize(WhatsAppStore store);
 
+    /**
+     * Persists the Signal keys of a store that changed since they were last persisted.
+     * <p>
+     * Sessions, sender keys and pre keys change every time a message is encrypted or decrypted,
+     * so implementations may persist them separately from the rest of the store, and in batches.
+     * If {@code sync} is true, this method must return only after the changed keys are durable:
+     * it's called before sending a message encrypted using them, so that a crash can't restore
+     * a ratchet state older than the one used by a message that was already sent.
+     * Otherwise, it's called every time a key changes, and the keys can be persisted later.
+     * <p>
+     * The default implementation persists the keys with the rest of the store: if {@code sync} is true,
+     * it calls {@link #serialize(WhatsAppStore)}, otherwise it does nothing, and the changed keys are persisted
+     * by the next call to either method.
+     *
+     * @param store the store whose Signal keys changed; must not be null
+     * @param sync  whether this method should wait until the keys are durable
+     */
+    default void serializeSignalKeys(WhatsAppStore store, boolean sync) {
+        Objects.requireNonNull(store, "store cannot be null");
+        if (sync) {
+            serialize(store);
+        }
+    }
+
     /**
      * Retrieves session state from storage by UUID.
      * <p>
@@ -189,6 +267,25 @@ public interface WhatsappStoreSerializer {
      */
     void finishDeserialize(WhatsAppStore store);
 
+    /**
+     * Returns a future that completes when a subsystem of a store has been deserialized.
+     * <p>
+     * This method allows callers to wait only for the data they need, instead of blocking
+     * on {@link #finishDeserialize(WhatsAppStore)} until every asynchronous operation is complete.
+     * The returned future completes exceptionally if the subsystem couldn't be deserialized.
+     * <p>
+     * Implementations that perform all deserialization synchronously don't need to override this method.
+     *
+     * @param store     the store whose deserialization should be awaited; must not be null
+     * @param subsystem the subsystem to await; must not be null
+     * @return a future that completes when the subsystem is available
+     */
+    default CompletableFuture<Void> whenDeserialized(WhatsAppStore store, WhatsAppStoreSubsystem subsystem) {
+        Objects.requireNonNull(store, "store cannot be null");
+        Objects.requireNonNull(subsystem, "subsystem cannot be null");
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Permanently removes a session from storage.
      * <p>
@@ -1,11 +1,11 @@
 package com.github.auties00.cobalt.sync;
 
 import com.github.auties00.cobalt.model.sync.PatchType;
-import com.github.auties00.cobalt.util.DelayedSchedulerUtils;
+import com.github.auties00.cobalt.util.TimerWheel;
 
 import java.io.Closeable;
 import java.time.Duration;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class WebAppStateBackoffScheduler implements Closeable {
     private static final int MAX_RETRIES = 5;
@@ -14,9 +14,11 @@ public final class WebAppStateBackoffScheduler implements Closeable {
     private static final int MULTIPLIER = 2;
     private static final long JITTER_MS = 1000;
 
-    private final ConcurrentHashMap<PatchType, CompletableFuture<?>> pendingRetries;
+    private final TimerWheel.Scope timers;
+    private final ConcurrentHashMap<PatchType, TimerWheel.Timeout> pendingRetries;
 
-    public WebAppStateBackoffScheduler() {
+    public WebAppStateBackoffScheduler(TimerWheel.Scope timers) {
+        this.timers = timers;
         this.pendingRetries = new ConcurrentHashMap<>();
     }
 
@@ -33,11 +35,11 @@ public final class WebAppStateBackoffScheduler implements Closeable {
         var delayMs = calculateBackoff(attemptNumber);
 
         // Schedule the retry
-        var future = DelayedSchedulerUtils.scheduleDelayed(Duration.ofMillis(delayMs), () -> {
+        var timeout = timers.schedule(Duration.ofMillis(delayMs), () -> {
             pendingRetries.remove(collectionName);
             retryAction.run();
         });
-        pendingRetries.put(collectionName, future);
+        pendingRetries.put(collectionName, timeout);
 
         return true;
     }
@@ -60,9 +62,9 @@ public final class WebAppStateBackoffScheduler implements Closeable {
     }
 
     public boolean cancelRetry(PatchType collectionName) {
-        var future = pendingRetries.remove(collectionName);
-        if (future != null) {
-            future.cancel(false);
+        var timeout = pendingRetries.remove(collectionName);
+        if (timeout != null) {
+            timeout.cancel();
             return true;
         }
         return false;
@@ -70,8 +72,8 @@ public final class WebAppStateBackoffScheduler implements Closeable {
 
     @Override
     public void close() {
-        for (var future : pendingRetries.values()) {
-            future.cancel(true);
+        for (var timeout : pendingRetries.values()) {
+            timeout.cancel();
         }
         pendingRetries.clear();
     }
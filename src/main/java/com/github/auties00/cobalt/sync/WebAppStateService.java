@@ -1,6 +1,7 @@
 package com.github.auties00.cobalt.sync;
 
 import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.exception.MediaDownloadException;
 import com.github.auties00.cobalt.exception.WebAppStateFatalSyncException;
 import com.github.auties00.cobalt.exception.WebAppStateMissingKeyException;
 import com.github.auties00.cobalt.exception.WebAppStateRetryableSyncException;
@@ -12,13 +13,15 @@ import com.github.auties00.cobalt.sync.crypto.MutationKeys;
 import com.github.auties00.cobalt.sync.crypto.MutationLTHash;
 import com.github.auties00.cobalt.sync.exchange.MutationRequestBuilder;
 import com.github.auties00.cobalt.sync.exchange.MutationResponseParser;
+import com.github.auties00.cobalt.sync.exchange.MutationSyncRequest;
 import com.github.auties00.cobalt.sync.exchange.MutationSyncResponse;
 import com.github.auties00.cobalt.util.SecureBytes;
+import com.github.auties00.cobalt.util.TimerWheel;
 import it.auties.protobuf.stream.ProtobufInputStream;
 
 import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -39,6 +42,9 @@ import static com.github.auties00.cobalt.client.WhatsAppClientErrorHandler.Locat
  *   <li>Applying mutations via action handlers</li>
  *   <li>Managing collection states</li>
  * </ul>
+ *
+ * <p>Collections are synced in batches: every collection that needs an update is requested in a single
+ * {@code w:sync:app:state} query, and follow-up pages are requested while the previous ones are being processed.
  */
 public final class WebAppStateService {
     private final WhatsAppClient whatsapp;
@@ -48,20 +54,22 @@ public final class WebAppStateService {
     private final MutationIntegrityVerifier integrityVerifier;
     private final WebAppStateHandlerRegistry handlerRegistry;
     private final WebAppStateBackoffScheduler retryScheduler;
+    private final WebAppStateSyncScheduler syncScheduler;
 
     /**
      * Creates a new WebAppStateManager instance.
      *
      * @param whatsapp the Whatsapp instance to use for store access and node sending
      */
-    public WebAppStateService(WhatsAppClient whatsapp) {
+    public WebAppStateService(WhatsAppClient whatsapp, TimerWheel.Scope timers) {
         this.whatsapp = whatsapp;
         this.store = whatsapp.store();
         this.requestBuilder = new MutationRequestBuilder(whatsapp);
         this.responseParser = new MutationResponseParser();
         this.handlerRegistry = new WebAppStateHandlerRegistry();
         this.integrityVerifier = new MutationIntegrityVerifier(store);
-        this.retryScheduler = new WebAppStateBackoffScheduler();
+        this.retryScheduler = new WebAppStateBackoffScheduler(timers);
+        this.syncScheduler = new WebAppStateSyncScheduler(this::syncCollections);
     }
 
     /**
@@ -79,95 +87,154 @@ public final class WebAppStateService {
         whatsapp.store().addPendingMutations(patchType, patches);
 
         // 3. Trigger sync
-        syncCollection(patchType);
+        syncScheduler.schedule(List.of(patchType));
     }
 
     /**
      * Pulls patches from the server.
      * Called from Whatsapp.pullWebAppState().
      *
+     * <p>All the requested collections are fetched in a single {@code w:sync:app:state} request.
+     * If a sync is already in flight, the collections are merged into the next batch.
+     *
      * @param patchTypes the collection types to sync
      */
     public void pullPatches(PatchType... patchTypes) {
-        var pullCriticalBlock = false;
-        var pullCriticalUnblockLow = false;
-        var pullNonCritical = new HashSet<PatchType>();
+        if (patchTypes.length == 0) {
+            return;
+        }
 
+        var collections = EnumSet.noneOf(PatchType.class);
         for (var patchType : patchTypes) {
-            switch (patchType) {
-                case CRITICAL_BLOCK -> pullCriticalBlock = true;
-                case CRITICAL_UNBLOCK_LOW -> pullCriticalUnblockLow = true;
-                default -> pullNonCritical.add(patchType);
-            }
+            store.markWebAppStateDirty(patchType);
+            collections.add(patchType);
         }
 
-        if (pullCriticalBlock) {
-            syncCollection(PatchType.CRITICAL_BLOCK);
-        }
+        syncScheduler.schedule(collections);
+    }
 
-        if (pullCriticalUnblockLow) {
-            syncCollection(PatchType.CRITICAL_UNBLOCK_LOW);
+    private void syncCollections(Set<PatchType> patchTypes) {
+        var metrics = whatsapp.metrics();
+        var sample = metrics.startWebAppStateSync();
+        var success = false;
+        try {
+            runSyncCycle(patchTypes);
+            success = patchTypes.stream()
+                    .allMatch(patchType -> store.findWebAppState(patchType).state() == CollectionState.UP_TO_DATE);
+        } finally {
+            metrics.recordWebAppStateSync(sample, patchTypes, success);
         }
+    }
 
-        if (!pullNonCritical.isEmpty()) {
-            try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-                for (var type : pullNonCritical) {
-                    executor.execute(() -> syncCollection(type));
-                }
+    private void runSyncCycle(Set<PatchType> patchTypes) {
+        // 1. Build a single batched request for all the collections
+        var pushedRequests = new EnumMap<PatchType, MutationSyncRequest>(PatchType.class);
+        var requests = new ArrayList<MutationSyncRequest>(patchTypes.size());
+        for (var patchType : patchTypes) {
+            var pending = List.copyOf(store.findPendingMutations(patchType));
+            var version = store.findWebAppHashStateByName(patchType)
+                    .map(AppStateSyncHash::version)
+                    .orElse(0L);
+            var request = new MutationSyncRequest(patchType, version, pending);
+            requests.add(request);
+            if (!pending.isEmpty()) {
+                pushedRequests.put(patchType, request);
             }
+            store.markWebAppStateInFlight(patchType);
         }
-    }
 
-    private void syncCollection(PatchType patchType) {
-        var remoteMutations = new ArrayList<DecryptedMutation.Trusted>();
-        while(store.findWebAppState(patchType).state() != CollectionState.UP_TO_DATE) {
-            // 1. Get the sync response
-            var syncResponse = sendSyncRequest(patchType);
-            if(syncResponse.isEmpty()) {
+        var responses = sendSyncRequest(requests);
+        while (!responses.isEmpty()) {
+            // 2. Pipeline the follow-up pages while the current ones are being processed
+            var followUps = responses.stream()
+                    .filter(MutationSyncResponse::hasMore)
+                    .map(response -> new MutationSyncRequest(response.collectionName(), response.version(), List.of()))
+                    .toList();
+            var nextResponses = followUps.isEmpty() ? null : CompletableFuture.supplyAsync(() -> sendSyncRequestOrThrow(followUps), Thread::startVirtualThread);
+
+            // 3. Process the current pages: a page is committed only after its mutations were applied
+            var completed = handleSyncResponses(responses, pushedRequests);
+            if (nextResponses == null) {
                 break;
             }
 
-            // 2. Process the result
-            var results = handleSyncResponse(syncResponse.get());
-            remoteMutations.addAll(results);
-        }
-        if(!remoteMutations.isEmpty()) {
-            applyMutations(patchType, remoteMutations);
+            // 4. Keep only the follow-up pages of collections that were processed successfully
+            try {
+                responses = nextResponses.join()
+                        .stream()
+                        .filter(response -> completed.contains(response.collectionName()))
+                        .toList();
+            } catch (CompletionException exception) {
+                for (var followUp : followUps) {
+                    if (completed.contains(followUp.collectionName())) {
+                        handleSyncError(new WebAppStateRetryableSyncException("Failed to send sync request", exception.getCause()), followUp.collectionName());
+                    }
+                }
+                responses = List.of();
+            }
         }
     }
 
-    private Optional<MutationSyncResponse> sendSyncRequest(PatchType patchType) {
+    private SequencedCollection<MutationSyncResponse> sendSyncRequest(SequencedCollection<MutationSyncRequest> requests) {
         try {
-            // 1. Get pending mutations
-            var pending = whatsapp.store()
-                    .findPendingMutations(patchType);
+            return sendSyncRequestOrThrow(requests);
+        }catch(Throwable throwable) {
+            for (var request : requests) {
+                handleSyncError(new WebAppStateRetryableSyncException("Failed to send sync request", throwable), request.collectionName());
+            }
+            return List.of();
+        }
+    }
 
-            // 2. Build request
-            var request = requestBuilder.buildSyncRequest(patchType, pending);
+    private SequencedCollection<MutationSyncResponse> sendSyncRequestOrThrow(SequencedCollection<MutationSyncRequest> requests) {
+        // 1. Build request
+        var request = requestBuilder.buildSyncRequest(requests);
 
-            // 3. Mark as in-flight
-            store.markWebAppStateInFlight(patchType);
+        // 2. Send a request and get a response (synchronous)
+        var response = whatsapp.sendNode(request);
 
-            // 4. Send a request and get a response (synchronous)
-            var response = whatsapp.sendNode(request);
+        // 3. Handle response
+        return responseParser.parseSyncResponses(response);
+    }
 
-            // 5. Handle response
-            var result = responseParser.parseSyncResponse(response);
-            return Optional.of(result);
-        }catch(Throwable throwable) {
-            handleSyncError(throwable, null);
-            return Optional.empty();
+    private Set<PatchType> handleSyncResponses(SequencedCollection<MutationSyncResponse> responses, Map<PatchType, MutationSyncRequest> pushedRequests) {
+        // 1. Download and decrypt the pages concurrently
+        var results = new EnumMap<PatchType, Future<Optional<DecodedSyncResponse>>>(PatchType.class);
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (var response : responses) {
+                results.put(response.collectionName(), executor.submit(() -> decodeSyncResponse(response)));
+            }
         }
+
+        // 2. Apply and commit them one collection at a time, critical collections first:
+        //    a collection that failed doesn't prevent the others from being committed
+        var completed = EnumSet.noneOf(PatchType.class);
+        for (var entry : results.entrySet()) {
+            try {
+                var decoded = entry.getValue().get();
+                if (decoded.isPresent()) {
+                    commitSyncResponse(decoded.get(), pushedRequests);
+                    completed.add(entry.getKey());
+                }
+            } catch (ExecutionException exception) {
+                whatsapp.handleFailure(WEB_APP_STATE, exception.getCause());
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new WebAppStateFatalSyncException(exception);
+            } catch (Throwable throwable) {
+                store.markWebAppStateErrorFatal(entry.getKey());
+                whatsapp.handleFailure(WEB_APP_STATE, throwable);
+            }
+        }
+        return completed;
     }
 
-    private SequencedCollection<DecryptedMutation.Trusted> handleSyncResponse(MutationSyncResponse syncResponse) {
+    private Optional<DecodedSyncResponse> decodeSyncResponse(MutationSyncResponse syncResponse) {
         try {
             // 1. Get all mutations from patches or snapshot
             var mutations = getOrDownloadMutations(syncResponse);
             if (mutations.isEmpty()) {
-                // No updates - mark as up-to-date
-                store.markWebAppStateUpToDate(syncResponse.collectionName());
-                return List.of();
+                return Optional.of(new DecodedSyncResponse(syncResponse, List.of(), null));
             }
 
             // 2. Decrypt mutations
@@ -179,23 +246,38 @@ public final class WebAppStateService {
             // 4. Verify integrity (if snapshot/patch MAC provided)
             integrityVerifier.verifyIntegrity(syncResponse, newHash);
 
-            // 5. Update collection version and hash
-            updateCollectionState(syncResponse.collectionName(), syncResponse.version(), newHash);
-
-            // 6. Check if more data available
-            if (syncResponse.hasMore()) {
-                store.markWebAppStatePending(syncResponse.collectionName());
-            } else {
-                store.markWebAppStateUpToDate(syncResponse.collectionName());
-            }
-
             // Return result
-            return untrusted.stream()
+            var trusted = untrusted.stream()
                     .map(entry -> new DecryptedMutation.Trusted(entry.index(), entry.value(), entry.operation(), entry.timestamp()))
                     .toList();
+            return Optional.of(new DecodedSyncResponse(syncResponse, trusted, newHash));
         } catch (Exception e) {
             handleSyncError(e, syncResponse.collectionName());
-            return List.of();
+            return Optional.empty();
+        }
+    }
+
+    private void commitSyncResponse(DecodedSyncResponse decoded, Map<PatchType, MutationSyncRequest> pushedRequests) {
+        var syncResponse = decoded.response();
+        var collectionName = syncResponse.collectionName();
+
+        // 1. Apply the mutations before the version moves past them, so that a crash makes the next sync fetch them again
+        if (!decoded.mutations().isEmpty()) {
+            applyMutations(collectionName, decoded.mutations());
+            updateCollectionState(collectionName, syncResponse.version(), decoded.hash());
+        }
+
+        // 2. Drop the local patches that the server acknowledged
+        var pushedRequest = pushedRequests.remove(collectionName);
+        if (pushedRequest != null && syncResponse.acknowledges(pushedRequest, decoded.mutations())) {
+            store.removePendingMutations(collectionName, pushedRequest.patches());
+        }
+
+        // 3. Check if more data available
+        if (syncResponse.hasMore()) {
+            store.markWebAppStatePending(collectionName);
+        } else {
+            store.markWebAppStateUpToDate(collectionName);
         }
     }
 
@@ -227,9 +309,15 @@ public final class WebAppStateService {
 
     private InputStream downloadExternalMutation(ExternalBlobReference externalRef) {
         try {
-            return whatsapp.store()
-                    .waitForMediaConnection()
-                    .download(externalRef);
+            try {
+                return whatsapp.store()
+                        .waitForMediaConnection()
+                        .download(externalRef);
+            }catch (MediaDownloadException exception) {
+                // The media connection might have been rejected: retry once with a fresh one
+                return whatsapp.refreshMediaConnection()
+                        .download(externalRef);
+            }
         }catch (Throwable throwable) {
             throw new WebAppStateRetryableSyncException("Failed to download external mutations", throwable);
         }
@@ -403,7 +491,7 @@ public final class WebAppStateService {
                 var result = retryScheduler.scheduleRetry(
                         collectionName,
                         metadata.retryCount(),
-                        () -> syncCollection(collectionName)
+                        () -> syncScheduler.schedule(List.of(collectionName))
                 );
                 if(result) {
                     store.markWebAppStateErrorRetry(collectionName);
@@ -424,6 +512,10 @@ public final class WebAppStateService {
 
     public void reset() {
         retryScheduler.close();
+        syncScheduler.reset();
     }
-}
 
+    private record DecodedSyncResponse(MutationSyncResponse response, SequencedCollection<DecryptedMutation.Trusted> mutations, byte[] hash) {
+
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.auties00.cobalt.sync;
+
+import com.github.auties00.cobalt.model.sync.PatchType;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces app state sync requests into batched sync cycles.
+ *
+ * <p>At most one sync cycle runs at any time. The thread that schedules a sync while no cycle is running
+ * becomes the driver and runs cycles until no collection is left to sync. Collections scheduled while a
+ * cycle is in flight, for example by {@code server_sync} notifications, are merged into the next cycle
+ * and the scheduling thread waits for the driver to finish instead of sending its own request.
+ */
+public final class WebAppStateSyncScheduler {
+    private final Consumer<Set<PatchType>> cycle;
+    private final Set<PatchType> requested;
+    private final ReentrantLock lock;
+    private Thread driver;
+    private CompletableFuture<Void> completion;
+
+    /**
+     * Creates a new scheduler
+     *
+     * @param cycle the action that syncs a batch of collections in a single cycle
+     */
+    public WebAppStateSyncScheduler(Consumer<Set<PatchType>> cycle) {
+        this.cycle = cycle;
+        this.requested = EnumSet.noneOf(PatchType.class);
+        this.lock = new ReentrantLock();
+    }
+
+    /**
+     * Schedules the given collections and returns when they have been synced.
+     * If this method is called by the driver itself, for example from an action handler, the collections
+     * are queued for the next cycle and this method returns immediately.
+     *
+     * @param patchTypes the collections to sync
+     */
+    public void schedule(Collection<PatchType> patchTypes) {
+        CompletableFuture<Void> inFlight;
+        lock.lock();
+        try {
+            requested.addAll(patchTypes);
+            if (driver == Thread.currentThread()) {
+                return;
+            }
+
+            inFlight = completion;
+            if (inFlight == null) {
+                this.driver = Thread.currentThread();
+                this.completion = new CompletableFuture<>();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (inFlight != null) {
+            inFlight.join();
+        } else {
+            drive();
+        }
+    }
+
+    private void drive() {
+        try {
+            while (true) {
+                Set<PatchType> batch;
+                lock.lock();
+                try {
+                    if (requested.isEmpty()) {
+                        complete(null);
+                        return;
+                    }
+
+                    batch = EnumSet.copyOf(requested);
+                    requested.clear();
+                } finally {
+                    lock.unlock();
+                }
+
+                cycle.accept(batch);
+            }
+        } catch (Throwable throwable) {
+            lock.lock();
+            try {
+                complete(throwable);
+            } finally {
+                lock.unlock();
+            }
+            throw throwable;
+        }
+    }
+
+    private void complete(Throwable throwable) {
+        var future = completion;
+        this.driver = null;
+        this.completion = null;
+        if (throwable == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Discards the collections that are waiting for the next cycle
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            requested.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
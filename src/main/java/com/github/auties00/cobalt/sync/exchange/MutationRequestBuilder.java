@@ -26,19 +26,44 @@ public final class MutationRequestBuilder {
         var hashState = whatsapp.store()
                 .findWebAppHashStateByName(patchType)
                 .orElseGet(() -> new AppStateSyncHash(patchType));
+        var request = new MutationSyncRequest(patchType, hashState.version(), patches);
+        return buildSyncRequest(List.of(request));
+    }
+
+    public NodeBuilder buildSyncRequest(SequencedCollection<MutationSyncRequest> requests) {
+        // Build a collection node for each requested collection
+        var collectionNodes = new ArrayList<Node>(requests.size());
+        for (var request : requests) {
+            collectionNodes.add(buildCollectionNode(request));
+        }
+
+        // Build sync node
+        var syncNode = new NodeBuilder()
+                .description("sync")
+                .content(collectionNodes)
+                .build();
 
+        // Build IQ request
+        return new NodeBuilder()
+                .description("iq")
+                .attribute("type", "set")
+                .attribute("xmlns", "w:sync:app:state")
+                .content(syncNode);
+    }
+
+    private Node buildCollectionNode(MutationSyncRequest request) {
         // Encrypt mutations if we have any to push
-        var mutationNodes = encryptMutations(patches);
+        var mutationNodes = encryptMutations(request.patches());
 
         // Build collection node
         var collectionBuilder = new NodeBuilder()
                 .description("collection")
-                .attribute("name", patchType.toString())
-                .attribute("return_snapshot", hashState.version() == 0);
+                .attribute("name", request.collectionName().toString())
+                .attribute("return_snapshot", request.version() == 0);
 
         // Only include version if we've synced before
-        if (hashState.version() > 0) {
-            collectionBuilder.attribute("version", hashState.version());
+        if (request.version() > 0) {
+            collectionBuilder.attribute("version", request.version());
         }
 
         // Build patch node if we have mutations
@@ -56,23 +81,9 @@ public final class MutationRequestBuilder {
             collectionBuilder.content(patchNode);
         }
 
-        var collectionNode = collectionBuilder.build();
-
-        // Build sync node
-        var syncNode = new NodeBuilder()
-                .description("sync")
-                .content(collectionNode)
-                .build();
-
-        // Build IQ request
-        return new NodeBuilder()
-                .description("iq")
-                .attribute("type", "set")
-                .attribute("xmlns", "w:sync:app:state")
-                .content(syncNode);
+        return collectionBuilder.build();
     }
 
-
     private SequencedCollection<Node> encryptMutations(SequencedCollection<PendingMutation> patches) {
         if(patches.isEmpty()) {
             return List.of();
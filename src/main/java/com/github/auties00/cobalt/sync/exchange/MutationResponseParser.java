@@ -13,14 +13,29 @@ import java.util.SequencedCollection;
 
 public final class MutationResponseParser {
     public MutationSyncResponse parseSyncResponse(Node responseNode) {
+        var responses = parseSyncResponses(responseNode);
+        if (responses.isEmpty()) {
+            throw new IllegalArgumentException("Response missing 'collection' node");
+        }
+
+        return responses.getFirst();
+    }
+
+    public SequencedCollection<MutationSyncResponse> parseSyncResponses(Node responseNode) {
         // Navigate to sync node
         var syncNode = responseNode.getChild("sync")
                 .orElseThrow(() -> new IllegalArgumentException("Response missing 'sync' node"));
 
-        // Navigate to collection node
-        var collectionNode = syncNode.getChild("collection")
-                .orElseThrow(() -> new IllegalArgumentException("Response missing 'collection' node"));
+        // Parse every collection node, the server answers in a single sync node for batched requests
+        var results = new ArrayList<MutationSyncResponse>();
+        for (var collectionNode : syncNode.getChildren("collection")) {
+            results.add(parseCollection(collectionNode));
+        }
+
+        return results;
+    }
 
+    private MutationSyncResponse parseCollection(Node collectionNode) {
         // Extract collection metadata
         var collectionName = collectionNode.getAttributeAsString("name")
                 .orElseThrow(() -> new IllegalArgumentException("Collection missing 'name' attribute"));
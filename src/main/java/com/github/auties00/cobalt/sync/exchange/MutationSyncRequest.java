@@ -0,0 +1,21 @@
+package com.github.auties00.cobalt.sync.exchange;
+
+import com.github.auties00.cobalt.model.sync.PatchType;
+import com.github.auties00.cobalt.model.sync.PendingMutation;
+
+import java.util.SequencedCollection;
+
+/**
+ * A single collection entry of a {@code w:sync:app:state} request.
+ *
+ * @param collectionName the collection to sync
+ * @param version the version the server should return patches after, 0 to request a snapshot
+ * @param patches the local patches to push alongside the request
+ */
+public record MutationSyncRequest(
+        PatchType collectionName,
+        long version,
+        SequencedCollection<PendingMutation> patches
+) {
+
+}
@@ -1,9 +1,13 @@
 package com.github.auties00.cobalt.sync.exchange;
 
+import com.github.auties00.cobalt.model.sync.ActionValueSyncSpec;
 import com.github.auties00.cobalt.model.sync.PatchSync;
 import com.github.auties00.cobalt.model.sync.PatchType;
+import com.github.auties00.cobalt.model.sync.RecordSync;
 import com.github.auties00.cobalt.model.sync.SnapshotSync;
+import com.github.auties00.cobalt.sync.crypto.DecryptedMutation;
 
+import java.util.Arrays;
 import java.util.SequencedCollection;
 
 public record MutationSyncResponse(
@@ -16,4 +20,71 @@ public record MutationSyncResponse(
     public boolean isSnapshot() {
         return snapshot != null;
     }
+
+    /**
+     * Returns whether the server accepted the patches pushed with a request
+     *
+     * @param request   the request that pushed the patches
+     * @param mutations the decrypted mutations of this response
+     * @return a boolean
+     */
+    public boolean acknowledges(MutationSyncRequest request, SequencedCollection<? extends DecryptedMutation> mutations) {
+        if (request.patches().isEmpty()) {
+            return false;
+        }
+
+        // A snapshot is the state of the collection after the push, so it holds the pushed patches only if they were accepted
+        if (isSnapshot()) {
+            return request.patches()
+                    .stream()
+                    .allMatch(patch -> isInSnapshot(patch.mutation(), mutations));
+        }
+
+        // The pushed patch takes the version that follows the one it was based on:
+        // if the server moved past it without returning a patch with that version from another device, it accepted ours
+        var patchVersion = request.version() + 1;
+        if (version < patchVersion) {
+            return false;
+        }
+
+        for (var patch : patches) {
+            if (patch.encodedVersion() == patchVersion) {
+                // Another device may have pushed the same mutations, in which case ours don't need to be pushed again
+                return request.patches()
+                        .stream()
+                        .allMatch(pending -> isInPatches(pending.mutation(), mutations));
+            }
+        }
+
+        return true;
+    }
+
+    // The index of a mutation identifies the value it changes, and its MAC is derived from it
+    private static boolean isInSnapshot(DecryptedMutation.Trusted pending, SequencedCollection<? extends DecryptedMutation> mutations) {
+        for (var mutation : mutations) {
+            if (mutation.index().equals(pending.index())) {
+                return pending.operation() == RecordSync.Operation.SET && hasValue(mutation, pending);
+            }
+        }
+        return pending.operation() == RecordSync.Operation.REMOVE;
+    }
+
+    private static boolean isInPatches(DecryptedMutation.Trusted pending, SequencedCollection<? extends DecryptedMutation> mutations) {
+        for (var mutation : mutations) {
+            if (mutation.index().equals(pending.index()) && mutation.operation() == pending.operation() && hasValue(mutation, pending)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasValue(DecryptedMutation mutation, DecryptedMutation.Trusted pending) {
+        var value = switch (mutation) {
+            case DecryptedMutation.Trusted trusted -> trusted.value();
+            case DecryptedMutation.Untrusted untrusted -> untrusted.value();
+        };
+        return value != null
+                && pending.value() != null
+                && Arrays.equals(ActionValueSyncSpec.encode(value), ActionValueSyncSpec.encode(pending.value()));
+    }
 }
@@ -44,6 +44,8 @@ public final class ArchiveChatHandler implements WebAppStateActionHandler {
             case SET -> chat.get().setArchived(action.archived());
             case REMOVE -> chat.get().setArchived(false);
         }
+        client.store()
+                .markChatChanged(chat.get());
 
         return true;
     }
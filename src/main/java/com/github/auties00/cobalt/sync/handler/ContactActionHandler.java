@@ -53,6 +53,10 @@ public final class ContactActionHandler implements WebAppStateActionHandler {
             }
         }
 
+        // Updates the indexes of the store with the new names
+        client.store()
+                .addContact(contact);
+
         return true;
     }
 }
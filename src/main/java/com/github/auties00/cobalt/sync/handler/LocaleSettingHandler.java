@@ -35,7 +35,7 @@ public final class LocaleSettingHandler implements WebAppStateActionHandler {
                 .setLocale(newLocale);
 
         for(var listener : client.store().listeners()) {
-            Thread.startVirtualThread(() -> listener.onLocaleChanged(client, oldLocale, newLocale));
+            client.dispatcher().execute(listener, null, () -> listener.onLocaleChanged(client, oldLocale, newLocale));
         }
 
         return true;
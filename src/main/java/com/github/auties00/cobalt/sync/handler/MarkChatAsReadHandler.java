@@ -50,6 +50,8 @@ public final class MarkChatAsReadHandler implements WebAppStateActionHandler {
                 chat.get().setUnreadMessagesCount(-1);
             }
         }
+        client.store()
+                .markChatChanged(chat.get());
 
         return true;
     }
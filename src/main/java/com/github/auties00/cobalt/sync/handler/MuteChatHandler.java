@@ -45,6 +45,8 @@ public final class MuteChatHandler implements WebAppStateActionHandler {
             case SET -> chat.get().setMute(ChatMute.muted(action.muteEndTimestampSeconds()));
             case REMOVE -> chat.get().setMute(ChatMute.notMuted());
         }
+        client.store()
+                .markChatChanged(chat.get());
 
         return true;
     }
@@ -50,6 +50,8 @@ public final class PinChatHandler implements WebAppStateActionHandler {
             }
             case REMOVE -> chat.get().setPinnedTimestampSeconds(0);
         }
+        client.store()
+                .markChatChanged(chat.get());
 
         return true;
     }
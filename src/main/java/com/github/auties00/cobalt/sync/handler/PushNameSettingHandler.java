@@ -32,7 +32,10 @@ public final class PushNameSettingHandler implements WebAppStateActionHandler {
         client.store()
                 .jid()
                 .flatMap(entry -> client.store().findContactByJid(entry.withoutData()))
-                .ifPresent(contact -> contact.setChosenName(setting.name()));
+                .ifPresent(contact -> {
+                    contact.setChosenName(setting.name());
+                    client.store().addContact(contact);
+                });
 
         return true;
     }
@@ -50,6 +50,9 @@ public final class StarMessageHandler implements WebAppStateActionHandler {
             case SET -> startMessage(message.get(), action.starred());
             case REMOVE -> startMessage(message.get(), false);
         }
+        if (message.get() instanceof ChatMessageInfo chatMessageInfo) {
+            client.store().markMessageChanged(chatMessageInfo);
+        }
 
         return true;
     }
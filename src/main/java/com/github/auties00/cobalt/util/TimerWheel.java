@@ -0,0 +1,358 @@
+package com.github.auties00.cobalt.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hierarchical timer wheel that runs delayed tasks.
+ * <p>
+ * Time is divided in ticks of {@value #TICK_MILLIS} milliseconds, and timers are stored in {@value #LEVELS} wheels
+ * of {@value #WHEEL_SIZE} slots: the first wheel holds the timers that expire in the next {@value #WHEEL_SIZE} ticks,
+ * and every following wheel covers a range {@value #WHEEL_SIZE} times larger.
+ * When a wheel completes a revolution, the timers in the next slot of the wheel above are moved to the wheel below.
+ * Scheduling and cancelling a timer are constant time operations, and timers that expire in the same tick are fired
+ * together, so that thousands of concurrent timers cost a single thread.
+ * The thread sleeps until the next tick in which a timer expires or is moved to a lower wheel, so an idle wheel doesn't wake up.
+ * Delays longer than the range of the wheels are supported, but they are re-scheduled once in a while.
+ * <p>
+ * Tasks are run on virtual threads, so they can block.
+ * Timers should be scheduled using a {@link Scope}, which cancels all of its timers at once when its owner, for example
+ * a connection, is closed.
+ */
+public final class TimerWheel {
+    private static final long TICK_MILLIS = 10;
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_RANGE = 1L << (WHEEL_BITS * LEVELS);
+
+    private static final TimerWheel SHARED = new TimerWheel("CobaltTimerWheel");
+
+    private final ReentrantLock lock;
+    private final Condition changed;
+    private final Timeout[] slots;
+    private final long startNanos;
+    private long currentTick;
+    private int size;
+
+    private TimerWheel(String name) {
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.slots = new Timeout[WHEEL_SIZE * LEVELS];
+        this.startNanos = System.nanoTime();
+        Thread.ofPlatform()
+                .name(name)
+                .daemon()
+                .start(this::run);
+    }
+
+    /**
+     * Returns the timer wheel shared by all the clients in the JVM
+     *
+     * @return a non-null timer wheel
+     */
+    public static TimerWheel shared() {
+        return SHARED;
+    }
+
+    /**
+     * Creates a new scope that schedules timers on this wheel
+     *
+     * @return a non-null scope
+     */
+    public Scope newScope() {
+        return new Scope();
+    }
+
+    /**
+     * Schedules a task
+     *
+     * @param delay the delay after which the task should run
+     * @param task  the task to run
+     * @return a handle that can be used to cancel the task
+     */
+    public Timeout schedule(Duration delay, Runnable task) {
+        Objects.requireNonNull(delay, "delay cannot be null");
+        Objects.requireNonNull(task, "task cannot be null");
+        var timeout = new Timeout(task, null);
+        add(timeout, delay);
+        return timeout;
+    }
+
+    private void add(Timeout timeout, Duration delay) {
+        var deadlineNanos = System.nanoTime() + Math.max(0, delay.toNanos());
+        lock.lock();
+        try {
+            if (size == 0) {
+                // Nothing is pending, so the ticks that elapsed while the wheel was idle can be skipped
+                this.currentTick = Math.max(currentTick, tickOf(System.nanoTime()));
+            }
+            timeout.deadlineTick = Math.ceilDiv(deadlineNanos - startNanos, TICK_NANOS);
+            insert(timeout, currentTick + 1);
+            size++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Places a timer in the lowest wheel whose range contains its deadline
+    // Must be called while holding the lock
+    private void insert(Timeout timeout, long minTick) {
+        // Timers beyond the range of the wheels are parked in the last slot and placed again when it's cascaded
+        var tick = Math.min(Math.max(timeout.deadlineTick, minTick), currentTick + MAX_RANGE - 1);
+        var delta = tick - currentTick;
+        var level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        var index = level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        var head = slots[index];
+        timeout.slot = index;
+        timeout.previous = null;
+        timeout.next = head;
+        if (head != null) {
+            head.previous = timeout;
+        }
+        slots[index] = timeout;
+    }
+
+    // Must be called while holding the lock
+    private void unlink(Timeout timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+    }
+
+    private boolean cancel(Timeout timeout) {
+        lock.lock();
+        try {
+            if (timeout.state != Timeout.PENDING) {
+                return false;
+            }
+
+            timeout.state = Timeout.CANCELLED;
+            unlink(timeout);
+            size--;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void run() {
+        var expired = new ArrayList<Timeout>();
+        while (true) {
+            lock.lock();
+            try {
+                while (size == 0) {
+                    changed.awaitUninterruptibly();
+                }
+
+                var nowTick = tickOf(System.nanoTime());
+                while (currentTick < nowTick && size > 0) {
+                    advance(expired);
+                }
+                if (size == 0) {
+                    this.currentTick = Math.max(currentTick, nowTick);
+                }
+
+                if (expired.isEmpty() && size > 0) {
+                    var nextTickNanos = startNanos + nextEventTick() * TICK_NANOS;
+                    changed.awaitNanos(nextTickNanos - System.nanoTime());
+                }
+            } catch (InterruptedException _) {
+                // Daemon thread, nothing to clean up
+            } finally {
+                lock.unlock();
+            }
+
+            fire(expired);
+            expired.clear();
+        }
+    }
+
+    // Moves the wheels forward by one tick, collecting the timers that expired
+    // Must be called while holding the lock
+    private void advance(List<Timeout> expired) {
+        var tick = ++currentTick;
+        var cascadeLevels = 0;
+        while (cascadeLevels < LEVELS - 1 && (tick & ((1L << (WHEEL_BITS * (cascadeLevels + 1))) - 1)) == 0) {
+            cascadeLevels++;
+        }
+        for (var level = cascadeLevels; level >= 1; level--) {
+            var index = level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            var timeout = slots[index];
+            slots[index] = null;
+            while (timeout != null) {
+                var next = timeout.next;
+                insert(timeout, tick);
+                timeout = next;
+            }
+        }
+
+        var index = (int) (tick & WHEEL_MASK);
+        var timeout = slots[index];
+        slots[index] = null;
+        while (timeout != null) {
+            var next = timeout.next;
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.state = Timeout.EXPIRED;
+            size--;
+            expired.add(timeout);
+            timeout = next;
+        }
+    }
+
+    // Returns the first tick after the current one in which a slot that holds timers is expired or cascaded
+    // A slot of a wheel is processed in the ticks that are a multiple of the range of the wheels below it
+    // Must be called while holding the lock
+    private long nextEventTick() {
+        var result = Long.MAX_VALUE;
+        for (var level = 0; level < LEVELS; level++) {
+            var shift = WHEEL_BITS * level;
+            var firstLevelTick = (currentTick >>> shift) + 1;
+            for (var offset = 0; offset < WHEEL_SIZE; offset++) {
+                var levelTick = firstLevelTick + offset;
+                var tick = levelTick << shift;
+                if (tick >= result) {
+                    break;
+                }
+
+                if (slots[level * WHEEL_SIZE + (int) (levelTick & WHEEL_MASK)] != null) {
+                    result = tick;
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void fire(List<Timeout> expired) {
+        for (var timeout : expired) {
+            if (timeout.scope != null) {
+                timeout.scope.timeouts.remove(timeout);
+            }
+            Thread.startVirtualThread(timeout.task);
+        }
+    }
+
+    private long tickOf(long nanos) {
+        return (nanos - startNanos) / TICK_NANOS;
+    }
+
+    /**
+     * A handle to a scheduled task
+     */
+    public final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final Scope scope;
+        private long deadlineTick;
+        private int slot;
+        private Timeout previous;
+        private Timeout next;
+        private volatile int state;
+
+        private Timeout(Runnable task, Scope scope) {
+            this.task = task;
+            this.scope = scope;
+        }
+
+        /**
+         * Cancels the task, if it didn't run yet
+         *
+         * @return whether the task was cancelled
+         */
+        public boolean cancel() {
+            var cancelled = TimerWheel.this.cancel(this);
+            if (cancelled && scope != null) {
+                scope.timeouts.remove(this);
+            }
+            return cancelled;
+        }
+
+        /**
+         * Returns whether the task was cancelled
+         *
+         * @return a boolean
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * Returns whether the task was started
+         *
+         * @return a boolean
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+    }
+
+    /**
+     * A group of timers that can be cancelled together
+     */
+    public final class Scope {
+        private final Set<Timeout> timeouts;
+
+        private Scope() {
+            this.timeouts = ConcurrentHashMap.newKeySet();
+        }
+
+        /**
+         * Schedules a task in this scope
+         *
+         * @param delay the delay after which the task should run
+         * @param task  the task to run
+         * @return a handle that can be used to cancel the task
+         */
+        public Timeout schedule(Duration delay, Runnable task) {
+            Objects.requireNonNull(delay, "delay cannot be null");
+            Objects.requireNonNull(task, "task cannot be null");
+            var timeout = new Timeout(task, this);
+            timeouts.add(timeout);
+            add(timeout, delay);
+            return timeout;
+        }
+
+        /**
+         * Cancels all the tasks in this scope that didn't run yet
+         */
+        public void cancelAll() {
+            for (var timeout : timeouts) {
+                timeout.cancel();
+            }
+        }
+
+        /**
+         * Returns the number of tasks in this scope that didn't run yet
+         *
+         * @return a non-negative number
+         */
+        public int pending() {
+            return timeouts.size();
+        }
+    }
+}
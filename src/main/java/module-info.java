@@ -23,6 +23,9 @@ module com.github.auties00.cobalt {
     // Message store
     requires com.github.auties00.collections;
 
+    // Metrics
+    requires jdk.jfr;
+
     // Mobile api
     requires net.dongliu.apkparser;
     requires com.google.i18n.phonenumbers.libphonenumber;
@@ -105,4 +108,10 @@ module com.github.auties00.cobalt {
 
     // Media
     exports com.github.auties00.cobalt.media;
+
+    // Contact discovery
+    exports com.github.auties00.cobalt.contact;
+
+    // Metrics
+    exports com.github.auties00.cobalt.metrics;
 }
\ No newline at end of file
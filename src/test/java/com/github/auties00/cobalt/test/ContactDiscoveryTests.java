@@ -0,0 +1,146 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.contact.ContactDiscoveryResult;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import com.github.auties00.cobalt.util.Clock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContactDiscoveryTests {
+    private static final Jid REGISTERED = Jid.of(393495089819L);
+    private static final Jid NOT_REGISTERED = Jid.of(393495089820L);
+    private static final Jid LID = Jid.of("123456789012345", JidServer.lid());
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("contact-discovery");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testResultsAreCached() throws IOException {
+        try (var server = new MockWhatsAppServer()) {
+            server.setResponder(ContactDiscoveryTests::answerUsync);
+            var client = server.connect(server.newClient(WhatsappStoreSerializer.discarding()));
+            try {
+                assertEquals(Set.of(REGISTERED), client.hasWhatsapp(REGISTERED, NOT_REGISTERED));
+                var result = client.discoverContacts(List.of(REGISTERED))
+                        .findFirst()
+                        .orElseThrow();
+                assertEquals(LID, result.lid());
+                assertEquals(List.of(REGISTERED.withDevice(0), REGISTERED.withDevice(3)), result.devices());
+
+                // Both contacts were answered by the first query
+                assertEquals(Set.of(REGISTERED), client.hasWhatsapp(REGISTERED, NOT_REGISTERED));
+                assertEquals(1, server.received(node -> node.hasAttribute("xmlns", "usync")).size());
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testResultsArePersistedUntilTheyExpire() {
+        var uuid = UUID.randomUUID();
+        var store = new WhatsAppStoreBuilder()
+                .uuid(uuid)
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        var now = Clock.nowMilliseconds();
+        var registered = new ContactDiscoveryResult(REGISTERED, true, LID, List.of(REGISTERED.withDevice(0)), now);
+        store.addContactDiscoveryResult(registered);
+        var expired = now - ContactDiscoveryResult.NOT_REGISTERED_TTL.plus(Duration.ofMinutes(1)).toMillis();
+        store.addContactDiscoveryResult(new ContactDiscoveryResult(NOT_REGISTERED, false, null, List.of(), expired));
+        WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+        var loaded = WhatsappStoreSerializer.toProtobuf(directory)
+                .startDeserialize(WhatsAppClientType.WEB, uuid)
+                .orElseThrow();
+        assertEquals(registered, loaded.findContactDiscoveryResult(REGISTERED).orElseThrow());
+        assertTrue(loaded.findContactDiscoveryResult(NOT_REGISTERED).isEmpty());
+    }
+
+    private static Node answerUsync(Node request) {
+        if (!request.hasAttribute("xmlns", "usync")) {
+            return null;
+        }
+
+        var registered = new NodeBuilder()
+                .description("user")
+                .attribute("jid", REGISTERED)
+                .content(
+                        new NodeBuilder()
+                                .description("contact")
+                                .attribute("type", "in")
+                                .build(),
+                        new NodeBuilder()
+                                .description("lid")
+                                .attribute("val", LID)
+                                .build(),
+                        new NodeBuilder()
+                                .description("devices")
+                                .content(new NodeBuilder()
+                                        .description("device-list")
+                                        .content(device(0), device(3))
+                                        .build())
+                                .build()
+                )
+                .build();
+        var notRegistered = new NodeBuilder()
+                .description("user")
+                .attribute("jid", NOT_REGISTERED)
+                .content(new NodeBuilder()
+                        .description("contact")
+                        .attribute("type", "out")
+                        .build())
+                .build();
+        var list = new NodeBuilder()
+                .description("list")
+                .content(registered, notRegistered)
+                .build();
+        var usync = new NodeBuilder()
+                .description("usync")
+                .content(list)
+                .build();
+        return MockWhatsAppServer.result(request)
+                .content(usync)
+                .build();
+    }
+
+    private static Node device(int id) {
+        return new NodeBuilder()
+                .description("device")
+                .attribute("id", id)
+                .build();
+    }
+}
@@ -0,0 +1,170 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.contact.ContactProfile;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import com.github.auties00.cobalt.util.Clock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContactProfileTests {
+    private static final Jid WITH_PICTURE = Jid.of(393495089819L);
+    private static final URI PICTURE = URI.create("https://pps.whatsapp.net/v/picture.jpg");
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("contact-profile");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testProfilesAreQueriedInChunks() throws IOException {
+        try (var server = new MockWhatsAppServer()) {
+            server.setResponder(ContactProfileTests::answerProfileQuery);
+            var client = server.connect(server.newClient(WhatsappStoreSerializer.discarding()));
+            try {
+                var users = LongStream.range(0, 600)
+                        .mapToObj(index -> Jid.of(393495089819L + index))
+                        .toList();
+                var profiles = client.queryProfiles(users).toList();
+                assertEquals(users.size(), profiles.size());
+                assertEquals(2, server.received(node -> node.hasAttribute("xmlns", "usync")).size());
+
+                // Only the user with a picture id needs its url
+                var profile = client.store()
+                        .findContactProfile(WITH_PICTURE)
+                        .orElseThrow();
+                assertEquals(PICTURE, profile.pictureUri().orElseThrow());
+                assertEquals("about", profile.aboutText().orElseThrow());
+                assertEquals(1, server.received(ContactProfileTests::isPictureQuery).size());
+
+                // The picture id didn't change, so the cached url is used
+                client.queryProfiles(List.of(WITH_PICTURE)).toList();
+                assertEquals(3, server.received(node -> node.hasAttribute("xmlns", "usync")).size());
+                assertEquals(1, server.received(ContactProfileTests::isPictureQuery).size());
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testPresenceSubscriptionsAreSent() throws IOException, InterruptedException {
+        try (var server = new MockWhatsAppServer()) {
+            var client = server.connect(server.newClient(WhatsappStoreSerializer.discarding()));
+            try {
+                var users = LongStream.range(0, 50)
+                        .mapToObj(index -> Jid.of(393495089819L + index))
+                        .toList();
+                client.subscribeToPresence(users);
+                var subscriptions = server.await(node -> node.hasDescription("presence") && node.hasAttribute("type", "subscribe"), users.size());
+                assertEquals(users, subscriptions.stream()
+                        .map(node -> node.getRequiredAttributeAsJid("to"))
+                        .toList());
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testProfilesArePersisted() {
+        var uuid = UUID.randomUUID();
+        var store = new WhatsAppStoreBuilder()
+                .uuid(uuid)
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        var profile = new ContactProfile(WITH_PICTURE, "about", 1700000000L, "1", PICTURE, Clock.nowMilliseconds());
+        store.addContactProfile(profile);
+        WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+        var loaded = WhatsappStoreSerializer.toProtobuf(directory)
+                .startDeserialize(WhatsAppClientType.WEB, uuid)
+                .orElseThrow();
+        assertEquals(profile, loaded.findContactProfile(WITH_PICTURE).orElseThrow());
+    }
+
+    private static boolean isPictureQuery(Node node) {
+        return node.hasAttribute("xmlns", "w:profile:picture");
+    }
+
+    private static Node answerProfileQuery(Node request) {
+        if (isPictureQuery(request)) {
+            var picture = new NodeBuilder()
+                    .description("picture")
+                    .attribute("id", "1")
+                    .attribute("url", PICTURE.toString())
+                    .build();
+            return MockWhatsAppServer.result(request)
+                    .content(picture)
+                    .build();
+        }
+
+        if (!request.hasAttribute("xmlns", "usync")) {
+            return null;
+        }
+
+        var users = request.getRequiredChild("usync")
+                .getRequiredChild("list")
+                .streamChildren("user")
+                .map(user -> answerUser(user.getRequiredAttributeAsJid("jid")))
+                .toList();
+        var list = new NodeBuilder()
+                .description("list")
+                .content(users)
+                .build();
+        var usync = new NodeBuilder()
+                .description("usync")
+                .content(list)
+                .build();
+        return MockWhatsAppServer.result(request)
+                .content(usync)
+                .build();
+    }
+
+    private static Node answerUser(Jid jid) {
+        var status = new NodeBuilder()
+                .description("status")
+                .attribute("t", 1700000000L)
+                .content("about")
+                .build();
+        var picture = new NodeBuilder()
+                .description("picture");
+        if (jid.equals(WITH_PICTURE)) {
+            picture.attribute("id", "1");
+        }
+        return new NodeBuilder()
+                .description("user")
+                .attribute("jid", jid)
+                .content(status, picture.build())
+                .build();
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroupSyncTests {
+    private static final Jid FIRST = Jid.of("120363144038483541", JidServer.groupOrCommunity());
+    private static final Jid SECOND = Jid.of("120363144038483542", JidServer.groupOrCommunity());
+    private static final Jid THIRD = Jid.of("120363144038483543", JidServer.groupOrCommunity());
+
+    private final Map<Jid, String> subjects = new ConcurrentHashMap<>();
+    private MockWhatsAppServer server;
+    private WhatsAppClient client;
+
+    @BeforeEach
+    public void connect() throws IOException {
+        subjects.put(FIRST, "first");
+        subjects.put(SECOND, "second");
+        subjects.put(THIRD, "third");
+        this.server = new MockWhatsAppServer();
+        server.setResponder(this::answerGroupQuery);
+        this.client = server.newClient(WhatsappStoreSerializer.discarding());
+        client.store().setJid(Jid.of(393495089818L));
+        server.connect(client);
+    }
+
+    @AfterEach
+    public void disconnect() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Test
+    public void testOnlyChangedGroupsAreFetched() {
+        assertEquals(Set.of(FIRST, SECOND, THIRD), jids(client.queryGroups()));
+        assertEquals(3, metadataQueries().size());
+
+        // Nothing changed
+        client.queryGroups();
+        assertEquals(3, metadataQueries().size());
+
+        // One changed group costs one fetch
+        subjects.put(SECOND, "renamed");
+        client.queryGroups();
+        var queries = metadataQueries();
+        assertEquals(4, queries.size());
+        assertEquals(SECOND, queries.getLast().getRequiredAttributeAsJid("to"));
+        assertEquals("renamed", client.store().findChatByJid(SECOND).orElseThrow().name());
+    }
+
+    @Test
+    public void testLeftGroupsAreDropped() {
+        client.queryGroups();
+        subjects.remove(THIRD);
+        assertEquals(Set.of(FIRST, SECOND), jids(client.queryGroups()));
+        assertTrue(client.store().findGroupOrCommunityVersion(THIRD).isEmpty());
+        assertEquals(3, metadataQueries().size());
+    }
+
+    private List<Node> metadataQueries() {
+        return server.received(node -> node.hasAttribute("xmlns", "w:g2") && node.hasChild("query"));
+    }
+
+    private static Set<Jid> jids(Collection<Chat> chats) {
+        return chats.stream()
+                .map(Chat::jid)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private Node answerGroupQuery(Node request) {
+        if (!request.hasAttribute("xmlns", "w:g2")) {
+            return null;
+        }
+
+        if (request.hasChild("participating")) {
+            var groups = subjects.entrySet()
+                    .stream()
+                    .map(entry -> group(entry.getKey(), entry.getValue()))
+                    .toList();
+            return MockWhatsAppServer.result(request)
+                    .content(new NodeBuilder()
+                            .description("groups")
+                            .content(groups)
+                            .build())
+                    .build();
+        }
+
+        var jid = request.getRequiredAttributeAsJid("to");
+        return MockWhatsAppServer.result(request)
+                .content(group(jid, subjects.get(jid)))
+                .build();
+    }
+
+    private static Node group(Jid jid, String subject) {
+        return new NodeBuilder()
+                .description("group")
+                .attribute("id", jid.user())
+                .attribute("subject", subject)
+                .attribute("creation", 1700000000L)
+                .build();
+    }
+}
@@ -143,6 +143,57 @@ public class JidTests {
         assertRoundTrip(Jid.of(JidServer.newsletter()));
     }
 
+    @Test
+    public void testCacheHit() {
+        var parsed = Jid.of("393495089819:2@s.whatsapp.net");
+        assertSame(parsed, Jid.of("393495089819:2@s.whatsapp.net"));
+        assertSame(parsed, Jid.of("393495089819", JidServer.user(), 2, 0));
+        assertSame(parsed.toString(), parsed.toString());
+        assertSame(Jid.of(393495089819L), Jid.of("393495089819@s.whatsapp.net"));
+    }
+
+    @Test
+    public void testCacheMiss() {
+        var first = Jid.of("393495089819@s.whatsapp.net");
+        var second = Jid.of("393495089818@s.whatsapp.net");
+        var device = Jid.of("393495089819:1@s.whatsapp.net");
+        var group = Jid.of("393495089819@g.us");
+        assertNotEquals(first, second);
+        assertNotEquals(first, device);
+        assertNotEquals(first, group);
+        assertEquals("393495089818@s.whatsapp.net", second.toString());
+        assertEquals("393495089819:1@s.whatsapp.net", device.toString());
+        assertEquals("393495089819@g.us", group.toString());
+    }
+
+    @Test
+    public void testCacheEquality() {
+        // Jids created with the constructor are never cached, but they are equal to the cached ones
+        var cached = Jid.of("393495089819:3@s.whatsapp.net");
+        var created = new Jid("393495089819", JidServer.user(), 3, 0);
+        assertNotSame(cached, created);
+        assertEquals(cached, created);
+        assertEquals(cached.hashCode(), created.hashCode());
+        assertEquals(cached.toString(), created.toString());
+        assertEquals(created, Jid.of(created.toString()));
+    }
+
+    @Test
+    public void testCacheEviction() {
+        // More jids than slots, so that colliding jids replace each other
+        var count = 1 << 16;
+        var jids = new Jid[count];
+        for (var i = 0; i < count; i++) {
+            jids[i] = Jid.of(String.valueOf(100_000_000_000L + i), JidServer.user(), i % 4, 0);
+        }
+        for (var i = 0; i < count; i++) {
+            var expected = (100_000_000_000L + i) + (i % 4 == 0 ? "" : ":" + (i % 4)) + "@s.whatsapp.net";
+            assertEquals(expected, jids[i].toString());
+            assertEquals(jids[i], Jid.of(expected));
+            assertEquals(jids[i], Jid.of(String.valueOf(100_000_000_000L + i), JidServer.user(), i % 4, 0));
+        }
+    }
+
     private static void assertRoundTrip(Jid original) {
         var canonical = original.toString();
         var reparsed = Jid.of(canonical);
@@ -0,0 +1,195 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The file of the key value serializer, seen through the chats and messages it persists
+public class KeyValueFileTests {
+    private static final Jid FIRST_JID = Jid.of(39349508981L);
+    private static final Jid SECOND_JID = Jid.of(393495089819L);
+
+    private Path directory;
+    private WhatsAppStore store;
+
+    @BeforeEach
+    public void createStore() throws IOException {
+        this.directory = Files.createTempDirectory("key-value-file");
+        this.store = new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        store.setSerializer(WhatsappStoreSerializer.toKeyValue(directory));
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testPutGetDelete() {
+        store.addChat(newChat(FIRST_JID, "first"));
+        store.addChat(newChat(SECOND_JID, "second"));
+        store.serialize();
+        store.removeChat(SECOND_JID);
+        store.findChatByJid(FIRST_JID).orElseThrow().setName("renamed");
+        store.serialize();
+
+        var loaded = load();
+        assertEquals("renamed", loaded.findChatByJid(FIRST_JID).orElseThrow().name());
+        assertTrue(loaded.findChatByJid(SECOND_JID).isEmpty());
+    }
+
+    @Test
+    public void testScanPrefix() {
+        // The jid of the first chat is a prefix of the jid of the second one
+        var first = store.addChat(newChat(FIRST_JID, "first"));
+        first.addMessage(newMessage(FIRST_JID, "last", 3));
+        first.addMessage(newMessage(FIRST_JID, "first", 1));
+        first.addMessage(newMessage(FIRST_JID, "second", 2));
+        store.addChat(newChat(SECOND_JID, "second")).addMessage(newMessage(SECOND_JID, "other", 1));
+        store.serialize();
+
+        var loaded = load();
+        assertEquals(List.of("first", "second", "last"), messageIds(loaded, FIRST_JID));
+        assertEquals(List.of("other"), messageIds(loaded, SECOND_JID));
+    }
+
+    @Test
+    public void testTornTransaction() throws IOException {
+        store.addChat(newChat(FIRST_JID, "first"));
+        store.serialize();
+        var committedSize = Files.size(sessionFile());
+        store.findChatByJid(FIRST_JID).orElseThrow().setName("renamed");
+        store.addChat(newChat(SECOND_JID, "second"));
+        store.serialize();
+
+        // The commit record of the second transaction is torn, so none of its records are applied
+        try (var channel = FileChannel.open(sessionFile(), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        var loaded = load();
+        assertEquals("first", loaded.findChatByJid(FIRST_JID).orElseThrow().name());
+        assertTrue(loaded.findChatByJid(SECOND_JID).isEmpty());
+        assertEquals(committedSize, Files.size(sessionFile()));
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        store.addChat(newChat(FIRST_JID, "first"));
+        store.serialize();
+        store.addChat(newChat(SECOND_JID, "second"));
+        store.serialize();
+
+        var bytes = Files.readAllBytes(sessionFile());
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(sessionFile(), bytes);
+        var loaded = load();
+        assertTrue(loaded.findChatByJid(FIRST_JID).isPresent());
+        assertTrue(loaded.findChatByJid(SECOND_JID).isEmpty());
+
+        // Transactions are appended after the last valid one
+        loaded.findChatByJid(FIRST_JID).orElseThrow().setName("renamed");
+        loaded.serialize();
+        assertEquals("renamed", load().findChatByJid(FIRST_JID).orElseThrow().name());
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        var chat = store.addChat(newChat(FIRST_JID, "first"));
+        var text = "a".repeat(64 * 1024);
+        for (var i = 0; i < 128; i++) {
+            if (i > 0) {
+                chat.removeMessage(String.valueOf(i - 1));
+            }
+            chat.addMessage(newMessage(FIRST_JID, String.valueOf(i), i, text));
+            store.serialize();
+        }
+
+        // Most of the file is made of messages that were removed
+        assertTrue(Files.size(sessionFile()) < 16 * text.length());
+        assertFalse(Files.exists(sessionFile().resolveSibling(sessionFile().getFileName() + ".tmp")));
+
+        // Transactions committed after a compaction are appended to the compacted file
+        store.addChat(newChat(SECOND_JID, "second"));
+        store.serialize();
+        var loaded = load();
+        assertEquals(List.of("127"), messageIds(loaded, FIRST_JID));
+        assertTrue(loaded.findChatByJid(SECOND_JID).isPresent());
+    }
+
+    private WhatsAppStore load() {
+        var serializer = WhatsappStoreSerializer.toKeyValue(directory);
+        var result = serializer.startDeserialize(WhatsAppClientType.WEB, store.uuid()).orElseThrow();
+        result.setSerializer(serializer);
+        serializer.finishDeserialize(result);
+        return result;
+    }
+
+    private Path sessionFile() {
+        return directory.resolve("web").resolve(store.uuid() + ".kv");
+    }
+
+    private static List<String> messageIds(WhatsAppStore store, Jid chatJid) {
+        return store.findChatByJid(chatJid)
+                .orElseThrow()
+                .messages()
+                .stream()
+                .map(ChatMessageInfo::id)
+                .toList();
+    }
+
+    private static Chat newChat(Jid jid, String name) {
+        var chat = new ChatBuilder()
+                .jid(jid)
+                .build();
+        chat.setName(name);
+        return chat;
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds) {
+        return newMessage(chatJid, id, timestampSeconds, "message " + id);
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds, String text) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(chatJid)
+                        .id(id)
+                        .build())
+                .senderJid(chatJid)
+                .message(LazyMessageContainer.of(MessageContainer.of(text)))
+                .timestampSeconds(timestampSeconds)
+                .build();
+    }
+}
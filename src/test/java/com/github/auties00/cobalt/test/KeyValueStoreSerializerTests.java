@@ -0,0 +1,221 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyValueStoreSerializerTests {
+    private static final Jid CHAT_JID = Jid.of(393495089819L);
+    private static final Jid OTHER_CHAT_JID = Jid.of(393495089820L);
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("key-value-serializer");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testChangedMessagesArePersisted() {
+        var store = newStore();
+        var chat = store.addChat(newChat(CHAT_JID));
+        var first = newMessage(CHAT_JID, "1", 1);
+        var second = newMessage(CHAT_JID, "2", 2);
+        chat.addMessage(first);
+        chat.addMessage(second);
+        var serializer = WhatsappStoreSerializer.toKeyValue(directory);
+        serializer.serialize(store);
+
+        first.setStarred(true);
+        store.markMessageChanged(first);
+        chat.removeMessage(second.id());
+        chat.addMessage(newMessage(CHAT_JID, "3", 3));
+        serializer.serialize(store);
+
+        var messages = load(store.uuid())
+                .findChatByJid(CHAT_JID)
+                .orElseThrow()
+                .messages();
+        assertEquals(List.of("1", "3"), messages.stream().map(ChatMessageInfo::id).toList());
+        assertTrue(messages.getFirst().starred());
+    }
+
+    @Test
+    public void testLoadedMessagesAreNotWrittenAgain() throws IOException {
+        var store = newStore();
+        var chat = store.addChat(newChat(CHAT_JID));
+        var text = "a".repeat(64 * 1024);
+        chat.addMessage(newMessage(CHAT_JID, "1", 1, text));
+        WhatsappStoreSerializer.toKeyValue(directory).serialize(store);
+
+        // Only the store is written again, as its chats were restored
+        var file = sessionFile(store.uuid());
+        var size = Files.size(file);
+        var loaded = load(store.uuid());
+        loaded.serialize();
+        assertTrue(Files.size(file) - size < text.length());
+
+        var message = loaded.findChatByJid(CHAT_JID)
+                .orElseThrow()
+                .getMessageById("1")
+                .orElseThrow();
+        message.setStarred(true);
+        loaded.markMessageChanged(message);
+        size = Files.size(file);
+        loaded.serialize();
+        assertTrue(Files.size(file) - size > text.length());
+    }
+
+    @Test
+    public void testClearedMessagesArePersisted() {
+        var store = newStore();
+        var chat = store.addChat(newChat(CHAT_JID));
+        chat.addMessage(newMessage(CHAT_JID, "1", 1));
+        chat.addMessage(newMessage(CHAT_JID, "2", 2));
+        var serializer = WhatsappStoreSerializer.toKeyValue(directory);
+        serializer.serialize(store);
+
+        chat.removeMessages();
+        serializer.serialize(store);
+
+        assertTrue(load(store.uuid()).findChatByJid(CHAT_JID).orElseThrow().messages().isEmpty());
+    }
+
+    @Test
+    public void testFailedLoadDoesNotRemoveChats() throws Exception {
+        var store = newStore();
+        store.addChat(newChat(CHAT_JID)).addMessage(newMessage(CHAT_JID, "1", 1));
+        store.addChat(newChat(OTHER_CHAT_JID)).addMessage(newMessage(OTHER_CHAT_JID, "2", 2));
+        WhatsappStoreSerializer.toKeyValue(directory).serialize(store);
+
+        // Chats are loaded in the order of their keys, so the first one is decoded before the load fails
+        var file = sessionFile(store.uuid());
+        var original = Files.readAllBytes(file);
+        Files.write(file, corruptValue(original, OTHER_CHAT_JID.toString()));
+        var serializer = WhatsappStoreSerializer.toKeyValue(directory);
+        var loaded = serializer.startDeserialize(WhatsAppClientType.WEB, store.uuid()).orElseThrow();
+        loaded.setSerializer(serializer);
+        var chats = loaded.whenDeserialized(WhatsAppStoreSubsystem.CHATS);
+        assertThrows(ExecutionException.class, () -> chats.get(10, TimeUnit.SECONDS));
+        assertTrue(loaded.chats().isEmpty());
+        loaded.serialize();
+
+        // Once the value is readable again, the chats that weren't loaded are still there
+        var bytes = Files.readAllBytes(file);
+        System.arraycopy(original, 0, bytes, 0, original.length);
+        Files.write(file, bytes);
+        var reloaded = load(store.uuid());
+        assertEquals(1, reloaded.findChatByJid(CHAT_JID).orElseThrow().messages().size());
+        assertEquals(1, reloaded.findChatByJid(OTHER_CHAT_JID).orElseThrow().messages().size());
+    }
+
+    // Replaces the value of the record with the given key with one that can't be decoded, keeping the record valid
+    // Every record is made of its checksum, the length of its body, and a body made of its type, keyspace, key length, key and value
+    private static byte[] corruptValue(byte[] file, String key) {
+        var result = file.clone();
+        var buffer = ByteBuffer.wrap(result);
+        var expectedKey = key.getBytes(StandardCharsets.UTF_8);
+        while (buffer.remaining() > 0) {
+            var offset = buffer.position();
+            buffer.getInt();
+            var bodyLength = buffer.getInt();
+            var bodyOffset = buffer.position();
+            buffer.get();
+            buffer.get();
+            var keyLength = buffer.getInt();
+            var recordKey = new byte[keyLength];
+            buffer.get(recordKey);
+            var valueOffset = buffer.position();
+            var valueLength = bodyLength - (valueOffset - bodyOffset);
+            if (Arrays.equals(recordKey, expectedKey) && valueLength > 0) {
+                Arrays.fill(result, valueOffset, valueOffset + valueLength, (byte) 0xFF);
+                var checksum = new CRC32();
+                checksum.update(result, bodyOffset, bodyLength);
+                buffer.putInt(offset, (int) checksum.getValue());
+                return result;
+            }
+            buffer.position(valueOffset + valueLength);
+        }
+        throw new AssertionError("No record with key " + key);
+    }
+
+    private WhatsAppStore load(UUID uuid) {
+        var serializer = WhatsappStoreSerializer.toKeyValue(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid).orElseThrow();
+        store.setSerializer(serializer);
+        serializer.finishDeserialize(store);
+        return store;
+    }
+
+    private Path sessionFile(UUID uuid) {
+        return directory.resolve("web").resolve(uuid + ".kv");
+    }
+
+    private static Chat newChat(Jid jid) {
+        return new ChatBuilder()
+                .jid(jid)
+                .build();
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds) {
+        return newMessage(chatJid, id, timestampSeconds, "message " + id);
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds, String text) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(chatJid)
+                        .id(id)
+                        .build())
+                .senderJid(chatJid)
+                .message(LazyMessageContainer.of(MessageContainer.of(text)))
+                .timestampSeconds(timestampSeconds)
+                .build();
+    }
+
+    private static WhatsAppStore newStore() {
+        return new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+    }
+}
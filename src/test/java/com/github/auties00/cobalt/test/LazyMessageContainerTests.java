@@ -0,0 +1,244 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.*;
+import com.github.auties00.cobalt.model.message.server.DeviceSentMessageBuilder;
+import com.github.auties00.cobalt.model.message.server.ProtocolMessageBuilder;
+import com.github.auties00.cobalt.model.message.standard.*;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LazyMessageContainerTests {
+    private static final ChatMessageKey KEY = new ChatMessageKeyBuilder()
+            .chatJid(Jid.of(393495089819L))
+            .build();
+
+    // One message for each type that LazyMessageContainer looks up by field index
+    private static final Map<Message.Type, Message> TYPED_MESSAGES = Map.of(
+            Message.Type.IMAGE, new ImageMessageBuilder().build(),
+            Message.Type.DOCUMENT, new DocumentMessageBuilder().build(),
+            Message.Type.VIDEO, new VideoOrGifMessageBuilder().build(),
+            Message.Type.PROTOCOL, new ProtocolMessageBuilder().build(),
+            Message.Type.STICKER, new StickerMessageBuilder().build(),
+            Message.Type.REACTION, new ReactionMessageBuilder().key(KEY).build(),
+            Message.Type.POLL_CREATION, new PollCreationMessageBuilder().build(),
+            Message.Type.POLL_UPDATE, new PollUpdateMessageBuilder().build(),
+            Message.Type.KEEP_IN_CHAT, new KeepInChatMessageBuilder().key(KEY).keepType(KeepInChat.Type.KEEP_FOR_ALL).build(),
+            Message.Type.ENCRYPTED_REACTION, new EncryptedReactionMessageBuilder().targetMessageKey(KEY).encPayload(new byte[16]).encIv(new byte[12]).build()
+    );
+
+    @Test
+    public void testTypeFields() {
+        assertTypes(MessageContainer::of);
+    }
+
+    @Test
+    public void testFutureProofFields() {
+        assertTypes(MessageContainer::ofViewOnce);
+        assertTypes(MessageContainer::ofViewOnceV2);
+        assertTypes(MessageContainer::ofEphemeral);
+        assertTypes(MessageContainer::ofEditedMessage);
+        assertTypes(MessageContainer::ofDocumentWithCaption);
+        assertTypes(message -> new MessageContainerBuilder()
+                .viewOnceV2ExtensionMessage(new FutureMessageContainerBuilder()
+                        .value(MessageContainer.of(message))
+                        .build())
+                .build());
+    }
+
+    @Test
+    public void testDeviceSentField() {
+        assertTypes(message -> new MessageContainerBuilder()
+                .deviceSentMessage(new DeviceSentMessageBuilder()
+                        .destinationJid(KEY.chatJid())
+                        .message(MessageContainer.of(message))
+                        .build())
+                .build());
+        assertTypes(message -> new MessageContainerBuilder()
+                .deviceSentMessage(new DeviceSentMessageBuilder()
+                        .destinationJid(KEY.chatJid())
+                        .message(MessageContainer.ofEphemeral(message))
+                        .build())
+                .build());
+    }
+
+    // Encodes each message using the generated spec and checks that the type is found by reading only the tags
+    private static void assertTypes(Function<Message, MessageContainer> wrapper) {
+        TYPED_MESSAGES.forEach((type, message) -> {
+            var encoded = MessageContainerSpec.encode(wrapper.apply(message));
+            var container = LazyMessageContainer.of(encoded);
+            for (var other : TYPED_MESSAGES.keySet()) {
+                assertEquals(other == type, container.mayHaveType(other), type + " reported as " + other);
+            }
+            assertFalse(container.isDecoded());
+            assertTrue(container.get().hasType(type));
+        });
+    }
+
+    @Test
+    public void testHashIsStableAcrossDecode() {
+        var encoded = MessageContainerSpec.encode(MessageContainer.of("Hello"));
+        var container = LazyMessageContainer.of(encoded);
+        var hash = container.hashCode();
+        container.get();
+        assertTrue(container.isDecoded());
+        assertEquals(hash, container.hashCode());
+        assertEquals(hash, LazyMessageContainer.of(MessageContainerSpec.decode(encoded)).hashCode());
+    }
+
+    @Test
+    public void testHashIsStableAcrossEviction() {
+        var storage = new MessageBodyStorage(1);
+        var first = LazyMessageContainer.of(MessageContainerSpec.encode(MessageContainer.of("first")));
+        var second = LazyMessageContainer.of(MessageContainerSpec.encode(MessageContainer.of("second")));
+        var firstHash = first.hashCode();
+        var secondHash = second.hashCode();
+        assertTrue(first.moveTo(storage));
+        assertTrue(second.moveTo(storage));
+        assertEquals(firstHash, first.hashCode());
+
+        // Decoding the second container evicts the first one
+        first.get();
+        second.get();
+        assertTrue(second.isDecoded());
+        assertFalse(first.isDecoded());
+        assertEquals(firstHash, first.hashCode());
+        assertEquals(secondHash, second.hashCode());
+        assertArrayEquals(MessageContainerSpec.encode(MessageContainer.of("first")), MessageContainerSpec.encode(first.get()));
+    }
+
+    @Test
+    public void testDecodedContainerIsMoved() {
+        var storage = new MessageBodyStorage(1);
+        var live = LazyMessageContainer.of(MessageContainer.of("live"));
+        var hash = live.hashCode();
+        assertTrue(live.moveTo(storage));
+        assertTrue(live.isDecoded());
+
+        // Moving another decoded container evicts the first one
+        assertTrue(LazyMessageContainer.of(MessageContainer.of("other")).moveTo(storage));
+        assertFalse(live.isDecoded());
+        assertEquals(hash, live.hashCode());
+        assertArrayEquals(MessageContainerSpec.encode(MessageContainer.of("live")), live.toBytes());
+        assertFalse(LazyMessageContainer.empty().moveTo(storage));
+    }
+
+    @Test
+    public void testHeldContainerSurvivesEviction() {
+        var storage = new MessageBodyStorage(1);
+        var image = LazyMessageContainer.of(MessageContainerSpec.encode(MessageContainer.of(new ImageMessageBuilder()
+                .mediaDirectPath("old")
+                .build())));
+        var other = LazyMessageContainer.of(MessageContainerSpec.encode(MessageContainer.of("other")));
+        assertTrue(image.moveTo(storage));
+        assertTrue(other.moveTo(storage));
+
+        var held = image.get();
+        other.get();
+        assertFalse(image.isDecoded());
+
+        // The decoded form is still referenced, so it's changed in place and returned again instead of being decoded from the storage
+        ((ImageMessage) held.content()).setMediaDirectPath("new");
+        assertEquals("new", ((ImageMessage) MessageContainerSpec.decode(image.toBytes()).content()).mediaDirectPath().orElseThrow());
+        image.markChanged();
+        assertTrue(image.isDecoded());
+        assertSame(held, image.get());
+    }
+
+    @Test
+    public void testHashChangesWhenMarkedChanged() {
+        var image = LazyMessageContainer.of(MessageContainerSpec.encode(MessageContainer.of(new ImageMessageBuilder()
+                .mediaUrl("https://mmg.whatsapp.net/old")
+                .mediaDirectPath("old")
+                .build())));
+        var hash = image.hashCode();
+        var message = (ImageMessage) image.get().content();
+        message.setMediaUrl(null);
+        message.setMediaDirectPath("new");
+        assertEquals(hash, image.hashCode());
+
+        image.markChanged();
+        var changed = MessageContainerSpec.encode(MessageContainer.of(new ImageMessageBuilder()
+                .mediaDirectPath("new")
+                .build()));
+        assertNotEquals(hash, image.hashCode());
+        assertEquals(LazyMessageContainer.of(changed).hashCode(), image.hashCode());
+        assertArrayEquals(changed, image.toBytes());
+    }
+
+    @Test
+    public void testChangedMessageIsPersisted() throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        var directory = Files.createTempDirectory("lazy-container");
+        try {
+            var uuid = UUID.randomUUID();
+            var store = new WhatsAppStoreBuilder()
+                    .uuid(uuid)
+                    .clientType(WhatsAppClientType.WEB)
+                    .device(JidCompanion.web())
+                    .build();
+            var chat = store.addNewChat(KEY.chatJid());
+            chat.addMessage(new ChatMessageInfoBuilder()
+                    .key(new ChatMessageKeyBuilder()
+                            .chatJid(KEY.chatJid())
+                            .id("image")
+                            .build())
+                    .senderJid(KEY.chatJid())
+                    .message(LazyMessageContainer.of(MessageContainer.of(new ImageMessageBuilder()
+                            .mediaDirectPath("old")
+                            .build())))
+                    .timestampSeconds(1)
+                    .build());
+            WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+            // The message is loaded lazily, then decoded and changed in place, like a media reupload does
+            var loaded = load(directory, uuid);
+            var loadedChat = loaded.findChatByJid(KEY.chatJid()).orElseThrow();
+            var info = loadedChat.getMessageById("image").orElseThrow();
+            var hash = loadedChat.hashCode();
+            ((ImageMessage) info.message().content()).setMediaDirectPath("new");
+            loaded.markMessageChanged(info);
+            assertNotEquals(hash, loadedChat.hashCode());
+            loaded.serialize();
+
+            var reloaded = load(directory, uuid)
+                    .findChatByJid(KEY.chatJid())
+                    .flatMap(entry -> entry.getMessageById("image"))
+                    .orElseThrow();
+            assertEquals("new", ((ImageMessage) reloaded.message().content()).mediaDirectPath().orElseThrow());
+        } finally {
+            try (var files = Files.walk(directory)) {
+                for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static WhatsAppStore load(Path directory, UUID uuid) throws ExecutionException, InterruptedException, TimeoutException {
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid)
+                .orElseThrow()
+                .setSerializer(serializer);
+        store.whenDeserialized(WhatsAppStoreSubsystem.CHATS).get(10, TimeUnit.SECONDS);
+        return store;
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.media.MediaConnection;
+import com.github.auties00.cobalt.media.MediaHost;
+import com.github.auties00.cobalt.media.MediaTransport;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MediaConnectionTests {
+    private static final MediaHost FAST = new MediaHost.Fallback("fast.whatsapp.net");
+    private static final MediaHost SLOW = new MediaHost.Fallback("slow.whatsapp.net");
+    private static final MediaHost FAILED = new MediaHost.Fallback("failed.whatsapp.net");
+    private static final MediaHost UNTRIED = new MediaHost.Fallback("untried.whatsapp.net");
+
+    @Test
+    public void testUntriedHostIsRankedBeforeFailedHost() {
+        var connection = newConnection(Map.of(
+                FAILED.hostname(), Duration.ofSeconds(30).toNanos(),
+                FAST.hostname(), Duration.ofMillis(20).toNanos(),
+                SLOW.hostname(), Duration.ofMillis(400).toNanos()
+        ));
+        // The untried host takes the median latency, so it ties with the slow host and keeps the order of the server
+        assertEquals(List.of(FAST, SLOW, UNTRIED, FAILED), List.copyOf(connection.rankedHosts()));
+    }
+
+    @Test
+    public void testUntriedHostIsRankedBeforeOnlyFailedHost() {
+        var connection = newConnection(Map.of(FAILED.hostname(), Duration.ofSeconds(30).toNanos()));
+        assertEquals(List.of(FAST, SLOW, UNTRIED, FAILED), List.copyOf(connection.rankedHosts()));
+    }
+
+    @Test
+    public void testHostsKeepServerOrderWhenUnmeasured() {
+        var connection = newConnection(Map.of());
+        assertEquals(List.of(FAILED, FAST, SLOW, UNTRIED), List.copyOf(connection.rankedHosts()));
+    }
+
+    private static MediaConnection newConnection(Map<String, Long> latencies) {
+        var hosts = List.of(FAILED, FAST, SLOW, UNTRIED);
+        return new MediaConnection("auth", 300, 1, System.currentTimeMillis(), hosts, new ConcurrentHashMap<>(latencies), null, MediaTransport.shared());
+    }
+}
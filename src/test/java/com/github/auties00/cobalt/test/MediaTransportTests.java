@@ -0,0 +1,142 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.media.MediaConnection;
+import com.github.auties00.cobalt.media.MediaTransport;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
+import com.github.auties00.cobalt.model.sync.ExternalBlobReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MediaTransportTests {
+    private static final int MEDIA_LENGTH = 64;
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private ServerSocket server;
+    private MediaConnection connection;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        this.server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread.startVirtualThread(this::accept);
+        // A single transfer at a time, so that a transfer that is never released blocks the next one
+        this.connection = new MediaConnection("auth", 60, 1, System.currentTimeMillis(), List.of(), new ConcurrentHashMap<>(), new WhatsAppClientMetrics(), MediaTransport.bounded(1));
+    }
+
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void testFailedDownloadsReleaseTheirTransfer() {
+        var provider = newProvider();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            assertTrue(connection.tryDownload(provider, url("/missing")).isEmpty());
+            assertTrue(connection.tryDownload(provider, url("/chunked")).isEmpty());
+            assertTrue(connection.tryDownload(provider, unreachableUrl()).isEmpty());
+            try (var download = connection.tryDownload(provider, url("/media")).orElseThrow()) {
+                assertNotNull(download);
+            }
+        });
+    }
+
+    @Test
+    public void testDownloadHoldsItsTransferUntilClosed() throws Exception {
+        var provider = newProvider();
+        var first = connection.tryDownload(provider, url("/media"))
+                .orElseThrow();
+        var second = new CompletableFuture<InputStream>();
+        Thread.startVirtualThread(() -> {
+            try {
+                second.complete(connection.tryDownload(provider, url("/media")).orElseThrow());
+            } catch (Throwable throwable) {
+                second.completeExceptionally(throwable);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> second.get(500, TimeUnit.MILLISECONDS));
+
+        // Closing the stream without reading it releases the transfer
+        first.close();
+        second.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .close();
+    }
+
+    @Test
+    public void testSharedTransportIsReused() {
+        assertSame(MediaTransport.shared(), MediaTransport.shared());
+        assertThrows(IllegalArgumentException.class, () -> MediaTransport.bounded(0));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getLocalPort() + path;
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                var socket = server.accept();
+                Thread.startVirtualThread(() -> serve(socket));
+            } catch (IOException _) {
+                return;
+            }
+        }
+    }
+
+    // Answers each request with the response of its path: a missing media, a media without a content length or a media
+    private static void serve(Socket socket) {
+        try (socket) {
+            var input = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            var output = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = input.readLine()) != null) {
+                var line = requestLine;
+                while (line != null && !line.isEmpty()) {
+                    line = input.readLine();
+                }
+
+                var path = requestLine.split(" ")[1];
+                var response = switch (path) {
+                    case "/missing" -> "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n";
+                    case "/chunked" -> "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n0\r\n\r\n";
+                    default -> "HTTP/1.1 200 OK\r\nContent-Length: " + MEDIA_LENGTH + "\r\n\r\n";
+                };
+                output.write(response.getBytes(StandardCharsets.US_ASCII));
+                if (path.equals("/media")) {
+                    output.write(new byte[MEDIA_LENGTH]);
+                }
+                output.flush();
+            }
+        } catch (IOException _) {
+            // The client closed the connection
+        }
+    }
+
+    // A port that was just freed, so that the connection is refused
+    private static String unreachableUrl() throws IOException {
+        try (var socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/media";
+        }
+    }
+
+    private static ExternalBlobReference newProvider() {
+        return new ExternalBlobReference(new byte[32], "/media", "handle", MEDIA_LENGTH, null, null);
+    }
+}
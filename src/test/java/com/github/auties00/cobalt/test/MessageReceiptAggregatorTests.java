@@ -0,0 +1,68 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageReceiptAggregatorTests {
+    private static final Jid SENDER = Jid.of(393495089819L);
+
+    private MockWhatsAppServer server;
+    private WhatsAppClient client;
+
+    @BeforeEach
+    public void connect() throws IOException {
+        this.server = new MockWhatsAppServer();
+        this.client = server.newClient(WhatsappStoreSerializer.discarding());
+        client.store().setJid(Jid.of(393495089818L));
+        server.connect(client);
+    }
+
+    @AfterEach
+    public void disconnect() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Test
+    public void testDeliveryReceiptsAreBatched() throws InterruptedException {
+        client.sendReceipt("first", SENDER, null);
+        client.sendReceipt("second", SENDER, null);
+        client.flushReceipts();
+
+        var receipts = server.await(node -> node.hasDescription("receipt"), 1);
+        assertEquals(1, receipts.size());
+        var receipt = receipts.getFirst();
+        assertEquals("first", receipt.getRequiredAttributeAsString("id"));
+        var items = receipt.getRequiredChild("list")
+                .streamChildren("item")
+                .map(item -> item.getRequiredAttributeAsString("id"))
+                .toList();
+        assertEquals(List.of("second"), items);
+    }
+
+    @Test
+    public void testInactiveReceiptsAreSentImmediately() throws InterruptedException {
+        client.sendReceipt("first", SENDER, "inactive");
+        client.sendReceipt("second", SENDER, "inactive");
+
+        // Not flushed: each receipt is sent on its own, with no list of ids
+        var receipts = server.await(node -> node.hasDescription("receipt"), 2);
+        assertEquals(2, receipts.size());
+        for (var receipt : receipts) {
+            assertTrue(receipt.hasAttribute("type", "inactive"));
+            assertFalse(receipt.hasChild("list"));
+        }
+        assertEquals(List.of("first", "second"), receipts.stream()
+                .map(receipt -> receipt.getRequiredAttributeAsString("id"))
+                .toList());
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.MessageSearchQuery;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageSearchIndexTests {
+    private static final Jid CHAT_JID = Jid.of(393495089819L);
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("message-search-index");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSearch() {
+        var store = newStore();
+        assertThrows(IllegalStateException.class, () -> search(store, "hello"));
+
+        // Enabling search indexes the messages already in the store
+        store.setMessageSearch(true);
+        assertEquals(List.of("2"), search(store, "hello"));
+        assertEquals(List.of("3", "1"), search(store, "wo"));
+
+        var chat = store.findChatByJid(CHAT_JID).orElseThrow();
+        chat.removeMessage("2");
+        chat.addMessage(newMessage("4", 4, "hello again"));
+        assertEquals(List.of("4"), search(store, "hello"));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        var store = newStore();
+        store.setMessageSearch(true);
+        WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+        var loaded = load(store.uuid());
+        assertEquals(List.of("2"), search(loaded, "hello"));
+        assertEquals(List.of("3", "1"), search(loaded, "wo"));
+    }
+
+    @Test
+    public void testUnchangedIndexIsNotSaved() throws Exception {
+        var store = newStore();
+        store.setMessageSearch(true);
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        serializer.serialize(store);
+        var file = directory.resolve("web").resolve(store.uuid().toString()).resolve("search.idx");
+        assertTrue(Files.exists(file));
+        Files.delete(file);
+
+        // The store changed, but not the messages
+        store.setName("renamed");
+        serializer.serialize(store);
+        assertFalse(Files.exists(file));
+
+        // Changes made after a save are written by the next one
+        store.findChatByJid(CHAT_JID)
+                .orElseThrow()
+                .removeMessage("2");
+        serializer.serialize(store);
+        assertTrue(Files.exists(file));
+        assertEquals(List.of(), search(load(store.uuid()), "hello"));
+    }
+
+    private WhatsAppStore load(UUID uuid) throws Exception {
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid).orElseThrow();
+        store.setSerializer(serializer);
+        serializer.finishDeserialize(store);
+        store.whenDeserialized(WhatsAppStoreSubsystem.CHATS).get(10, TimeUnit.SECONDS);
+        return store;
+    }
+
+    private static List<String> search(WhatsAppStore store, String text) {
+        return store.searchMessages(MessageSearchQuery.of(text))
+                .stream()
+                .map(ChatMessageInfo::id)
+                .toList();
+    }
+
+    private static WhatsAppStore newStore() {
+        var store = new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        store.addChat(newChat());
+        return store;
+    }
+
+    private static Chat newChat() {
+        var chat = new ChatBuilder()
+                .jid(CHAT_JID)
+                .build();
+        chat.addMessage(newMessage("1", 1, "the world"));
+        chat.addMessage(newMessage("2", 2, "hello there"));
+        chat.addMessage(newMessage("3", 3, "a wonderful day"));
+        return chat;
+    }
+
+    private static ChatMessageInfo newMessage(String id, long timestampSeconds, String text) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(CHAT_JID)
+                        .id(id)
+                        .build())
+                .senderJid(CHAT_JID)
+                .message(LazyMessageContainer.of(MessageContainer.of(text)))
+                .timestampSeconds(timestampSeconds)
+                .build();
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.metrics.LatencyHistogram;
+import com.github.auties00.cobalt.metrics.MetricsRegistry;
+import com.github.auties00.cobalt.metrics.WhatsAppClientMetrics;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+    private static final String IQ_REQUEST_EVENT = "com.github.auties00.cobalt.IqRequest";
+
+    @Test
+    public void testHistogramPercentiles() {
+        var histogram = new MetricsRegistry().histogram("test");
+        for (var value = 1L; value <= 100_000L; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertEquals(100_000, histogram.count());
+        assertEquals(1_000, histogram.min());
+        assertEquals(100_000_000, histogram.max());
+        assertWithin(histogram, 50, 50_000_000);
+        assertWithin(histogram, 99, 99_000_000);
+        assertWithin(histogram, 99.9, 99_900_000);
+    }
+
+    @Test
+    public void testRequestsAreRecorded() {
+        var metrics = new WhatsAppClientMetrics();
+        metrics.recordRequest(metrics.startRequest(), "w:g2", "get", true);
+        metrics.recordRequest(metrics.startRequest(), "w:g2", "get", false);
+
+        var registry = metrics.registry();
+        assertEquals(2, registry.histogram(WhatsAppClientMetrics.REQUEST_LATENCY).count());
+        assertEquals(1, registry.counter(WhatsAppClientMetrics.REQUEST_FAILURES).value());
+    }
+
+    @Test
+    public void testEventsAreCommittedOnlyWhileRecording() throws IOException {
+        var metrics = new WhatsAppClientMetrics();
+        metrics.recordRequest(metrics.startRequest(), "before", "get", true);
+
+        var file = Files.createTempFile("metrics", ".jfr");
+        try (var recording = new Recording()) {
+            recording.enable(IQ_REQUEST_EVENT);
+            recording.start();
+            metrics.recordRequest(metrics.startRequest(), "w:g2", "get", true);
+            recording.stop();
+            recording.dump(file);
+
+            var events = RecordingFile.readAllEvents(file)
+                    .stream()
+                    .filter(event -> event.getEventType().getName().equals(IQ_REQUEST_EVENT))
+                    .toList();
+            assertEquals(1, events.size());
+            assertEquals("w:g2", events.getFirst().getString("xmlns"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Percentiles are reported with a relative error below 3.2%
+    private static void assertWithin(LatencyHistogram histogram, double percentile, long expected) {
+        var actual = histogram.percentile(percentile);
+        assertTrue(Math.abs(actual - expected) <= expected * 0.032, () -> "p%s: expected %s, got %s".formatted(percentile, expected, actual));
+    }
+}
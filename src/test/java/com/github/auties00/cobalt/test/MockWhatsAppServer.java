@@ -0,0 +1,403 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientListener;
+import com.github.auties00.cobalt.client.WhatsAppClientPool;
+import com.github.auties00.cobalt.client.WhatsAppClientRetentionPolicy;
+import com.github.auties00.cobalt.model.auth.HandshakeMessage;
+import com.github.auties00.cobalt.model.auth.HandshakeMessageBuilder;
+import com.github.auties00.cobalt.model.auth.HandshakeMessageSpec;
+import com.github.auties00.cobalt.model.auth.ServerHello;
+import com.github.auties00.cobalt.model.auth.Version;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.node.NodeDecoder;
+import com.github.auties00.cobalt.node.NodeEncoder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import com.github.auties00.curve25519.Curve25519;
+import com.github.auties00.libsignal.key.SignalIdentityKeyPair;
+import it.auties.protobuf.stream.ProtobufInputStream;
+import it.auties.protobuf.stream.ProtobufOutputStream;
+
+import javax.crypto.Cipher;
+import javax.crypto.KDF;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.HKDFParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A local server that stands in for WhatsApp in the tests of the client.
+ * <p>
+ * Clients reach it through its SOCKS5 {@link #proxy()}: the server accepts the tunnel, completes the Noise handshake
+ * with a key pair of its own, and then records the nodes it receives.
+ * Each node is passed to the responder, which returns the node to send back, or null to send nothing.
+ */
+final class MockWhatsAppServer implements AutoCloseable {
+    private static final byte[] NOISE_PROTOCOL = "Noise_XX_25519_AESGCM_SHA256\0\0\0\0".getBytes(StandardCharsets.UTF_8);
+    private static final int PROLOGUE_LENGTH = 4;
+    private static final int CLIENT_HEADER_LENGTH = Integer.BYTES + Short.BYTES;
+
+    // Sent once the handshake is complete, so that the client knows it can send nodes
+    private static final String READY_DESCRIPTION = "handshake";
+
+    private static final Version CLIENT_VERSION = Version.of("2.3000.1023223821");
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> sockets;
+    private final List<Node> received;
+    private final AtomicInteger connections;
+    private volatile Function<Node, Node> responder;
+    private volatile Node greeting;
+
+    MockWhatsAppServer() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.sockets = new CopyOnWriteArrayList<>();
+        this.received = new CopyOnWriteArrayList<>();
+        this.connections = new AtomicInteger();
+        this.responder = _ -> null;
+        Thread.startVirtualThread(this::accept);
+    }
+
+    /**
+     * Returns the proxy that clients use to connect to this server
+     */
+    URI proxy() {
+        return URI.create("socks5://127.0.0.1:" + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Sets the function that answers the nodes sent by the clients
+     */
+    void setResponder(Function<Node, Node> responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * Sets the node sent to the clients once they can send nodes, for example a {@code success} to log them in
+     */
+    void setGreeting(Node greeting) {
+        this.greeting = greeting;
+    }
+
+    /**
+     * Returns the nodes received so far, in the order they were received
+     */
+    List<Node> received() {
+        return List.copyOf(received);
+    }
+
+    /**
+     * Returns the received nodes that match a filter
+     */
+    List<Node> received(Predicate<Node> filter) {
+        return received.stream()
+                .filter(filter)
+                .toList();
+    }
+
+    /**
+     * Returns the number of connections that completed the handshake
+     */
+    int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Creates a client that connects to this server
+     */
+    WhatsAppClient newClient(WhatsappStoreSerializer serializer) {
+        return WhatsAppClient.builder()
+                .webClient(serializer)
+                .createConnection()
+                .proxy(proxy())
+                // The default version is queried from the web
+                .clientVersion(CLIENT_VERSION)
+                .unregistered(_ -> {});
+    }
+
+    /**
+     * Creates a client that connects to this server and applies a retention policy to its messages
+     */
+    WhatsAppClient newClient(WhatsappStoreSerializer serializer, WhatsAppClientRetentionPolicy retentionPolicy) {
+        return WhatsAppClient.builder()
+                .webClient(serializer)
+                .createConnection()
+                .proxy(proxy())
+                .clientVersion(CLIENT_VERSION)
+                .retentionPolicy(retentionPolicy)
+                .unregistered(_ -> {});
+    }
+
+    /**
+     * Creates a client that belongs to a pool and connects to this server
+     */
+    WhatsAppClient newClient(WhatsAppClientPool pool) {
+        return WhatsAppClient.builder()
+                .webClient(pool.serializer())
+                .createConnection()
+                .proxy(proxy())
+                .clientVersion(CLIENT_VERSION)
+                .pool(pool)
+                .unregistered(_ -> {});
+    }
+
+    /**
+     * Connects a client to this server and waits until it can send nodes
+     */
+    WhatsAppClient connect(WhatsAppClient client) {
+        var ready = new CompletableFuture<Void>();
+        var listener = new WhatsAppClientListener() {
+            @Override
+            public void onNodeReceived(WhatsAppClient whatsapp, Node incoming) {
+                if (incoming.hasDescription(READY_DESCRIPTION)) {
+                    ready.complete(null);
+                }
+            }
+        };
+        client.addListener(listener);
+        try {
+            client.connect();
+            ready.get(10, TimeUnit.SECONDS);
+            return client;
+        } catch (Exception exception) {
+            throw new AssertionError("The client didn't connect to the mock server", exception);
+        } finally {
+            client.removeListener(listener);
+        }
+    }
+
+    /**
+     * Waits until the received nodes that match a filter are at least {@code count}
+     */
+    List<Node> await(Predicate<Node> filter, int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (true) {
+            var matches = received(filter);
+            if (matches.size() >= count) {
+                return matches;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Expected " + count + " nodes, but only " + matches.size() + " were received");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Builds the result of an iq
+     */
+    static NodeBuilder result(Node iq) {
+        return new NodeBuilder()
+                .description("iq")
+                .attribute("id", iq.getRequiredAttributeAsString("id"))
+                .attribute("type", "result");
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var socket = serverSocket.accept();
+                sockets.add(socket);
+                Thread.startVirtualThread(() -> serve(socket));
+            } catch (IOException _) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            var input = new DataInputStream(socket.getInputStream());
+            var output = socket.getOutputStream();
+            openTunnel(input, output);
+            var keys = handshake(input, output);
+            var readKey = new SecretKeySpec(keys, 0, 32, "AES");
+            var writeKey = new SecretKeySpec(keys, 32, 32, "AES");
+            var readCounter = 0L;
+            var writeCounter = 0L;
+            connections.incrementAndGet();
+
+            // The client switches to the keys of the session right after it writes its last handshake message
+            Thread.sleep(50);
+            sendNode(output, writeKey, writeCounter++, new NodeBuilder()
+                    .description(READY_DESCRIPTION)
+                    .build());
+            var greeting = this.greeting;
+            if (greeting != null) {
+                sendNode(output, writeKey, writeCounter++, greeting);
+            }
+            while (!socket.isClosed()) {
+                var frame = readClientFrame(input);
+                var plaintext = crypt(Cipher.DECRYPT_MODE, readKey, readCounter++, frame);
+                try (var decoder = new NodeDecoder(ByteBuffer.wrap(plaintext))) {
+                    while (decoder.hasData()) {
+                        var node = decoder.decode();
+                        received.add(node);
+                        var response = responder.apply(node);
+                        if (response != null) {
+                            sendNode(output, writeKey, writeCounter++, response);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | GeneralSecurityException | InterruptedException _) {
+            // The client disconnected
+        }
+    }
+
+    // Accepts a SOCKS5 tunnel without authentication, whatever its destination is
+    private static void openTunnel(DataInputStream input, OutputStream output) throws IOException {
+        input.readUnsignedByte();
+        input.readNBytes(input.readUnsignedByte());
+        output.write(new byte[]{5, 0});
+        input.readNBytes(3);
+        switch (input.readUnsignedByte()) {
+            case 1 -> input.readNBytes(4 + 2);
+            case 3 -> input.readNBytes(input.readUnsignedByte() + 2);
+            case 4 -> input.readNBytes(16 + 2);
+            default -> throw new IOException("Unsupported address type");
+        }
+        output.write(new byte[]{5, 0, 0, 1, 0, 0, 0, 0, 0, 0});
+        output.flush();
+    }
+
+    // The responder side of Noise XX: returns the read key followed by the write key of the client
+    private static byte[] handshake(DataInputStream input, OutputStream output) throws IOException, GeneralSecurityException {
+        var noise = new NoiseState(input.readNBytes(PROLOGUE_LENGTH));
+        var clientHello = decodeHandshake(readClientFrame(input)).clientHello();
+        var ephemeralKeyPair = SignalIdentityKeyPair.random();
+        var staticKeyPair = SignalIdentityKeyPair.random();
+        noise.updateHash(clientHello.ephemeral());
+        noise.updateHash(ephemeralKeyPair.publicKey().toEncodedPoint());
+        noise.mixIntoKey(Curve25519.sharedKey(ephemeralKeyPair.privateKey().toEncodedPoint(), clientHello.ephemeral()));
+        var staticText = noise.cipher(staticKeyPair.publicKey().toEncodedPoint(), true);
+        noise.mixIntoKey(Curve25519.sharedKey(staticKeyPair.privateKey().toEncodedPoint(), clientHello.ephemeral()));
+        var payload = noise.cipher(new byte[0], true);
+        var serverHello = new HandshakeMessageBuilder()
+                .serverHello(new ServerHello(ephemeralKeyPair.publicKey().toEncodedPoint(), staticText, payload))
+                .build();
+        var encoded = new byte[HandshakeMessageSpec.sizeOf(serverHello)];
+        HandshakeMessageSpec.encode(serverHello, ProtobufOutputStream.toBytes(encoded, 0));
+        writeServerFrame(output, encoded);
+
+        var clientFinish = decodeHandshake(readClientFrame(input)).clientFinish();
+        var clientStatic = noise.cipher(clientFinish._static(), false);
+        noise.mixIntoKey(Curve25519.sharedKey(ephemeralKeyPair.privateKey().toEncodedPoint(), clientStatic));
+        noise.cipher(clientFinish.payload(), false);
+        return noise.finish();
+    }
+
+    private static HandshakeMessage decodeHandshake(byte[] frame) {
+        return HandshakeMessageSpec.decode(ProtobufInputStream.fromBuffer(ByteBuffer.wrap(frame)));
+    }
+
+    private static void sendNode(OutputStream output, SecretKeySpec key, long counter, Node node) throws IOException, GeneralSecurityException {
+        var plaintext = new byte[NodeEncoder.sizeOf(node)];
+        NodeEncoder.encode(node, plaintext, 0, plaintext.length);
+        writeServerFrame(output, crypt(Cipher.ENCRYPT_MODE, key, counter, plaintext));
+    }
+
+    // Frames sent by the client start with a six bytes length, while frames sent by the server start with a three bytes length
+    private static byte[] readClientFrame(DataInputStream input) throws IOException {
+        var header = input.readNBytes(CLIENT_HEADER_LENGTH);
+        if (header.length != CLIENT_HEADER_LENGTH) {
+            throw new IOException("Unexpected end of stream");
+        }
+        var length = (ByteBuffer.wrap(header).getInt() << 16) | ((header[4] & 0xFF) << 8) | (header[5] & 0xFF);
+        return input.readNBytes(length);
+    }
+
+    private static synchronized void writeServerFrame(OutputStream output, byte[] frame) throws IOException {
+        output.write(new byte[]{(byte) (frame.length >> 16), (byte) (frame.length >> 8), (byte) frame.length});
+        output.write(frame);
+        output.flush();
+    }
+
+    private static byte[] crypt(int mode, SecretKeySpec key, long counter, byte[] input) throws GeneralSecurityException {
+        var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, key, createGcmIv(counter));
+        return cipher.doFinal(input);
+    }
+
+    private static GCMParameterSpec createGcmIv(long counter) {
+        var iv = new byte[12];
+        ByteBuffer.wrap(iv, 4, 8).putLong(counter);
+        return new GCMParameterSpec(128, iv);
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (var socket : sockets) {
+            socket.close();
+        }
+    }
+
+    private static final class NoiseState {
+        private final KDF kdf;
+        private final MessageDigest digest;
+        private byte[] hash;
+        private SecretKeySpec salt;
+        private SecretKeySpec cryptoKey;
+        private long counter;
+
+        private NoiseState(byte[] prologue) throws GeneralSecurityException {
+            this.kdf = KDF.getInstance("HKDF-SHA256");
+            this.digest = MessageDigest.getInstance("SHA-256");
+            this.hash = NOISE_PROTOCOL;
+            this.salt = new SecretKeySpec(NOISE_PROTOCOL, "AES");
+            this.cryptoKey = new SecretKeySpec(NOISE_PROTOCOL, 0, 32, "AES");
+            updateHash(prologue);
+        }
+
+        private void updateHash(byte[] data) {
+            digest.update(hash);
+            digest.update(data);
+            this.hash = digest.digest();
+        }
+
+        private byte[] cipher(byte[] text, boolean encrypt) throws GeneralSecurityException {
+            var cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, cryptoKey, createGcmIv(counter++));
+            cipher.updateAAD(hash);
+            var result = cipher.doFinal(text);
+            updateHash(encrypt ? result : text);
+            return result;
+        }
+
+        private void mixIntoKey(byte[] bytes) throws GeneralSecurityException {
+            var expanded = kdf.deriveData(HKDFParameterSpec.ofExtract()
+                    .addSalt(salt)
+                    .addIKM(new SecretKeySpec(bytes, "AES"))
+                    .thenExpand(null, 64));
+            this.salt = new SecretKeySpec(expanded, 0, 32, "AES");
+            this.cryptoKey = new SecretKeySpec(expanded, 32, 32, "AES");
+            this.counter = 0;
+        }
+
+        private byte[] finish() throws GeneralSecurityException {
+            return kdf.deriveData(HKDFParameterSpec.ofExtract()
+                    .addSalt(salt)
+                    .addIKM(new byte[0])
+                    .thenExpand(null, 64));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.model.action.StarActionBuilder;
+import com.github.auties00.cobalt.model.sync.*;
+import com.github.auties00.cobalt.sync.crypto.DecryptedMutation;
+import com.github.auties00.cobalt.sync.exchange.MutationSyncRequest;
+import com.github.auties00.cobalt.sync.exchange.MutationSyncResponse;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MutationSyncResponseTests {
+    private static final String MESSAGE_ID = "3EB0C767D71D";
+
+    @Test
+    public void testFirstPushToEmptyCollectionIsAcknowledged() {
+        var pending = newMutation(true);
+        var request = new MutationSyncRequest(PatchType.REGULAR_HIGH, 0, List.of(pending));
+
+        // The snapshot of the collection holds the mutation that was pushed
+        var response = newSnapshot(1);
+        assertTrue(response.acknowledges(request, List.of(pending.mutation())));
+
+        // It doesn't if the push was rejected, or if another device changed the same value
+        assertFalse(response.acknowledges(request, List.of()));
+        assertFalse(response.acknowledges(request, List.of(newMutation(false).mutation())));
+    }
+
+    @Test
+    public void testPushIsAcknowledgedWhenVersionAdvances() {
+        var pending = newMutation(true);
+        var request = new MutationSyncRequest(PatchType.REGULAR_HIGH, 5, List.of(pending));
+        assertTrue(newPatches(6).acknowledges(request, List.of()));
+        assertFalse(newPatches(5).acknowledges(request, List.of()));
+
+        // Another device took the version of the patch
+        var conflict = newPatches(6, 6);
+        assertFalse(conflict.acknowledges(request, List.of(newMutation(false).mutation())));
+        assertTrue(conflict.acknowledges(request, List.of(pending.mutation())));
+    }
+
+    private static PendingMutation newMutation(boolean starred) {
+        var action = new StarActionBuilder()
+                .starred(starred)
+                .build();
+        var value = new ActionValueSyncBuilder()
+                .timestamp(1_700_000_000L)
+                .starAction(action)
+                .build();
+        return new PendingMutation(value, RecordSync.Operation.SET, "393495089819@s.whatsapp.net", MESSAGE_ID, "1", "0");
+    }
+
+    private static MutationSyncResponse newSnapshot(long version) {
+        var snapshot = new SnapshotSync(new VersionSync(version), List.of(), null, null);
+        return new MutationSyncResponse(PatchType.REGULAR_HIGH, version, false, List.of(), snapshot);
+    }
+
+    private static MutationSyncResponse newPatches(long version, long... patchVersions) {
+        var patches = new ArrayList<PatchSync>();
+        for (var patchVersion : patchVersions) {
+            patches.add(new PatchSync(new VersionSync(patchVersion), List.of(), null, null, null, null, null, null));
+        }
+        return new MutationSyncResponse(PatchType.REGULAR_HIGH, version, false, patches, null);
+    }
+}
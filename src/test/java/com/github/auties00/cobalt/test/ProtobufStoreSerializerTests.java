@@ -0,0 +1,222 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProtobufStoreSerializerTests {
+    private static final Jid CHAT_JID = Jid.of(393495089819L);
+    private static final Jid OTHER_CHAT_JID = Jid.of(393495089820L);
+    private static final int MESSAGES = 4096;
+
+    // The magic number of a record file, followed by its version
+    private static final int RECORD_FILE_MAGIC = 0x43425246;
+    private static final byte RECORD_FILE_VERSION = 2;
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("protobuf-serializer");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedChatsAreLoaded() {
+        var uuid = writeCompressedStore();
+        var serializer = WhatsappStoreSerializer.toCompressedProtobuf(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid).orElseThrow();
+        serializer.finishDeserialize(store);
+        assertEquals(MESSAGES, store.findChatByJid(CHAT_JID).orElseThrow().messages().size());
+    }
+
+    @Test
+    public void testMissingDictionaryFailsLoad() throws IOException {
+        var uuid = writeCompressedStore();
+        var sessionDirectory = directory.resolve("web").resolve(uuid.toString());
+        Files.delete(sessionDirectory.resolve("dictionary"));
+
+        // The chats aren't replaced by empty ones, as they can be read again if the dictionary is restored
+        var serializer = WhatsappStoreSerializer.toCompressedProtobuf(directory);
+        var exception = assertThrows(UncheckedIOException.class, () -> serializer.startDeserialize(WhatsAppClientType.WEB, uuid));
+        assertTrue(exception.getMessage().contains("dictionary"));
+        try (var files = Files.list(sessionDirectory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".corrupted")));
+        }
+    }
+
+    @Test
+    public void testDamagedDictionaryFailsLoad() throws IOException {
+        var uuid = writeCompressedStore();
+        var dictionary = directory.resolve("web").resolve(uuid.toString()).resolve("dictionary");
+        var bytes = Files.readAllBytes(dictionary);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(dictionary, bytes);
+
+        var serializer = WhatsappStoreSerializer.toCompressedProtobuf(directory);
+        var exception = assertThrows(UncheckedIOException.class, () -> serializer.startDeserialize(WhatsAppClientType.WEB, uuid));
+        assertTrue(exception.getMessage().contains("dictionary"));
+    }
+
+    @Test
+    public void testFailedLoadDoesNotRemoveChats() throws Exception {
+        var store = newStore();
+        store.addChat(new ChatBuilder().jid(CHAT_JID).build()).addMessage(newMessage(CHAT_JID, "1"));
+        store.addChat(new ChatBuilder().jid(OTHER_CHAT_JID).build()).addMessage(newMessage(OTHER_CHAT_JID, "2"));
+        WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+        // The message of the second chat is decoded without its key, so it can't be restored
+        var file = findChatFile(store.uuid(), OTHER_CHAT_JID);
+        var original = Files.readAllBytes(file);
+        Files.write(file, dropMessageKey(original));
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var loaded = serializer.startDeserialize(WhatsAppClientType.WEB, store.uuid()).orElseThrow();
+        loaded.setSerializer(serializer);
+        var chats = loaded.whenDeserialized(WhatsAppStoreSubsystem.CHATS);
+        assertThrows(ExecutionException.class, () -> chats.get(10, TimeUnit.SECONDS));
+        assertTrue(loaded.findChatByJid(CHAT_JID).isPresent());
+        assertTrue(loaded.findChatByJid(OTHER_CHAT_JID).isEmpty());
+        loaded.setName("flushed");
+        loaded.serialize();
+
+        // Once the file is readable again, the chat that wasn't loaded is still there
+        assertTrue(Files.exists(file));
+        Files.write(file, original);
+        var reloaded = load(store.uuid());
+        assertEquals(1, reloaded.findChatByJid(CHAT_JID).orElseThrow().messages().size());
+        assertEquals(1, reloaded.findChatByJid(OTHER_CHAT_JID).orElseThrow().messages().size());
+    }
+
+    private Path findChatFile(UUID uuid, Jid jid) throws IOException {
+        var user = jid.user().getBytes(StandardCharsets.UTF_8);
+        try (var files = Files.list(directory.resolve("web").resolve(uuid.toString()))) {
+            for (var file : files.toList()) {
+                if (file.getFileName().toString().startsWith("chat_") && indexOf(Files.readAllBytes(file), user) != -1) {
+                    return file;
+                }
+            }
+        }
+        throw new AssertionError("No file for chat " + jid);
+    }
+
+    // Moves the key of the message in the second record of an uncompressed record file to a field that isn't known, keeping the record valid
+    // The file starts with a header, and every record with the length and the checksum of its payload
+    private static byte[] dropMessageKey(byte[] file) {
+        var result = file.clone();
+        var buffer = ByteBuffer.wrap(result);
+        assertEquals(RECORD_FILE_MAGIC, buffer.getInt());
+        if (buffer.get() == RECORD_FILE_VERSION) {
+            assertEquals(0, buffer.get());
+            buffer.getInt();
+        }
+
+        var chatLength = buffer.getInt();
+        buffer.position(buffer.position() + Integer.BYTES + chatLength);
+        var checksumOffset = buffer.position() + Integer.BYTES;
+        var messageLength = buffer.getInt();
+        var payloadOffset = checksumOffset + Integer.BYTES;
+        // The key is the first field of a message: field 1, length delimited
+        assertEquals(0x0A, result[payloadOffset]);
+        result[payloadOffset] = (byte) (15 << 3 | 2);
+        var checksum = new CRC32();
+        checksum.update(result, payloadOffset, messageLength);
+        buffer.putInt(checksumOffset, (int) checksum.getValue());
+        return result;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] value) {
+        for (var i = 0; i <= bytes.length - value.length; i++) {
+            if (Arrays.equals(bytes, i, i + value.length, value, 0, value.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private WhatsAppStore load(UUID uuid) throws Exception {
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid).orElseThrow();
+        store.setSerializer(serializer);
+        store.whenDeserialized(WhatsAppStoreSubsystem.CHATS).get(10, TimeUnit.SECONDS);
+        return store;
+    }
+
+    // Writes a chat with enough messages for a dictionary to be trained
+    private UUID writeCompressedStore() {
+        var store = newStore();
+        var chat = new ChatBuilder()
+                .jid(CHAT_JID)
+                .build();
+        store.addChat(chat);
+        for (var i = 0; i < MESSAGES; i++) {
+            chat.addMessage(new ChatMessageInfoBuilder()
+                    .key(new ChatMessageKeyBuilder()
+                            .chatJid(CHAT_JID)
+                            .id("3EB0" + Integer.toHexString(i).toUpperCase())
+                            .build())
+                    .senderJid(CHAT_JID)
+                    .message(LazyMessageContainer.of(MessageContainer.of("Message number %s of the conversation about topic %s".formatted(i, i % 17))))
+                    .timestampSeconds(1_700_000_000L + i)
+                    .build());
+        }
+        WhatsappStoreSerializer.toCompressedProtobuf(directory).serialize(store);
+        assertTrue(Files.exists(directory.resolve("web").resolve(store.uuid().toString()).resolve("dictionary")));
+        return store.uuid();
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(chatJid)
+                        .id(id)
+                        .build())
+                .senderJid(chatJid)
+                .message(LazyMessageContainer.of(MessageContainer.of("message " + id)))
+                .timestampSeconds(1_700_000_000L)
+                .build();
+    }
+
+    private static WhatsAppStore newStore() {
+        return new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.node.Node;
+import com.github.auties00.cobalt.node.NodeBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.SequencedCollection;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReconnectTests {
+    @Test
+    public void testReconnectDoesNotSerializeTheStore() throws IOException, InterruptedException {
+        var serializer = new CountingSerializer();
+        try (var server = new MockWhatsAppServer()) {
+            var client = server.connect(server.newClient(serializer));
+            client.reconnect();
+            awaitConnections(server, 2);
+            assertTrue(client.isConnected());
+
+            // The store used to be serialized on a virtual thread, so give it the time to run
+            Thread.sleep(200);
+            assertEquals(0, serializer.serializations.get());
+
+            client.disconnect();
+            assertEquals(1, serializer.serializations.get());
+        }
+    }
+
+    @Test
+    public void testReconnectResumesTheSession() throws IOException, InterruptedException {
+        try (var server = new MockWhatsAppServer()) {
+            server.setResponder(node -> node.hasDescription("iq") && node.hasAttribute("id") ? MockWhatsAppServer.result(node).build() : null);
+            server.setGreeting(new NodeBuilder()
+                    .description("success")
+                    .build());
+            var client = server.newClient(WhatsappStoreSerializer.discarding());
+            client.store().setJid(Jid.of(393495089818L));
+            server.connect(client);
+            try {
+                server.await(ReconnectTests::isBlockListQuery, 1);
+                client.reconnect();
+                awaitConnections(server, 2);
+
+                // The block list is queried once per session, not once per connection
+                Thread.sleep(500);
+                assertEquals(1, server.received(ReconnectTests::isBlockListQuery).size());
+            } finally {
+                client.disconnect();
+            }
+        }
+    }
+
+    private static boolean isBlockListQuery(Node node) {
+        return node.hasAttribute("xmlns", "blocklist");
+    }
+
+    private static void awaitConnections(MockWhatsAppServer server, int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.connections() < count) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Expected " + count + " connections, but only " + server.connections() + " were made");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static final class CountingSerializer implements WhatsappStoreSerializer {
+        private final WhatsappStoreSerializer delegate = WhatsappStoreSerializer.discarding();
+        private final AtomicInteger serializations = new AtomicInteger();
+
+        @Override
+        public SequencedCollection<UUID> listIds(WhatsAppClientType type) {
+            return delegate.listIds(type);
+        }
+
+        @Override
+        public SequencedCollection<Long> listPhoneNumbers(WhatsAppClientType type) {
+            return delegate.listPhoneNumbers(type);
+        }
+
+        @Override
+        public void serialize(WhatsAppStore store) {
+            serializations.incrementAndGet();
+            delegate.serialize(store);
+        }
+
+        @Override
+        public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, UUID id) {
+            return delegate.startDeserialize(type, id);
+        }
+
+        @Override
+        public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, Long phoneNumber) {
+            return delegate.startDeserialize(type, phoneNumber);
+        }
+
+        @Override
+        public void finishDeserialize(WhatsAppStore store) {
+            delegate.finishDeserialize(store);
+        }
+
+        @Override
+        public void deleteSession(WhatsAppClientType type, UUID uuid) {
+            delegate.deleteSession(type, uuid);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientRetentionPolicy;
+import com.github.auties00.cobalt.model.chat.Chat;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.info.MessageInfo;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.model.message.standard.ImageMessage;
+import com.github.auties00.cobalt.model.message.standard.ImageMessageBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetentionTests {
+    private static final Jid FIRST_JID = Jid.of(393495089819L);
+    private static final Jid SECOND_JID = Jid.of(393495089820L);
+
+    private MockWhatsAppServer server;
+    private WhatsAppClient client;
+
+    @BeforeEach
+    public void createServer() throws IOException {
+        this.server = new MockWhatsAppServer();
+    }
+
+    @AfterEach
+    public void disconnect() throws IOException {
+        if (client != null) {
+            client.disconnect();
+        }
+        server.close();
+    }
+
+    @Test
+    public void testMaxMessagesPerChat() throws InterruptedException {
+        var chat = newChat(FIRST_JID);
+        for (var i = 1; i <= 5; i++) {
+            chat.addMessage(newMessage(FIRST_JID, String.valueOf(i), secondsAgo(60 - i)));
+        }
+
+        connect(WhatsAppClientRetentionPolicy.unlimited().maxMessagesPerChat(2), chat);
+        awaitUntil(() -> chat.messages().size() == 2);
+        assertEquals(List.of("4", "5"), messageIds(chat));
+    }
+
+    @Test
+    public void testMaxAgeArchivesEvictedMessages() throws InterruptedException {
+        var chat = newChat(FIRST_JID);
+        chat.addMessage(newMessage(FIRST_JID, "old", secondsAgo(Duration.ofHours(2).toSeconds())));
+        chat.addMessage(newMessage(FIRST_JID, "new", secondsAgo(1)));
+        var archived = new CopyOnWriteArrayList<String>();
+        var policy = WhatsAppClientRetentionPolicy.unlimited()
+                .maxAge(Duration.ofHours(1))
+                .archiver(messageInfo -> archived.add(messageInfo.id()));
+
+        connect(policy, chat);
+        awaitUntil(() -> chat.messages().size() == 1);
+        assertEquals(List.of("new"), messageIds(chat));
+        assertEquals(List.of("old"), archived);
+    }
+
+    @Test
+    public void testFailedArchiveKeepsTheMessage() throws InterruptedException {
+        var chat = newChat(FIRST_JID);
+        chat.addMessage(newMessage(FIRST_JID, "old", secondsAgo(Duration.ofHours(2).toSeconds())));
+        var attempts = new CopyOnWriteArrayList<MessageInfo>();
+        var policy = WhatsAppClientRetentionPolicy.unlimited()
+                .maxAge(Duration.ofHours(1))
+                .archiver(messageInfo -> {
+                    attempts.add(messageInfo);
+                    throw new IOException("Cold store is unavailable");
+                });
+
+        connect(policy, chat);
+        awaitUntil(() -> !attempts.isEmpty());
+        assertEquals(List.of("old"), messageIds(chat));
+    }
+
+    @Test
+    public void testBudgetEvictsTheOldestMessagesOfTheStore() throws InterruptedException {
+        var first = newChat(FIRST_JID);
+        first.addMessage(newMessage(FIRST_JID, "1", secondsAgo(60)));
+        first.addMessage(newMessage(FIRST_JID, "4", secondsAgo(30)));
+        var second = newChat(SECOND_JID);
+        second.addMessage(newMessage(SECOND_JID, "2", secondsAgo(50)));
+        second.addMessage(newMessage(SECOND_JID, "3", secondsAgo(40)));
+        second.addMessage(newMessage(SECOND_JID, "5", secondsAgo(20)));
+
+        connect(WhatsAppClientRetentionPolicy.unlimited().maxMessages(3), first, second);
+        awaitUntil(() -> first.messages().size() + second.messages().size() == 3);
+        assertEquals(List.of("4"), messageIds(first));
+        assertEquals(List.of("3", "5"), messageIds(second));
+    }
+
+    @Test
+    public void testThumbnailsAreStripped() throws InterruptedException {
+        var chat = newChat(FIRST_JID);
+        var oldImage = newImage();
+        var newImage = newImage();
+        chat.addMessage(newMessage(FIRST_JID, "old", secondsAgo(Duration.ofDays(2).toSeconds()), oldImage));
+        chat.addMessage(newMessage(FIRST_JID, "new", secondsAgo(1), newImage));
+
+        connect(WhatsAppClientRetentionPolicy.unlimited().thumbnailRetention(Duration.ofDays(1)), chat);
+        awaitUntil(() -> image(chat, "old").thumbnail().isEmpty());
+        assertTrue(image(chat, "new").thumbnail().isPresent());
+        assertEquals(List.of("old", "new"), messageIds(chat));
+
+        // The container is replaced, not changed in place
+        assertTrue(oldImage.thumbnail().isPresent());
+    }
+
+    private void connect(WhatsAppClientRetentionPolicy policy, Chat... chats) {
+        this.client = server.newClient(WhatsappStoreSerializer.discarding(), policy);
+        client.store().setJid(Jid.of(393495089818L));
+        for (var chat : chats) {
+            client.store().addChat(chat);
+        }
+        server.connect(client);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("The retention policy wasn't applied");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static ImageMessage image(Chat chat, String id) {
+        return (ImageMessage) chat.getMessageById(id)
+                .orElseThrow()
+                .message()
+                .content();
+    }
+
+    private static List<String> messageIds(Chat chat) {
+        return chat.messages()
+                .stream()
+                .map(ChatMessageInfo::id)
+                .toList();
+    }
+
+    private static long secondsAgo(long seconds) {
+        return Instant.now().getEpochSecond() - seconds;
+    }
+
+    private static Chat newChat(Jid jid) {
+        return new ChatBuilder()
+                .jid(jid)
+                .build();
+    }
+
+    private static ImageMessage newImage() {
+        return new ImageMessageBuilder()
+                .mediaUrl("https://mmg.whatsapp.net/image")
+                .thumbnail(new byte[1024])
+                .build();
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds) {
+        return newMessage(chatJid, id, timestampSeconds, MessageContainer.of("message " + id));
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds, ImageMessage image) {
+        return newMessage(chatJid, id, timestampSeconds, MessageContainer.of(image));
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds, MessageContainer container) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(chatJid)
+                        .id(id)
+                        .build())
+                .senderJid(chatJid)
+                .message(LazyMessageContainer.of(container))
+                .timestampSeconds(timestampSeconds)
+                .build();
+    }
+}
@@ -0,0 +1,196 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import com.github.auties00.libsignal.key.SignalPreKeyPair;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.SequencedCollection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SignalKeyLogTests {
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("signal-key-log");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testReplay() {
+        var store = writeTwoBatches();
+        var loaded = load(store.uuid());
+        assertEquals(Set.of(1, 2), preKeyIds(loaded));
+        assertEquals(store.findPreKeyById(1).orElseThrow(), loaded.findPreKeyById(1).orElseThrow());
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        var uuid = writeTwoBatches().uuid();
+        try (var channel = FileChannel.open(logFile(uuid, 1), StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        assertEquals(Set.of(1), preKeyIds(load(uuid)));
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        var uuid = writeTwoBatches().uuid();
+        var file = logFile(uuid, 1);
+        var bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertEquals(Set.of(1), preKeyIds(load(uuid)));
+    }
+
+    @Test
+    public void testLoadStartsNewGeneration() throws IOException {
+        var uuid = writeTwoBatches().uuid();
+        var length = Files.size(logFile(uuid, 1));
+
+        // Records are never appended to a generation that was replayed, as its last record could be torn
+        var loaded = load(uuid);
+        loaded.addPreKey(SignalPreKeyPair.random(3));
+        loaded.serializeSignalKeys();
+        assertEquals(length, Files.size(logFile(uuid, 1)));
+        assertTrue(Files.size(logFile(uuid, 2)) > 0);
+
+        assertEquals(Set.of(1, 2, 3), preKeyIds(load(uuid)));
+    }
+
+    @Test
+    public void testGenerationsInTheSnapshotAreDeleted() {
+        var store = writeTwoBatches();
+        // A snapshot is written only if the store changed
+        store.setName("snapshot");
+        store.serialize();
+        assertFalse(Files.exists(logFile(store.uuid(), 1)));
+
+        store.addPreKey(SignalPreKeyPair.random(3));
+        store.serializeSignalKeys();
+        assertEquals(Set.of(1, 2, 3), preKeyIds(load(store.uuid())));
+    }
+
+    @Test
+    public void testDefaultPersistsKeysWithTheStore() {
+        var serializer = new CountingSerializer();
+        var store = newStore();
+        store.setSerializer(serializer);
+
+        // Keys that changed are persisted when a message encrypted using them is about to be sent
+        store.addPreKey(SignalPreKeyPair.random(1));
+        assertEquals(0, serializer.serializations.get());
+        store.serializeSignalKeys();
+        assertEquals(1, serializer.serializations.get());
+    }
+
+    // Writes an empty snapshot, then the first key and the second key in two batches of the first generation after it
+    private WhatsAppStore writeTwoBatches() {
+        var store = newStore();
+        store.setSerializer(WhatsappStoreSerializer.toProtobuf(directory));
+        store.serialize();
+        store.addPreKey(SignalPreKeyPair.random(1));
+        store.serializeSignalKeys();
+        store.addPreKey(SignalPreKeyPair.random(2));
+        store.serializeSignalKeys();
+        return store;
+    }
+
+    private WhatsAppStore load(UUID uuid) {
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var store = serializer.startDeserialize(WhatsAppClientType.WEB, uuid).orElseThrow();
+        store.setSerializer(serializer);
+        return store;
+    }
+
+    private Path logFile(UUID uuid, long generation) {
+        return directory.resolve("web")
+                .resolve(uuid.toString())
+                .resolve("signal_" + generation + ".log");
+    }
+
+    private static Set<Integer> preKeyIds(WhatsAppStore store) {
+        return store.preKeys()
+                .stream()
+                .map(SignalPreKeyPair::id)
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static WhatsAppStore newStore() {
+        return new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+    }
+
+    // Doesn't override serializeSignalKeys, like a serializer that persists the keys only with the rest of the store
+    private static final class CountingSerializer implements WhatsappStoreSerializer {
+        private final WhatsappStoreSerializer delegate = WhatsappStoreSerializer.discarding();
+        private final AtomicInteger serializations = new AtomicInteger();
+
+        @Override
+        public SequencedCollection<UUID> listIds(WhatsAppClientType type) {
+            return delegate.listIds(type);
+        }
+
+        @Override
+        public SequencedCollection<Long> listPhoneNumbers(WhatsAppClientType type) {
+            return delegate.listPhoneNumbers(type);
+        }
+
+        @Override
+        public void serialize(WhatsAppStore store) {
+            serializations.incrementAndGet();
+            delegate.serialize(store);
+        }
+
+        @Override
+        public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, UUID id) {
+            return delegate.startDeserialize(type, id);
+        }
+
+        @Override
+        public Optional<WhatsAppStore> startDeserialize(WhatsAppClientType type, Long phoneNumber) {
+            return delegate.startDeserialize(type, phoneNumber);
+        }
+
+        @Override
+        public void finishDeserialize(WhatsAppStore store) {
+            delegate.finishDeserialize(store);
+        }
+
+        @Override
+        public void deleteSession(WhatsAppClientType type, UUID uuid) {
+            delegate.deleteSession(type, uuid);
+        }
+    }
+}
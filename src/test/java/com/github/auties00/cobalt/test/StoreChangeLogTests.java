@@ -0,0 +1,156 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.chat.ChatBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.store.StoreChange;
+import com.github.auties00.cobalt.store.StoreChangeBatch;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreChangeLogTests {
+    private static final Jid CHAT_JID = Jid.of(393495089819L);
+    private static final Jid OTHER_CHAT_JID = Jid.of(393495089820L);
+
+    private Path directory;
+    private WhatsAppStore store;
+
+    @BeforeEach
+    public void createStore() throws IOException {
+        this.directory = Files.createTempDirectory("store-change-log");
+        this.store = new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        store.setSerializer(WhatsappStoreSerializer.toProtobuf(directory));
+        store.setChangeCapture(true);
+        store.addChat(new ChatBuilder()
+                .jid(CHAT_JID)
+                .build());
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testCleanRestartHasNoGap() {
+        record(store, 2);
+        store.serialize();
+
+        var loaded = load();
+        var log = loaded.changeLog().orElseThrow();
+        var batch = log.read(0, 10);
+        assertEquals(List.of(1L, 2L, 3L), sequences(batch));
+        assertFalse(batch.gap());
+
+        record(loaded, 1);
+        batch = log.read(3, 10);
+        assertEquals(List.of(4L), sequences(batch));
+        assertFalse(batch.gap());
+    }
+
+    @Test
+    public void testLostSequencesAreNotReassigned() {
+        record(store, 2);
+        store.serialize();
+
+        // The process stops before the last two changes are flushed, after a consumer read them
+        record(store, 2);
+        assertEquals(List.of(4L, 5L), sequences(store.changeLog().orElseThrow().read(3, 10)));
+
+        var loaded = load();
+        var log = loaded.changeLog().orElseThrow();
+        record(loaded, 1);
+        var lastSequence = log.lastSequence();
+        assertTrue(lastSequence > 5);
+
+        var batch = log.read(5, 10);
+        assertEquals(List.of(lastSequence), sequences(batch));
+        assertTrue(batch.gap());
+
+        // A consumer that read up to the last change that was flushed missed the changes that were lost
+        batch = log.read(0, 10);
+        assertEquals(List.of(1L, 2L, 3L), sequences(batch));
+        assertFalse(batch.gap());
+        batch = log.read(3, 10);
+        assertEquals(List.of(lastSequence), sequences(batch));
+        assertTrue(batch.gap());
+    }
+
+    @Test
+    public void testFileIsCompacted() throws IOException {
+        store.changeLog().orElseThrow().setCapacity(16);
+        record(store, 8191);
+        store.serialize();
+        assertTrue(Files.size(directory.resolve("web").resolve(store.uuid().toString()).resolve("changes.log")) < 4096);
+
+        var batch = load().changeLog()
+                .orElseThrow()
+                .read(0, 32);
+        assertEquals(16, batch.changes().size());
+        assertEquals(8192L, batch.changes().getLast().sequence());
+        assertTrue(batch.gap());
+    }
+
+    @Test
+    public void testDisabledCaptureDeletesTheFile() {
+        record(store, 2);
+        store.serialize();
+        var file = directory.resolve("web").resolve(store.uuid().toString()).resolve("changes.log");
+        assertTrue(Files.exists(file));
+
+        // The changes of a log that was dropped aren't replayed when capture is enabled again
+        store.setChangeCapture(false);
+        store.serialize();
+        assertFalse(Files.exists(file));
+        store.setChangeCapture(true);
+        store.addChat(new ChatBuilder()
+                .jid(OTHER_CHAT_JID)
+                .build());
+        store.serialize();
+        assertEquals(List.of(1L), sequences(load().changeLog().orElseThrow().read(0, 10)));
+    }
+
+    private WhatsAppStore load() {
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var result = serializer.startDeserialize(WhatsAppClientType.WEB, store.uuid()).orElseThrow();
+        result.setSerializer(serializer);
+        serializer.finishDeserialize(result);
+        return result;
+    }
+
+    private void record(WhatsAppStore store, int count) {
+        var chat = store.findChatByJid(CHAT_JID).orElseThrow();
+        for (var i = 0; i < count; i++) {
+            store.markChatChanged(chat);
+        }
+    }
+
+    private static List<Long> sequences(StoreChangeBatch batch) {
+        return batch.changes()
+                .stream()
+                .map(StoreChange::sequence)
+                .toList();
+    }
+}
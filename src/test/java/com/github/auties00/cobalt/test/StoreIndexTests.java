@@ -0,0 +1,121 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.info.ChatMessageInfo;
+import com.github.auties00.cobalt.model.info.ChatMessageInfoBuilder;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.model.message.model.ChatMessageKeyBuilder;
+import com.github.auties00.cobalt.model.message.model.LazyMessageContainer;
+import com.github.auties00.cobalt.model.message.model.MessageContainer;
+import com.github.auties00.cobalt.store.WhatsAppStore;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreIndexTests {
+    private static final Jid PHONE_JID = Jid.of(393495089819L);
+    private static final Jid LID_JID = Jid.of("123456789", JidServer.lid());
+
+    @Test
+    public void testPhoneNumberIsUnlistedWithLastEntity() {
+        var store = newStore();
+        store.addNewContact(PHONE_JID);
+        store.addNewChat(PHONE_JID);
+        assertTrue(store.findContactByPhoneNumber("+39 349 508 9819").isPresent());
+        assertEquals(1, store.findContactsByPhoneNumberPrefix("39349").size());
+
+        store.removeContact(PHONE_JID);
+        assertTrue(store.findContactByPhoneNumber("+39 349 508 9819").isEmpty());
+        assertTrue(store.findChatByPhoneNumber("+39 349 508 9819").isPresent());
+
+        store.removeChat(PHONE_JID);
+        assertTrue(store.findChatByPhoneNumber("+39 349 508 9819").isEmpty());
+        assertTrue(store.findContactsByPhoneNumberPrefix("39349").isEmpty());
+    }
+
+    @Test
+    public void testPhoneNumberOfLidEntity() {
+        var store = newStore();
+        store.registerLidMapping(PHONE_JID, LID_JID);
+
+        // A mapping alone doesn't list the phone number, as nothing can be found through it
+        assertTrue(store.findContactsByPhoneNumberPrefix("39349").isEmpty());
+
+        store.addNewChat(LID_JID);
+        assertEquals(LID_JID, store.findChatByPhoneNumber("+393495089819").orElseThrow().jid());
+
+        store.removeChat(LID_JID);
+        assertTrue(store.findChatByPhoneNumber("+393495089819").isEmpty());
+    }
+
+    @Test
+    public void testMergedMessagesAreSortedByTimestamp() {
+        var store = newStore();
+        var source = store.addNewChat(PHONE_JID);
+        source.addMessage(newMessage(PHONE_JID, "1", 1));
+        source.addMessage(newMessage(PHONE_JID, "3", 3));
+        var target = store.addNewChat(LID_JID);
+        target.addMessage(newMessage(LID_JID, "2", 2));
+        target.addMessage(newMessage(LID_JID, "4", 4));
+
+        store.mergeChat(source, target);
+        var ids = target.messages()
+                .stream()
+                .map(ChatMessageInfo::id)
+                .toList();
+        assertEquals(List.of("1", "2", "3", "4"), ids);
+        assertEquals("4", target.newestMessage().orElseThrow().id());
+        // The phone number of the source now resolves to the target
+        assertSame(target, store.findChatByJid(PHONE_JID).orElseThrow());
+    }
+
+    @Test
+    public void testConcurrentUpdatesOfAnAddress() throws InterruptedException {
+        var store = newStore();
+        store.registerLidMapping(PHONE_JID, LID_JID);
+        var threads = new Thread[4];
+        for (var i = 0; i < threads.length; i++) {
+            var jid = i % 2 == 0 ? PHONE_JID : LID_JID;
+            threads[i] = Thread.ofPlatform().start(() -> {
+                for (var j = 0; j < 2_000; j++) {
+                    store.addNewChat(jid);
+                    store.removeChat(jid);
+                }
+            });
+        }
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        // Every chat was removed, so neither address can resolve one
+        assertTrue(store.findChatByJid(PHONE_JID).isEmpty());
+        assertTrue(store.findChatByJid(LID_JID).isEmpty());
+        assertTrue(store.findChatByPhoneNumber("+393495089819").isEmpty());
+    }
+
+    private static ChatMessageInfo newMessage(Jid chatJid, String id, long timestampSeconds) {
+        return new ChatMessageInfoBuilder()
+                .key(new ChatMessageKeyBuilder()
+                        .chatJid(chatJid)
+                        .id(id)
+                        .build())
+                .senderJid(chatJid)
+                .message(LazyMessageContainer.of(MessageContainer.of("message " + id)))
+                .timestampSeconds(timestampSeconds)
+                .build();
+    }
+
+    private static WhatsAppStore newStore() {
+        return new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+    }
+}
@@ -0,0 +1,79 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClientType;
+import com.github.auties00.cobalt.model.jid.Jid;
+import com.github.auties00.cobalt.model.jid.JidCompanion;
+import com.github.auties00.cobalt.model.jid.JidServer;
+import com.github.auties00.cobalt.store.WhatsAppStoreBuilder;
+import com.github.auties00.cobalt.store.WhatsAppStoreSubsystem;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StoreReadinessTests {
+    private static final Jid CHAT_JID = Jid.of(393495089819L);
+    private static final Jid NEWSLETTER_JID = Jid.of("120363144038483540", JidServer.newsletter());
+
+    private Path directory;
+
+    @BeforeEach
+    public void createDirectory() throws IOException {
+        this.directory = Files.createTempDirectory("store-readiness");
+    }
+
+    @AfterEach
+    public void deleteDirectory() throws IOException {
+        try (var files = Files.walk(directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Test
+    public void testSubsystemsAreAvailableOnceDeserialized() throws ExecutionException, InterruptedException, TimeoutException {
+        var uuid = UUID.randomUUID();
+        var store = new WhatsAppStoreBuilder()
+                .uuid(uuid)
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build();
+        store.addNewChat(CHAT_JID);
+        store.addNewNewsletter(NEWSLETTER_JID);
+        WhatsappStoreSerializer.toProtobuf(directory).serialize(store);
+
+        var serializer = WhatsappStoreSerializer.toProtobuf(directory);
+        var loaded = serializer.startDeserialize(WhatsAppClientType.WEB, uuid)
+                .orElseThrow()
+                .setSerializer(serializer);
+        loaded.whenDeserialized(WhatsAppStoreSubsystem.CHATS).get(10, TimeUnit.SECONDS);
+        assertTrue(loaded.findChatByJid(CHAT_JID).isPresent());
+        loaded.whenDeserialized(WhatsAppStoreSubsystem.NEWSLETTERS).get(10, TimeUnit.SECONDS);
+        assertTrue(loaded.findNewsletterByJid(NEWSLETTER_JID).isPresent());
+    }
+
+    @Test
+    public void testNewStoreIsReady() {
+        var store = new WhatsAppStoreBuilder()
+                .uuid(UUID.randomUUID())
+                .clientType(WhatsAppClientType.WEB)
+                .device(JidCompanion.web())
+                .build()
+                .setSerializer(WhatsappStoreSerializer.toProtobuf(directory));
+        for (var subsystem : WhatsAppStoreSubsystem.values()) {
+            assertTrue(store.whenDeserialized(subsystem).isDone());
+        }
+    }
+}
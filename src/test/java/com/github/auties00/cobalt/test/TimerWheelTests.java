@@ -0,0 +1,107 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.util.TimerWheel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimerWheelTests {
+    @Test
+    public void testRunsAfterDelay() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        var start = System.nanoTime();
+        var timeout = TimerWheel.shared()
+                .schedule(Duration.ofMillis(50), latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(timeout.isExpired());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void testRunsAfterCascade() throws InterruptedException {
+        // Longer than the range of the first wheel, so the timer is moved to it from the second one
+        var latch = new CountDownLatch(1);
+        var start = System.nanoTime();
+        TimerWheel.shared()
+                .schedule(Duration.ofMillis(1500), latch::countDown);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(1500));
+    }
+
+    @Test
+    public void testRunsInDeadlineOrder() throws InterruptedException {
+        var order = new CopyOnWriteArrayList<Integer>();
+        var latch = new CountDownLatch(3);
+        var wheel = TimerWheel.shared();
+        wheel.schedule(Duration.ofMillis(900), () -> { order.add(3); latch.countDown(); });
+        wheel.schedule(Duration.ofMillis(100), () -> { order.add(1); latch.countDown(); });
+        wheel.schedule(Duration.ofMillis(500), () -> { order.add(2); latch.countDown(); });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(1, 2, 3), order);
+    }
+
+    @Test
+    public void testZeroDelay() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        TimerWheel.shared()
+                .schedule(Duration.ZERO, latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        var timeout = TimerWheel.shared()
+                .schedule(Duration.ofMillis(100), latch::countDown);
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+        assertFalse(latch.await(500, TimeUnit.MILLISECONDS));
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void testCancelAfterExpiry() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        var timeout = TimerWheel.shared()
+                .schedule(Duration.ofMillis(10), latch::countDown);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isCancelled());
+    }
+
+    @Test
+    public void testScope() throws InterruptedException {
+        var scope = TimerWheel.shared().newScope();
+        var cancelled = new CountDownLatch(2);
+        scope.schedule(Duration.ofMillis(200), cancelled::countDown);
+        scope.schedule(Duration.ofSeconds(2), cancelled::countDown);
+        assertEquals(2, scope.pending());
+        scope.cancelAll();
+        assertEquals(0, scope.pending());
+        assertFalse(cancelled.await(500, TimeUnit.MILLISECONDS));
+
+        var fired = new CountDownLatch(1);
+        scope.schedule(Duration.ofMillis(20), fired::countDown);
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, scope.pending());
+    }
+
+    @Test
+    public void testManyTimers() throws InterruptedException {
+        var count = 10_000;
+        var latch = new CountDownLatch(count);
+        var wheel = TimerWheel.shared();
+        for (var i = 0; i < count; i++) {
+            wheel.schedule(Duration.ofMillis(i % 700), latch::countDown);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientDispatchPolicy;
+import com.github.auties00.cobalt.client.WhatsAppClientDispatcher;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WhatsAppClientDispatcherTests {
+    private static final Object OWNER = new Object();
+
+    @Test
+    public void testEventsOfAKeyRunInOrder() throws InterruptedException {
+        var dispatcher = newDispatcher(WhatsAppClientDispatchPolicy.standard());
+        var events = new CopyOnWriteArrayList<Integer>();
+        var done = new CountDownLatch(1);
+        var expected = new ArrayList<Integer>();
+        for (var i = 0; i < 500; i++) {
+            var event = i;
+            expected.add(event);
+            dispatcher.execute(OWNER, "chat", () -> events.add(event));
+        }
+        dispatcher.execute(OWNER, "chat", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(expected, events);
+    }
+
+    @Test
+    public void testKeysRunInParallel() throws InterruptedException {
+        var dispatcher = newDispatcher(WhatsAppClientDispatchPolicy.standard());
+        var blocked = new CountDownLatch(1);
+        var other = new CountDownLatch(1);
+        dispatcher.execute(OWNER, "first", () -> awaitQuietly(blocked));
+        dispatcher.execute(OWNER, "second", other::countDown);
+
+        // The second key isn't waiting for the first one
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        blocked.countDown();
+    }
+
+    @Test
+    public void testFullQueueDropsOldestEvent() throws InterruptedException {
+        var dispatcher = newDispatcher(WhatsAppClientDispatchPolicy.dropOldest(2));
+        var blocked = new CountDownLatch(1);
+        var events = new CopyOnWriteArrayList<Integer>();
+        dispatcher.execute(OWNER, "chat", () -> awaitQuietly(blocked));
+        awaitWorker(dispatcher);
+        for (var i = 0; i < 4; i++) {
+            var event = i;
+            dispatcher.execute(OWNER, "chat", () -> events.add(event));
+        }
+        blocked.countDown();
+        awaitWorker(dispatcher);
+        assertEquals(2, dispatcher.droppedEvents());
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (events.size() < 2) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals(List.of(2, 3), events);
+    }
+
+    @Test
+    public void testFullQueueSpillsEvent() throws InterruptedException {
+        var dispatcher = newDispatcher(WhatsAppClientDispatchPolicy.spill(1));
+        var blocked = new CountDownLatch(1);
+        var spilled = new CountDownLatch(1);
+        dispatcher.execute(OWNER, "chat", () -> awaitQuietly(blocked));
+        awaitWorker(dispatcher);
+        dispatcher.execute(OWNER, "chat", () -> {});
+        dispatcher.execute(OWNER, "chat", spilled::countDown);
+
+        // The spilled event runs on its own thread while the queue is still blocked
+        assertTrue(spilled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, dispatcher.spilledEvents());
+        blocked.countDown();
+    }
+
+    // Waits until the worker took the first event, so the events that follow are queued behind it
+    private static void awaitWorker(WhatsAppClientDispatcher dispatcher) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (dispatcher.queuedEvents() != 0) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static WhatsAppClientDispatcher newDispatcher(WhatsAppClientDispatchPolicy policy) {
+        return WhatsAppClient.builder()
+                .webClient(WhatsappStoreSerializer.discarding())
+                .createConnection()
+                .dispatchPolicy(policy)
+                .unregistered(_ -> {})
+                .dispatcher();
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.auties00.cobalt.test;
+
+import com.github.auties00.cobalt.client.WhatsAppClient;
+import com.github.auties00.cobalt.client.WhatsAppClientPool;
+import com.github.auties00.cobalt.store.WhatsappStoreSerializer;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WhatsAppClientPoolTests {
+    private static final Duration CONNECT_INTERVAL = Duration.ofMillis(300);
+
+    @Test
+    public void testClientsShareThePool() {
+        var serializer = WhatsappStoreSerializer.discarding();
+        var pool = WhatsAppClientPool.newPool(serializer, CONNECT_INTERVAL, 4);
+        assertSame(serializer, pool.serializer());
+        assertThrows(IllegalArgumentException.class, () -> WhatsAppClientPool.newPool(serializer, Duration.ofMillis(-1), 4));
+        assertThrows(IllegalArgumentException.class, () -> WhatsAppClientPool.newPool(serializer, CONNECT_INTERVAL, 0));
+    }
+
+    @Test
+    public void testConnectsAreSpacedOut() throws IOException, InterruptedException {
+        try (var server = new MockWhatsAppServer()) {
+            var pool = WhatsAppClientPool.newPool(WhatsappStoreSerializer.discarding(), CONNECT_INTERVAL, 4);
+            var clients = List.of(server.newClient(pool), server.newClient(pool));
+            assertEquals(clients.size(), pool.clients().size());
+            for (var client : clients) {
+                assertSame(pool, client.pool().orElseThrow());
+            }
+
+            var start = System.nanoTime();
+            pool.connectAll();
+            awaitConnections(server, clients.size());
+            var elapsed = Duration.ofNanos(System.nanoTime() - start);
+            assertTrue(elapsed.compareTo(CONNECT_INTERVAL) >= 0, "Clients connected " + elapsed.toMillis() + "ms apart");
+
+            pool.disconnectAll();
+            for (var client : clients) {
+                assertFalse(client.isConnected());
+            }
+        }
+    }
+
+    private static void awaitConnections(MockWhatsAppServer server, int count) throws InterruptedException {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.connections() < count) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new AssertionError("Expected " + count + " connections, but only " + server.connections() + " were made");
+            }
+            Thread.sleep(5);
+        }
+    }
+}